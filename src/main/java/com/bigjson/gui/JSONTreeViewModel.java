@@ -13,6 +13,10 @@ import com.bigjson.parser.JSONNode;
 
 public class JSONTreeViewModel {
 	static int stringDisplayLength = 100;
+	/**
+	 * estimated number of bytes of loaded children to keep in memory
+	 */
+	static long childListCacheWeight = 64L << 20;
 	
 	private DefaultTreeModel treeModel;
 	private JSONLoader loader;	 
@@ -21,6 +25,7 @@ public class JSONTreeViewModel {
 		// create a loader for a given file
 		try {
 			loader = new JSONLoader(file, stringDisplayLength);
+			loader.useChildListCache(childListCacheWeight);
 			long t1 = System.currentTimeMillis();
 			JSONTreeNode rootNode = new JSONTreeNode(validate ? loader.getRootAndValidate() : loader.getRoot());
 			System.out.println("Load root and children: " + (System.currentTimeMillis() - t1) / 1000 + " s");
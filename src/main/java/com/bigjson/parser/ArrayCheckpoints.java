@@ -0,0 +1,55 @@
+package com.bigjson.parser;
+
+/**
+ * A sparse table of file positions of elements of an array: the position of
+ * every {@value #STEP}-th element is saved, so to get to any element at most
+ * {@value #STEP} - 1 elements should be skipped starting from the closest
+ * saved position.
+ *
+ * @author nikanka
+ *
+ */
+class ArrayCheckpoints {
+	static final int STEP = 1024;
+
+	private final long[] positions;
+	private final long size;
+
+	/**
+	 * @param positions
+	 *            file positions of the first bytes of elements 0, STEP, 2 *
+	 *            STEP and so on
+	 * @param size
+	 *            number of elements in the array
+	 */
+	ArrayCheckpoints(long[] positions, long size) {
+		this.positions = positions;
+		this.size = size;
+	}
+
+	/**
+	 * @return number of elements in the array
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @return index of the closest element before the element
+	 *         <code>index</code> (or this element itself) which position is
+	 *         saved
+	 */
+	static long getCheckpointIndex(long index) {
+		return index - index % STEP;
+	}
+
+	/**
+	 * @param index
+	 *            index of the element, should be a multiple of {@value #STEP}
+	 *            and smaller than the size of the array
+	 * @return file position of the first byte of the element
+	 */
+	long getPosition(long index) {
+		return positions[(int) (index / STEP)];
+	}
+}
@@ -0,0 +1,276 @@
+package com.bigjson.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An asynchronous facade of a {@link ConcurrentJSONLoader}: every operation
+ * is run by an executor and its result is returned as a
+ * {@link CompletableFuture}, so that the calling thread is not blocked while
+ * a big source is read. <br>
+ * If an operation fails, its future is completed exceptionally with the
+ * thrown exception (e.g. {@link IOException} or
+ * {@link IllegalFormatException}). Cancelling a future before its operation
+ * is started prevents the operation from being run. <br>
+ * By default the operations are run by virtual threads (a thread per
+ * operation) if they are available (Java 21+) or by a shared pool of daemon
+ * threads otherwise (see {@link #getDefaultExecutor()}).
+ *
+ * @author nikanka
+ *
+ */
+public class AsyncJSONLoader implements Closeable {
+	private static volatile Executor defaultExecutor = null;
+
+	private final ConcurrentJSONLoader loader;
+	private final Executor executor;
+
+	/**
+	 * Create a facade that runs operations with the default executor (see
+	 * {@link #getDefaultExecutor()}).
+	 *
+	 * @param loader
+	 *            the loader to run operations of. It is closed when the
+	 *            facade is closed
+	 */
+	public AsyncJSONLoader(ConcurrentJSONLoader loader) {
+		this(loader, getDefaultExecutor());
+	}
+
+	/**
+	 * @param loader
+	 *            the loader to run operations of. It is closed when the
+	 *            facade is closed
+	 * @param executor
+	 *            executor to run operations
+	 */
+	public AsyncJSONLoader(ConcurrentJSONLoader loader, Executor executor) {
+		if (loader == null || executor == null) {
+			throw new NullPointerException("Loader and executor should not be null");
+		}
+		this.loader = loader;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return an executor that starts a virtual thread per operation if
+	 *         virtual threads are supported (Java 21+), and a pool of daemon
+	 *         threads that are created when needed and stopped after a minute
+	 *         without work otherwise
+	 */
+	public static Executor getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			synchronized (AsyncJSONLoader.class) {
+				if (defaultExecutor == null) {
+					Executor executor = createVirtualThreadExecutor();
+					if (executor == null) {
+						executor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+					}
+					defaultExecutor = executor;
+				}
+			}
+		}
+		return defaultExecutor;
+	}
+
+	/**
+	 * @return an executor that starts a virtual thread per task or null if
+	 *         they are not supported by the JVM
+	 */
+	private static Executor createVirtualThreadExecutor() {
+		try {
+			// compiled for Java 8, so the method is looked up at runtime
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	public ConcurrentJSONLoader getLoader() {
+		return loader;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Close the loader. Operations that are running or waiting for the
+	 * executor will fail.
+	 */
+	@Override
+	public void close() throws IOException {
+		loader.close();
+	}
+
+	/**
+	 * An operation of the loader
+	 */
+	private interface Operation<T> {
+		T run() throws IOException, IllegalFormatException;
+	}
+
+	private <T> CompletableFuture<T> submit(final Operation<T> operation) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (future.isDone()) {
+						// cancelled before it is started
+						return;
+					}
+					try {
+						future.complete(operation.run());
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * @see ConcurrentJSONLoader#getRoot()
+	 */
+	public CompletableFuture<JSONNode> getRoot() {
+		return submit(new Operation<JSONNode>() {
+			@Override
+			public JSONNode run() throws IOException, IllegalFormatException {
+				return loader.getRoot();
+			}
+		});
+	}
+
+	/**
+	 * @see ConcurrentJSONLoader#getRootAndValidate()
+	 */
+	public CompletableFuture<JSONNode> getRootAndValidate() {
+		return submit(new Operation<JSONNode>() {
+			@Override
+			public JSONNode run() throws IOException, IllegalFormatException {
+				return loader.getRootAndValidate();
+			}
+		});
+	}
+
+	/**
+	 * @see ConcurrentJSONLoader#loadChildren(JSONNode)
+	 */
+	public CompletableFuture<List<JSONNode>> loadChildren(final JSONNode node) {
+		return submit(new Operation<List<JSONNode>>() {
+			@Override
+			public List<JSONNode> run() throws IOException, IllegalFormatException {
+				return loader.loadChildren(node);
+			}
+		});
+	}
+
+	/**
+	 * @see ConcurrentJSONLoader#loadChildren(JSONNode, long, int)
+	 */
+	public CompletableFuture<List<JSONNode>> loadChildren(final JSONNode node, final long offset, final int limit) {
+		return submit(new Operation<List<JSONNode>>() {
+			@Override
+			public List<JSONNode> run() throws IOException, IllegalFormatException {
+				return loader.loadChildren(node, offset, limit);
+			}
+		});
+	}
+
+	/**
+	 * @see ConcurrentJSONLoader#resolvePointer(String)
+	 */
+	public CompletableFuture<JSONNode> resolvePointer(final String pointer) {
+		return submit(new Operation<JSONNode>() {
+			@Override
+			public JSONNode run() throws IOException, IllegalFormatException {
+				return loader.resolvePointer(pointer);
+			}
+		});
+	}
+
+	/**
+	 * @return a future of an {@link IllegalFormatException} describing a
+	 *         problem with the node format or null if the node is valid
+	 * @see ConcurrentJSONLoader#validateNode(JSONNode)
+	 */
+	public CompletableFuture<IllegalFormatException> validateNode(final JSONNode node) {
+		return submit(new Operation<IllegalFormatException>() {
+			@Override
+			public IllegalFormatException run() throws IOException, IllegalFormatException {
+				return loader.validateNode(node);
+			}
+		});
+	}
+
+	/**
+	 * @see ConcurrentJSONLoader#loadNodeWithFullString(JSONNode)
+	 */
+	public CompletableFuture<JSONNode> loadNodeWithFullString(final JSONNode node) {
+		return submit(new Operation<JSONNode>() {
+			@Override
+			public JSONNode run() throws IOException, IllegalFormatException {
+				return loader.loadNodeWithFullString(node);
+			}
+		});
+	}
+
+	/**
+	 * @see ConcurrentJSONLoader#loadFullString(long, long)
+	 */
+	public CompletableFuture<String> loadFullString(final long openingQuotePos, final long closingQuotePos) {
+		return submit(new Operation<String>() {
+			@Override
+			public String run() throws IOException, IllegalFormatException {
+				return loader.loadFullString(openingQuotePos, closingQuotePos);
+			}
+		});
+	}
+
+	/**
+	 * Search for the next match of a search created by the loader (see
+	 * {@link ConcurrentJSONLoader#createNewSearch(String, long, long, boolean, boolean)}).
+	 * The search should not be continued until the future is completed.
+	 *
+	 * @return a future of true if the next match has been found, false
+	 *         otherwise
+	 * @see ConcurrentJSONLoader#findNextMatch(StringSearchInfo)
+	 */
+	public CompletableFuture<Boolean> findNextMatch(final StringSearchInfo searchInfo) {
+		return submit(new Operation<Boolean>() {
+			@Override
+			public Boolean run() throws IOException, IllegalFormatException {
+				return loader.findNextMatch(searchInfo);
+			}
+		});
+	}
+
+	/**
+	 * Creates daemon threads, so that the default pool does not prevent the
+	 * JVM from exiting
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNum = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "AsyncJSONLoader-" + threadNum.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.bigjson.parser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A source of bytes that are already in memory: in a byte array or in a (heap
+ * or direct) {@link ByteBuffer}. The bytes are not copied: the reader uses
+ * views of the buffer directly.
+ * 
+ * @author nikanka
+ *
+ */
+public class ByteBufferByteSource implements ByteSource {
+	private final ByteBuffer buffer;
+	private final String name;
+
+	/**
+	 * Create a source for the bytes between the position and the limit of a
+	 * given buffer. Changing the position or the limit of <code>buffer</code>
+	 * afterwards does not affect the source, but the bytes should not be
+	 * changed while the source is used.
+	 * 
+	 * @param buffer
+	 */
+	public ByteBufferByteSource(ByteBuffer buffer) {
+		this(buffer, "in-memory buffer");
+	}
+
+	/**
+	 * @param buffer
+	 * @param name
+	 *            a description of the buffer to be used in messages
+	 */
+	public ByteBufferByteSource(ByteBuffer buffer, String name) {
+		this.buffer = buffer.slice().asReadOnlyBuffer();
+		this.name = name;
+	}
+
+	public ByteBufferByteSource(byte[] bytes) {
+		this(ByteBuffer.wrap(bytes));
+	}
+
+	@Override
+	public int read(long pos, ByteBuffer dst) {
+		ByteBuffer view = getView(pos);
+		if (view == null) {
+			return -1;
+		}
+		int n = Math.min(view.remaining(), dst.remaining());
+		view.limit(view.position() + n);
+		dst.put(view);
+		return n;
+	}
+
+	@Override
+	public ByteBuffer getView(long pos) {
+		if (pos >= buffer.limit()) {
+			return null;
+		}
+		ByteBuffer view = buffer.duplicate();
+		view.position((int) pos);
+		return view;
+	}
+
+	@Override
+	public boolean providesViews() {
+		return true;
+	}
+
+	@Override
+	public long size() {
+		return buffer.limit();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
@@ -0,0 +1,211 @@
+package com.bigjson.parser;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton that finds several byte patterns (see
+ * {@link BytePatternMatcher}) in a stream of bytes that are pushed one by one,
+ * so that a single transition per byte covers all of the patterns. <br>
+ * Bytes are mapped to classes first: every byte that occurs in the patterns
+ * has its own class and all other bytes share class 0, so the transition
+ * table has <code>states * classes</code> entries instead of
+ * <code>states * 256</code>. <br>
+ * Like {@link BytePatternMatcher}, a match can not start inside of an escape
+ * sequence of a string, so the escape flags of the last
+ * <code>getMaxLength()</code> bytes are kept in a ring buffer.
+ *
+ * @author nikanka
+ *
+ */
+class BytePatternAutomaton {
+	private final BytePatternMatcher[] patterns;
+	/**
+	 * Class of every byte value
+	 */
+	private final int[] byteClasses = new int[256];
+	private final int classNum;
+	/**
+	 * <code>transitions[state * classNum + byteClass]</code> is the next state
+	 */
+	private final int[] transitions;
+	/**
+	 * Index of the longest pattern ending in a state or -1
+	 */
+	private final int[] statePatterns;
+	/**
+	 * Index of the next pattern equal to a pattern or -1
+	 */
+	private final int[] equalPatterns;
+	/**
+	 * The closest state with a pattern, that is a proper suffix of a state, or
+	 * -1
+	 */
+	private final int[] outputLinks;
+	private final int maxLength;
+	private final boolean[] escaped;
+	private int state = 0;
+	/**
+	 * Number of bytes pushed since the last reset
+	 */
+	private long bytesNum = 0;
+	/**
+	 * Indices of the patterns matched by the last pushed byte
+	 */
+	private final int[] matches;
+	private int matchNum = 0;
+
+	/**
+	 * @param patterns
+	 *            patterns to search (non-empty)
+	 */
+	BytePatternAutomaton(List<BytePatternMatcher> patterns) {
+		this.patterns = patterns.toArray(new BytePatternMatcher[patterns.size()]);
+		int max = 0;
+		int classes = 1;
+		for (BytePatternMatcher pattern : this.patterns) {
+			byte[] bytes = pattern.getTargetBytes();
+			max = Math.max(max, bytes.length);
+			for (byte b : bytes) {
+				if (byteClasses[b & 0xFF] == 0) {
+					byteClasses[b & 0xFF] = classes++;
+				}
+			}
+		}
+		this.classNum = classes;
+		this.maxLength = max;
+		this.escaped = new boolean[max];
+		this.matches = new int[this.patterns.length];
+		this.equalPatterns = new int[this.patterns.length];
+		Arrays.fill(equalPatterns, -1);
+
+		// build the trie
+		int maxStates = 1;
+		for (BytePatternMatcher pattern : this.patterns) {
+			maxStates += pattern.length();
+		}
+		int[] trie = new int[maxStates * classNum];
+		Arrays.fill(trie, -1);
+		int[] patternInd = new int[maxStates];
+		Arrays.fill(patternInd, -1);
+		int stateNum = 1;
+		for (int i = 0; i < this.patterns.length; i++) {
+			int s = 0;
+			for (byte b : this.patterns[i].getTargetBytes()) {
+				int ind = s * classNum + byteClasses[b & 0xFF];
+				if (trie[ind] < 0) {
+					trie[ind] = stateNum++;
+				}
+				s = trie[ind];
+			}
+			if (patternInd[s] < 0) {
+				patternInd[s] = i;
+			} else {
+				int last = patternInd[s];
+				while (equalPatterns[last] >= 0) {
+					last = equalPatterns[last];
+				}
+				equalPatterns[last] = i;
+			}
+		}
+		this.transitions = Arrays.copyOf(trie, stateNum * classNum);
+		this.statePatterns = Arrays.copyOf(patternInd, stateNum);
+		this.outputLinks = new int[stateNum];
+
+		// turn the trie into an automaton going through the states breadth-first
+		int[] failLinks = new int[stateNum];
+		int[] queue = new int[stateNum];
+		int head = 0;
+		int tail = 0;
+		outputLinks[0] = -1;
+		for (int c = 0; c < classNum; c++) {
+			int next = transitions[c];
+			if (next < 0) {
+				transitions[c] = 0;
+			} else {
+				failLinks[next] = 0;
+				outputLinks[next] = -1;
+				queue[tail++] = next;
+			}
+		}
+		while (head < tail) {
+			int s = queue[head++];
+			for (int c = 0; c < classNum; c++) {
+				int ind = s * classNum + c;
+				int next = transitions[ind];
+				int fallback = transitions[failLinks[s] * classNum + c];
+				if (next < 0) {
+					transitions[ind] = fallback;
+				} else {
+					failLinks[next] = fallback;
+					outputLinks[next] = statePatterns[fallback] >= 0 ? fallback : outputLinks[fallback];
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The length of the longest pattern
+	 */
+	int getMaxLength() {
+		return maxLength;
+	}
+
+	BytePatternMatcher getPattern(int ind) {
+		return patterns[ind];
+	}
+
+	int getPatternNum() {
+		return patterns.length;
+	}
+
+	/**
+	 * Push the next byte.
+	 *
+	 * @param b
+	 * @param isEscaped
+	 *            if the byte is inside of an escape sequence of a string
+	 * @return number of patterns that end with this byte and do not start
+	 *         inside of an escape sequence (see {@link #getMatch(int)})
+	 */
+	int addNewByte(byte b, boolean isEscaped) {
+		escaped[(int) (bytesNum % maxLength)] = isEscaped;
+		bytesNum++;
+		state = transitions[state * classNum + byteClasses[b & 0xFF]];
+		matchNum = 0;
+		int s = statePatterns[state] >= 0 ? state : outputLinks[state];
+		while (s >= 0) {
+			int ind = statePatterns[s];
+			long start = bytesNum - patterns[ind].length();
+			if (!escaped[(int) (start % maxLength)]) {
+				for (; ind >= 0; ind = equalPatterns[ind]) {
+					matches[matchNum++] = ind;
+				}
+			}
+			s = outputLinks[s];
+		}
+		return matchNum;
+	}
+
+	/**
+	 * @param i
+	 *            index of a match of the last pushed byte (less than the number
+	 *            returned by {@link #addNewByte(byte, boolean)}), matches go
+	 *            from the longest pattern to the shortest one, equal patterns
+	 *            go in the order they were given
+	 * @return index of the matched pattern
+	 */
+	int getMatch(int i) {
+		return matches[i];
+	}
+
+	/**
+	 * Forget the pushed bytes, e.g. at the end of a token or after a match.
+	 */
+	void reset() {
+		state = 0;
+		bytesNum = 0;
+		matchNum = 0;
+	}
+}
@@ -6,26 +6,47 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
+/**
+ * Finds a pattern in a stream of bytes that are pushed one by one (see
+ * {@link JSONSearch}). The last <code>length()</code> bytes are kept in a
+ * ring buffer and compared with the pattern using Boyer-Moore-Horspool
+ * shifts: after a mismatch the pattern can not end within the next
+ * <code>shift - 1</code> bytes, so they are only stored in the buffer, not
+ * compared. <br>
+ * A match can not start inside of an escape sequence of a string, so for
+ * every byte in the buffer it is also kept whether it was escaped. <br>
+ * If the search is not case-sensitive, the pattern is lower-cased, while
+ * the pushed bytes are compared as they are.
+ */
 class BytePatternMatcher {
 	private static final boolean DEBUG = false;
 	private byte[] targetBytes;
-	private int targetHash = 0;
-	// TODO: use a different class for singly linked list? The own one?
-	private LinkedList<Byte> curBytes;
-	private int curHash = 0;
-	private int base = 256;
-	private int modulus = 101;
-	private int leftBaseOffset = 1;
-	private boolean caseSensitive;
 	/**
-	 * String reading state machine for the tail of the scanning window, it
-	 * contains the state of the first (left-most byte) of the window
+	 * Horspool shifts: for every byte value, the distance from its last
+	 * occurrence in the pattern (excluding the last byte) to the end of the
+	 * pattern, or the pattern length if it does not occur
+	 */
+	private int[] shifts = new int[256];
+	/**
+	 * The last bytes pushed
+	 */
+	private byte[] window;
+	/**
+	 * If the corresponding byte of the window is inside of an escape sequence
+	 */
+	private boolean[] escaped;
+	/**
+	 * Index of the first (the oldest) byte of the window
 	 */
-	private StringReadingStateMachine startStateMachine;
-	// private boolean startIsInString;
+	private int windowStart = 0;
+	private int windowSize = 0;
+	/**
+	 * How many next bytes can not be the last byte of a match
+	 */
+	private int bytesToSkip = 0;
+	private boolean caseSensitive;
 
 	public static void main(String[] args) throws IOException {
 		try (JSONSearch search = new JSONSearch(new File("testFiles", "test.txt"))) {
@@ -59,21 +80,16 @@ class BytePatternMatcher {
 				targetBytes[i] = toLowerCase(targetBytes[i]);
 			}
 		}
-		for (byte b : targetBytes) {
-			targetHash = addByteToHash(targetHash, b);
-		}
-		calculateOffset();
-		this.curBytes = new LinkedList<Byte>();
-		this.startStateMachine = new StringReadingStateMachine(StringReadingStateMachine.MODE_CHECK_ASCII);
-		// startIsInString = false;
+		calculateShifts();
+		window = new byte[targetBytes.length];
+		escaped = new boolean[targetBytes.length];
 	}
 
-	private void calculateOffset() {
-		leftBaseOffset = 1;
-		// [base^(length-1)]%modulus
-		for (int i = 1; i < targetBytes.length; i++) {
-			// do it in a loop like this to avoid integer overflow
-			leftBaseOffset = (leftBaseOffset * base) % modulus;
+	private void calculateShifts() {
+		int len = targetBytes.length;
+		Arrays.fill(shifts, len);
+		for (int i = 0; i < len - 1; i++) {
+			shifts[byteToInt(targetBytes[i])] = len - 1 - i;
 		}
 	}
 
@@ -93,99 +109,67 @@ class BytePatternMatcher {
 	/**
 	 * 
 	 * @param b
-	 * @return true if after adding the byte the substring matches the pattern
+	 * @param isEscaped
+	 *            if the byte is inside of an escape sequence of a string (i.e.
+	 *            it follows a backslash or is a part of a <code>\\uhhhh</code> sequence)
+	 * @return true if after adding the byte the last bytes match the pattern
 	 */
-	boolean addNewByteAndCompare(byte b, boolean isInString) throws IllegalFormatException {
-		if (curBytes.size() < targetBytes.length) {
-			// the substring is too short -> append a new byte
-			curHash = addByteToHash(curHash, b);
-			addByteToCurBytes(b);
-			// if substring is still too short enough -> no match here
-			if (curBytes.size() < targetBytes.length) {
+	boolean addNewByteAndCompare(byte b, boolean isEscaped) {
+		int len = targetBytes.length;
+		if (windowSize < len) {
+			// the window is too short -> append a new byte
+			int ind = windowStart + windowSize;
+			window[ind] = b;
+			escaped[ind] = isEscaped;
+			windowSize++;
+			// if the window is still too short -> no match here
+			if (windowSize < len) {
 				return false;
 			}
 		} else {
-			// substring is of pattern length -> need to shift/roll it
-			rollHash(b, isInString);
+			// the window is full -> the new byte replaces the oldest one
+			window[windowStart] = b;
+			escaped[windowStart] = isEscaped;
+			windowStart = windowStart + 1 == len ? 0 : windowStart + 1;
 		}
-		// now compare the pattern and the new substring
-		if (curHash == targetHash && !startStateMachine.isInEscapedSequence()) {
-			return compareBytes();
+		if (bytesToSkip > 0) {
+			bytesToSkip--;
+			return false;
 		}
-		return false;
-	}
-
-	private void addByteToCurBytes(byte b) {
-		if (!caseSensitive) {
-			b = toLowerCase(b);
+		if (b == targetBytes[len - 1] && !escaped[windowStart] && compareBytes()) {
+			return true;
 		}
-		curBytes.add(b);
+		bytesToSkip = shifts[byteToInt(b)] - 1;
+		return false;
 	}
 
+	/**
+	 * Compare the window with the pattern from right to left (the last bytes
+	 * are already equal)
+	 */
 	private boolean compareBytes() {
-		int ind = 0;
-		for (Byte observed : curBytes) {
-			if (observed != targetBytes[ind]) {
+		int len = targetBytes.length;
+		for (int i = len - 2; i >= 0; i--) {
+			int ind = windowStart + i;
+			if (ind >= len) {
+				ind -= len;
+			}
+			if (window[ind] != targetBytes[i]) {
 				return false;
 			}
-			ind++;
 		}
 		return true;
 	}
 
 	/**
-	 * Clear the observed bytes and hash value. If endOfToken is true, also
-	 * reset the start state.<br>
-	 * If the reset is called because a match was found, the start state is not
-	 * reset in order to start the next search properly (makes sense if we are
-	 * in a string/name token)
+	 * Clear the observed bytes, e.g. at the end of a token (a match can not
+	 * span several tokens) or when a match was found (matches do not
+	 * overlap).
 	 */
-	void reset(boolean endOfTocken) {
-		curBytes.clear();
-		curHash = 0;
-		if (endOfTocken) {
-			startStateMachine.reset();
-		}
-	}
-
-	/**
-	 * Update curHash and curBytes with newByte
-	 * 
-	 * @param newByte
-	 */
-	private void rollHash(byte newByte, boolean isInString) throws IllegalFormatException {
-		// remove the first byte and update the start state
-		byte passedByte = curBytes.removeFirst();
-		// if(passedByte == '"' && !startIsInString){
-		// startIsInString = true;
-		// }
-		// if(startIsInString){
-		// if(passedByte == '"' && !startStateMachine.isInEscapedSequence()){
-		// startIsInString = false;
-		// } else {
-		// isInString shows is the head (newly observed) byte is in string
-		// but as the pattern cannot span across the tokens, if the head is in
-		// string
-		// then the tail (last byte) should be in the same string
-		if (isInString) {
-			startStateMachine.pushByte(passedByte);
-		}
-		if(DEBUG){
-			System.out.println("Roll (len=" + length() + "): " + (char) passedByte + " >> " + (char) newByte + "(inStr = "
-				+ isInString + ", escaped = " + startStateMachine.isInEscapedSequence() + ")");
-		}
-		// }
-		// }
-		// subtract the number for the first byte in previous window
-		curHash = curHash + modulus - (byteToInt(passedByte) * leftBaseOffset) % modulus;
-		// add new byte
-		curHash = addByteToHash(curHash, newByte);
-		// curBytes.add(newByte);
-		addByteToCurBytes(newByte);
-	}
-
-	private int addByteToHash(int hash, byte b) {
-		return (hash * base + byteToInt(b)) % modulus;
+	void reset() {
+		windowStart = 0;
+		windowSize = 0;
+		bytesToSkip = 0;
 	}
 
 	private static int byteToInt(byte b) {
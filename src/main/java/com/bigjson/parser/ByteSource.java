@@ -0,0 +1,86 @@
+package com.bigjson.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source of bytes of a JSON text with random (positional) access. The
+ * parser, the search and the loader read bytes only via this interface, so the
+ * text can be stored in a file, a memory-mapped file or a buffer in memory.<br>
+ * <br>
+ * Positional reads do not change any state of a source, so implementations
+ * should allow several readers to read from one source concurrently.
+ * 
+ * @author nikanka
+ *
+ */
+public interface ByteSource extends Closeable {
+
+	/**
+	 * Read bytes starting at position <code>pos</code> into <code>dst</code>
+	 * (from its current position up to its limit). The position of
+	 * <code>dst</code> is moved by the number of bytes read.
+	 * 
+	 * @param pos
+	 *            position of the first byte to read
+	 * @param dst
+	 *            buffer to read bytes into
+	 * @return number of bytes read (at least one if <code>dst</code> has
+	 *         space left) or -1 if <code>pos</code> is not smaller than the
+	 *         size of the source
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public int read(long pos, ByteBuffer dst) throws IOException;
+
+	/**
+	 * @return the number of bytes in this source
+	 */
+	public long size();
+
+	/**
+	 * @return a description of this source to be used in messages (e.g. a file
+	 *         path)
+	 */
+	public String getName();
+
+	/**
+	 * @return the file this source reads from, or null if it does not read from
+	 *         a file
+	 */
+	public default File getFile() {
+		return null;
+	}
+
+	/**
+	 * Return a read-only view of the bytes of this source which position
+	 * corresponds to the position <code>pos</code>, if the source can provide
+	 * its bytes without copying them (e.g. it is a buffer in memory or a
+	 * memory-mapped file). The bytes between the start of the view and its
+	 * position belong to the source as well, so moving backwards within the
+	 * view is allowed.
+	 * 
+	 * @param pos
+	 *            position in this source
+	 * @return a view of the bytes around <code>pos</code> or null if
+	 *         <code>pos</code> is not smaller than the size of the source
+	 * @throws UnsupportedOperationException
+	 *             if this source does not provide views
+	 *             ({@link #providesViews()} is false)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public default ByteBuffer getView(long pos) throws IOException {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not provide views of its bytes");
+	}
+
+	/**
+	 * @return true if this source can provide views of its bytes without
+	 *         copying them (see {@link #getView(long)})
+	 */
+	public default boolean providesViews() {
+		return false;
+	}
+}
@@ -0,0 +1,25 @@
+package com.bigjson.parser;
+
+/**
+ * Allows to stop long operations of a reader from another thread (see
+ * {@link UTF8FileReader#setCancellationToken(CancellationToken)}). The token
+ * is checked every time the reader loads new bytes, so an operation stops
+ * shortly after {@link #cancel()} is called by throwing an
+ * {@link OperationCancelledException}. <br>
+ * A cancelled token stays cancelled: a new token should be set to run other
+ * operations.
+ * 
+ * @author nikanka
+ *
+ */
+public class CancellationToken {
+	private volatile boolean cancelled = false;
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -0,0 +1,103 @@
+package com.bigjson.parser;
+
+/**
+ * Position within the list of children of an array or an object, allowing to
+ * load the children page by page (see
+ * {@link JSONLoader#loadNextChildren(ChildCursor, int)}). The cursor
+ * remembers the file position after the last loaded child, so loading the
+ * next page continues from there rather than from the opening bracket.
+ *
+ * @author nikanka
+ *
+ */
+public class ChildCursor {
+	private final long containerFilePos;
+	private final boolean isArray;
+	/**
+	 * index of the next child to load
+	 */
+	private long nextIndex = 0;
+	/**
+	 * file position to continue reading from
+	 */
+	private long nextFilePos;
+	/**
+	 * if <code>nextFilePos</code> is the first byte of the next child, rather
+	 * than the byte after the previous one (or after the opening bracket)
+	 */
+	private boolean atChildStart = false;
+	private boolean isFinished = false;
+
+	/**
+	 * @param containerFilePos
+	 *            position of an opening bracket of an array or an object
+	 * @param isArray
+	 */
+	ChildCursor(long containerFilePos, boolean isArray) {
+		this.containerFilePos = containerFilePos;
+		this.isArray = isArray;
+		this.nextFilePos = containerFilePos + 1;
+	}
+
+	/**
+	 * @return position of the opening bracket of the array or object
+	 */
+	public long getContainerFilePosition() {
+		return containerFilePos;
+	}
+
+	public boolean isArray() {
+		return isArray;
+	}
+
+	/**
+	 * @return index of the child that will be loaded next
+	 */
+	public long getNextIndex() {
+		return nextIndex;
+	}
+
+	/**
+	 * @return true if all the children have been loaded or skipped
+	 */
+	public boolean isFinished() {
+		return isFinished;
+	}
+
+	long getNextFilePosition() {
+		return nextFilePos;
+	}
+
+	boolean isAtChildStart() {
+		return atChildStart;
+	}
+
+	/**
+	 * Move the cursor to the byte following the child that has just been
+	 * read.
+	 */
+	void moveAfterChild(long filePos) {
+		nextFilePos = filePos;
+		nextIndex++;
+		atChildStart = false;
+	}
+
+	/**
+	 * Move the cursor to the first byte of a child with a given index.
+	 */
+	void moveToChildStart(long filePos, long index) {
+		nextFilePos = filePos;
+		nextIndex = index;
+		atChildStart = true;
+	}
+
+	void finish() {
+		isFinished = true;
+	}
+
+	@Override
+	public String toString() {
+		return (isArray ? "Array" : "Object") + " at pos " + containerFilePos + ": next child " + nextIndex
+				+ " at pos " + nextFilePos + (isFinished ? " (finished)" : "");
+	}
+}
@@ -0,0 +1,243 @@
+package com.bigjson.parser;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A size-bounded LRU cache of loaded child lists keyed by the value file
+ * position of their container (see {@link JSONLoader#useChildListCache(long)}).
+ * <br>
+ * The size of the cache is measured by the estimated number of bytes the
+ * cached nodes take (see {@link #estimateWeight(List)}): when it exceeds the
+ * maximum weight, the least recently used lists are evicted. The lists are
+ * kept via soft references, so that they can also be collected by the
+ * garbage collector under memory pressure. <br>
+ * The cache is thread-safe.
+ *
+ * @author nikanka
+ *
+ */
+public final class ChildListCache {
+	private static final boolean DEBUG = false;
+	/**
+	 * Estimated size of a list with no elements
+	 */
+	private static final int LIST_BYTES = 40;
+	/**
+	 * Estimated size of a node without its name and value
+	 */
+	private static final int NODE_BYTES = 64;
+	/**
+	 * Estimated size of a String (or a {@link LazyJSONString}) without its
+	 * chars
+	 */
+	private static final int STRING_BYTES = 48;
+
+	private final long maxWeight;
+	private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+	private final ReferenceQueue<List<JSONNode>> collected = new ReferenceQueue<List<JSONNode>>();
+	private long weight = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+	private long collectedCount = 0;
+
+	/**
+	 * @param maxWeight
+	 *            maximum estimated number of bytes of the cached nodes
+	 */
+	public ChildListCache(long maxWeight) {
+		if (maxWeight <= 0) {
+			throw new IllegalArgumentException("Maximum weight of a cache should be positive (got " + maxWeight + ")");
+		}
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * @param containerValuePos
+	 *            value file position of an array or an object
+	 * @return the cached children of the container or null if they are not
+	 *         cached (or were collected)
+	 */
+	public synchronized List<JSONNode> get(long containerValuePos) {
+		removeCollected();
+		Entry entry = entries.get(containerValuePos);
+		List<JSONNode> children = entry == null ? null : entry.get();
+		if (children == null) {
+			if (entry != null) {
+				// collected but not enqueued yet
+				remove(entry);
+				collectedCount++;
+			}
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return children;
+	}
+
+	/**
+	 * Cache children of a container. A list heavier than the maximum weight
+	 * of the cache is not cached.
+	 *
+	 * @param containerValuePos
+	 *            value file position of an array or an object
+	 * @param children
+	 */
+	public synchronized void put(long containerValuePos, List<JSONNode> children) {
+		removeCollected();
+		long childrenWeight = estimateWeight(children);
+		Entry old = entries.get(containerValuePos);
+		if (old != null) {
+			remove(old);
+		}
+		if (childrenWeight > maxWeight) {
+			debug("Children at pos " + containerValuePos + " are too heavy to cache: " + childrenWeight);
+			return;
+		}
+		entries.put(containerValuePos, new Entry(containerValuePos, children, childrenWeight, collected));
+		weight += childrenWeight;
+		Iterator<Entry> it = entries.values().iterator();
+		while (weight > maxWeight) {
+			Entry eldest = it.next();
+			it.remove();
+			weight -= eldest.weight;
+			evictionCount++;
+			debug("Evicted children at pos " + eldest.key + " (" + eldest.weight + " bytes)");
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+		// forget the references that were collected already
+		while (collected.poll() != null) {
+		}
+	}
+
+	/**
+	 * @return number of cached lists (including the ones that were collected
+	 *         but not noticed yet)
+	 */
+	public synchronized int size() {
+		removeCollected();
+		return entries.size();
+	}
+
+	/**
+	 * @return estimated number of bytes of the cached nodes
+	 */
+	public synchronized long getWeight() {
+		removeCollected();
+		return weight;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return number of lists evicted to keep the weight of the cache within
+	 *         the maximum weight
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return number of lists collected by the garbage collector
+	 */
+	public synchronized long getCollectedCount() {
+		removeCollected();
+		return collectedCount;
+	}
+
+	/**
+	 * @return share of {@link #get(long)} calls that found the children in
+	 *         the cache, 0 if there were no calls
+	 */
+	public synchronized double getHitRate() {
+		long requestCount = hitCount + missCount;
+		return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+	}
+
+	private void removeCollected() {
+		Entry entry;
+		while ((entry = (Entry) collected.poll()) != null) {
+			// the entry may have been replaced or removed already
+			if (entries.get(entry.key) == entry) {
+				remove(entry);
+				collectedCount++;
+			}
+		}
+	}
+
+	private void remove(Entry entry) {
+		entries.remove(entry.key);
+		weight -= entry.weight;
+	}
+
+	/**
+	 * Estimate how many bytes a list of nodes takes in memory. The names and
+	 * values that are not decoded yet are counted as if they were (one char
+	 * per byte, up to the number of chars to decode), since they are usually
+	 * decoded when a list is displayed.
+	 */
+	static long estimateWeight(List<JSONNode> children) {
+		long ret = LIST_BYTES + 4L * children.size();
+		for (JSONNode child : children) {
+			ret += NODE_BYTES;
+			if (child instanceof JSONNonTreeNode) {
+				JSONNonTreeNode node = (JSONNonTreeNode) child;
+				ret += estimateWeight(node.getNameChars());
+				ret += estimateWeight(node.getValueChars());
+			}
+		}
+		return ret;
+	}
+
+	private static long estimateWeight(CharSequence chars) {
+		if (chars == null) {
+			return 0;
+		}
+		if (chars instanceof LazyJSONString && !((LazyJSONString) chars).isDecoded()) {
+			// do not decode a lazy string just to get its length
+			LazyJSONString str = (LazyJSONString) chars;
+			long length = str.getClosingQuotePosition() - str.getOpeningQuotePosition() - 1;
+			if (str.getDisplayLength() >= 0) {
+				// only the first chars of a long string are decoded
+				length = Math.min(length, str.getDisplayLength());
+			}
+			return STRING_BYTES + 2 * length;
+		}
+		return STRING_BYTES + 2L * chars.length();
+	}
+
+	private void debug(String msg) {
+		if (DEBUG) {
+			System.out.println("DEBUG: " + msg);
+		}
+	}
+
+	private static class Entry extends SoftReference<List<JSONNode>> {
+		private final long key;
+		private final long weight;
+
+		Entry(long key, List<JSONNode> children, long weight, ReferenceQueue<List<JSONNode>> queue) {
+			super(children, queue);
+			this.key = key;
+			this.weight = weight;
+		}
+	}
+}
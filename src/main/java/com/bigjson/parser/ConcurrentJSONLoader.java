@@ -0,0 +1,646 @@
+package com.bigjson.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A loader that can be shared by several threads to load different parts of
+ * the same JSON source at the same time. <br>
+ * <br>
+ * A {@link LazyJSONParser} keeps the state of its reader, so it can not be
+ * used by two threads at once. This loader keeps a pool of parsers that read
+ * from one shared {@link ByteSource} (positional reads of a source do not
+ * change its state). Every call takes an idle parser from the pool (or
+ * creates a new one if there are none), uses it and returns it to the pool,
+ * so the number of parsers is equal to the maximum number of threads that
+ * used the loader at once. <br>
+ * The lazy names and values of the returned nodes are decoded with a parser
+ * from the pool as well, so the nodes can be used by any thread. <br>
+ * The root and its children are loaded only once and shared by all the
+ * threads.
+ *
+ * @author nikanka
+ *
+ */
+public class ConcurrentJSONLoader implements Closeable {
+	private final ByteSource source;
+	/**
+	 * the source given to the parsers: closing a parser does not close it
+	 */
+	private final ByteSource sharedSource;
+	private final String topLevelName;
+	private final int stringDisplayLimit;
+	private final ConcurrentLinkedQueue<LazyJSONParser> idleParsers = new ConcurrentLinkedQueue<LazyJSONParser>();
+	private final LazyJSONString.Decoder stringDecoder = new LazyJSONString.Decoder() {
+		@Override
+		public LazyJSONParser.StringWithCoords decode(long openingQuotePos, int displayLength)
+				throws IOException, IllegalFormatException {
+			LazyJSONParser parser = borrowParser();
+			try {
+				return parser.decodeStringAtPosition(openingQuotePos, displayLength);
+			} finally {
+				returnParser(parser);
+			}
+		}
+	};
+	private volatile StructuralIndex structuralIndex = null;
+	private volatile TrigramIndex trigramIndex = null;
+	/**
+	 * Indexes replaced by other ones: other threads can still read them, so
+	 * they are closed with the loader
+	 */
+	private final List<Closeable> replacedIndexes = new ArrayList<Closeable>();
+	private volatile ChildListCache childListCache = null;
+	private volatile JSONNode root = null;
+	private volatile List<JSONNode> rootChildren = null;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a loader for a given JSON file.
+	 *
+	 * @param file
+	 * @param topLevelName
+	 *            what name should be given (for display purposes) to the
+	 *            top-level node. If topLevelName == null, the default name
+	 *            ("JSON") will be used
+	 * @param stringDisplayLimit
+	 *            how many first characters of a string to view. If
+	 *            stringDisplayLimit < 0 full strings are loaded
+	 * @param memoryMapped
+	 *            if true, the file is read via memory-mapped buffers instead of
+	 *            positional reads of a file channel
+	 * @throws IOException
+	 *             if file is not found or empty or if an I/O error occurs while
+	 *             reading bytes from the file
+	 */
+	public ConcurrentJSONLoader(File file, String topLevelName, int stringDisplayLimit, boolean memoryMapped)
+			throws IOException {
+		this(memoryMapped ? new MappedFileByteSource(file) : new FileByteSource(file), topLevelName,
+				stringDisplayLimit);
+	}
+
+	/**
+	 * Creates a loader for JSON text provided by a given source of bytes. The
+	 * source should allow concurrent positional reads (see
+	 * {@link ByteSource}) and is closed when the loader is closed.
+	 *
+	 * @param source
+	 * @param topLevelName
+	 *            what name should be given (for display purposes) to the
+	 *            top-level node. If topLevelName == null, the default name
+	 *            ("JSON") will be used
+	 * @param stringDisplayLimit
+	 *            how many first characters of a string to view. If
+	 *            stringDisplayLimit < 0 full strings are loaded
+	 * @throws IOException
+	 *             if the source is empty or if an I/O error occurs while
+	 *             reading bytes from it
+	 */
+	public ConcurrentJSONLoader(ByteSource source, String topLevelName, int stringDisplayLimit)
+			throws IOException {
+		this.source = source;
+		this.sharedSource = new SharedByteSource(source);
+		this.topLevelName = topLevelName;
+		this.stringDisplayLimit = stringDisplayLimit;
+		// check that the source is not empty
+		try {
+			returnParser(borrowParser());
+		} catch (IOException e) {
+			source.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Close the source. The loader should not be used after that.
+	 */
+	@Override
+	public void close() throws IOException {
+		idleParsers.clear();
+		if (childListCache != null) {
+			childListCache.clear();
+		}
+		synchronized (this) {
+			closed = true;
+			if (structuralIndex != null) {
+				structuralIndex.close();
+			}
+			if (trigramIndex != null) {
+				trigramIndex.close();
+			}
+			for (Closeable index : replacedIndexes) {
+				index.close();
+			}
+			replacedIndexes.clear();
+		}
+		source.close();
+	}
+
+	private LazyJSONParser borrowParser() throws IOException {
+		checkNotClosed();
+		LazyJSONParser parser = idleParsers.poll();
+		if (parser == null) {
+			parser = createParser();
+		}
+		parser.setStructuralIndex(structuralIndex);
+		return parser;
+	}
+
+	private void checkNotClosed() throws IOException {
+		if (closed) {
+			throw new IOException("The loader of " + source.getName() + " is closed");
+		}
+	}
+
+	private LazyJSONParser createParser() throws IOException {
+		LazyJSONParser parser = new LazyJSONParser(sharedSource, topLevelName, stringDisplayLimit);
+		parser.setStringDecoder(stringDecoder);
+		parser.setStructuralIndex(structuralIndex);
+		return parser;
+	}
+
+	private void returnParser(LazyJSONParser parser) {
+		// every operation of a parser starts by moving to a given position, so
+		// it can be reused even if the previous operation failed
+		if (!closed) {
+			idleParsers.offer(parser);
+		}
+	}
+
+	/**
+	 * @return number of parsers that are not used at the moment
+	 */
+	int getIdleParserNum() {
+		return idleParsers.size();
+	}
+
+	/**
+	 * Use a structural index saved in a given file to speed up loading (see
+	 * {@link JSONLoader#useStructuralIndex(File, boolean, int)}). The index is
+	 * shared by all the parsers.
+	 *
+	 * @param indexFile
+	 * @param buildIfMissing
+	 *            if true and the index file does not exist or does not match
+	 *            the loaded source, the index is built by the threads of the
+	 *            common {@link ForkJoinPool} and saved to
+	 *            <code>indexFile</code>
+	 * @param minContainerSize
+	 *            containers smaller than this number of bytes are not indexed
+	 *            when the index is built
+	 * @return true if the index is used, false if it is missing or stale and
+	 *         <code>buildIfMissing</code> is false
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if the index is being built and brackets in the source are
+	 *             not balanced
+	 */
+	public synchronized boolean useStructuralIndex(File indexFile, boolean buildIfMissing, int minContainerSize)
+			throws IOException, IllegalFormatException {
+		checkNotClosed();
+		StructuralIndex index = StructuralIndex.open(source, indexFile);
+		if (index == null && buildIfMissing) {
+			index = StructuralIndex.build(source, indexFile, minContainerSize, ForkJoinPool.commonPool());
+		}
+		// the old index can still be used by other threads, so it is closed
+		// with the loader
+		if (structuralIndex != null && structuralIndex != index) {
+			replacedIndexes.add(structuralIndex);
+		}
+		structuralIndex = index;
+		return index != null;
+	}
+
+	/**
+	 * Use a trigram index saved in a given file to speed up searches (see
+	 * {@link JSONLoader#useTrigramIndex(File, boolean, int)}). The index is
+	 * shared by all the threads.
+	 *
+	 * @param indexFile
+	 * @param buildIfMissing
+	 *            if true and the index file does not exist or does not match
+	 *            the loaded source, the index is built and saved to
+	 *            <code>indexFile</code>
+	 * @param blockSize
+	 *            size of the blocks of the index when it is built
+	 * @return true if the index is used, false if it is missing or stale and
+	 *         <code>buildIfMissing</code> is false
+	 * @throws IOException
+	 */
+	public synchronized boolean useTrigramIndex(File indexFile, boolean buildIfMissing, int blockSize)
+			throws IOException {
+		checkNotClosed();
+		TrigramIndex index = TrigramIndex.open(source, indexFile);
+		if (index == null && buildIfMissing) {
+			index = TrigramIndex.build(source, indexFile, blockSize);
+		}
+		// the old index can still be used by other threads, so it is closed
+		// with the loader
+		if (trigramIndex != null && trigramIndex != index) {
+			replacedIndexes.add(trigramIndex);
+		}
+		trigramIndex = index;
+		return index != null;
+	}
+
+	/**
+	 * Keep the children loaded by {@link #loadChildren(JSONNode)} in a
+	 * {@link ChildListCache} shared by all the threads (see
+	 * {@link JSONLoader#useChildListCache(long)}).
+	 *
+	 * @param maxWeight
+	 *            maximum estimated number of bytes of the cached nodes, 0 to
+	 *            stop caching
+	 * @return the cache (to get its statistics) or null if caching is stopped
+	 */
+	public ChildListCache useChildListCache(long maxWeight) {
+		childListCache = maxWeight > 0 ? new ChildListCache(maxWeight) : null;
+		return childListCache;
+	}
+
+	public File getFile() {
+		return source.getFile();
+	}
+
+	/**
+	 * Load the root node and its children. They are loaded once and shared by
+	 * all the threads.
+	 */
+	public JSONNode getRoot() throws IOException, IllegalFormatException {
+		if (root == null) {
+			synchronized (this) {
+				if (root == null) {
+					LazyJSONParser parser = borrowParser();
+					try {
+						JSONNode node = parser.getRoot(false);
+						rootChildren = parser.getRootChildren();
+						root = node;
+					} finally {
+						returnParser(parser);
+					}
+				}
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * Load the root node and its children validating the whole source (see
+	 * {@link JSONLoader#getRootAndValidate()}). The loaded root replaces the
+	 * one loaded before.
+	 *
+	 * @throws IllegalFormatException
+	 *             if the source is not a valid JSON text
+	 */
+	public JSONNode getRootAndValidate() throws IOException, IllegalFormatException {
+		checkNotClosed();
+		// a parser from the pool may have loaded the root without validation,
+		// so a new one is used; it is not returned to the pool so that the
+		// pool does not grow with every call
+		LazyJSONParser parser = createParser();
+		JSONNode node = parser.getRoot(true);
+		synchronized (this) {
+			rootChildren = parser.getRootChildren();
+			root = node;
+		}
+		return node;
+	}
+
+	/**
+	 * Load children of a given node (see {@link JSONLoader#loadChildren(JSONNode)}).
+	 *
+	 * @param node
+	 * @return a list of children of a given node if it is not null and not a
+	 *         leaf
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 */
+	public List<JSONNode> loadChildren(JSONNode node) throws IOException, IllegalFormatException {
+		if (node == null || node.isLeaf()) {
+			return null;
+		}
+		if (node.getStartFilePosition() == getRoot().getStartFilePosition()) {
+			// the list is shared by all the threads
+			return Collections.unmodifiableList(rootChildren);
+		}
+		ChildListCache cache = childListCache;
+		List<JSONNode> children = cache == null ? null : cache.get(node.getValueFilePosition());
+		if (children == null) {
+			LazyJSONParser parser = borrowParser();
+			try {
+				children = parser.loadChildrenAtPosition(node.getValueFilePosition());
+			} finally {
+				returnParser(parser);
+			}
+			if (cache != null) {
+				// the cached list is shared by the callers
+				children = Collections.unmodifiableList(children);
+				cache.put(node.getValueFilePosition(), children);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Load only those children of an object which names are in a projection
+	 * (see {@link JSONLoader#loadChildren(JSONNode, JSONProjection)}).
+	 */
+	public List<JSONNode> loadChildren(JSONNode node, JSONProjection projection)
+			throws IOException, IllegalFormatException {
+		if (node == null || node.isLeaf()) {
+			return null;
+		}
+		LazyJSONParser parser = borrowParser();
+		try {
+			return parser.loadChildrenAtPosition(node.getValueFilePosition(), projection);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Load a page of children of a given node (see
+	 * {@link JSONLoader#loadChildren(JSONNode, long, int)}).
+	 */
+	public List<JSONNode> loadChildren(JSONNode node, long offset, int limit)
+			throws IOException, IllegalFormatException {
+		if (node == null || node.isLeaf()) {
+			return null;
+		}
+		LazyJSONParser parser = borrowParser();
+		try {
+			ChildCursor cursor = parser.createChildCursorAtPosition(node.getValueFilePosition());
+			parser.skipChildren(cursor, offset);
+			return parser.loadNextChildren(cursor, limit);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Count children of a given node without loading them (see
+	 * {@link JSONLoader#countChildren(JSONNode)}). The counts are cached per
+	 * parser.
+	 */
+	public long countChildren(JSONNode node) throws IOException, IllegalFormatException {
+		if (node == null || node.isLeaf()) {
+			return 0;
+		}
+		LazyJSONParser parser = borrowParser();
+		try {
+			return parser.countChildrenAtPosition(node.getValueFilePosition());
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Load a range of elements of a given array (see
+	 * {@link JSONLoader#getArrayElements(JSONNode, long, int)}).
+	 */
+	public List<JSONNode> getArrayElements(JSONNode array, long fromIndex, int count)
+			throws IOException, IllegalFormatException {
+		if (array == null || array.getType() != JSONNode.TYPE_ARRAY) {
+			throw new IllegalArgumentException("The node is not an array: " + array);
+		}
+		LazyJSONParser parser = borrowParser();
+		try {
+			return parser.loadArrayElementsAtPosition(array.getValueFilePosition(), fromIndex, count);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Load a single element of a given array (see
+	 * {@link JSONLoader#getArrayElement(JSONNode, long)}).
+	 */
+	public JSONNode getArrayElement(JSONNode array, long index) throws IOException, IllegalFormatException {
+		List<JSONNode> elements = getArrayElements(array, index, 1);
+		if (elements.isEmpty()) {
+			throw new IndexOutOfBoundsException(
+					"Index " + index + " is out of bounds of the array '" + array.getName() + "'");
+		}
+		return elements.get(0);
+	}
+
+	/**
+	 * Find the node a JSON pointer refers to (see
+	 * {@link JSONLoader#resolvePointer(String)}).
+	 */
+	public JSONNode resolvePointer(String pointer) throws IOException, IllegalFormatException {
+		return resolvePointer(JSONPointer.compile(pointer));
+	}
+
+	/**
+	 * Find the node a compiled JSON pointer refers to (see
+	 * {@link JSONLoader#resolvePointer(String)}).
+	 */
+	public JSONNode resolvePointer(JSONPointer pointer) throws IOException, IllegalFormatException {
+		LazyJSONParser parser = borrowParser();
+		try {
+			return parser.resolvePointer(pointer);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Validate a format of a given node (see
+	 * {@link JSONLoader#validateNode(JSONNode)}).
+	 */
+	public IllegalFormatException validateNode(JSONNode node) throws IOException, IllegalFormatException {
+		if (node == null) {
+			return null;
+		}
+		boolean isRoot = node.getStartFilePosition() == getRoot().getStartFilePosition();
+		LazyJSONParser parser = borrowParser();
+		try {
+			return parser.validateNodeAtPosition(node.getValueFilePosition(), node.getEndFilePosition(), isRoot);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Return new JSONNode object which is the same as <code>node</code> but
+	 * with fully loaded string
+	 */
+	public JSONNode loadNodeWithFullString(JSONNode node) throws IOException, IllegalFormatException {
+		String str = loadFullString(node.getValueFilePosition(), node.getEndFilePosition());
+		return node.createNodeCopyWithFullyLoadedValue(str);
+	}
+
+	public String loadFullString(long openingQuotePos, long closingQuotePos)
+			throws IOException, IllegalFormatException {
+		LazyJSONParser parser = borrowParser();
+		try {
+			return parser.loadStringAtPosition(openingQuotePos, closingQuotePos);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Create a new search of a string within a range of the source (see
+	 * {@link JSONLoader#createNewSearch(String, long, long, boolean, boolean)}).
+	 * A search should be continued by one thread at a time.
+	 */
+	public StringSearchInfo createNewSearch(String stringToSearch, long searchStartPos, long searchEndPos,
+			boolean caseSensitive, boolean searchForAltUnicode) throws IOException {
+		LazyJSONParser parser = borrowParser();
+		try {
+			return new JSONSearch(parser.getReader()).createNewSearch(stringToSearch, searchStartPos,
+					searchEndPos, caseSensitive, searchForAltUnicode);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Create a new search of a string within a range of the source in the
+	 * tokens of a given scope (see
+	 * {@link JSONLoader#createNewSearch(String, long, long, boolean, boolean, StringSearchInfo.SearchScope)}).
+	 */
+	public StringSearchInfo createNewSearch(String stringToSearch, long searchStartPos, long searchEndPos,
+			boolean caseSensitive, boolean searchForAltUnicode, StringSearchInfo.SearchScope scope)
+			throws IOException {
+		LazyJSONParser parser = borrowParser();
+		try {
+			return new JSONSearch(parser.getReader()).createNewSearch(stringToSearch, searchStartPos,
+					searchEndPos, caseSensitive, searchForAltUnicode, scope);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Create a new search of a string within a given node (see
+	 * {@link JSONLoader#startNewSearchWithinANode(String, JSONNode, boolean, boolean)}).
+	 */
+	public StringSearchInfo startNewSearchWithinANode(String stringToSearch, JSONNode node, boolean caseSensitive,
+			boolean searchForAltUnicode) throws IOException {
+		return createNewSearch(stringToSearch, node.getStartFilePosition(), node.getEndFilePosition() + 1,
+				caseSensitive, searchForAltUnicode);
+	}
+
+	/**
+	 * Search for the next match of a search (see
+	 * {@link JSONLoader#findNextMatch(StringSearchInfo)}).
+	 *
+	 * @return true if the next match has been found, false otherwise
+	 */
+	public boolean findNextMatch(StringSearchInfo searchInfo) throws IOException, IllegalFormatException {
+		LazyJSONParser parser = borrowParser();
+		try {
+			// a search continues from the position saved in searchInfo, so it
+			// can be continued with any reader
+			JSONSearch search = new JSONSearch(parser.getReader());
+			search.setTrigramIndex(trigramIndex);
+			return search.findNextMatch(searchInfo);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Find all the remaining matches of a search (see
+	 * {@link JSONLoader#findAllMatches(StringSearchInfo, ForkJoinPool)}).
+	 *
+	 * @return positions of the matches in increasing order
+	 */
+	public List<Long> findAllMatches(StringSearchInfo searchInfo, ForkJoinPool pool)
+			throws IOException, IllegalFormatException {
+		LazyJSONParser parser = borrowParser();
+		try {
+			return new JSONSearch(parser.getReader()).findAllMatches(searchInfo, pool);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * Find all occurrences of several strings in one pass (see
+	 * {@link JSONLoader#findAllMatches(Collection, long, long, boolean, boolean)}).
+	 */
+	public Map<String, List<Long>> findAllMatches(Collection<String> stringsToSearch, long searchStartPos,
+			long searchEndPos, boolean caseSensitive, boolean searchForAltUnicode)
+			throws IOException, IllegalFormatException {
+		return findAllMatches(stringsToSearch, searchStartPos, searchEndPos, caseSensitive, searchForAltUnicode,
+				null);
+	}
+
+	/**
+	 * Find all occurrences of several strings in one pass, in parallel if a
+	 * pool is given (see
+	 * {@link JSONLoader#findAllMatches(Collection, long, long, boolean, boolean, ForkJoinPool)}).
+	 */
+	public Map<String, List<Long>> findAllMatches(Collection<String> stringsToSearch, long searchStartPos,
+			long searchEndPos, boolean caseSensitive, boolean searchForAltUnicode, ForkJoinPool pool)
+			throws IOException, IllegalFormatException {
+		LazyJSONParser parser = borrowParser();
+		try {
+			return new JSONSearch(parser.getReader()).findAllMatches(stringsToSearch, searchStartPos,
+					searchEndPos, caseSensitive, searchForAltUnicode, pool);
+		} finally {
+			returnParser(parser);
+		}
+	}
+
+	/**
+	 * A source that passes all the calls to the shared source except
+	 * {@link #close()}, so that a parser can not close the source used by
+	 * the others
+	 */
+	private static class SharedByteSource implements ByteSource {
+		private final ByteSource source;
+
+		SharedByteSource(ByteSource source) {
+			this.source = source;
+		}
+
+		@Override
+		public int read(long pos, ByteBuffer dst) throws IOException {
+			return source.read(pos, dst);
+		}
+
+		@Override
+		public long size() {
+			return source.size();
+		}
+
+		@Override
+		public String getName() {
+			return source.getName();
+		}
+
+		@Override
+		public File getFile() {
+			return source.getFile();
+		}
+
+		@Override
+		public ByteBuffer getView(long pos) throws IOException {
+			return source.getView(pos);
+		}
+
+		@Override
+		public boolean providesViews() {
+			return source.providesViews();
+		}
+
+		@Override
+		public void close() {
+			// the shared source is closed by the loader
+		}
+	}
+}
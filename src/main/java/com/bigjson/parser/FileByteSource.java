@@ -0,0 +1,59 @@
+package com.bigjson.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A source of bytes of a file which are read via positional reads of a
+ * {@link FileChannel}.
+ * 
+ * @author nikanka
+ *
+ */
+public class FileByteSource implements ByteSource {
+	private final File file;
+	private final FileChannel fileChannel;
+	private final long size;
+
+	/**
+	 * @param file
+	 * @throws IOException
+	 *             if file is not found or an I/O error occurs
+	 */
+	public FileByteSource(File file) throws IOException {
+		this.file = file;
+		fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		size = fileChannel.size();
+	}
+
+	@Override
+	public int read(long pos, ByteBuffer dst) throws IOException {
+		if (pos >= size) {
+			return -1;
+		}
+		return fileChannel.read(dst, pos);
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public String getName() {
+		return file.getPath();
+	}
+
+	@Override
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public void close() throws IOException {
+		fileChannel.close();
+	}
+}
@@ -3,7 +3,16 @@ package com.bigjson.parser;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 import org.json.JSONException;
 
@@ -18,6 +27,13 @@ import org.json.JSONException;
 public class JSONLoader implements Closeable {
 	private LazyJSONParser parser; 
 	private JSONSearch search;
+	private ChildListCache childListCache = null;
+	/**
+	 * Trigram indexes replaced by other ones: a search running in another
+	 * thread can still read them, so they are closed with the loader
+	 */
+	private final List<TrigramIndex> replacedTrigramIndexes = new ArrayList<TrigramIndex>();
+	private boolean closed = false;
 	
 	public JSONLoader(File file, int stringDisplayLimit) throws IOException, IllegalFormatException{
 		this(file, null, stringDisplayLimit);
@@ -42,7 +58,57 @@ public class JSONLoader implements Closeable {
 	 *             if the format of the data is not as expected
 	 */
 	public JSONLoader(File file, String topLevelName, int stringDisplayLimit) throws IOException, IllegalFormatException{
-		parser = new LazyJSONParser(file, topLevelName, stringDisplayLimit);
+		this(file, topLevelName, stringDisplayLimit, false);
+	}
+	
+	/**
+	 * Creates a loader for a given JSON file.
+	 * 
+	 * @param file
+	 * @param topLevelName
+	 *            what name should be given (for display purposes) to the
+	 *            top-level node. If topLevelName == null, the default name
+	 *            ("JSON") will be used 
+	 * @param stringDisplayLimit
+	 *            how many first characters of a string to view. If
+	 *            stringDisplayLimit < 0 full strings are loaded
+	 * @param memoryMapped
+	 *            if true, the file is read via memory-mapped buffers instead of
+	 *            a stream, which makes jumps between distant positions cheap
+	 * @throws IOException
+	 *             if file is not found or empty or if an I/O error occurs while
+	 *             reading bytes from the file
+	 * @throws IllegalFormatException
+	 *             if the format of the data is not as expected
+	 */
+	public JSONLoader(File file, String topLevelName, int stringDisplayLimit, boolean memoryMapped)
+			throws IOException, IllegalFormatException {
+		this(memoryMapped ? new MappedFileByteSource(file) : new FileByteSource(file), topLevelName,
+				stringDisplayLimit);
+	}
+	
+	/**
+	 * Creates a loader for JSON text provided by a given source of bytes, e.g.
+	 * a {@link ByteBufferByteSource} for a text that is already in memory. The
+	 * source is closed when the loader is closed.
+	 * 
+	 * @param source
+	 * @param topLevelName
+	 *            what name should be given (for display purposes) to the
+	 *            top-level node. If topLevelName == null, the default name
+	 *            ("JSON") will be used
+	 * @param stringDisplayLimit
+	 *            how many first characters of a string to view. If
+	 *            stringDisplayLimit < 0 full strings are loaded
+	 * @throws IOException
+	 *             if the source is empty or if an I/O error occurs while
+	 *             reading bytes from it
+	 * @throws IllegalFormatException
+	 *             if the format of the data is not as expected
+	 */
+	public JSONLoader(ByteSource source, String topLevelName, int stringDisplayLimit)
+			throws IOException, IllegalFormatException {
+		parser = new LazyJSONParser(source, topLevelName, stringDisplayLimit);
 		search = new JSONSearch(parser.getReader());
 //		long t1 = System.currentTimeMillis();
 //		root = parser.getRoot();
@@ -50,9 +116,215 @@ public class JSONLoader implements Closeable {
 	}
 	@Override
 	public void close() throws IOException {
+		if(childListCache != null){
+			childListCache.clear();
+		}
+		StructuralIndex index = parser.getStructuralIndex();
+		if(index != null){
+			index.close();
+		}
+		synchronized(this){
+			closed = true;
+			TrigramIndex trigramIndex = search.getTrigramIndex();
+			if(trigramIndex != null){
+				trigramIndex.close();
+			}
+			for(TrigramIndex replacedIndex: replacedTrigramIndexes){
+				replacedIndex.close();
+			}
+			replacedTrigramIndexes.clear();
+		}
 		parser.close();
 	}
 	
+	/**
+	 * Use a structural index saved in the default sidecar file (see
+	 * {@link StructuralIndex#getDefaultIndexFile(File)}) to speed up loading.
+	 * 
+	 * @param buildIfMissing
+	 *            if true and the index file does not exist or does not match
+	 *            the loaded file, the index is built (which requires a full
+	 *            scan of the file) and saved
+	 * @return true if the index is used, false if it is missing or stale and
+	 *         <code>buildIfMissing</code> is false
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if the index is being built and brackets in the file are not
+	 *             balanced
+	 * @throws IllegalStateException
+	 *             if the source of bytes is not a file
+	 */
+	public boolean useStructuralIndex(boolean buildIfMissing) throws IOException, IllegalFormatException {
+		if(getFile() == null){
+			throw new IllegalStateException("No default index file for a source that is not a file: "
+					+ parser.getReader().getSourceName());
+		}
+		return useStructuralIndex(StructuralIndex.getDefaultIndexFile(getFile()), buildIfMissing,
+				StructuralIndex.DEFAULT_MIN_CONTAINER_SIZE);
+	}
+	
+	/**
+	 * Use a structural index saved in a given file to speed up loading. The
+	 * index allows to skip containers without reading them, so it should be
+	 * set before the root is loaded.
+	 * 
+	 * @param indexFile
+	 * @param buildIfMissing
+	 *            if true and the index file does not exist or does not match
+	 *            the loaded source, the index is built (which requires a full
+	 *            scan of the source, done in parallel by the threads of the
+	 *            common {@link ForkJoinPool}) and saved to
+	 *            <code>indexFile</code>
+	 * @param minContainerSize
+	 *            containers smaller than this number of bytes are not indexed
+	 *            when the index is built
+	 * @return true if the index is used, false if it is missing or stale and
+	 *         <code>buildIfMissing</code> is false
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if the index is being built and brackets in the source are
+	 *             not balanced
+	 */
+	public boolean useStructuralIndex(File indexFile, boolean buildIfMissing, int minContainerSize)
+			throws IOException, IllegalFormatException {
+		ByteSource source = parser.getReader().getSource();
+		StructuralIndex index = StructuralIndex.open(source, indexFile);
+		if(index == null && buildIfMissing){
+			index = StructuralIndex.build(source, indexFile, minContainerSize, ForkJoinPool.commonPool());
+		}
+		StructuralIndex oldIndex = parser.getStructuralIndex();
+		if(oldIndex != null){
+			oldIndex.close();
+		}
+		parser.setStructuralIndex(index);
+		return index != null;
+	}
+	
+	/**
+	 * Use a trigram index saved in the default sidecar file (see
+	 * {@link TrigramIndex#getDefaultIndexFile(File)}) to speed up searches.
+	 * 
+	 * @param buildIfMissing
+	 *            if true and the index file does not exist or does not match
+	 *            the loaded file, the index is built (which requires a full
+	 *            scan of the file) and saved
+	 * @return true if the index is used, false if it is missing or stale and
+	 *         <code>buildIfMissing</code> is false
+	 * @throws IOException
+	 * @throws IllegalStateException
+	 *             if the source of bytes is not a file
+	 */
+	public boolean useTrigramIndex(boolean buildIfMissing) throws IOException {
+		if(getFile() == null){
+			throw new IllegalStateException("No default index file for a source that is not a file: "
+					+ parser.getReader().getSourceName());
+		}
+		return useTrigramIndex(TrigramIndex.getDefaultIndexFile(getFile()), buildIfMissing,
+				TrigramIndex.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Use a trigram index saved in a given file to speed up searches (see
+	 * {@link JSONSearch#setTrigramIndex(TrigramIndex)}). The matches found are
+	 * the same as without the index.
+	 * 
+	 * @param indexFile
+	 * @param buildIfMissing
+	 *            if true and the index file does not exist or does not match
+	 *            the loaded source, the index is built (which requires a full
+	 *            scan of the source) and saved to <code>indexFile</code>
+	 * @param blockSize
+	 *            size of the blocks of the index when it is built
+	 * @return true if the index is used, false if it is missing or stale and
+	 *         <code>buildIfMissing</code> is false
+	 * @throws IOException
+	 */
+	public boolean useTrigramIndex(File indexFile, boolean buildIfMissing, int blockSize) throws IOException {
+		ByteSource source = parser.getReader().getSource();
+		TrigramIndex index = TrigramIndex.open(source, indexFile);
+		if(index == null && buildIfMissing){
+			index = TrigramIndex.build(source, indexFile, blockSize);
+		}
+		setTrigramIndex(index);
+		return index != null;
+	}
+
+	/**
+	 * Open a trigram index saved in a given file or build it if it is missing
+	 * or stale, in a thread of the common {@link ForkJoinPool}. The loader can
+	 * be used in the meantime: searches start to use the index once it is
+	 * ready.
+	 * 
+	 * @param indexFile
+	 * @param blockSize
+	 *            size of the blocks of the index when it is built
+	 * @return a future of the index, it is completed exceptionally if the
+	 *         index can not be opened or built or if the loader is closed
+	 *         before the index is ready
+	 */
+	public CompletableFuture<TrigramIndex> useTrigramIndexInBackground(final File indexFile, final int blockSize){
+		final ByteSource source = parser.getReader().getSource();
+		final CompletableFuture<TrigramIndex> future = new CompletableFuture<TrigramIndex>();
+		ForkJoinPool.commonPool().execute(new Runnable() {
+			@Override
+			public void run() {
+				try{
+					TrigramIndex index = TrigramIndex.open(source, indexFile);
+					if(index == null){
+						index = TrigramIndex.build(source, indexFile, blockSize);
+					}
+					setTrigramIndex(index);
+					future.complete(index);
+				}catch(Throwable e){
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	private synchronized void setTrigramIndex(TrigramIndex index) throws IOException {
+		if(closed){
+			// e.g. an index built in background after the loader was closed
+			if(index != null){
+				index.close();
+			}
+			throw new IOException("The loader is closed");
+		}
+		TrigramIndex oldIndex = search.getTrigramIndex();
+		search.setTrigramIndex(index);
+		if(oldIndex != null && oldIndex != index){
+			replacedTrigramIndexes.add(oldIndex);
+		}
+	}
+
+	/**
+	 * Set a listener to observe the progress of long operations of the loader
+	 * (e.g. {@link #getRootAndValidate()}, {@link #validateNode(JSONNode)} or
+	 * {@link #findNextMatch(StringSearchInfo)}). The listener is called by the
+	 * thread that runs an operation, at most once per
+	 * {@value UTF8FileReader#PROGRESS_STEP} bytes read.
+	 * 
+	 * @param listener
+	 *            a listener or null to stop reporting progress
+	 */
+	public void setProgressListener(ProgressListener listener){
+		parser.getReader().setProgressListener(listener);
+	}
+
+	/**
+	 * Set a token to cancel long operations of the loader from another thread.
+	 * After the token is cancelled a running operation throws an
+	 * {@link OperationCancelledException} (which is an {@link IOException}),
+	 * and so do the next operations until another token is set.
+	 * 
+	 * @param token
+	 *            a token or null if operations should not be cancelled
+	 */
+	public void setCancellationToken(CancellationToken token){
+		parser.getReader().setCancellationToken(token);
+	}
+
 	public JSONNode getRoot() throws IOException, IllegalFormatException{
 		return parser.getRoot(false);
 	}
@@ -60,7 +332,27 @@ public class JSONLoader implements Closeable {
 	public JSONNode getRootAndValidate() throws IOException, IllegalFormatException{
 		return parser.getRoot(true);
 	}
+
+	/**
+	 * Load the root together with those of its members that are in a
+	 * projection (see {@link #loadChildren(JSONNode, JSONProjection)}). The
+	 * projected members are returned by {@link #loadChildren(JSONNode)} for
+	 * the root until it is loaded with another projection.
+	 *
+	 * @param projection
+	 *            names of the root members to load, null to load all of them
+	 * @return root (top-level node) of a JSON tree
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 */
+	public JSONNode getRoot(JSONProjection projection) throws IOException, IllegalFormatException{
+		return parser.getRoot(false, projection);
+	}
 	
+	/**
+	 * @return the file that is being loaded, or null if the source of bytes is
+	 *         not a file
+	 */
 	public File getFile(){
 		return parser.getFile();
 	}
@@ -129,6 +421,66 @@ public class JSONLoader implements Closeable {
 		return searchInfo;
 	}
 
+	/**
+	 * The same as
+	 * {@link #createNewSearch(String, long, long, boolean, boolean)} with
+	 * matches only in object names, string values or number, null, false and
+	 * true values. Strings out of scope are skipped while searching.
+	 * 
+	 * @param scope
+	 *            tokens to search in
+	 */
+	public StringSearchInfo createNewSearch(String stringToSearch, long searchStartPos, long searchEndPos,
+			boolean caseSensitive, boolean searchForAltUnicode, StringSearchInfo.SearchScope scope) {
+		return search.createNewSearch(stringToSearch, searchStartPos, searchEndPos, caseSensitive,
+				searchForAltUnicode, scope);
+	}
+
+	/**
+	 * Find all the remaining matches of a search in one pass, in parallel if
+	 * a pool is given (see
+	 * {@link JSONSearch#findAllMatches(StringSearchInfo, ForkJoinPool)}). The
+	 * matches are added to <code>searchInfo</code> and the search is finished.
+	 * 
+	 * @param searchInfo
+	 * @param pool
+	 *            threads to search parts of the file, or null to search in
+	 *            the current thread
+	 * @return positions of the matches in increasing order
+	 */
+	public List<Long> findAllMatches(StringSearchInfo searchInfo, ForkJoinPool pool)
+			throws IOException, IllegalFormatException {
+		return search.findAllMatches(searchInfo, pool);
+	}
+
+	/**
+	 * Find all occurrences of several strings within the range
+	 * <code>[searchStartPos, searchEndPos)</code> of a file in one pass (see
+	 * {@link JSONSearch#findAllMatches(Collection, long, long, boolean, boolean)}).
+	 * 
+	 * @return a map from every string to the list of positions of its
+	 *         occurrences
+	 */
+	public Map<String, List<Long>> findAllMatches(Collection<String> stringsToSearch, long searchStartPos,
+			long searchEndPos, boolean caseSensitive, boolean searchForAltUnicode)
+			throws IOException, IllegalFormatException {
+		return findAllMatches(stringsToSearch, searchStartPos, searchEndPos, caseSensitive, searchForAltUnicode,
+				null);
+	}
+
+	/**
+	 * The same as
+	 * {@link #findAllMatches(Collection, long, long, boolean, boolean)}
+	 * searching parts of the range in parallel using the threads of a given
+	 * pool (or in the current thread if it is null).
+	 */
+	public Map<String, List<Long>> findAllMatches(Collection<String> stringsToSearch, long searchStartPos,
+			long searchEndPos, boolean caseSensitive, boolean searchForAltUnicode, ForkJoinPool pool)
+			throws IOException, IllegalFormatException {
+		return search.findAllMatches(stringsToSearch, searchStartPos, searchEndPos, caseSensitive,
+				searchForAltUnicode, pool);
+	}
+
 	/**
 	 * Search for a specified string within a given node. <br>
 	 * Does the same as <code>startNewSearch()</code> using node file
@@ -166,9 +518,362 @@ public class JSONLoader implements Closeable {
 		if(node.getStartFilePosition() == getRoot().getStartFilePosition()){
 			return parser.getRootChildren();
 		}
-		return parser.loadChildrenAtPosition(node.getValueFilePosition());
+		if(childListCache == null){
+			return parser.loadChildrenAtPosition(node.getValueFilePosition());
+		}
+		List<JSONNode> children = childListCache.get(node.getValueFilePosition());
+		if(children == null){
+			// the cached list is shared by the callers
+			children = Collections.unmodifiableList(parser.loadChildrenAtPosition(node.getValueFilePosition()));
+			childListCache.put(node.getValueFilePosition(), children);
+		}
+		return children;
+	}
+
+	/**
+	 * Keep the children loaded by {@link #loadChildren(JSONNode)} in a
+	 * {@link ChildListCache}, so that loading children of the same container
+	 * again (e.g. when it is collapsed and expanded in a tree view) does not
+	 * require parsing the file. The lists returned from the cache are shared,
+	 * so they are unmodifiable.
+	 * 
+	 * @param maxWeight
+	 *            maximum estimated number of bytes of the cached nodes, 0 to
+	 *            stop caching
+	 * @return the cache (to get its statistics) or null if caching is stopped
+	 */
+	public ChildListCache useChildListCache(long maxWeight){
+		childListCache = maxWeight > 0 ? new ChildListCache(maxWeight) : null;
+		return childListCache;
+	}
+
+	/**
+	 * @return the cache of loaded children or null if they are not cached
+	 * @see #useChildListCache(long)
+	 */
+	public ChildListCache getChildListCache(){
+		return childListCache;
+	}
+
+	/**
+	 * Load only those children of an object which names are in a projection.
+	 * The other members are skipped without decoding their names (unless
+	 * they contain escape sequences) and without creating nodes for them.
+	 * Children of an array are all loaded.
+	 *
+	 * @param node
+	 * @param projection
+	 *            names of the members to load, null to load all of them
+	 * @return a list of children of a given node if it is not null and not a
+	 *         leaf
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 */
+	public List<JSONNode> loadChildren(JSONNode node, JSONProjection projection)
+			throws IOException, IllegalFormatException{
+		if(node == null || node.isLeaf()){
+			return null;
+		}
+		return parser.loadChildrenAtPosition(node.getValueFilePosition(), projection);
 	}
 	
+	/**
+	 * Load children of a given node into a compact {@link NodeBlock}, which
+	 * keeps only their positions and types (a few dozen bytes per child) and
+	 * decodes their names and values on access. Use it instead of
+	 * {@link #loadChildren(JSONNode)} for containers with millions of
+	 * children.
+	 *
+	 * @param node
+	 * @return a block of children of a given node if it is not null and not a
+	 *         leaf, null otherwise
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 */
+	public NodeBlock loadChildBlock(JSONNode node) throws IOException, IllegalFormatException{
+		if(node == null || node.isLeaf()){
+			return null;
+		}
+		return parser.loadChildBlockAtPosition(node.getValueFilePosition());
+	}
+
+	/**
+	 * Find the node a JSON pointer (RFC 6901) refers to, e.g.
+	 * <code>/data/items/12/price</code>, without loading the siblings of the
+	 * nodes on the way to it. To resolve the same pointer many times compile
+	 * it once with {@link JSONPointer#compile(String)} and use
+	 * {@link #resolvePointer(JSONPointer)}.
+	 *
+	 * @param pointer
+	 * @return the node the pointer refers to or null if there is no such node
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 * @throws IllegalArgumentException
+	 *             if the pointer has invalid syntax
+	 */
+	public JSONNode resolvePointer(String pointer) throws IOException, IllegalFormatException{
+		return resolvePointer(JSONPointer.compile(pointer));
+	}
+
+	/**
+	 * Find the node a compiled JSON pointer refers to (see
+	 * {@link #resolvePointer(String)}).
+	 *
+	 * @param pointer
+	 * @return the node the pointer refers to or null if there is no such node
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 */
+	public JSONNode resolvePointer(JSONPointer pointer) throws IOException, IllegalFormatException{
+		return parser.resolvePointer(pointer);
+	}
+
+	/**
+	 * Find the nodes matching a JSONPath expression, e.g.
+	 * <code>$.events[*].user.id</code>, in a single pass over the file (see
+	 * {@link #findMatches(JSONPath, JSONPath.MatchHandler)}).
+	 *
+	 * @param path
+	 * @param handler
+	 *            receives the matching nodes
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 * @throws IllegalArgumentException
+	 *             if the path has invalid or unsupported syntax
+	 */
+	public void findMatches(String path, JSONPath.MatchHandler handler) throws IOException, IllegalFormatException{
+		findMatches(JSONPath.compile(path), handler);
+	}
+
+	/**
+	 * Find the nodes matching a compiled JSONPath in a single pass over the
+	 * file. Subtrees that can not contain matches are skipped without being
+	 * parsed, and only the containers on the way to the current node are kept
+	 * in memory. The nodes are passed to the handler in the order of their
+	 * positions in the file.
+	 *
+	 * @param path
+	 * @param handler
+	 *            receives the matching nodes, can stop the search by returning
+	 *            false
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if JSON-format inconsistency occurs while reading the file
+	 */
+	public void findMatches(JSONPath path, JSONPath.MatchHandler handler) throws IOException, IllegalFormatException{
+		JSONPathQuery query = new JSONPathQuery(parser, path);
+		JSONNode node;
+		while((node = query.nextMatch()) != null){
+			if(!handler.onMatch(node)){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Iterate over the nodes matching a JSONPath expression (see
+	 * {@link #iterateMatches(JSONPath)}).
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the path has invalid or unsupported syntax
+	 */
+	public Iterator<JSONNode> iterateMatches(String path){
+		return iterateMatches(JSONPath.compile(path));
+	}
+
+	/**
+	 * Iterate over the nodes matching a compiled JSONPath (see
+	 * {@link #findMatches(JSONPath, JSONPath.MatchHandler)}). The nodes are
+	 * found lazily, and the loader can be used for other requests between
+	 * the calls of the iterator.
+	 *
+	 * @param path
+	 * @return an iterator which methods throw {@link UncheckedIOException} if
+	 *         an I/O error occurs and {@link IllegalStateException} (caused by
+	 *         {@link IllegalFormatException}) if the file has invalid format
+	 */
+	public Iterator<JSONNode> iterateMatches(JSONPath path){
+		final JSONPathQuery query = new JSONPathQuery(parser, path);
+		return new Iterator<JSONNode>() {
+			private JSONNode next = null;
+			private boolean done = false;
+
+			@Override
+			public boolean hasNext() {
+				if(next == null && !done){
+					try{
+						next = query.nextMatch();
+					}catch(IOException e){
+						throw new UncheckedIOException(e);
+					}catch(IllegalFormatException e){
+						throw new IllegalStateException(e);
+					}
+					done = next == null;
+				}
+				return next != null;
+			}
+
+			@Override
+			public JSONNode next() {
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				JSONNode ret = next;
+				next = null;
+				return ret;
+			}
+		};
+	}
+
+	/**
+	 * Count children of a given node without loading them. Strings within the
+	 * node are not decoded and the result is cached, so counting again is
+	 * cheap.
+	 *
+	 * @param node
+	 * @return number of children of the node, 0 if it is null or a leaf
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 */
+	public long countChildren(JSONNode node) throws IOException, IllegalFormatException{
+		if(node == null || node.isLeaf()){
+			return 0;
+		}
+		return parser.countChildrenAtPosition(node.getValueFilePosition());
+	}
+
+	/**
+	 * Load a page of children of a given node: up to <code>limit</code>
+	 * children starting from the child with the index <code>offset</code>.
+	 * To load the pages one after another use a {@link ChildCursor} instead
+	 * (see {@link #createChildCursor(JSONNode)}).
+	 *
+	 * @param node
+	 * @param offset
+	 *            index of the first child to load
+	 * @param limit
+	 *            maximum number of children to load
+	 * @return a list of children of a given node if it is not null and not a
+	 *         leaf (empty if there are no more than <code>offset</code>
+	 *         children)
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 */
+	public List<JSONNode> loadChildren(JSONNode node, long offset, int limit) throws IOException, IllegalFormatException{
+		if(node == null || node.isLeaf()){
+			return null;
+		}
+		ChildCursor cursor = createChildCursor(node);
+		parser.skipChildren(cursor, offset);
+		return parser.loadNextChildren(cursor, limit);
+	}
+
+	/**
+	 * Create a cursor to load children of a given node page by page with
+	 * {@link #loadNextChildren(ChildCursor, int)}. Unlike
+	 * {@link #loadChildren(JSONNode)} it does not require all the children to
+	 * be in memory at once.
+	 *
+	 * @param node
+	 *            an object or an array node
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 * @throws IllegalArgumentException
+	 *             if the node is null or a leaf
+	 */
+	public ChildCursor createChildCursor(JSONNode node) throws IOException, IllegalFormatException{
+		if(node == null || node.isLeaf()){
+			throw new IllegalArgumentException("The node has no children: " + node);
+		}
+		return parser.createChildCursorAtPosition(node.getValueFilePosition());
+	}
+
+	/**
+	 * Load up to <code>limit</code> next children of the node the cursor was
+	 * created for. Reading continues from the end of the last child returned
+	 * by the previous call.
+	 *
+	 * @param cursor
+	 * @param limit
+	 *            maximum number of children to load
+	 * @return a list of loaded children. It is empty if all the children have
+	 *         already been loaded (<code>cursor.isFinished()</code>)
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 */
+	public List<JSONNode> loadNextChildren(ChildCursor cursor, int limit) throws IOException, IllegalFormatException{
+		return parser.loadNextChildren(cursor, limit);
+	}
+
+	/**
+	 * Move the cursor over <code>num</code> children without loading them.
+	 *
+	 * @param cursor
+	 * @param num
+	 *            number of children to skip
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 */
+	public void skipChildren(ChildCursor cursor, long num) throws IOException, IllegalFormatException{
+		parser.skipChildren(cursor, num);
+	}
+
+	/**
+	 * Load a single element of a given array without loading the other
+	 * elements.
+	 *
+	 * @param array
+	 *            an array node
+	 * @param index
+	 *            index of the element to load
+	 * @return the element of the array with the index <code>index</code>
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 * @throws IllegalArgumentException
+	 *             if the node is not an array
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is negative or not smaller than the size of the
+	 *             array
+	 */
+	public JSONNode getArrayElement(JSONNode array, long index) throws IOException, IllegalFormatException{
+		List<JSONNode> elements = getArrayElements(array, index, 1);
+		if(elements.isEmpty()){
+			throw new IndexOutOfBoundsException("Index " + index + " is out of bounds of the array '"
+					+ array.getName() + "'");
+		}
+		return elements.get(0);
+	}
+
+	/**
+	 * Load a range of elements of a given array without loading the other
+	 * elements. The first access to an array requires to skip through all its
+	 * elements, after that getting to any element requires to skip at most
+	 * {@value ArrayCheckpoints#STEP} - 1 elements.
+	 *
+	 * @param array
+	 *            an array node
+	 * @param fromIndex
+	 *            index of the first element to load
+	 * @param count
+	 *            maximum number of elements to load. Less elements are
+	 *            returned if the array ends earlier
+	 * @return a list of loaded elements
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 * @throws IllegalArgumentException
+	 *             if the node is not an array
+	 * @throws IndexOutOfBoundsException
+	 *             if <code>fromIndex</code> is negative or bigger than the size
+	 *             of the array
+	 */
+	public List<JSONNode> getArrayElements(JSONNode array, long fromIndex, int count)
+			throws IOException, IllegalFormatException {
+		if(array == null || array.getType() != JSONNode.TYPE_ARRAY){
+			throw new IllegalArgumentException("The node is not an array: " + array);
+		}
+		return parser.loadArrayElementsAtPosition(array.getValueFilePosition(), fromIndex, count);
+	}
+
 	/**
 	 * Validate a format of a given node.
 	 * 
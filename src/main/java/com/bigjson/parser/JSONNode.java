@@ -34,4 +34,27 @@ public interface JSONNode {
 	public boolean isFullyLoaded();
 	
 	public boolean isLeaf();
+
+	/**
+	 * @return true if the node is a number written without a fraction part
+	 *         and an exponent, false otherwise
+	 */
+	public boolean isIntegral();
+
+	/**
+	 * @return the value of a number node
+	 * @throws IllegalStateException
+	 *             if the node is not a number
+	 * @throws NumberFormatException
+	 *             if the number is not integral (see {@link #isIntegral()}) or
+	 *             does not fit into a long
+	 */
+	public long getLong();
+
+	/**
+	 * @return the value of a number node (the closest double)
+	 * @throws IllegalStateException
+	 *             if the node is not a number
+	 */
+	public double getDouble();
 }
@@ -11,8 +11,14 @@ package com.bigjson.parser;
 public class JSONNonTreeNode implements JSONNode{
 
 	private int type;
-	private String value;
-	private String name;
+	/**
+	 * A String or a {@link LazyJSONString} that is decoded on request
+	 */
+	private CharSequence value;
+	/**
+	 * A String or a {@link LazyJSONString} that is decoded on request
+	 */
+	private CharSequence name;
 	/**
 	 * File position of the first symbol of a node (opening quote of its name
 	 * or its value if it has no name)
@@ -39,15 +45,15 @@ public class JSONNonTreeNode implements JSONNode{
 	 * @param name
 	 * @param value
 	 */
-	protected JSONNonTreeNode(int type, String name, boolean isFullyLoaded, String value){
+	protected JSONNonTreeNode(int type, CharSequence name, boolean isFullyLoaded, CharSequence value){
 		this(type, name, isFullyLoaded);
 		this.value = value;
 	}
-	protected JSONNonTreeNode(int type, String name, String value){
+	protected JSONNonTreeNode(int type, CharSequence name, CharSequence value){
 		this(type, name, true);
 		this.value = value;
 	}
-	protected JSONNonTreeNode(int type, String name, boolean isFullyLoaded){
+	protected JSONNonTreeNode(int type, CharSequence name, boolean isFullyLoaded){
 		this.type = type;
 		this.name = name;
 		this.isFullyLoaded = isFullyLoaded;
@@ -57,7 +63,7 @@ public class JSONNonTreeNode implements JSONNode{
 	 * @param type
 	 * @param name
 	 */
-	protected JSONNonTreeNode(int type, String name){
+	protected JSONNonTreeNode(int type, CharSequence name){
 		this(type, name, true);
 	}
 
@@ -99,6 +105,9 @@ public class JSONNonTreeNode implements JSONNode{
 	}
 	
 	public boolean isFullyLoaded(){
+		if(value instanceof LazyJSONString){
+			return ((LazyJSONString)value).isFullyRead();
+		}
 		return isFullyLoaded;
 	}
 	
@@ -110,11 +119,54 @@ public class JSONNonTreeNode implements JSONNode{
 		return type;
 	}
 	public String getName() {
-		return name;
+		return name == null ? null : name.toString();
 	}
 
 	public String getValue() {
+		return value == null ? null : value.toString();
+	}
+
+	/**
+	 * @return the name of the node that is decoded when its chars are
+	 *         requested (if it has not been decoded yet)
+	 */
+	public CharSequence getNameChars() {
+		return name;
+	}
+
+	/**
+	 * @return the value of a string node that is decoded when its chars are
+	 *         requested (if it has not been decoded yet)
+	 */
+	public CharSequence getValueChars() {
 		return value;
 	}
+
+	public boolean isIntegral(){
+		if(getType() != JSONNode.TYPE_NUMBER){
+			return false;
+		}
+		String number = getValue();
+		return number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0;
+	}
+
+	public long getLong(){
+		checkNumber();
+		if(!isIntegral()){
+			throw new NumberFormatException("Not an integer: " + getValue());
+		}
+		return Long.parseLong(getValue());
+	}
+
+	public double getDouble(){
+		checkNumber();
+		return Double.parseDouble(getValue());
+	}
+
+	private void checkNumber(){
+		if(getType() != JSONNode.TYPE_NUMBER){
+			throw new IllegalStateException("Node '" + getName() + "' is not a number");
+		}
+	}
 	
 }
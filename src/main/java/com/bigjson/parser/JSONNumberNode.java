@@ -0,0 +1,233 @@
+package com.bigjson.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A number node that keeps its value in primitive fields instead of a
+ * String: the significant digits as a long, the number of fraction digits
+ * and the exponent. The text of the number is built only when
+ * {@link #getValue()} is called and is exactly the one in the file. <br>
+ * Numbers which digits do not fit into a long (more than
+ * {@value #MAX_DIGITS} digits) or which exponent has leading zeros are
+ * kept as text.
+ *
+ * @author nikanka
+ *
+ */
+class JSONNumberNode extends JSONNonTreeNode {
+	private static final int MAX_DIGITS = 18;
+	private static final int MAX_EXPONENT_DIGITS = 9;
+	/**
+	 * Doubles up to 2^53 are exact
+	 */
+	private static final long MAX_EXACT_DOUBLE = 1L << 53;
+	/**
+	 * Powers of ten that are exact doubles
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	private static final long[] LONG_POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+	static {
+		LONG_POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < LONG_POWERS_OF_TEN.length; i++) {
+			LONG_POWERS_OF_TEN[i] = LONG_POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private final boolean negative;
+	/**
+	 * all the digits of the integer and fraction parts
+	 */
+	private final long significand;
+	private final int fractionDigits;
+	/**
+	 * exponent without a sign
+	 */
+	private final int exponent;
+	/**
+	 * 'e', 'E' or 0 if there is no exponent
+	 */
+	private final byte exponentSymbol;
+	/**
+	 * '+', '-' or 0 if the exponent has no sign
+	 */
+	private final byte exponentSign;
+	/**
+	 * the text of the number if it can not be restored from the fields above
+	 */
+	private final String text;
+
+	private JSONNumberNode(CharSequence name, boolean negative, long significand, int fractionDigits, int exponent,
+			byte exponentSymbol, byte exponentSign, String text) {
+		super(JSONNode.TYPE_NUMBER, name);
+		this.negative = negative;
+		this.significand = significand;
+		this.fractionDigits = fractionDigits;
+		this.exponent = exponent;
+		this.exponentSymbol = exponentSymbol;
+		this.exponentSign = exponentSign;
+		this.text = text;
+	}
+
+	/**
+	 * Accumulates the value of a number byte by byte while it is being read,
+	 * so that the number is not passed over again to create a node. A builder
+	 * is reused for all the numbers of a file. The bytes should be checked to
+	 * match the JSON number format separately (e.g. with
+	 * {@link NumberCheckingStateMachine}).
+	 */
+	static final class Builder {
+		private boolean negative;
+		private long significand;
+		private int digits;
+		private int fractionDigits;
+		private boolean inFraction;
+		private int exponent;
+		private int exponentDigits;
+		private boolean exponentHasLeadingZero;
+		private byte exponentSymbol;
+		private byte exponentSign;
+		/**
+		 * the bytes of the number, in case it can not be kept in the fields
+		 * above
+		 */
+		private byte[] bytes = new byte[32];
+		private int length;
+
+		Builder() {
+			reset();
+		}
+
+		void reset() {
+			negative = false;
+			significand = 0;
+			digits = 0;
+			fractionDigits = 0;
+			inFraction = false;
+			exponent = 0;
+			exponentDigits = 0;
+			exponentHasLeadingZero = false;
+			exponentSymbol = 0;
+			exponentSign = 0;
+			length = 0;
+		}
+
+		/**
+		 * Add the next byte of a number
+		 */
+		void push(byte b) {
+			if (length == bytes.length) {
+				bytes = Arrays.copyOf(bytes, length * 2);
+			}
+			bytes[length++] = b;
+			if (b >= '0' && b <= '9') {
+				if (exponentSymbol != 0) {
+					if (exponentDigits++ == 0 && b == '0') {
+						exponentHasLeadingZero = true;
+					}
+					exponent = exponent * 10 + b - '0';
+				} else {
+					if (++digits <= MAX_DIGITS) {
+						significand = significand * 10 + b - '0';
+					}
+					if (inFraction) {
+						fractionDigits++;
+					}
+				}
+			} else if (b == '.') {
+				inFraction = true;
+			} else if (b == 'e' || b == 'E') {
+				exponentSymbol = b;
+			} else if (exponentSymbol != 0) {
+				exponentSign = b;
+			} else {
+				negative = true;
+			}
+		}
+
+		/**
+		 * @return the text of the number pushed since the last reset
+		 */
+		String getText() {
+			return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+		}
+
+		/**
+		 * Create a node for the number pushed since the last reset
+		 */
+		JSONNumberNode build(CharSequence name) {
+			if (digits > MAX_DIGITS || exponentDigits > MAX_EXPONENT_DIGITS
+					|| (exponentHasLeadingZero && exponentDigits > 1)) {
+				return new JSONNumberNode(name, false, 0, 0, 0, (byte) 0, (byte) 0, getText());
+			}
+			return new JSONNumberNode(name, negative, significand, fractionDigits, exponent, exponentSymbol,
+					exponentSign, null);
+		}
+	}
+
+	@Override
+	public String getValue() {
+		if (text != null) {
+			return text;
+		}
+		StringBuilder sb = new StringBuilder(24);
+		if (negative) {
+			sb.append('-');
+		}
+		sb.append(significand / LONG_POWERS_OF_TEN[fractionDigits]);
+		if (fractionDigits > 0) {
+			sb.append('.');
+			String fraction = Long.toString(significand % LONG_POWERS_OF_TEN[fractionDigits]);
+			for (int i = fraction.length(); i < fractionDigits; i++) {
+				sb.append('0');
+			}
+			sb.append(fraction);
+		}
+		if (exponentSymbol != 0) {
+			sb.append((char) exponentSymbol);
+			if (exponentSign != 0) {
+				sb.append((char) exponentSign);
+			}
+			sb.append(exponent);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public boolean isIntegral() {
+		if (text != null) {
+			return super.isIntegral();
+		}
+		return fractionDigits == 0 && exponentSymbol == 0;
+	}
+
+	@Override
+	public long getLong() {
+		if (text != null) {
+			return super.getLong();
+		}
+		if (!isIntegral()) {
+			throw new NumberFormatException("Not an integer: " + getValue());
+		}
+		return negative ? -significand : significand;
+	}
+
+	/**
+	 * If the significand and the power of ten are both exact doubles, the
+	 * value is their product or quotient, which is correctly rounded
+	 * (Clinger's fast path). Otherwise the text of the number is parsed.
+	 */
+	@Override
+	public double getDouble() {
+		if (text == null && significand <= MAX_EXACT_DOUBLE) {
+			long power = (exponentSign == '-' ? -exponent : exponent) - fractionDigits;
+			if (power >= -22 && power <= 22) {
+				double value = power < 0 ? significand / POWERS_OF_TEN[(int) -power]
+						: significand * POWERS_OF_TEN[(int) power];
+				return negative ? -value : value;
+			}
+		}
+		return Double.parseDouble(getValue());
+	}
+}
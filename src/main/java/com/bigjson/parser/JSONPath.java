@@ -0,0 +1,377 @@
+package com.bigjson.parser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled JSONPath expression, e.g. <code>$.events[*].user.id</code> or
+ * <code>$.orders[?(@.total &gt; 1000)]</code>. The expression is parsed once
+ * into a list of steps that are matched against the nodes during a single
+ * forward pass over a file (see
+ * {@link JSONLoader#findMatches(JSONPath, MatchHandler)}). <br>
+ * <br>
+ * Supported steps:
+ * <ul>
+ * <li><code>.name</code>, <code>['name']</code>, <code>["name"]</code> - a
+ * member of an object;</li>
+ * <li><code>[n]</code> - an element of an array;</li>
+ * <li><code>.*</code>, <code>[*]</code> - any child;</li>
+ * <li><code>[?(filter)]</code> - any child for which the filter holds. A
+ * filter is either <code>@path</code> (the path exists) or
+ * <code>@path op literal</code>, where <code>path</code> is a sequence of
+ * <code>.name</code>, <code>['name']</code> and <code>[n]</code> steps (maybe
+ * empty), <code>op</code> is one of <code>== != &lt; &lt;= &gt; &gt;=</code>
+ * and <code>literal</code> is a number, a quoted string, <code>true</code>,
+ * <code>false</code> or <code>null</code>;</li>
+ * <li>any of the above after <code>..</code> (e.g. <code>..name</code>) - a
+ * descendant at any depth.</li>
+ * </ul>
+ *
+ * @author nikanka
+ *
+ */
+public final class JSONPath {
+	/**
+	 * Receives the nodes matching a path
+	 */
+	public static interface MatchHandler {
+		/**
+		 * @param node
+		 *            a node matching the path
+		 * @return false to stop the search
+		 */
+		boolean onMatch(JSONNode node) throws IOException, IllegalFormatException;
+	}
+
+	static final int STEP_NAME = 0;
+	static final int STEP_INDEX = 1;
+	static final int STEP_WILDCARD = 2;
+	static final int STEP_FILTER = 3;
+
+	static final int OP_EXISTS = 0;
+	static final int OP_EQ = 1;
+	static final int OP_NE = 2;
+	static final int OP_LT = 3;
+	static final int OP_LE = 4;
+	static final int OP_GT = 5;
+	static final int OP_GE = 6;
+
+	/**
+	 * the matching state of a node is a bitmask of steps, so the number of
+	 * steps is limited
+	 */
+	static final int MAX_STEP_NUM = 63;
+
+	private final String path;
+	private final Step[] steps;
+
+	private JSONPath(String path, List<Step> steps) {
+		this.path = path;
+		this.steps = steps.toArray(new Step[steps.size()]);
+	}
+
+	/**
+	 * Parse a JSONPath expression.
+	 *
+	 * @param path
+	 *            an expression starting with '$'
+	 * @return the compiled path
+	 * @throws IllegalArgumentException
+	 *             if the expression has invalid or unsupported syntax
+	 */
+	public static JSONPath compile(String path) {
+		return new Parser(path).parse();
+	}
+
+	int getStepNum() {
+		return steps.length;
+	}
+
+	Step getStep(int i) {
+		return steps[i];
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+
+	static final class Step {
+		final int type;
+		/**
+		 * if the step matches descendants at any depth (<code>..</code>)
+		 */
+		final boolean recursive;
+		final String name;
+		final byte[] nameBytes;
+		final long index;
+		final Filter filter;
+
+		private Step(int type, boolean recursive, String name, long index, Filter filter) {
+			this.type = type;
+			this.recursive = recursive;
+			this.name = name;
+			this.nameBytes = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+			this.index = index;
+			this.filter = filter;
+		}
+	}
+
+	static final class Filter {
+		/**
+		 * path relative to the filtered node
+		 */
+		final JSONPointer path;
+		final int op;
+		/**
+		 * a Double, a String, a Boolean or null
+		 */
+		final Object literal;
+
+		private Filter(JSONPointer path, int op, Object literal) {
+			this.path = path;
+			this.op = op;
+			this.literal = literal;
+		}
+
+		/**
+		 * @param node
+		 *            the node the relative path of the filter refers to (null if
+		 *            there is no such node)
+		 * @param value
+		 *            the full value of the node if it is a leaf
+		 * @return if the filter holds
+		 */
+		boolean matches(JSONNode node, String value) {
+			if (node == null) {
+				return false;
+			}
+			if (op == OP_EXISTS) {
+				return true;
+			}
+			int cmp;
+			if (literal instanceof Double && node.getType() == JSONNode.TYPE_NUMBER) {
+				cmp = Double.compare(node.getDouble(), (Double) literal);
+			} else if (literal instanceof String && node.getType() == JSONNode.TYPE_STRING) {
+				cmp = value.compareTo((String) literal);
+			} else if (node.getType() == JSONNode.TYPE_KEYWORD && String.valueOf(literal).equals(value)) {
+				cmp = 0;
+			} else {
+				// different types are never equal and can not be ordered
+				return op == OP_NE;
+			}
+			switch (op) {
+			case OP_EQ:
+				return cmp == 0;
+			case OP_NE:
+				return cmp != 0;
+			case OP_LT:
+				return cmp < 0;
+			case OP_LE:
+				return cmp <= 0;
+			case OP_GT:
+				return cmp > 0;
+			default:
+				return cmp >= 0;
+			}
+		}
+	}
+
+	/**
+	 * Parser of JSONPath expressions
+	 */
+	private static class Parser {
+		private final String path;
+		private int pos = 0;
+
+		Parser(String path) {
+			this.path = path;
+		}
+
+		JSONPath parse() {
+			List<Step> steps = new ArrayList<Step>();
+			expect('$');
+			while (pos < path.length()) {
+				boolean recursive = false;
+				char ch = path.charAt(pos);
+				if (ch == '.') {
+					pos++;
+					if (pos < path.length() && path.charAt(pos) == '.') {
+						recursive = true;
+						pos++;
+					}
+					if (pos < path.length() && path.charAt(pos) == '[') {
+						if (!recursive) {
+							throw error("Unexpected '['");
+						}
+						steps.add(parseBracketStep(true));
+					} else if (pos < path.length() && path.charAt(pos) == '*') {
+						pos++;
+						steps.add(new Step(STEP_WILDCARD, recursive, null, -1, null));
+					} else {
+						steps.add(new Step(STEP_NAME, recursive, parseName(), -1, null));
+					}
+				} else if (ch == '[') {
+					steps.add(parseBracketStep(false));
+				} else {
+					throw error("Unexpected '" + ch + "'");
+				}
+				if (steps.size() > MAX_STEP_NUM) {
+					throw error("Too many steps");
+				}
+			}
+			return new JSONPath(path, steps);
+		}
+
+		private Step parseBracketStep(boolean recursive) {
+			expect('[');
+			skipSpaces();
+			Step step;
+			char ch = peek();
+			if (ch == '*') {
+				pos++;
+				step = new Step(STEP_WILDCARD, recursive, null, -1, null);
+			} else if (ch == '\'' || ch == '"') {
+				step = new Step(STEP_NAME, recursive, parseQuotedString(), -1, null);
+			} else if (ch == '?') {
+				pos++;
+				expect('(');
+				step = new Step(STEP_FILTER, recursive, null, -1, parseFilter());
+				expect(')');
+			} else {
+				step = new Step(STEP_INDEX, recursive, null, parseIndex(), null);
+			}
+			skipSpaces();
+			expect(']');
+			return step;
+		}
+
+		private Filter parseFilter() {
+			skipSpaces();
+			expect('@');
+			List<String> tokens = new ArrayList<String>();
+			while (pos < path.length() && (peek() == '.' || peek() == '[')) {
+				if (path.charAt(pos++) == '.') {
+					tokens.add(parseName());
+				} else {
+					skipSpaces();
+					tokens.add(peek() == '\'' || peek() == '"' ? parseQuotedString() : "" + parseIndex());
+					skipSpaces();
+					expect(']');
+				}
+			}
+			JSONPointer relativePath = JSONPointer.fromTokens(tokens);
+			skipSpaces();
+			if (peek() == ')') {
+				return new Filter(relativePath, OP_EXISTS, null);
+			}
+			int op = parseOperator();
+			skipSpaces();
+			Object literal = parseLiteral();
+			skipSpaces();
+			return new Filter(relativePath, op, literal);
+		}
+
+		private int parseOperator() {
+			String[] ops = { "==", "!=", "<=", ">=", "<", ">" };
+			int[] codes = { OP_EQ, OP_NE, OP_LE, OP_GE, OP_LT, OP_GT };
+			for (int i = 0; i < ops.length; i++) {
+				if (path.startsWith(ops[i], pos)) {
+					pos += ops[i].length();
+					return codes[i];
+				}
+			}
+			throw error("Expected a comparison operator");
+		}
+
+		private Object parseLiteral() {
+			char ch = peek();
+			if (ch == '\'' || ch == '"') {
+				return parseQuotedString();
+			}
+			int start = pos;
+			while (pos < path.length() && path.charAt(pos) != ')' && !Character.isWhitespace(path.charAt(pos))) {
+				pos++;
+			}
+			String literal = path.substring(start, pos);
+			if (literal.equals("true") || literal.equals("false")) {
+				return Boolean.valueOf(literal);
+			}
+			if (literal.equals("null")) {
+				return null;
+			}
+			try {
+				return Double.valueOf(literal);
+			} catch (NumberFormatException e) {
+				pos = start;
+				throw error("Invalid literal '" + literal + "'");
+			}
+		}
+
+		private String parseName() {
+			int start = pos;
+			while (pos < path.length() && path.charAt(pos) != '.' && path.charAt(pos) != '['
+					&& path.charAt(pos) != ' ' && path.charAt(pos) != ')') {
+				pos++;
+			}
+			if (start == pos) {
+				throw error("Empty name");
+			}
+			return path.substring(start, pos);
+		}
+
+		private String parseQuotedString() {
+			char quote = path.charAt(pos++);
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				char ch = peek();
+				pos++;
+				if (ch == quote) {
+					return sb.toString();
+				}
+				if (ch == '\\') {
+					ch = peek();
+					pos++;
+				}
+				sb.append(ch);
+			}
+		}
+
+		private long parseIndex() {
+			int start = pos;
+			while (pos < path.length() && Character.isDigit(path.charAt(pos))) {
+				pos++;
+			}
+			if (start == pos || pos - start > 18) {
+				throw error("Expected an array index, '*', a quoted name or a filter");
+			}
+			return Long.parseLong(path.substring(start, pos));
+		}
+
+		private char peek() {
+			if (pos >= path.length()) {
+				throw error("Unexpected end of expression");
+			}
+			return path.charAt(pos);
+		}
+
+		private void expect(char ch) {
+			if (peek() != ch) {
+				throw error("Expected '" + ch + "'");
+			}
+			pos++;
+		}
+
+		private void skipSpaces() {
+			while (pos < path.length() && path.charAt(pos) == ' ') {
+				pos++;
+			}
+		}
+
+		private IllegalArgumentException error(String msg) {
+			return new IllegalArgumentException(msg + " at pos " + pos + " of JSONPath: " + path);
+		}
+	}
+}
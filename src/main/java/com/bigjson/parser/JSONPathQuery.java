@@ -0,0 +1,228 @@
+package com.bigjson.parser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Evaluation of a {@link JSONPath} in a single forward pass over a file. The
+ * path is matched as a nondeterministic automaton: the state of a node is a
+ * bitmask of the path steps that its children can match (bit
+ * <code>i</code> - step <code>i</code>, the bit after the last step means a
+ * match). Subtrees which state is empty are skipped without parsing. <br>
+ * Only the containers on the path from the root to the current node are
+ * kept (each with a {@link ChildCursor}), so the memory used does not depend
+ * on the size of the file, and the search can be resumed after the parser
+ * was used for something else.
+ *
+ * @author nikanka
+ *
+ */
+class JSONPathQuery {
+	private static final boolean DEBUG = false;
+
+	private final LazyJSONParser parser;
+	private final UTF8FileReader reader;
+	private final JSONPath path;
+	private final long matchState;
+	private final Deque<Frame> stack = new ArrayDeque<Frame>();
+	private boolean started = false;
+
+	JSONPathQuery(LazyJSONParser parser, JSONPath path) {
+		this.parser = parser;
+		this.reader = parser.getReader();
+		this.path = path;
+		this.matchState = 1L << path.getStepNum();
+	}
+
+	/**
+	 * Find the next node matching the path. The nodes are returned in the
+	 * order of their positions in the file (i.e. a container goes before its
+	 * matching descendants).
+	 *
+	 * @return the next matching node or null if there are no more of them
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if JSON-format inconsistency occurs while reading the file
+	 */
+	JSONNode nextMatch() throws IOException, IllegalFormatException {
+		if (!started) {
+			started = true;
+			if (path.getStepNum() == 0) {
+				return parser.getRoot(false);
+			}
+			reader.getToPosition(0);
+			parser.moveToNextNonspaceByte();
+			byte first = parser.getCurByte();
+			if (first == '{' || first == '[') {
+				stack.push(new Frame(new ChildCursor(reader.getFilePosition() - 1, first == '['), 1L));
+			}
+		}
+		while (!stack.isEmpty()) {
+			Frame frame = stack.peek();
+			ChildCursor cursor = frame.cursor;
+			if (!parser.moveToNextChild(cursor)) {
+				stack.pop();
+				if (!stack.isEmpty()) {
+					// the closing bracket of the popped container has just been read
+					stack.peek().cursor.moveAfterChild(reader.getFilePosition());
+				}
+				continue;
+			}
+			JSONNode match = processChild(frame);
+			if (match != null) {
+				return match;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Match a child of a container which first byte has just been read. The
+	 * child is either skipped, or parsed (if it matches the path) and/or
+	 * entered (if its descendants can match the path).
+	 *
+	 * @return the child if it matches the path, null otherwise
+	 */
+	private JSONNode processChild(Frame frame) throws IOException, IllegalFormatException {
+		ChildCursor cursor = frame.cursor;
+		long startPos = reader.getFilePosition() - 1;
+		long index = cursor.getNextIndex();
+		String name = null;
+		int rawLength = 0;
+		if (!cursor.isArray()) {
+			if (parser.getCurByte() != '"') {
+				throw new IllegalFormatException("Expected a name in an object at pos " + startPos + " of "
+						+ reader.getSourceName());
+			}
+			rawLength = parser.readRawString();
+			if (rawLength < 0) {
+				name = parser.parseString(false, false).getString();
+			}
+			parser.moveToNextNonspaceByte();
+			if (parser.getCurByte() != ':') {
+				throw new IllegalFormatException("Invalid separator between name and value in an object at pos "
+						+ (reader.getFilePosition() - 1) + " of " + reader.getSourceName());
+			}
+			parser.moveToNextNonspaceByte();
+		}
+		long valuePos = reader.getFilePosition() - 1;
+		long next = 0;
+		boolean hasFilters = false;
+		for (int i = 0; i < path.getStepNum(); i++) {
+			if ((frame.states & (1L << i)) == 0) {
+				continue;
+			}
+			JSONPath.Step step = path.getStep(i);
+			if (step.recursive) {
+				next |= 1L << i;
+			}
+			if (step.type == JSONPath.STEP_FILTER) {
+				hasFilters = true;
+			} else if (stepMatches(step, cursor.isArray(), index, name, rawLength)) {
+				next |= 1L << (i + 1);
+			}
+		}
+		if (hasFilters) {
+			// filters move the reader and reuse the raw name buffer
+			if (!cursor.isArray() && name == null) {
+				name = new String(parser.getRawString(), 0, rawLength, StandardCharsets.UTF_8);
+			}
+			for (int i = 0; i < path.getStepNum(); i++) {
+				JSONPath.Step step = path.getStep(i);
+				if ((frame.states & (1L << i)) != 0 && step.type == JSONPath.STEP_FILTER
+						&& (next & (1L << (i + 1))) == 0 && filterMatches(step.filter, valuePos)) {
+					next |= 1L << (i + 1);
+				}
+			}
+			reader.getToPosition(valuePos);
+			parser.moveToNextByte();
+		}
+		byte first = parser.getCurByte();
+		boolean isContainer = first == '{' || first == '[';
+		long deeperStates = next & ~matchState;
+		JSONNode match = null;
+		if ((next & matchState) != 0) {
+			if (cursor.isArray()) {
+				name = "" + index;
+			} else if (name == null) {
+				name = new String(parser.getRawString(), 0, rawLength, StandardCharsets.UTF_8);
+			}
+			match = parser.parseValue(name, startPos, false, false);
+		}
+		if (deeperStates != 0 && isContainer) {
+			debug("Enter the container at pos " + valuePos + " with states " + Long.toBinaryString(deeperStates));
+			stack.push(new Frame(new ChildCursor(valuePos, first == '['), deeperStates));
+		} else {
+			if (match == null) {
+				parser.skipValue();
+			}
+			cursor.moveAfterChild(reader.getFilePosition());
+		}
+		return match;
+	}
+
+	private boolean stepMatches(JSONPath.Step step, boolean inArray, long index, String name, int rawLength) {
+		switch (step.type) {
+		case JSONPath.STEP_WILDCARD:
+			return true;
+		case JSONPath.STEP_INDEX:
+			return inArray && index == step.index;
+		case JSONPath.STEP_NAME:
+			if (inArray) {
+				return false;
+			}
+			if (name != null) {
+				return name.equals(step.name);
+			}
+			if (rawLength != step.nameBytes.length) {
+				return false;
+			}
+			byte[] rawString = parser.getRawString();
+			for (int i = 0; i < rawLength; i++) {
+				if (rawString[i] != step.nameBytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Check a filter against the value at a given position. The reader is
+	 * moved.
+	 */
+	private boolean filterMatches(JSONPath.Filter filter, long valuePos) throws IOException, IllegalFormatException {
+		JSONNode node = parser.resolvePointerAt(valuePos, filter.path);
+		if (node == null || !node.isLeaf()) {
+			return filter.matches(node, null);
+		}
+		String value = node.getValue();
+		if (!node.isFullyLoaded()) {
+			value = parser.loadStringAtPosition(node.getValueFilePosition(), node.getEndFilePosition());
+		}
+		return filter.matches(node, value);
+	}
+
+	private void debug(String msg) {
+		if (DEBUG) {
+			System.out.println(msg);
+		}
+	}
+
+	private static class Frame {
+		private final ChildCursor cursor;
+		/**
+		 * steps that the children of the container can match
+		 */
+		private final long states;
+
+		Frame(ChildCursor cursor, long states) {
+			this.cursor = cursor;
+			this.states = states;
+		}
+	}
+}
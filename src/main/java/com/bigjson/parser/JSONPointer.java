@@ -0,0 +1,139 @@
+package com.bigjson.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled JSON Pointer (RFC 6901), e.g. <code>/data/items/12/price</code>.
+ * The pointer string is parsed once: its reference tokens are unescaped
+ * (<code>~1</code> to <code>/</code> and <code>~0</code> to <code>~</code>)
+ * and encoded into UTF-8 bytes, so that names in a file can be compared with
+ * them without decoding (see {@link JSONLoader#resolvePointer(JSONPointer)}).
+ * <br>
+ * A pointer can be reused any number of times.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc6901">RFC 6901</a>
+ * @author nikanka
+ *
+ */
+public final class JSONPointer {
+	private final String pointer;
+	private final String[] tokens;
+	private final byte[][] tokenBytes;
+	private final long[] arrayIndices;
+
+	private JSONPointer(String pointer, List<String> tokens) {
+		this.pointer = pointer;
+		this.tokens = tokens.toArray(new String[tokens.size()]);
+		this.tokenBytes = new byte[this.tokens.length][];
+		this.arrayIndices = new long[this.tokens.length];
+		for (int i = 0; i < this.tokens.length; i++) {
+			tokenBytes[i] = this.tokens[i].getBytes(StandardCharsets.UTF_8);
+			arrayIndices[i] = parseArrayIndex(this.tokens[i]);
+		}
+	}
+
+	/**
+	 * Parse a JSON Pointer string.
+	 *
+	 * @param pointer
+	 *            a pointer, e.g. <code>/data/items/12/price</code>. An empty
+	 *            string points to the root
+	 * @return the compiled pointer
+	 * @throws IllegalArgumentException
+	 *             if the pointer does not start with '/' or contains a '~'
+	 *             that is not followed by '0' or '1'
+	 */
+	public static JSONPointer compile(String pointer) {
+		List<String> tokens = new ArrayList<String>();
+		if (!pointer.isEmpty()) {
+			if (pointer.charAt(0) != '/') {
+				throw new IllegalArgumentException("JSON pointer should start with '/': " + pointer);
+			}
+			StringBuilder token = new StringBuilder();
+			for (int i = 1; i <= pointer.length(); i++) {
+				char ch = i < pointer.length() ? pointer.charAt(i) : '/';
+				if (ch == '/') {
+					tokens.add(token.toString());
+					token.setLength(0);
+				} else if (ch == '~') {
+					char next = i + 1 < pointer.length() ? pointer.charAt(i + 1) : 0;
+					if (next != '0' && next != '1') {
+						throw new IllegalArgumentException("Invalid escape sequence at pos " + i + " of JSON pointer: "
+								+ pointer);
+					}
+					token.append(next == '0' ? '~' : '/');
+					i++;
+				} else {
+					token.append(ch);
+				}
+			}
+		}
+		return new JSONPointer(pointer, tokens);
+	}
+
+	/**
+	 * Create a pointer from unescaped reference tokens.
+	 */
+	static JSONPointer fromTokens(List<String> tokens) {
+		StringBuilder pointer = new StringBuilder();
+		for (String token : tokens) {
+			pointer.append('/').append(token.replace("~", "~0").replace("/", "~1"));
+		}
+		return new JSONPointer(pointer.toString(), tokens);
+	}
+
+	/**
+	 * @return an index of an array element if the token is a valid one ("0"
+	 *         or digits without leading zeros), -1 otherwise
+	 */
+	private static long parseArrayIndex(String token) {
+		if (token.isEmpty() || token.length() > 18 || (token.charAt(0) == '0' && token.length() > 1)) {
+			return -1;
+		}
+		long index = 0;
+		for (int i = 0; i < token.length(); i++) {
+			char ch = token.charAt(i);
+			if (ch < '0' || ch > '9') {
+				return -1;
+			}
+			index = index * 10 + ch - '0';
+		}
+		return index;
+	}
+
+	/**
+	 * @return number of reference tokens (0 for the pointer to the root)
+	 */
+	public int getTokenNum() {
+		return tokens.length;
+	}
+
+	/**
+	 * @return unescaped reference token <code>i</code>
+	 */
+	public String getToken(int i) {
+		return tokens[i];
+	}
+
+	/**
+	 * @return UTF-8 bytes of the unescaped reference token <code>i</code>
+	 */
+	byte[] getTokenBytes(int i) {
+		return tokenBytes[i];
+	}
+
+	/**
+	 * @return the array index the token <code>i</code> refers to, or -1 if
+	 *         the token can not be an array index
+	 */
+	long getArrayIndex(int i) {
+		return arrayIndices[i];
+	}
+
+	@Override
+	public String toString() {
+		return pointer;
+	}
+}
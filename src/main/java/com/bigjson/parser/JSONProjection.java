@@ -0,0 +1,102 @@
+package com.bigjson.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A set of member names to load from objects, e.g. <code>id</code>,
+ * <code>name</code> and <code>price</code> out of dozens of members of every
+ * item (see {@link JSONLoader#loadChildren(JSONNode, JSONProjection)}). The
+ * names are encoded into UTF-8 bytes once, so that the names in a file can be
+ * compared with them without decoding, and the members with other names are
+ * skipped without creating nodes for them. <br>
+ * A projection can be reused any number of times.
+ *
+ * @author nikanka
+ *
+ */
+public final class JSONProjection {
+	private final Set<String> names;
+	private final byte[][] nameBytes;
+
+	private JSONProjection(Set<String> names) {
+		this.names = names;
+		this.nameBytes = new byte[names.size()][];
+		int i = 0;
+		for (String name : names) {
+			nameBytes[i++] = name.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * @param names
+	 *            names of the object members to load
+	 */
+	public static JSONProjection of(String... names) {
+		return of(Arrays.asList(names));
+	}
+
+	/**
+	 * @param names
+	 *            names of the object members to load
+	 */
+	public static JSONProjection of(Collection<String> names) {
+		return new JSONProjection(new HashSet<String>(names));
+	}
+
+	/**
+	 * @return number of names in the projection
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * @return if the projection contains a given name
+	 */
+	public boolean contains(String name) {
+		return names.contains(name);
+	}
+
+	/**
+	 * Check if the projection contains a name given by its raw UTF-8 bytes.
+	 *
+	 * @param bytes
+	 *            a buffer with the name in the beginning
+	 * @param length
+	 *            number of bytes of the name
+	 */
+	boolean contains(byte[] bytes, int length) {
+		for (byte[] name : nameBytes) {
+			if (name.length != length) {
+				continue;
+			}
+			int i = 0;
+			while (i < length && name[i] == bytes[i]) {
+				i++;
+			}
+			if (i == length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof JSONProjection && names.equals(((JSONProjection) obj).names);
+	}
+
+	@Override
+	public int hashCode() {
+		return names.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return names.toString();
+	}
+}
@@ -0,0 +1,540 @@
+package com.bigjson.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Forward-only (pull) parser of a JSON text: the text is read token by token
+ * with {@link #nextToken()} and no tree nodes are created at all, so a file of
+ * any size is processed in constant memory.<br>
+ * <br>
+ * Tokens are not allocated: the current token is described by the state of
+ * the parser (see {@link #getCurrentToken()}, {@link #getCurrentName()},
+ * {@link #getText()}, {@link #getLongValue()} etc.). Names are decoded into a
+ * reused buffer, string values are decoded only if {@link #getText()} is
+ * called and skipped without decoding otherwise. {@link #skipChildren()}
+ * jumps over the rest of an object or an array the same way the lazy parser
+ * does (see {@link UTF8FileReader#skipContainer(byte)}).<br>
+ * <br>
+ * The structure of the text is checked token by token, except for the
+ * containers skipped with {@link #skipChildren()}.
+ *
+ * @author nikanka
+ *
+ */
+public class JSONPullParser implements Closeable {
+	public static enum Token {
+		START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, FIELD_NAME, VALUE_STRING, VALUE_NUMBER, VALUE_TRUE,
+		VALUE_FALSE, VALUE_NULL
+	}
+
+	private static final boolean DEBUG = false;
+
+	private static final String KEYWORD_TRUE = "true";
+	private static final String KEYWORD_FALSE = "false";
+	private static final String KEYWORD_NULL = "null";
+
+	// what is expected after the current token
+	private static final int EXPECT_VALUE = 0;
+	private static final int EXPECT_VALUE_OR_END = 1;
+	private static final int EXPECT_NAME = 2;
+	private static final int EXPECT_NAME_OR_END = 3;
+	private static final int EXPECT_COLON = 4;
+	private static final int EXPECT_COMMA_OR_END = 5;
+	private static final int EXPECT_END_OF_INPUT = 6;
+
+	private final UTF8FileReader reader;
+	private final NumberCheckingStateMachine numberChecker = new NumberCheckingStateMachine();
+
+	private int expect = EXPECT_VALUE;
+	/**
+	 * opening brackets of the containers the current token is in
+	 */
+	private byte[] stack = new byte[64];
+	private int depth = 0;
+
+	private Token currentToken = null;
+	private long tokenStartPos = -1;
+
+	private final StringBuilder name = new StringBuilder();
+	private boolean hasName = false;
+	private String nameString = null;
+
+	private final StringBuilder text = new StringBuilder();
+	/**
+	 * if the current token is a string which is neither decoded nor skipped
+	 * yet (the reader is just after its opening quote)
+	 */
+	private boolean stringPending = false;
+	private String textString = null;
+
+	private byte[] number = new byte[32];
+	private int numberLength = 0;
+	private boolean isInteger = false;
+
+	public JSONPullParser(File file) throws IOException {
+		this(file, false);
+	}
+
+	/**
+	 * @param file
+	 * @param memoryMapped
+	 *            if the file should be accessed via memory-mapped buffers
+	 * @throws IOException
+	 *             if file is not found or empty or if an I/O error occurs while
+	 *             reading bytes from the file
+	 */
+	public JSONPullParser(File file, boolean memoryMapped) throws IOException {
+		this(memoryMapped ? new MappedFileByteSource(file) : new FileByteSource(file));
+	}
+
+	/**
+	 * Create a pull parser for a given source of bytes. The source is closed
+	 * when the parser is closed.
+	 *
+	 * @param source
+	 * @throws IOException
+	 *             if the source is empty or if an I/O error occurs while
+	 *             reading bytes from it
+	 */
+	public JSONPullParser(ByteSource source) throws IOException {
+		reader = new UTF8FileReader(source);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Move to the next token.
+	 *
+	 * @return the next token or null if the end of the input is reached
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if the text does not match JSON format
+	 */
+	@SuppressWarnings("fallthrough")
+	public Token nextToken() throws IOException, IllegalFormatException {
+		if (stringPending) {
+			skipPendingString();
+		}
+		if (currentToken != Token.FIELD_NAME) {
+			// the name belongs to the value following it only
+			hasName = false;
+		}
+		textString = null;
+		while (true) {
+			if (!moveToNextNonspaceByte()) {
+				if (expect != EXPECT_END_OF_INPUT) {
+					throwIllegalFormatExceptionWithFilePos("Unexpected end of input");
+				}
+				currentToken = null;
+				return null;
+			}
+			tokenStartPos = reader.getFilePosition();
+			byte b = reader.getNextByte();
+			switch (expect) {
+			case EXPECT_VALUE_OR_END:
+				if (b == ']') {
+					return endContainer(b);
+				}
+				return startValue(b);
+			case EXPECT_VALUE:
+				return startValue(b);
+			case EXPECT_NAME_OR_END:
+				if (b == '}') {
+					return endContainer(b);
+				}
+				// no break: a name is expected
+			case EXPECT_NAME:
+				if (b != '"') {
+					throwIllegalFormatExceptionWithFilePos(
+							"Expected a name in an object, got '" + byteToChar(b) + "'");
+				}
+				readString(name);
+				hasName = true;
+				nameString = null;
+				expect = EXPECT_COLON;
+				return setCurrentToken(Token.FIELD_NAME);
+			case EXPECT_COLON:
+				if (b != ':') {
+					throwIllegalFormatExceptionWithFilePos(
+							"Invalid separator between name and value in an object: '" + byteToChar(b) + "'");
+				}
+				expect = EXPECT_VALUE;
+				break;
+			case EXPECT_COMMA_OR_END:
+				if (b == ',') {
+					expect = stack[depth - 1] == '{' ? EXPECT_NAME : EXPECT_VALUE;
+					break;
+				}
+				if (b == '}' || b == ']') {
+					return endContainer(b);
+				}
+				throwIllegalFormatExceptionWithFilePos("Unexpected symbol after an element of "
+						+ (stack[depth - 1] == '{' ? "an object" : "an array") + ": '" + byteToChar(b) + "'");
+			default:
+				throwIllegalFormatExceptionWithFilePos(
+						"The JSON structure contains non-space symbols outside the root: '" + byteToChar(b) + "'");
+			}
+		}
+	}
+
+	/**
+	 * If the current token is {@link Token#START_OBJECT} or
+	 * {@link Token#START_ARRAY}, skip all the tokens of the container, so that
+	 * the current token becomes the matching {@link Token#END_OBJECT} or
+	 * {@link Token#END_ARRAY}. Otherwise do nothing.<br>
+	 * The skipped tokens are not validated (except for the matching of
+	 * brackets).
+	 *
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if the closing bracket is not found
+	 */
+	public void skipChildren() throws IOException, IllegalFormatException {
+		if (currentToken != Token.START_OBJECT && currentToken != Token.START_ARRAY) {
+			return;
+		}
+		byte openingBracket = stack[depth - 1];
+		try {
+			tokenStartPos = reader.skipContainer(openingBracket);
+		} catch (IllegalFormatException e) {
+			throwIllegalFormatExceptionWithFilePos(e.getMessage() + " while skipping children of "
+					+ (openingBracket == '{' ? "an object" : "an array") + " at pos " + tokenStartPos);
+		}
+		if (DEBUG) {
+			debug("Skipped children up to pos " + tokenStartPos);
+		}
+		hasName = false;
+		endContainer((byte) (openingBracket == '{' ? '}' : ']'));
+	}
+
+	/**
+	 * @return the current token or null if no token has been read yet or the
+	 *         end of input is reached
+	 */
+	public Token getCurrentToken() {
+		return currentToken;
+	}
+
+	/**
+	 * @return the name of the current field, if the current token is a
+	 *         {@link Token#FIELD_NAME} or a value (or the start of a value)
+	 *         directly following it; null otherwise
+	 */
+	public String getCurrentName() {
+		if (!hasName) {
+			return null;
+		}
+		if (nameString == null) {
+			nameString = name.toString();
+		}
+		return nameString;
+	}
+
+	/**
+	 * @return file position of the first byte of the current token (an
+	 *         opening quote for strings and names)
+	 */
+	public long getTokenStartOffset() {
+		return tokenStartPos;
+	}
+
+	/**
+	 * @return number of containers that are open at the current token
+	 *         (including the one started by the current token and excluding
+	 *         the one ended by it)
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Return the text of the current token: a decoded string for
+	 * {@link Token#VALUE_STRING} and {@link Token#FIELD_NAME}, a number or a
+	 * keyword as it is in the text, a bracket for the start and end tokens
+	 *
+	 * @return the text of the current token or null if there is no current
+	 *         token
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if the current token is a string which format does not
+	 *             match JSON format
+	 */
+	public String getText() throws IOException, IllegalFormatException {
+		if (currentToken == null) {
+			return null;
+		}
+		if (textString != null) {
+			return textString;
+		}
+		switch (currentToken) {
+		case FIELD_NAME:
+			return getCurrentName();
+		case VALUE_STRING:
+			if (stringPending) {
+				stringPending = false;
+				readString(text);
+			}
+			textString = text.toString();
+			break;
+		case VALUE_NUMBER:
+			textString = new String(number, 0, numberLength, StandardCharsets.US_ASCII);
+			break;
+		case VALUE_TRUE:
+			return KEYWORD_TRUE;
+		case VALUE_FALSE:
+			return KEYWORD_FALSE;
+		case VALUE_NULL:
+			return KEYWORD_NULL;
+		case START_OBJECT:
+			return "{";
+		case END_OBJECT:
+			return "}";
+		case START_ARRAY:
+			return "[";
+		default:
+			return "]";
+		}
+		return textString;
+	}
+
+	/**
+	 * @return the value of the current {@link Token#VALUE_NUMBER} token. The
+	 *         value is computed without creating any objects
+	 * @throws IllegalStateException
+	 *             if the current token is not a number
+	 * @throws NumberFormatException
+	 *             if the number is not an integer or does not fit into a long
+	 */
+	public long getLongValue() {
+		checkNumberToken();
+		if (!isInteger) {
+			throw new NumberFormatException("Not an integer: " + getNumberText());
+		}
+		boolean negative = number[0] == '-';
+		long value = 0;
+		// accumulate a negative value, since its range is bigger
+		for (int i = negative ? 1 : 0; i < numberLength; i++) {
+			int digit = number[i] - '0';
+			if (value < (Long.MIN_VALUE + digit) / 10) {
+				throw new NumberFormatException("The number does not fit into a long: " + getNumberText());
+			}
+			value = value * 10 - digit;
+		}
+		if (!negative) {
+			if (value == Long.MIN_VALUE) {
+				throw new NumberFormatException("The number does not fit into a long: " + getNumberText());
+			}
+			value = -value;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the value of the current {@link Token#VALUE_NUMBER} token
+	 * @throws IllegalStateException
+	 *             if the current token is not a number
+	 */
+	public double getDoubleValue() {
+		checkNumberToken();
+		return Double.parseDouble(getNumberText());
+	}
+
+	private void checkNumberToken() {
+		if (currentToken != Token.VALUE_NUMBER) {
+			throw new IllegalStateException("The current token is not a number: " + currentToken);
+		}
+	}
+
+	private String getNumberText() {
+		return new String(number, 0, numberLength, StandardCharsets.US_ASCII);
+	}
+
+	private Token setCurrentToken(Token token) {
+		currentToken = token;
+		if (DEBUG) {
+			debug("Token " + token + " at pos " + tokenStartPos);
+		}
+		return token;
+	}
+
+	/**
+	 * Start a value which first byte <code>b</code> has just been read
+	 */
+	private Token startValue(byte b) throws IOException, IllegalFormatException {
+		switch (b) {
+		case '{':
+		case '[':
+			if (depth == stack.length) {
+				stack = Arrays.copyOf(stack, depth * 2);
+			}
+			stack[depth++] = b;
+			expect = b == '{' ? EXPECT_NAME_OR_END : EXPECT_VALUE_OR_END;
+			return setCurrentToken(b == '{' ? Token.START_OBJECT : Token.START_ARRAY);
+		case '"':
+			stringPending = true;
+			return endValue(Token.VALUE_STRING);
+		case 't':
+			readKeyword(KEYWORD_TRUE);
+			return endValue(Token.VALUE_TRUE);
+		case 'f':
+			readKeyword(KEYWORD_FALSE);
+			return endValue(Token.VALUE_FALSE);
+		case 'n':
+			readKeyword(KEYWORD_NULL);
+			return endValue(Token.VALUE_NULL);
+		default:
+			if (b == ',' || b == ':' || b == '}' || b == ']') {
+				throwIllegalFormatExceptionWithFilePos("Expected a value, got '" + byteToChar(b) + "'");
+			}
+			readNumber(b);
+			return endValue(Token.VALUE_NUMBER);
+		}
+	}
+
+	private Token endValue(Token token) {
+		expect = depth == 0 ? EXPECT_END_OF_INPUT : EXPECT_COMMA_OR_END;
+		return setCurrentToken(token);
+	}
+
+	/**
+	 * End the current container with the closing bracket <code>b</code>
+	 */
+	private Token endContainer(byte b) throws IllegalFormatException {
+		byte openingBracket = stack[--depth];
+		if (openingBracket != (b == '}' ? '{' : '[')) {
+			throwIllegalFormatExceptionWithFilePos("Closing bracket '" + byteToChar(b)
+					+ "' does not match the opening one '" + byteToChar(openingBracket) + "'");
+		}
+		return endValue(b == '}' ? Token.END_OBJECT : Token.END_ARRAY);
+	}
+
+	/**
+	 * Decode a string which opening quote has just been read and read its
+	 * closing quote
+	 */
+	private void readString(StringBuilder sb) throws IOException, IllegalFormatException {
+		sb.setLength(0);
+		try {
+			if (reader.peekNextByte() != '"') {
+				reader.prepareForReadingAString();
+				while (reader.isReadingString()) {
+					sb.append(reader.getNextProcessedChar());
+				}
+			}
+		} catch (IllegalFormatException e) {
+			throwIllegalFormatExceptionWithFilePos(
+					e.getMessage() + " while reading a String (opening quote at pos " + tokenStartPos + ")");
+		}
+		readClosingQuote();
+	}
+
+	private void skipPendingString() throws IOException, IllegalFormatException {
+		stringPending = false;
+		try {
+			reader.skipTheString();
+		} catch (IllegalFormatException e) {
+			throwIllegalFormatExceptionWithFilePos(
+					e.getMessage() + " while skipping a String (opening quote at pos " + tokenStartPos + ")");
+		}
+		readClosingQuote();
+	}
+
+	private void readClosingQuote() throws IOException, IllegalFormatException {
+		byte b = reader.getNextByte();
+		if (b != '"') {
+			throwIllegalFormatExceptionWithFilePos(
+					"Expected a quote at the end of a string, got: '" + byteToChar(b) + "'");
+		}
+	}
+
+	/**
+	 * Read the rest of a keyword which first byte has just been read
+	 */
+	private void readKeyword(String keyword) throws IOException, IllegalFormatException {
+		for (int i = 1; i < keyword.length(); i++) {
+			byte b = reader.getNextByte();
+			if (b != keyword.charAt(i)) {
+				throwIllegalFormatExceptionWithFilePos("Unexpected keyword: should be '" + keyword + "', got '"
+						+ byteToChar(b) + "' at keyword pos " + i);
+			}
+		}
+	}
+
+	/**
+	 * Read the rest of a number which first byte <code>b</code> has just been
+	 * read
+	 */
+	private void readNumber(byte b) throws IOException, IllegalFormatException {
+		numberChecker.reset();
+		numberLength = 0;
+		isInteger = true;
+		try {
+			while (true) {
+				numberChecker.push(b);
+				if (numberLength == number.length) {
+					number = Arrays.copyOf(number, numberLength * 2);
+				}
+				number[numberLength++] = b;
+				if (b == '.' || b == 'e' || b == 'E') {
+					isInteger = false;
+				}
+				if (!reader.hasNext()) {
+					break;
+				}
+				b = reader.peekNextByte();
+				if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+					break;
+				}
+				reader.getNextByte();
+			}
+		} catch (IllegalFormatException e) {
+			throwIllegalFormatExceptionWithFilePos(e.getMessage() + " while reading a number");
+		}
+		if (!numberChecker.numberIsFinished()) {
+			throwIllegalFormatExceptionWithFilePos("Number '" + getNumberText() + "' is not finished");
+		}
+	}
+
+	/**
+	 * Skip whitespaces before the next byte to read
+	 *
+	 * @return false if the end of input is reached
+	 */
+	private boolean moveToNextNonspaceByte() throws IOException, IllegalFormatException {
+		while (reader.hasNext()) {
+			if (!isWhitespace(reader.peekNextByte())) {
+				return true;
+			}
+			reader.getNextByte();
+		}
+		return false;
+	}
+
+	/**
+	 * Check if a byte is a whitespace in JSON (space, tab, line feed or
+	 * carriage return)
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+	}
+
+	private static char byteToChar(byte b) {
+		return (char) (b & 0xFF);
+	}
+
+	private void throwIllegalFormatExceptionWithFilePos(String msg) throws IllegalFormatException {
+		throw new IllegalFormatException(
+				msg + " at pos " + (reader.getFilePosition() - 1) + " of " + reader.getSourceName());
+	}
+
+	private void debug(String msg) {
+		if (DEBUG) System.out.println("DEBUG: " + msg);
+	}
+}
@@ -3,10 +3,28 @@ package com.bigjson.parser;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.bigjson.parser.StringSearchInfo.SearchScope;
 
 public class JSONSearch implements Closeable{
+	/**
+	 * Chunks smaller than this are not worth searching in parallel
+	 */
+	private static final long MIN_PARALLEL_CHUNK_SIZE = 1 << 22;
 	
 	private enum SearchableTokenType{
 		STRING, NONSTRING
@@ -14,16 +32,49 @@ public class JSONSearch implements Closeable{
 	private UTF8FileReader reader;
 	private byte curByte;
 	private SearchableTokenType curToken = null;
+	/**
+	 * If the current byte is inside of an escape sequence of a string (a match
+	 * can not start there)
+	 */
+	private boolean curByteIsEscaped = false;
 	/**
 	 * String state machine for the head of the scanning window(s), it contains
 	 * state for the next (to-be-read) byte.
 	 */
 	private StringReadingStateMachine headStateMachine;
+	/**
+	 * Tokens to search in, strings out of scope are skipped without looking at
+	 * their bytes
+	 */
+	private SearchScope scope = SearchScope.ANY;
+	/**
+	 * If the current (or the last) string is an object name
+	 * ({@link SearchScope#KEYS}) or a value
+	 * ({@link SearchScope#STRING_VALUES}), or null if it is not known yet. It
+	 * is known at the start of a string after '{', ':' or '[' and at the first
+	 * byte after the string otherwise (a name is followed by ':')
+	 */
+	private SearchScope curStringKind = null;
+	/**
+	 * If the kind of the last string is known at the next byte that is not a
+	 * whitespace
+	 */
+	private boolean stringKindIsPending = false;
+	/**
+	 * The last byte outside of tokens that is not a whitespace, or 0 if it is
+	 * not known
+	 */
+	private byte lastStructuralByte = 0;
+	private volatile TrigramIndex trigramIndex = null;
 	
 	public JSONSearch(File file) throws IOException{
 		this(new UTF8FileReader(file));
 	}
 	
+	public JSONSearch(ByteSource source) throws IOException{
+		this(new UTF8FileReader(source));
+	}
+	
 	public JSONSearch(UTF8FileReader reader) throws IOException{
 		this.reader = reader;
 		headStateMachine = new StringReadingStateMachine(StringReadingStateMachine.MODE_CHECK_ASCII);
@@ -41,6 +92,29 @@ public class JSONSearch implements Closeable{
 	public Charset getCharset(){
 		return reader.getCharset();
 	}
+
+	/**
+	 * Use a trigram index of the file to skip the parts of the file that can
+	 * not contain a match in {@link #findNextMatch(StringSearchInfo)}. The
+	 * remaining parts are scanned as usual, so the matches are the same as
+	 * without the index.<br>
+	 * Like a scan from the search start, which takes the start to be out of
+	 * any searchable token, the index relies on the search start to be on a
+	 * token boundary. After a skipped part the state is taken from the index
+	 * (see {@link TrigramIndex#blockStartsInString(int)}), so if a search
+	 * starts inside a string, the matches found with and without the index
+	 * can differ.
+	 * 
+	 * @param index
+	 *            an index of the file or null to scan whole search ranges
+	 */
+	public void setTrigramIndex(TrigramIndex index){
+		this.trigramIndex = index;
+	}
+
+	public TrigramIndex getTrigramIndex(){
+		return trigramIndex;
+	}
 	/**
 	 * 
 	 * @param searchInfo
@@ -59,6 +133,7 @@ public class JSONSearch implements Closeable{
 			
 		}
 		reader.getToPosition(searchInfo.getCurSearchStartPos());
+		scope = searchInfo.getScope();
 		if(searchInfo.getLastMatchPos() < 0){
 			// if it is the first search it should not be inside of a searchable token
 			curToken = null;
@@ -66,12 +141,35 @@ public class JSONSearch implements Closeable{
 			curToken = searchInfo.isLastMatchWitninString() ? SearchableTokenType.STRING
 					: SearchableTokenType.NONSTRING;
 		}
+		// the string of the last match is in scope
+		resetContext(curToken == SearchableTokenType.STRING ? scope : null);
 	}
 	
+	/**
+	 * Create a new search in a range of the file.
+	 * 
+	 * @param searchStartPos
+	 *            position to start the search from; it should not be inside
+	 *            of a string or another searchable token
+	 */
 	public StringSearchInfo createNewSearch(String stringToSearch, long searchStartPos, long searchEndPos,
 			boolean caseSensitive, boolean searchForAltUnicode) {
+		return createNewSearch(stringToSearch, searchStartPos, searchEndPos, caseSensitive, searchForAltUnicode,
+				SearchScope.ANY);
+	}
+
+	/**
+	 * Create a new search that finds matches only in the tokens of a given
+	 * scope (object names, string values, or numbers, null, false and true).
+	 * Strings out of scope are skipped without looking for matches in them.
+	 * 
+	 * @param scope
+	 *            tokens to search in
+	 */
+	public StringSearchInfo createNewSearch(String stringToSearch, long searchStartPos, long searchEndPos,
+			boolean caseSensitive, boolean searchForAltUnicode, SearchScope scope) {
 		return StringSearchInfo.createNewSearch(stringToSearch, searchStartPos, searchEndPos, caseSensitive,
-				searchForAltUnicode, reader.getCharset());
+				searchForAltUnicode, reader.getCharset(), scope);
 	}
 	
 	/**
@@ -91,49 +189,705 @@ public class JSONSearch implements Closeable{
 		initSearch(searchInfo);
 		// go along file positions keeping track of the state (within or out of a string)
 		// and recalculate the sum(s)
-		List<BytePatternMatcher> patterns = searchInfo.getPatterns();
+		TrigramIndex index = trigramIndex;
+		long[] scanRanges = index == null ? null : getScanRanges(searchInfo, index);
+		int rangeInd = 0;
+		long nextRangeCheckPos = scanRanges == null ? Long.MAX_VALUE : -1;
 		boolean prevStateIsReadable = false;
 		boolean inReadableState;
-		while(reader.hasNext() && reader.getFilePosition() < searchInfo.getSearchEndPos()){
+		// a match in a string of unknown kind (see curStringKind) waits
+		// for the end of the string
+		long pendingMatchPos = -1;
+		int pendingMatchLength = -1;
+		while(reader.hasNext() && (reader.getFilePosition() < searchInfo.getSearchEndPos() || pendingMatchPos >= 0)){
+			if(pendingMatchPos < 0 && reader.getFilePosition() >= nextRangeCheckPos){
+				// skip the bytes where no match can start
+				long pos = reader.getFilePosition();
+				while(rangeInd < scanRanges.length && scanRanges[rangeInd + 1] <= pos){
+					rangeInd += 2;
+				}
+				if(rangeInd == scanRanges.length || scanRanges[rangeInd] >= searchInfo.getSearchEndPos()){
+					break;
+				}
+				if(scanRanges[rangeInd] > pos){
+					moveToBlockStart(index, scanRanges[rangeInd], searchInfo.getSearchStartPos());
+					resetPatterns(searchInfo);
+					prevStateIsReadable = false;
+				}
+				nextRangeCheckPos = scanRanges[rangeInd + 1];
+			}
 			try{
 				inReadableState = moveToNextByte();
+				if(pendingMatchPos >= 0){
+					if(curToken == SearchableTokenType.STRING || stringKindIsPending){
+						continue;
+					}
+					if(curStringKind == scope){
+						return addMatch(searchInfo, pendingMatchPos, pendingMatchLength, true);
+					}
+					pendingMatchPos = -1;
+				}
 				if(inReadableState){ 
 					// if we are in the search-able token, update the match results
-					for(BytePatternMatcher pattern: patterns){
-						if(pattern.addNewByteAndCompare(curByte, curToken == SearchableTokenType.STRING)){
-							// found a match!
-							resetPatterns(patterns, false);
-							searchInfo.addNewSearchResult(reader.getFilePosition() - pattern.length(), pattern.length(),
-									curToken == SearchableTokenType.STRING);
-//							System.out.println("Found at pos "+searchInfo.getLastMatchPos());
-							// check if the shortest pattern fit into the remaining searching range
-							if (patterns.get(patterns.size() - 1).length() > searchInfo.getSearchEndPos()
-									-  searchInfo.getCurSearchStartPos()) {
-								searchInfo.isFinished();
-							}
-							return true;
+					int matchLength = addCurByteToPatterns(searchInfo);
+					if(matchLength > 0){
+						// found a match!
+						resetPatterns(searchInfo);
+						if(isInStringOfUnknownKind()){
+							// the rest of the string does not matter
+							pendingMatchPos = reader.getFilePosition() - matchLength;
+							pendingMatchLength = matchLength;
+							reader.skipToClosingQuote(headStateMachine.isInEscapedSequence());
+							headStateMachine.reset();
+							prevStateIsReadable = false;
+							continue;
 						}
+						return addMatch(searchInfo, reader.getFilePosition() - matchLength, matchLength,
+								curToken == SearchableTokenType.STRING);
 					}
 				} else if(prevStateIsReadable){
-					resetPatterns(patterns, true);
+					resetPatterns(searchInfo);
 				}
 			}catch(IllegalFormatException e){
-				throw new IllegalFormatException(e.getMessage() + " at pos " + reader.getFilePosition() + " of file "
-						+ reader.getFile().getName());
+				throw new IllegalFormatException(e.getMessage() + " at pos " + reader.getFilePosition() + " of "
+						+ reader.getSourceName());
 			}
 			prevStateIsReadable = inReadableState;
 		}		
+		if(pendingMatchPos >= 0 && stringKindIsPending && scope == SearchScope.STRING_VALUES){
+			// nothing follows the string, so it is a value
+			return addMatch(searchInfo, pendingMatchPos, pendingMatchLength, true);
+		}
 		// we reached up to the end of the search range and found nothing
-		resetPatterns(patterns, true);
+		resetPatterns(searchInfo);
 		searchInfo.addNewSearchResult(-1, -1, searchInfo.isLastMatchWitninString());
 		return false;
 	}
+
+	private boolean addMatch(StringSearchInfo searchInfo, long matchPos, int matchLength, boolean isInString){
+		searchInfo.addNewSearchResult(matchPos, matchLength, isInString);
+//		System.out.println("Found at pos "+searchInfo.getLastMatchPos());
+		List<BytePatternMatcher> patterns = searchInfo.getPatterns();
+		// check if the shortest pattern fit into the remaining searching range
+		if (patterns.get(patterns.size() - 1).length() > searchInfo.getSearchEndPos()
+				-  searchInfo.getCurSearchStartPos()) {
+			searchInfo.isFinished();
+		}
+		return true;
+	}
 	
-	private static void resetPatterns(List<BytePatternMatcher> patterns, boolean endOfToken){
-		for(BytePatternMatcher pattern: patterns){
-			pattern.reset(endOfToken);
+	/**
+	 * Find the parts of the file to scan to find all matches of a search:
+	 * the candidate blocks of the patterns (see
+	 * {@link TrigramIndex#getCandidateBlocks(byte[])}) with the bytes that a
+	 * match starting in a block can take from the next blocks.
+	 * 
+	 * @return sorted disjoint ranges <code>[start, end)</code> (as pairs of
+	 *         positions) or null if the whole search range should be scanned
+	 */
+	private static long[] getScanRanges(StringSearchInfo searchInfo, TrigramIndex index) throws IOException{
+		if(searchInfo.getScanRangesIndex() == index){
+			return searchInfo.getScanRanges();
+		}
+		BitSet blocks = new BitSet(index.getBlockNum());
+		int maxLength = 0;
+		long[] ranges = null;
+		for(BytePatternMatcher pattern: searchInfo.getPatterns()){
+			int[] candidates = index.getCandidateBlocks(pattern.getTargetBytes());
+			if(candidates == null){
+				// a short pattern can be anywhere
+				blocks = null;
+				break;
+			}
+			for(int block: candidates){
+				blocks.set(block);
+			}
+			maxLength = Math.max(maxLength, pattern.length());
+		}
+		if(blocks != null){
+			long blockSize = index.getBlockSize();
+			long[] list = new long[16];
+			int n = 0;
+			for(int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b)){
+				int end = blocks.nextClearBit(b);
+				long rangeStart = b * blockSize;
+				long rangeEnd = end * blockSize + maxLength - 1;
+				if(n > 0 && rangeStart <= list[n - 1]){
+					list[n - 1] = rangeEnd;
+				} else {
+					if(n == list.length){
+						list = Arrays.copyOf(list, n * 2);
+					}
+					list[n++] = rangeStart;
+					list[n++] = rangeEnd;
+				}
+				b = end;
+			}
+			ranges = Arrays.copyOf(list, n);
+		}
+		searchInfo.setScanRanges(index, ranges);
+		return ranges;
+	}
+
+	/**
+	 * Move to the start of a block of a trigram index (or to the start of the
+	 * token or escape sequence it is in) and set the state according to the
+	 * index.
+	 */
+	private void moveToBlockStart(TrigramIndex index, long blockStart, long minPos) throws IOException{
+		ByteSource source = reader.getSource();
+		headStateMachine.reset();
+		if(index.blockStartsInString((int) (blockStart / index.getBlockSize()))){
+			reader.getToPosition(findEscapeSequenceStart(source, blockStart, minPos));
+			curToken = SearchableTokenType.STRING;
+		} else {
+			reader.getToPosition(findTokenStart(source, blockStart, minPos));
+			curToken = null;
+		}
+		resetContext(null);
+	}
+
+	/**
+	 * Find all the remaining matches of a search in one pass (see
+	 * {@link #findNextMatch(StringSearchInfo)} for what a match is). The
+	 * matches are added to <code>searchInfo</code> in file order and the
+	 * search is finished at the end. <br>
+	 * If a pool is given, the search range is split into chunks that are
+	 * searched in parallel. It is not known if a chunk starts inside a string
+	 * until the previous chunks are searched, so each chunk is searched for
+	 * both cases and the state at the end of the previous chunk tells which
+	 * result is right (like in
+	 * {@link StructuralIndex#build(ByteSource, File, int, ForkJoinPool)}). The
+	 * matches of a chunk are added to <code>searchInfo</code> as soon as the
+	 * chunk and all the previous ones are searched.
+	 * 
+	 * @param searchInfo
+	 * @param pool
+	 *            threads to search the chunks. If null, the search is done in
+	 *            the current thread
+	 * @return positions of the matches in increasing order
+	 * @throws IllegalArgumentException
+	 *             if the search is already finished
+	 *             (searchInfo.searchIsFinished() is true)
+	 */
+	public List<Long> findAllMatches(StringSearchInfo searchInfo, ForkJoinPool pool)
+			throws IOException, IllegalFormatException {
+		return findAllMatches(searchInfo, pool,
+				getChunkNum(pool, searchInfo.getSearchEndPos() - searchInfo.getCurSearchStartPos()));
+	}
+
+	/**
+	 * The same as {@link #findAllMatches(StringSearchInfo, ForkJoinPool)}
+	 * with a given number of chunks
+	 */
+	List<Long> findAllMatches(final StringSearchInfo searchInfo, ForkJoinPool pool, int chunkNum)
+			throws IOException, IllegalFormatException {
+		if(searchInfo.isFinished()){
+			throw new IllegalArgumentException("The search is already finished");
+		}
+		SearchableTokenType startToken = null;
+		if(searchInfo.getLastMatchPos() >= 0){
+			startToken = searchInfo.isLastMatchWitninString() ? SearchableTokenType.STRING
+					: SearchableTokenType.NONSTRING;
+		}
+		final List<Long> ret = new ArrayList<Long>();
+		List<BytePatternMatcher> patterns = searchInfo.getPatterns();
+		collectMatches(patterns, new int[patterns.size()], searchInfo.getCurSearchStartPos(), startToken,
+				searchInfo.getScope(), searchInfo.getSearchStartPos(), searchInfo.getSearchEndPos(), pool, chunkNum, new MatchConsumer() {
+					@Override
+					public void add(MatchList matches) {
+						for(int i = 0; i < matches.size; i++){
+							searchInfo.addNewSearchResult(matches.positions[i], matches.lengths[i],
+									matches.inString[i]);
+							ret.add(matches.positions[i]);
+						}
+					}
+				});
+		searchInfo.addNewSearchResult(-1, -1, searchInfo.isLastMatchWitninString());
+		return ret;
+	}
+
+	/**
+	 * Find all occurrences of several strings within the range
+	 * <code>[searchStartPos, searchEndPos)</code> in one pass over the file.
+	 * The same as
+	 * {@link #findAllMatches(Collection, long, long, boolean, boolean, ForkJoinPool)}
+	 * without a pool.
+	 */
+	public Map<String, List<Long>> findAllMatches(Collection<String> stringsToSearch, long searchStartPos,
+			long searchEndPos, boolean caseSensitive, boolean searchForAltUnicode)
+			throws IOException, IllegalFormatException {
+		return findAllMatches(stringsToSearch, searchStartPos, searchEndPos, caseSensitive, searchForAltUnicode,
+				null);
+	}
+
+	/**
+	 * Find all occurrences of several strings within the range
+	 * <code>[searchStartPos, searchEndPos)</code> in one pass over the file.
+	 * Like in {@link #findNextMatch(StringSearchInfo)}, strings are searched
+	 * in leaf nodes (string, number, boolean or null values) and object
+	 * names, but the occurrences of one string can overlap with the
+	 * occurrences of the others. <br>
+	 * IMPORTANT: the start position of a search should be outside of a
+	 * searchable token.
+	 * 
+	 * @param stringsToSearch
+	 *            strings to search (repeated strings are searched once)
+	 * @param searchStartPos
+	 *            inclusive start position of the search
+	 * @param searchEndPos
+	 *            exclusive end position of the search
+	 * @param caseSensitive
+	 * @param searchForAltUnicode
+	 *            if true also search for alternative strings with non-ASCII
+	 *            chars substituted by \\uhhhh sequences
+	 * @param pool
+	 *            threads to search parts of the range in parallel (see
+	 *            {@link #findAllMatches(StringSearchInfo, ForkJoinPool)}). If
+	 *            null, the search is done in the current thread
+	 * @return a map from every string to the list of positions of its
+	 *         occurrences in increasing order (empty if there are no
+	 *         occurrences). The map keeps the order of
+	 *         <code>stringsToSearch</code>
+	 * @throws IllegalArgumentException
+	 *             if there are no strings to search or one of them is empty,
+	 *             or if search end pos is not bigger than search start pos
+	 */
+	public Map<String, List<Long>> findAllMatches(Collection<String> stringsToSearch, long searchStartPos,
+			long searchEndPos, boolean caseSensitive, boolean searchForAltUnicode, ForkJoinPool pool)
+			throws IOException, IllegalFormatException {
+		if(stringsToSearch.isEmpty()){
+			throw new IllegalArgumentException("No strings to search");
+		}
+		if(searchEndPos <= searchStartPos){
+			throw new IllegalArgumentException("Search end pos should be bigger than search start pos (got ["
+					+ searchStartPos + ", " + searchEndPos + "))");
+		}
+		Map<String, List<Long>> ret = new LinkedHashMap<String, List<Long>>();
+		final List<List<Long>> stringMatches = new ArrayList<List<Long>>();
+		List<BytePatternMatcher> patterns = new ArrayList<BytePatternMatcher>();
+		List<Integer> patternStrings = new ArrayList<Integer>();
+		for(String str: stringsToSearch){
+			if(str.length() == 0){
+				throw new IllegalArgumentException("Cannot search for an empty string");
+			}
+			if(ret.containsKey(str)){
+				continue;
+			}
+			List<Long> matches = new ArrayList<Long>();
+			ret.put(str, matches);
+			for(BytePatternMatcher pattern: BytePatternMatcher.createPatternsForString(str, reader.getCharset(),
+					caseSensitive, searchForAltUnicode)){
+				patterns.add(pattern);
+				patternStrings.add(stringMatches.size());
+			}
+			stringMatches.add(matches);
+		}
+		int[] patternStringArr = new int[patterns.size()];
+		for(int i = 0; i < patternStringArr.length; i++){
+			patternStringArr[i] = patternStrings.get(i);
+		}
+		collectMatches(patterns, patternStringArr, searchStartPos, null, SearchScope.ANY, searchStartPos,
+				searchEndPos, pool,
+				getChunkNum(pool, searchEndPos - searchStartPos), new MatchConsumer() {
+					@Override
+					public void add(MatchList matches) {
+						for(int i = 0; i < matches.size; i++){
+							stringMatches.get(matches.strings[i]).add(matches.positions[i]);
+						}
+					}
+				});
+		return ret;
+	}
+
+	/**
+	 * Collect all matches of the patterns within
+	 * <code>[startPos, searchEndPos)</code>, in parallel if a pool is given.
+	 * 
+	 * @param patterns
+	 * @param patternStrings
+	 *            index of the searched string of every pattern
+	 * @param startPos
+	 *            position to start the search from
+	 * @param startToken
+	 *            the searchable token <code>startPos</code> is in
+	 * @param scope
+	 *            tokens to search in (a string <code>startPos</code> is in
+	 *            is in scope)
+	 * @param searchStartPos
+	 *            the start of the search range (it is outside of a
+	 *            searchable token)
+	 * @param searchEndPos
+	 * @param pool
+	 *            threads to search the chunks (can be null if there is only
+	 *            one chunk)
+	 * @param chunkNum
+	 *            number of chunks to split the range into
+	 * @param consumer
+	 *            gets the matches of every chunk in file order
+	 */
+	private void collectMatches(final List<BytePatternMatcher> patterns, final int[] patternStrings,
+			long startPos, final SearchableTokenType startToken, final SearchScope scope, final long searchStartPos,
+			final long searchEndPos, ForkJoinPool pool, int chunkNum, MatchConsumer consumer)
+			throws IOException, IllegalFormatException {
+		final ByteSource source = reader.getSource();
+		// like a sequential search, a parallel one stops at the end of the
+		// source, so chunks should not start after it
+		long endPos = Math.min(searchEndPos, source.size());
+		if(pool == null || chunkNum < 2 || endPos <= startPos){
+			this.scope = scope;
+			MatchList matches = collectMatches(new BytePatternAutomaton(patterns), patternStrings, startPos,
+					startToken, startToken == SearchableTokenType.STRING ? scope : null, startPos, searchEndPos,
+					searchEndPos);
+			consumer.add(matches);
+			return;
+		}
+		long chunkSize = (endPos - startPos + chunkNum - 1) / chunkNum;
+		final CancellationToken cancellationToken = reader.getCancellationToken();
+		List<ForkJoinTask<MatchList[]>> tasks = new ArrayList<ForkJoinTask<MatchList[]>>();
+		for(int c = 0; c < chunkNum; c++){
+			final long chunkStart = Math.min(endPos, startPos + c * chunkSize);
+			final long chunkEnd = Math.min(endPos, chunkStart + chunkSize);
+			final boolean first = c == 0;
+			tasks.add(pool.submit(new Callable<MatchList[]>() {
+				@Override
+				public MatchList[] call() throws IOException {
+					// the reader is not closed: the source is still used by
+					// this search
+					JSONSearch search = new JSONSearch(new UTF8FileReader(source));
+					search.reader.setCancellationToken(cancellationToken);
+					return search.collectChunkMatches(patterns, patternStrings, chunkStart, chunkEnd, first,
+							startToken, scope, searchStartPos, searchEndPos);
+				}
+			}));
+		}
+		boolean inString = false;
+		try{
+			for(int c = 0; c < chunkNum; c++){
+				MatchList matches = getResult(tasks.get(c))[inString ? 1 : 0];
+				if(matches.error != null){
+					throw matches.error;
+				}
+				consumer.add(matches);
+				inString = matches.endsInString;
+			}
+		} finally {
+			for(ForkJoinTask<MatchList[]> task: tasks){
+				task.cancel(false);
+			}
+		}
+	}
+
+	private static int getChunkNum(ForkJoinPool pool, long rangeSize){
+		// every chunk except the first one is searched twice, so there is no
+		// gain without at least two threads
+		return pool == null || pool.getParallelism() < 2 ? 1
+				: (int) Math.max(1, Math.min(pool.getParallelism() * 4L, rangeSize / MIN_PARALLEL_CHUNK_SIZE));
+	}
+
+	/**
+	 * Collect the matches starting within <code>[chunkStart, chunkEnd)</code>
+	 * assuming that the chunk starts outside and inside of a string.
+	 * 
+	 * @return two lists of matches: the first one is collected assuming the
+	 *         chunk starts outside of a string, the second - inside of a string
+	 *         (it is null for the first chunk, which starts in
+	 *         <code>startToken</code>). If the search under an assumption
+	 *         fails, its list contains the error
+	 */
+	private MatchList[] collectChunkMatches(List<BytePatternMatcher> patterns, int[] patternStrings,
+			long chunkStart, long chunkEnd, boolean first, SearchableTokenType startToken, SearchScope scope,
+			long searchStartPos, long searchEndPos) throws IOException {
+		BytePatternAutomaton automaton = new BytePatternAutomaton(patterns);
+		this.scope = scope;
+		MatchList[] ret = new MatchList[2];
+		if(first){
+			ret[0] = tryCollectMatches(automaton, patternStrings, chunkStart, startToken,
+					startToken == SearchableTokenType.STRING ? scope : null, chunkStart, chunkEnd, searchEndPos);
+			return ret;
+		}
+		ByteSource source = reader.getSource();
+		// a chunk can start in the middle of a number or a keyword
+		ret[0] = tryCollectMatches(automaton, patternStrings, findTokenStart(source, chunkStart, searchStartPos),
+				null, null, chunkStart, chunkEnd, searchEndPos);
+		// or in the middle of an escape sequence (of a string of unknown kind)
+		ret[1] = tryCollectMatches(automaton, patternStrings,
+				findEscapeSequenceStart(source, chunkStart, searchStartPos), SearchableTokenType.STRING, null,
+				chunkStart, chunkEnd, searchEndPos);
+		return ret;
+	}
+
+	private MatchList tryCollectMatches(BytePatternAutomaton automaton, int[] patternStrings, long scanStartPos,
+			SearchableTokenType startToken, SearchScope startStringKind, long chunkStart, long chunkEnd,
+			long searchEndPos) throws IOException {
+		try{
+			return collectMatches(automaton, patternStrings, scanStartPos, startToken, startStringKind, chunkStart,
+					chunkEnd, searchEndPos);
+		}catch(IllegalFormatException e){
+			// the assumption is probably wrong
+			MatchList ret = new MatchList();
+			ret.error = e;
+			return ret;
+		}
+	}
+
+	/**
+	 * Go along file positions from <code>scanStartPos</code> keeping track of
+	 * the state (within or out of a string) and collect the matches that
+	 * start within <code>[chunkStart, chunkEnd)</code>.
+	 * 
+	 * @param scanStartPos
+	 *            position to start from (not bigger than
+	 *            <code>chunkStart</code>)
+	 * @param startToken
+	 *            the searchable token <code>scanStartPos</code> is in
+	 * @param startStringKind
+	 *            the kind of the string <code>scanStartPos</code> is in (see
+	 *            {@link #curStringKind})
+	 */
+	private MatchList collectMatches(BytePatternAutomaton automaton, int[] patternStrings, long scanStartPos,
+			SearchableTokenType startToken, SearchScope startStringKind, long chunkStart, long chunkEnd,
+			long searchEndPos) throws IOException, IllegalFormatException {
+		reader.getToPosition(scanStartPos);
+		curToken = startToken;
+		resetContext(startStringKind);
+		headStateMachine.reset();
+		MatchList matches = new MatchList();
+		// matches in a string of unknown kind wait for the end of the string
+		MatchList pendingMatches = new MatchList();
+		// a match starting before the chunk end can end after it
+		long scanEndPos = Math.min(searchEndPos, chunkEnd + automaton.getMaxLength() - 1);
+		boolean prevStateIsReadable = curToken != null;
+		boolean inReadableState;
+		boolean endStateIsKnown = false;
+		while(reader.hasNext() && (reader.getFilePosition() < scanEndPos || pendingMatches.size > 0)){
+			if(reader.getFilePosition() == chunkEnd){
+				matches.endsInString = curToken == SearchableTokenType.STRING;
+				endStateIsKnown = true;
+			}
+			try{
+				inReadableState = moveToNextByte();
+			}catch(IllegalFormatException e){
+				throw new IllegalFormatException(e.getMessage() + " at pos " + reader.getFilePosition() + " of "
+						+ reader.getSourceName());
+			}
+			if(!endStateIsKnown && reader.getFilePosition() > chunkEnd){
+				// the chunk end is inside of a skipped string
+				matches.endsInString = true;
+				endStateIsKnown = true;
+			}
+			if(pendingMatches.size > 0 && curToken != SearchableTokenType.STRING && !stringKindIsPending){
+				if(curStringKind == scope){
+					matches.addAll(pendingMatches);
+				}
+				pendingMatches.size = 0;
+			}
+			if(inReadableState){
+				int matchNum = automaton.addNewByte(curByte, curByteIsEscaped);
+				for(int i = 0; i < matchNum; i++){
+					int ind = automaton.getMatch(i);
+					int length = automaton.getPattern(ind).length();
+					long pos = reader.getFilePosition() - length;
+					if(pos >= chunkStart && pos < chunkEnd){
+						(isInStringOfUnknownKind() ? pendingMatches : matches).add(pos, length,
+								patternStrings[ind], curToken == SearchableTokenType.STRING);
+					}
+				}
+			} else if(prevStateIsReadable){
+				automaton.reset();
+			}
+			prevStateIsReadable = inReadableState;
+		}
+		if(pendingMatches.size > 0 && stringKindIsPending && scope == SearchScope.STRING_VALUES){
+			// nothing follows the string, so it is a value
+			matches.addAll(pendingMatches);
+		}
+		if(!endStateIsKnown){
+			matches.endsInString = curToken == SearchableTokenType.STRING;
+		}
+		automaton.reset();
+		return matches;
+	}
+
+	/**
+	 * @return the start of the number or keyword that <code>pos</code> is in
+	 *         if the position is outside of a string, <code>pos</code> if it
+	 *         is between tokens
+	 */
+	private static long findTokenStart(ByteSource source, long pos, long minPos) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(1024);
+		while(pos > minPos){
+			int len = (int) Math.min(buf.capacity(), pos - minPos);
+			readBytesBefore(source, pos, len, buf);
+			for(int i = len - 1; i >= 0; i--){
+				byte b = buf.get(i);
+				if(isWhitespace(b) || b == ',' || b == ':' || b == '[' || b == ']' || b == '{' || b == '}'
+						|| b == '"'){
+					return pos - len + i + 1;
+				}
+			}
+			pos -= len;
 		}
+		return minPos;
 	}
+
+	/**
+	 * @return the position of the backslash that starts an escape sequence
+	 *         containing <code>pos</code> if the position is inside of a
+	 *         string, <code>pos</code> if it is not in an escape sequence
+	 */
+	private static long findEscapeSequenceStart(ByteSource source, long pos, long minPos) throws IOException {
+		// the longest escape sequence is a backslash, "u" and 4 hex digits
+		int len = (int) Math.min(5, pos - minPos);
+		ByteBuffer buf = ByteBuffer.allocate(len);
+		readBytesBefore(source, pos, len, buf);
+		for(int i = len - 1; i >= 0; i--){
+			if(buf.get(i) != '\\'){
+				continue;
+			}
+			long backslashPos = pos - len + i;
+			if(backslashPos != pos - 1 && buf.get(i + 1) != 'u'){
+				return pos;
+			}
+			// the backslash starts an escape sequence if it is not escaped
+			// itself, i.e. it ends an odd sequence of backslashes
+			long count = 1;
+			ByteBuffer one = ByteBuffer.allocate(1);
+			for(long p = backslashPos; p > minPos; p--){
+				readBytesBefore(source, p, 1, one);
+				if(one.get(0) != '\\'){
+					break;
+				}
+				count++;
+			}
+			return count % 2 == 1 ? backslashPos : pos;
+		}
+		return pos;
+	}
+
+	/**
+	 * Read bytes <code>[pos - len, pos)</code> to the beginning of the
+	 * buffer
+	 */
+	private static void readBytesBefore(ByteSource source, long pos, int len, ByteBuffer buf) throws IOException {
+		buf.clear().limit(len);
+		while(buf.hasRemaining() && source.read(pos - len + buf.position(), buf) > 0){
+		}
+		if(buf.hasRemaining()){
+			throw new IOException("Failed to read bytes [" + (pos - len) + ", " + pos + ") of " + source.getName());
+		}
+	}
+
+	private static MatchList[] getResult(ForkJoinTask<MatchList[]> task) throws IOException {
+		try{
+			return task.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while searching");
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException){
+				throw (IOException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Gets the matches of the chunks of a search
+	 */
+	private interface MatchConsumer {
+		void add(MatchList matches);
+	}
+
+	/**
+	 * Matches found in a chunk sorted by position
+	 */
+	private static class MatchList {
+		long[] positions = new long[16];
+		int[] lengths = new int[16];
+		/**
+		 * Indices of the matched strings
+		 */
+		int[] strings = new int[16];
+		boolean[] inString = new boolean[16];
+		int size = 0;
+		/**
+		 * If the chunk end is inside of a string
+		 */
+		boolean endsInString = false;
+		/**
+		 * The error of the search if it failed
+		 */
+		IllegalFormatException error = null;
+
+		void add(long pos, int length, int string, boolean isInString) {
+			// patterns of different length that end at the same byte start at
+			// different positions
+			int ind = size;
+			while(ind > 0 && positions[ind - 1] >= pos){
+				if(positions[ind - 1] == pos && strings[ind - 1] == string){
+					// another pattern of the same string matches here
+					return;
+				}
+				ind--;
+			}
+			if(size == positions.length){
+				positions = Arrays.copyOf(positions, size * 2);
+				lengths = Arrays.copyOf(lengths, size * 2);
+				strings = Arrays.copyOf(strings, size * 2);
+				inString = Arrays.copyOf(inString, size * 2);
+			}
+			System.arraycopy(positions, ind, positions, ind + 1, size - ind);
+			System.arraycopy(lengths, ind, lengths, ind + 1, size - ind);
+			System.arraycopy(strings, ind, strings, ind + 1, size - ind);
+			System.arraycopy(inString, ind, inString, ind + 1, size - ind);
+			positions[ind] = pos;
+			lengths[ind] = length;
+			strings[ind] = string;
+			inString[ind] = isInString;
+			size++;
+		}
+
+		void addAll(MatchList other) {
+			for(int i = 0; i < other.size; i++){
+				add(other.positions[i], other.lengths[i], other.strings[i], other.inString[i]);
+			}
+		}
+	}
+
+	/**
+	 * Push the current byte to the patterns of a search.
+	 * 
+	 * @return the length of the first pattern (in the order of
+	 *         <code>searchInfo.getPatterns()</code>) matched by the current
+	 *         byte or -1 if there is no match
+	 */
+	private int addCurByteToPatterns(StringSearchInfo searchInfo){
+		BytePatternAutomaton automaton = searchInfo.getAutomaton();
+		if(automaton == null){
+			BytePatternMatcher pattern = searchInfo.getPatterns().get(0);
+			return pattern.addNewByteAndCompare(curByte, curByteIsEscaped) ? pattern.length() : -1;
+		}
+		int matchNum = automaton.addNewByte(curByte, curByteIsEscaped);
+		if(matchNum == 0){
+			return -1;
+		}
+		int first = automaton.getMatch(0);
+		for(int i = 1; i < matchNum; i++){
+			first = Math.min(first, automaton.getMatch(i));
+		}
+		return automaton.getPattern(first).length();
+	}
+
+	private static void resetPatterns(StringSearchInfo searchInfo){
+		if(searchInfo.getAutomaton() != null){
+			searchInfo.getAutomaton().reset();
+		} else {
+			searchInfo.getPatterns().get(0).reset();
+		}
+	}
+
 	/**
 	 * Move to the next byte and update the current state (if we are within a searcable token 
 	 * and if it is a string). If we exit the searchable token, reset the pattern matches.
@@ -143,17 +897,26 @@ public class JSONSearch implements Closeable{
 	 */
 	private boolean moveToNextByte() throws IllegalFormatException, IOException{
 		curByte = reader.getNextByte();
+		curByteIsEscaped = false;
 		if(curToken == null){
+			if(stringKindIsPending && !isWhitespace(curByte)){
+				curStringKind = curByte == ':' ? SearchScope.KEYS : SearchScope.STRING_VALUES;
+				stringKindIsPending = false;
+			}
 			if(curByte == '"'){ // start a string
 				headStateMachine.reset();
 				curToken = SearchableTokenType.STRING;
+				startString();
 				// the string is started but the current byte is not part of it
 				return false;
 			} 
 			if(isNonStringTokenStart(curByte)){
 				curToken = SearchableTokenType.NONSTRING;
 				// the token is started and the current byte is its first byte 
-				return true;
+				return scope == SearchScope.ANY || scope == SearchScope.PRIMITIVES;
+			}
+			if(!isWhitespace(curByte)){
+				lastStructuralByte = curByte;
 			}
 			return false;
 		}
@@ -161,27 +924,80 @@ public class JSONSearch implements Closeable{
 			if(curByte == '"' && !headStateMachine.isInEscapedSequence()){
 				// string is over
 				curToken = null;
+				lastStructuralByte = curByte;
+				stringKindIsPending = curStringKind == null
+						&& (scope == SearchScope.KEYS || scope == SearchScope.STRING_VALUES);
 //				resetPatternMatchs();
 				return false;
 			}
+			curByteIsEscaped = headStateMachine.isInEscapedSequence();
 			headStateMachine.pushByte(curByte);
 			return true;
 		}
 		if(curToken == SearchableTokenType.NONSTRING){
 			if(isTokenEnd(curByte)){
 				curToken = null;
+				if(!isWhitespace(curByte)){
+					lastStructuralByte = curByte;
+				}
 //				resetPatternMatchs();
 				return false;
 			}
-			return true;
+			return scope == SearchScope.ANY || scope == SearchScope.PRIMITIVES;
 		}
 		throw new RuntimeException("Should not have got here");
 	}
+
+	/**
+	 * Find out the kind of a string that has just been started (if it is
+	 * possible) and skip it if it is out of the search scope, so that its
+	 * closing quote is the next byte.
+	 */
+	private void startString() throws IOException, IllegalFormatException{
+		stringKindIsPending = false;
+		if(scope == SearchScope.ANY){
+			curStringKind = null;
+			return;
+		}
+		if(lastStructuralByte == '{'){
+			curStringKind = SearchScope.KEYS;
+		} else if(lastStructuralByte == ':' || lastStructuralByte == '['){
+			curStringKind = SearchScope.STRING_VALUES;
+		} else {
+			// after a comma it depends on the container
+			curStringKind = null;
+		}
+		if(scope == SearchScope.PRIMITIVES || (curStringKind != null && curStringKind != scope)){
+			reader.skipToClosingQuote(false);
+		}
+	}
+
+	/**
+	 * @return true if the current byte is in a string that can be in the
+	 *         search scope or not depending on what follows it
+	 */
+	private boolean isInStringOfUnknownKind(){
+		return curToken == SearchableTokenType.STRING && curStringKind == null && scope != SearchScope.ANY;
+	}
+
+	/**
+	 * Forget the bytes before the current position, e.g. after a jump to
+	 * another position
+	 * 
+	 * @param stringKind
+	 *            the kind of the current string if the current position is
+	 *            inside of a string
+	 */
+	private void resetContext(SearchScope stringKind){
+		curStringKind = stringKind;
+		stringKindIsPending = false;
+		lastStructuralByte = 0;
+	}
 	
 	private boolean isTokenEnd(byte b){
 		return isWhitespace(b) || b == ',' || b == '}' || b == ']';
 	}
-	private boolean isWhitespace(byte b) {
+	private static boolean isWhitespace(byte b) {
 		return b == 9|| b == 10 || b == 13 || b == 32;
 	}
 	/**
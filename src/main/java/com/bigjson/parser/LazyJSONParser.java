@@ -3,9 +3,12 @@ package com.bigjson.parser;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
 
 import com.bigjson.parser.JSONStateMachine.State;
 
@@ -29,6 +32,14 @@ public class LazyJSONParser implements Closeable{
 	private static final String KEYWORD_NULL = "null";
 	
 	private static final boolean DEBUG = false; 
+	/**
+	 * Maximum number of arrays which checkpoints are kept
+	 */
+	private static final int MAX_ARRAY_CHECKPOINTS = 256;
+	/**
+	 * Maximum number of containers which numbers of children are kept
+	 */
+	private static final int MAX_CHILD_COUNTS = 4096;
 	
 	private int stringDisplayLength = 100;
 	private String topLevelName = "JSON";
@@ -36,7 +47,33 @@ public class LazyJSONParser implements Closeable{
 	private JSONStateMachine validator = null;
 	private JSONNode root = null;
 	private List<JSONNode> rootChildren = null;
-	
+	/**
+	 * Projection the root children were loaded with (null if all the children
+	 * were loaded)
+	 */
+	private JSONProjection rootProjection = null;
+	private StructuralIndex structuralIndex = null;
+	/**
+	 * decodes lazy strings created by this parser (see
+	 * {@link #setStringDecoder(LazyJSONString.Decoder)})
+	 */
+	private LazyJSONString.Decoder stringDecoder = null;
+	private LazyJSONString.Decoder ownStringDecoder = null;
+	/**
+	 * Checkpoints of arrays accessed by index, by the positions of their
+	 * opening brackets (of the recently accessed arrays only)
+	 */
+	private Map<Long, ArrayCheckpoints> arrayCheckpoints = createLRUMap(MAX_ARRAY_CHECKPOINTS);
+	/**
+	 * Numbers of children of counted containers, by the positions of their
+	 * opening brackets (of the recently counted containers only)
+	 */
+	private Map<Long, Long> childCounts = createLRUMap(MAX_CHILD_COUNTS);
+	/**
+	 * Buffer for raw bytes of names compared without decoding
+	 */
+	private byte[] rawString = new byte[64];
+
 
 	/**
 	 * Contains last read byte outside a string. When reading a string it
@@ -44,7 +81,11 @@ public class LazyJSONParser implements Closeable{
 	 * string).
 	 */
 	private byte curByte;
-	private Pattern patternNumber = Pattern.compile("^-?(0|([1-9][0-9]*))(.[0-9]+)?([eE][+-]?[0-9]+)?$");
+	private NumberCheckingStateMachine numberChecker = new NumberCheckingStateMachine();
+	/**
+	 * Accumulates the value of the number being parsed
+	 */
+	private JSONNumberNode.Builder numberBuilder = new JSONNumberNode.Builder();
 
 	/**
 	 * Create a parser for a given file.
@@ -61,10 +102,7 @@ public class LazyJSONParser implements Closeable{
 	 *             reading bytes from the file
 	 */
 	public LazyJSONParser(File file, String topLevelName, int stringDisplayLength) throws IOException{
-		this(file, stringDisplayLength);
-		if(topLevelName != null){
-			this.topLevelName = topLevelName;
-		}
+		this(file, topLevelName, stringDisplayLength, false);
 	}
 	/**
 	 * Create a parser for a given file. The root name is set to default ("JSON").
@@ -78,9 +116,71 @@ public class LazyJSONParser implements Closeable{
 	 *             reading bytes from the file
 	 */
 	public LazyJSONParser(File file, int stringDisplayLength) throws IOException{
-		reader = new UTF8FileReader(file);
+		this(file, stringDisplayLength, false);
+	}
+	
+	/**
+	 * Create a parser for a given file. The root name is set to default ("JSON").
+	 * 
+	 * @param file
+	 * @param stringDisplayLength
+	 *            how many first characters of a string to view. If
+	 *            stringDisplayLimit < 0 full strings are loaded
+	 * @param memoryMapped
+	 *            if the file should be accessed via memory-mapped buffers (see
+	 *            {@link UTF8FileReader#UTF8FileReader(File, boolean)})
+	 * @throws IOException
+	 *             if file is not found or empty or if an I/O error occurs while
+	 *             reading bytes from the file
+	 */
+	public LazyJSONParser(File file, int stringDisplayLength, boolean memoryMapped) throws IOException{
+		this(file, null, stringDisplayLength, memoryMapped);
+	}
+	
+	/**
+	 * Create a parser for a given file.
+	 * 
+	 * @param file
+	 * @param topLevelName
+	 *            the name of the top level (root). If null, a default name ("JSON")
+	 *            will be used instead
+	 * @param stringDisplayLength
+	 *            how many first characters of a string to view. If
+	 *            stringDisplayLimit < 0 full strings are loaded
+	 * @param memoryMapped
+	 *            if the file should be accessed via memory-mapped buffers
+	 * @throws IOException
+	 *             if file is not found or empty or if an I/O error occurs while
+	 *             reading bytes from the file
+	 */
+	public LazyJSONParser(File file, String topLevelName, int stringDisplayLength, boolean memoryMapped)
+			throws IOException {
+		this(memoryMapped ? new MappedFileByteSource(file) : new FileByteSource(file), topLevelName,
+				stringDisplayLength);
+	}
+	
+	/**
+	 * Create a parser for a given source of bytes (e.g. a buffer in memory).
+	 * The source is closed when the parser is closed.
+	 * 
+	 * @param source
+	 * @param topLevelName
+	 *            the name of the top level (root). If null, a default name ("JSON")
+	 *            will be used instead
+	 * @param stringDisplayLength
+	 *            how many first characters of a string to view. If
+	 *            stringDisplayLimit < 0 full strings are loaded
+	 * @throws IOException
+	 *             if the source is empty or if an I/O error occurs while
+	 *             reading bytes from it
+	 */
+	public LazyJSONParser(ByteSource source, String topLevelName, int stringDisplayLength) throws IOException{
+		reader = new UTF8FileReader(source);
 		validator = new JSONStateMachine();
 		this.stringDisplayLength = stringDisplayLength;
+		if(topLevelName != null){
+			this.topLevelName = topLevelName;
+		}
 	}
 	
 	@Override
@@ -89,7 +189,25 @@ public class LazyJSONParser implements Closeable{
 	}
 	
 	/**
-	 * Return file that is being parsed by this parser
+	 * Set an index of containers of the parsed source. When the index is set,
+	 * the parser jumps over indexed containers directly to their closing
+	 * brackets instead of reading them byte by byte.
+	 * 
+	 * @param structuralIndex
+	 *            the index built for the source of this parser or null to
+	 *            parse without an index
+	 */
+	public void setStructuralIndex(StructuralIndex structuralIndex) {
+		this.structuralIndex = structuralIndex;
+	}
+	
+	public StructuralIndex getStructuralIndex() {
+		return structuralIndex;
+	}
+	
+	/**
+	 * Return file that is being parsed by this parser, or null if the source
+	 * of bytes is not a file
 	 */
 	public File getFile() {
 		return reader.getFile();
@@ -107,13 +225,44 @@ public class LazyJSONParser implements Closeable{
 	 */
 	public JSONNode getRoot(boolean validate) throws IOException, IllegalFormatException{
 		if(root == null){
-			parseRootWithChildren(validate);
+			parseRootWithChildren(validate, null);
+		}
+		return root;
+	}
+
+	/**
+	 * Load the root node together with those of its immediate children that
+	 * are in a projection (if the root is an object). The root is reloaded if
+	 * it was loaded with another projection.
+	 *
+	 * @param validate
+	 *            if the subtrees of the root should be validated (the members
+	 *            that are not in the projection are validated too)
+	 * @param projection
+	 *            names of the root members to load, null to load all of them
+	 * @return root (top-level node) of a JSON tree
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 * @see #loadChildrenAtPosition(long, JSONProjection)
+	 */
+	public JSONNode getRoot(boolean validate, JSONProjection projection) throws IOException, IllegalFormatException{
+		if(root == null || (projection == null ? rootProjection != null : !projection.equals(rootProjection))){
+			parseRootWithChildren(validate, projection);
 		}
 		return root;
 	}
+
+	/**
+	 * @return the projection the root children were loaded with, null if all
+	 *         of them were loaded
+	 */
+	JSONProjection getRootProjection(){
+		return rootProjection;
+	}
 	
 	/**
-	 * Return children of the root node, if any.<br>
+	 * Return children of the root node, if any (only the projected ones if
+	 * the root was loaded with a projection).<br>
 	 * If root is not supposed to have children (because it's not an array or an
 	 * object), null is returned.
 	 * 
@@ -142,11 +291,15 @@ public class LazyJSONParser implements Closeable{
 	 * The root and its children are saved <code>root</code> and
 	 * <code>rootChildren</code> fields
 	 * 
+	 * @param projection
+	 *            names of the root members to load, null to load all of them
 	 * @throws IOException
 	 * @throws IllegalFormatException
 	 *             if the format of the file does not match JSON format
 	 */
-	private void parseRootWithChildren(boolean validate) throws IOException, IllegalFormatException{
+	private void parseRootWithChildren(boolean validate, JSONProjection projection)
+			throws IOException, IllegalFormatException{
+		rootProjection = projection;
 		// move to the beginning of the file if we are not there
 		reader.getToPosition(0);
 		debug("Entered parseRootWithChildren ('" + topLevelName+ "'). File pos = " + reader.getFilePosition());	
@@ -158,7 +311,7 @@ public class LazyJSONParser implements Closeable{
 			long startPos = reader.getFilePosition() - 1; // -1 because we've already read opening bracket
 			if(curByte == '{'){
 				root = new JSONNonTreeNode(JSONNode.TYPE_OBJECT, topLevelName);
-				rootChildren = parseObject(validate);
+				rootChildren = parseObject(validate, projection);
 			} else if(curByte == '['){
 				root = new JSONNonTreeNode(JSONNode.TYPE_ARRAY, topLevelName);
 				rootChildren = parseArray(validate);
@@ -192,6 +345,31 @@ public class LazyJSONParser implements Closeable{
 	 *             JSON-format inconsistency occurs while reading the children
 	 */
 	public List<JSONNode> loadChildrenAtPosition(long filePos) throws IOException, IllegalFormatException{
+		return loadChildrenAtPosition(filePos, null);
+	}
+
+	/**
+	 * Load children of an array or an object which opening bracket is at
+	 * <code>filePos</code>. Only the members of an object which names are in
+	 * a projection are loaded: the other names are compared with the
+	 * projection as raw bytes (unless they contain escape sequences) and
+	 * their values are skipped without creating nodes for them.
+	 *
+	 * @param filePos
+	 *            position of an opening bracket of an array or an object.
+	 *            Should be >=0 and < fileSize (throw and
+	 *            {@link IllegalArgumentException} otherwise)
+	 * @param projection
+	 *            names of the object members to load, null to load all of
+	 *            them. Elements of an array are always loaded
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if a symbol at a given position is not '{' or '[' or if other
+	 *             JSON-format inconsistency occurs while reading the children
+	 */
+	public List<JSONNode> loadChildrenAtPosition(long filePos, JSONProjection projection)
+			throws IOException, IllegalFormatException{
 		if(!reader.getToPosition(filePos)){
 			throw new IllegalArgumentException("Trying to set the cursor to a position that is not smaller "
 					+ "than the file's size: " + filePos);
@@ -210,7 +388,7 @@ public class LazyJSONParser implements Closeable{
 			}		
 		} else if(curByte == '{'){
 			try{
-				return parseObject(false);
+				return parseObject(false, projection);
 			}catch(IOException e){
 				throw new IllegalArgumentException(e.getMessage() + " while reading an object");
 			}
@@ -218,7 +396,609 @@ public class LazyJSONParser implements Closeable{
 		throwIllegalFormatExceptionWithFilePos("Lazy load children: was expecting '[' or '{'");
 		return null;
 	}
-	
+
+	/**
+	 * Load children of an array or an object which opening bracket is at
+	 * <code>filePos</code> into a compact {@link NodeBlock}: only the
+	 * positions and the types of the children are kept, their names and
+	 * values are decoded when they are accessed. Numbers and keywords are
+	 * checked while reading, strings and containers are skipped.
+	 *
+	 * @param filePos
+	 *            position of an opening bracket of an array or an object
+	 * @return a block of children
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if a symbol at a given position is not '{' or '[' or if other
+	 *             JSON-format inconsistency occurs while reading the children
+	 */
+	public NodeBlock loadChildBlockAtPosition(long filePos) throws IOException, IllegalFormatException{
+		if(!reader.getToPosition(filePos)){
+			throw new IllegalArgumentException("Trying to set the cursor to a position that is not smaller "
+					+ "than the file's size: " + filePos);
+		}
+		moveToNextByte();
+		if(curByte != '[' && curByte != '{'){
+			throwIllegalFormatExceptionWithFilePos("Load child block: was expecting '[' or '{'");
+		}
+		boolean isArray = curByte == '[';
+		byte closingSymbol = (byte)(isArray ? ']' : '}');
+		long childCount = structuralIndex == null ? -1 : structuralIndex.getChildCount(filePos);
+		NodeBlock block = new NodeBlock(this, filePos, isArray,
+				childCount >= 0 && childCount < Integer.MAX_VALUE ? (int)childCount : 16);
+		moveToNextNonspaceByte();
+		if(curByte == ','){
+			throwIllegalFormatExceptionWithFilePos("The first element of a container is empty");
+		}
+		while(curByte != closingSymbol){
+			long startPos = reader.getFilePosition() - 1;
+			if(!isArray){
+				if(curByte != '"'){
+					throwIllegalFormatExceptionWithFilePos("Expected a name in an object, got '"
+							+ byteToChar(curByte) + "'");
+				}
+				skipValue();
+				moveToNextNonspaceByte();
+				if(curByte != ':'){
+					throwIllegalFormatExceptionWithFilePos("Invalid separator between "
+							+ "name and value in an object");
+				}
+				moveToNextNonspaceByte();
+			}
+			long valuePos = reader.getFilePosition() - 1;
+			int type;
+			if(curByte == '{'){
+				type = JSONNode.TYPE_OBJECT;
+				skipValue();
+			} else if(curByte == '['){
+				type = JSONNode.TYPE_ARRAY;
+				skipValue();
+			} else if(curByte == '"'){
+				type = JSONNode.TYPE_STRING;
+				skipValue();
+			} else if(curByte == 't' || curByte == 'f' || curByte == 'n'){
+				type = JSONNode.TYPE_KEYWORD;
+				readKeyword(curByte == 't' ? KEYWORD_TRUE : curByte == 'f' ? KEYWORD_FALSE : KEYWORD_NULL);
+			} else {
+				type = JSONNode.TYPE_NUMBER;
+				readNumber("" + block.size());
+			}
+			block.add(startPos, valuePos, reader.getFilePosition() - 1, type);
+			moveToNextNonspaceByte();
+			if(curByte == closingSymbol){
+				break;
+			}
+			if(curByte == ','){
+				moveToNextNonspaceByte();
+				if(curByte == closingSymbol || curByte == ','){
+					throwIllegalFormatExceptionWithFilePos("An empty element of a container is detected");
+				}
+			} else {
+				throwIllegalFormatExceptionWithFilePos("Unexpected symbol after "
+						+ "a child of a container: '" + byteToChar(curByte) + "'");
+			}
+		}
+		block.trimToSize();
+		return block;
+	}
+
+	/**
+	 * Parse a node which position was saved before (see {@link NodeBlock}).
+	 *
+	 * @param startPos
+	 *            position of the first byte of the node (the opening quote of
+	 *            its name if it is a member of an object)
+	 * @param name
+	 *            the name of the node, or null if it is a member of an object
+	 *            and its name should be read from the file
+	 */
+	JSONNode loadNodeAtPosition(long startPos, String name) throws IOException, IllegalFormatException{
+		reader.getToPosition(startPos);
+		moveToNextByte();
+		return name == null ? parseNameValuePair(false) : parseValue(name, startPos, false, false);
+	}
+
+	/**
+	 * Find the node a JSON pointer refers to. At each level the members that
+	 * do not match the pointer are skipped without creating nodes for them and
+	 * without decoding their names (unless they contain escape sequences). An
+	 * array element is reached as in {@link #skipChildren(ChildCursor, long)}.
+	 *
+	 * @param pointer
+	 * @return the node the pointer refers to or null if there is no such node
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if JSON-format inconsistency occurs on the way to the node
+	 */
+	public JSONNode resolvePointer(JSONPointer pointer) throws IOException, IllegalFormatException{
+		if(pointer.getTokenNum() == 0){
+			return getRoot(false);
+		}
+		reader.getToPosition(0);
+		moveToNextNonspaceByte();
+		return resolvePointerAt(reader.getFilePosition() - 1, pointer);
+	}
+
+	/**
+	 * Find the node a JSON pointer refers to relative to the value at a given
+	 * position (see {@link #resolvePointer(JSONPointer)}).
+	 *
+	 * @param valuePos
+	 *            position of the first byte of a value
+	 * @param pointer
+	 * @return the node the pointer refers to (the value itself if the pointer
+	 *         has no tokens) or null if there is no such node
+	 */
+	JSONNode resolvePointerAt(long valuePos, JSONPointer pointer) throws IOException, IllegalFormatException{
+		if(pointer.getTokenNum() == 0){
+			reader.getToPosition(valuePos);
+			moveToNextByte();
+			return parseValue("", valuePos, false, false);
+		}
+		for(int i = 0; i < pointer.getTokenNum(); i++){
+			boolean isLast = i == pointer.getTokenNum() - 1;
+			debug("Resolve pointer token '" + pointer.getToken(i) + "' in the value at pos " + valuePos);
+			reader.getToPosition(valuePos);
+			moveToNextByte();
+			if(curByte == '{'){
+				long startPos = moveToObjectMember(pointer.getTokenBytes(i), pointer.getToken(i));
+				if(startPos < 0){
+					return null;
+				}
+				if(isLast){
+					return parseValue(pointer.getToken(i), startPos, false, false);
+				}
+			} else if(curByte == '['){
+				long index = pointer.getArrayIndex(i);
+				if(index < 0){
+					return null;
+				}
+				ChildCursor cursor = new ChildCursor(valuePos, true);
+				skipChildren(cursor, index);
+				if(!moveToNextChild(cursor)){
+					return null;
+				}
+				if(isLast){
+					return parseValue("" + index, reader.getFilePosition() - 1, false, false);
+				}
+			} else {
+				// a leaf has no children
+				return null;
+			}
+			valuePos = reader.getFilePosition() - 1;
+		}
+		throw new RuntimeException("Should not have got here");
+	}
+
+	/**
+	 * Find a member of an object with a given name. In the beginning of the
+	 * method the opening bracket of the object should have just been read.
+	 * After this method the first byte of the member's value is the last read
+	 * byte.
+	 *
+	 * @return the position of the member (i.e. the opening quote of its name)
+	 *         or -1 if the object has no member with such a name
+	 */
+	private long moveToObjectMember(byte[] nameBytes, String name) throws IOException, IllegalFormatException{
+		moveToNextNonspaceByte();
+		if(curByte == '}'){
+			return -1;
+		}
+		while(true){
+			if(curByte != '"'){
+				throwIllegalFormatExceptionWithFilePos("Expected a name in an object, got '" + byteToChar(curByte) + "'");
+			}
+			long startPos = reader.getFilePosition() - 1;
+			boolean found = nameEquals(nameBytes, name);
+			moveToNextNonspaceByte();
+			if(curByte != ':'){
+				throwIllegalFormatExceptionWithFilePos("Invalid separator between "
+						+ "name and value in an object");
+			}
+			moveToNextNonspaceByte();
+			if(found){
+				return startPos;
+			}
+			skipValue();
+			moveToNextNonspaceByte();
+			if(curByte == '}'){
+				return -1;
+			}
+			if(curByte != ','){
+				throwIllegalFormatExceptionWithFilePos("Unexpected symbol after "
+						+ "a name-value pair in an object: "+ (char)curByte);
+			}
+			moveToNextNonspaceByte();
+		}
+	}
+
+	/**
+	 * Compare a name which opening quote has just been read with a given one.
+	 * The raw bytes of the name are compared unless it contains escape
+	 * sequences, in which case it is decoded. After this method the closing
+	 * quote of the name is the last read byte.
+	 *
+	 * @param nameBytes
+	 *            UTF-8 bytes of <code>name</code>
+	 * @param name
+	 */
+	private boolean nameEquals(byte[] nameBytes, String name) throws IOException, IllegalFormatException{
+		int length = readRawString();
+		if(length < 0){
+			return parseString(false, false).getString().equals(name);
+		}
+		if(length != nameBytes.length){
+			return false;
+		}
+		for(int i = 0; i < length; i++){
+			if(rawString[i] != nameBytes[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the raw (not decoded) bytes of a string which opening quote has
+	 * just been read into {@link #rawString}. After this method the closing
+	 * quote is the last read byte.<br>
+	 * If a backslash is met, the string can not be compared byte by byte, so
+	 * the cursor is moved back to the opening quote (it is the last read byte
+	 * again) for the string to be decoded.
+	 *
+	 * @return number of bytes of the string or -1 if it contains escape
+	 *         sequences
+	 */
+	int readRawString() throws IOException, IllegalFormatException{
+		long openingQuotePos = reader.getFilePosition() - 1;
+		int length = 0;
+		while(true){
+			moveToNextByte();
+			if(curByte == '"'){
+				return length;
+			}
+			if(curByte == '\\'){
+				reader.getToPosition(openingQuotePos);
+				moveToNextByte();
+				return -1;
+			}
+			if(length == rawString.length){
+				rawString = Arrays.copyOf(rawString, length * 2);
+			}
+			rawString[length++] = curByte;
+		}
+	}
+
+	/**
+	 * @return the buffer with the bytes of the string read by the last call of
+	 *         {@link #readRawString()}
+	 */
+	byte[] getRawString(){
+		return rawString;
+	}
+
+	/**
+	 * Count children of an array or an object which opening bracket is at
+	 * <code>filePos</code> without loading them. The count is taken from the
+	 * structural index or from the array checkpoints if possible, otherwise the
+	 * commas within the container are counted (see
+	 * {@link UTF8FileReader#countChildren(byte)}). The result is cached.
+	 *
+	 * @param filePos
+	 *            position of an opening bracket of an array or an object
+	 * @return number of children
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if a symbol at a given position is not '{' or '[' or the
+	 *             closing bracket is not found
+	 */
+	public long countChildrenAtPosition(long filePos) throws IOException, IllegalFormatException{
+		Long cachedCount = childCounts.get(filePos);
+		if(cachedCount != null){
+			return cachedCount;
+		}
+		long count = structuralIndex == null ? -1 : structuralIndex.getChildCount(filePos);
+		ArrayCheckpoints checkpoints = arrayCheckpoints.get(filePos);
+		if(count < 0 && checkpoints != null){
+			count = checkpoints.size();
+		}
+		if(count < 0){
+			if(!reader.getToPosition(filePos)){
+				throw new IllegalArgumentException("Trying to set the cursor to a position that is not smaller "
+						+ "than the file's size: " + filePos);
+			}
+			moveToNextByte();
+			if(curByte != '[' && curByte != '{'){
+				throwIllegalFormatExceptionWithFilePos("Count children: was expecting '[' or '{'");
+			}
+			try{
+				count = reader.countChildren(curByte);
+			}catch(IllegalFormatException e){
+				throwIllegalFormatExceptionWithFilePos(e.getMessage() + " while counting children");
+			}
+		}
+		childCounts.put(filePos, count);
+		return count;
+	}
+
+	/**
+	 * Create a cursor for loading children of an array or an object which
+	 * opening bracket is at <code>filePos</code> page by page (see
+	 * {@link #loadNextChildren(ChildCursor, int)}).
+	 *
+	 * @param filePos
+	 *            position of an opening bracket of an array or an object
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if a symbol at a given position is not '{' or '['
+	 */
+	public ChildCursor createChildCursorAtPosition(long filePos) throws IOException, IllegalFormatException{
+		if(!reader.getToPosition(filePos)){
+			throw new IllegalArgumentException("Trying to set the cursor to a position that is not smaller "
+					+ "than the file's size: " + filePos);
+		}
+		moveToNextByte();
+		if(curByte != '[' && curByte != '{'){
+			throwIllegalFormatExceptionWithFilePos("Child cursor: was expecting '[' or '{'");
+		}
+		return new ChildCursor(filePos, curByte == '[');
+	}
+
+	/**
+	 * Load up to <code>limit</code> next children of a container starting
+	 * from the position saved in the cursor. The cursor is moved past the
+	 * loaded children.
+	 *
+	 * @param cursor
+	 * @param limit
+	 *            maximum number of children to load
+	 * @return a list of loaded children, empty if the cursor is finished
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if JSON-format inconsistency occurs while reading the
+	 *             children
+	 */
+	public List<JSONNode> loadNextChildren(ChildCursor cursor, int limit) throws IOException, IllegalFormatException{
+		if(limit < 0){
+			throw new IllegalArgumentException("Negative number of children to load: " + limit);
+		}
+		List<JSONNode> nodeList = new ArrayList<JSONNode>(Math.min(limit, 1024));
+		while(moveToNextChild(cursor)){
+			if(nodeList.size() == limit){
+				// remember where the next child starts not to read the
+				// separator again
+				cursor.moveToChildStart(reader.getFilePosition() - 1, cursor.getNextIndex());
+				break;
+			}
+			JSONNode child = cursor.isArray()
+					? parseValue("" + cursor.getNextIndex(), reader.getFilePosition() - 1, false, false)
+					: parseNameValuePair(false);
+			nodeList.add(child);
+			cursor.moveAfterChild(reader.getFilePosition());
+		}
+		return nodeList;
+	}
+
+	/**
+	 * Skip <code>num</code> next children of a container without creating
+	 * nodes for them. Skipping over many elements of an array uses its
+	 * checkpoints (see {@link #loadArrayElementsAtPosition(long, long, int)}).
+	 *
+	 * @param cursor
+	 * @param num
+	 *            number of children to skip. If there are less children left,
+	 *            the cursor becomes finished
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if JSON-format inconsistency occurs while reading the
+	 *             children
+	 */
+	public void skipChildren(ChildCursor cursor, long num) throws IOException, IllegalFormatException{
+		if(num < 0){
+			throw new IllegalArgumentException("Negative number of children to skip: " + num);
+		}
+		if(cursor.isArray() && num >= ArrayCheckpoints.STEP && !cursor.isFinished()){
+			ArrayCheckpoints checkpoints = getArrayCheckpoints(cursor.getContainerFilePosition());
+			long target = Math.min(cursor.getNextIndex() + num, checkpoints.size() - 1);
+			long index = ArrayCheckpoints.getCheckpointIndex(target);
+			if(index > cursor.getNextIndex()){
+				num -= index - cursor.getNextIndex();
+				cursor.moveToChildStart(checkpoints.getPosition(index), index);
+			}
+		}
+		for(; num > 0 && moveToNextChild(cursor); num--){
+			if(!cursor.isArray()){
+				// skip the name
+				skipValue();
+				moveToNextNonspaceByte();
+				if(curByte != ':'){
+					throwIllegalFormatExceptionWithFilePos("Invalid separator between "
+							+ "name and value in an object");
+				}
+				moveToNextNonspaceByte();
+			}
+			skipValue();
+			cursor.moveAfterChild(reader.getFilePosition());
+		}
+	}
+
+	/**
+	 * Move to the first byte of the next child of a container (it is stored
+	 * in curByte after this method).
+	 *
+	 * @return false if there are no more children (the cursor is finished
+	 *         then)
+	 */
+	boolean moveToNextChild(ChildCursor cursor) throws IOException, IllegalFormatException{
+		if(cursor.isFinished()){
+			return false;
+		}
+		if(!reader.getToPosition(cursor.getNextFilePosition())){
+			throw new IllegalFormatException("The end of " + reader.getSourceName()
+					+ " is reached before the end of the container at pos " + cursor.getContainerFilePosition());
+		}
+		moveToNextNonspaceByte();
+		if(cursor.isAtChildStart()){
+			return true;
+		}
+		byte closingSymbol = (byte)(cursor.isArray() ? ']' : '}');
+		if(curByte == closingSymbol){
+			cursor.finish();
+			return false;
+		}
+		if(cursor.getNextIndex() > 0){
+			if(curByte != ','){
+				throwIllegalFormatExceptionWithFilePos("Unexpected symbol after "
+						+ "a child of a container: '" + byteToChar(curByte) + "'");
+			}
+			moveToNextNonspaceByte();
+		}
+		if(curByte == ',' || curByte == closingSymbol){
+			throwIllegalFormatExceptionWithFilePos("An empty element of a container is detected");
+		}
+		return true;
+	}
+
+	/**
+	 * Load up to <code>count</code> elements of an array which opening bracket
+	 * is at <code>filePos</code> starting from the element
+	 * <code>fromIndex</code>. Other elements of the array are skipped without
+	 * creating nodes for them.<br>
+	 * On the first access to an array the positions of every
+	 * {@value ArrayCheckpoints#STEP}-th of its elements are saved, so that
+	 * later no more than {@value ArrayCheckpoints#STEP} - 1 elements are
+	 * skipped to get to any element.
+	 *
+	 * @param filePos
+	 *            position of an opening bracket of an array
+	 * @param fromIndex
+	 *            index of the first element to load
+	 * @param count
+	 *            maximum number of elements to load. Less elements are
+	 *            returned if the array ends earlier
+	 * @return a list of loaded elements
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if a symbol at a given position is not '[' or if other
+	 *             JSON-format inconsistency occurs while reading the array
+	 * @throws IndexOutOfBoundsException
+	 *             if <code>fromIndex</code> is negative or bigger than the size
+	 *             of the array
+	 */
+	public List<JSONNode> loadArrayElementsAtPosition(long filePos, long fromIndex, int count)
+			throws IOException, IllegalFormatException {
+		if(count < 0){
+			throw new IllegalArgumentException("Negative number of elements to load: " + count);
+		}
+		ArrayCheckpoints checkpoints = getArrayCheckpoints(filePos);
+		if(fromIndex < 0 || fromIndex > checkpoints.size()){
+			throw new IndexOutOfBoundsException("Index " + fromIndex + " is out of bounds of the array at pos "
+					+ filePos + " of size " + checkpoints.size());
+		}
+		count = (int)Math.min(count, checkpoints.size() - fromIndex);
+		List<JSONNode> nodeList = new ArrayList<JSONNode>(count);
+		if(count == 0){
+			return nodeList;
+		}
+		long index = ArrayCheckpoints.getCheckpointIndex(fromIndex);
+		reader.getToPosition(checkpoints.getPosition(index));
+		moveToNextByte();
+		debug("Jump to the element " + index + " of the array at pos " + filePos);
+		for(; index < fromIndex; index++){
+			skipValue();
+			moveToNextArrayElement();
+		}
+		for(; index < fromIndex + count; index++){
+			if(index > fromIndex){
+				moveToNextArrayElement();
+			}
+			nodeList.add(parseValue("" + index, reader.getFilePosition() - 1, false, false));
+		}
+		return nodeList;
+	}
+
+	/**
+	 * Create a map that keeps at most <code>maxSize</code> entries dropping
+	 * the least recently accessed one when a new one is added
+	 */
+	@SuppressWarnings("serial")
+	private static <V> Map<Long, V> createLRUMap(final int maxSize){
+		return new LinkedHashMap<Long, V>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, V> eldest){
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Return the checkpoints of an array which opening bracket is at
+	 * <code>filePos</code>, collecting them on the first access to the array.
+	 */
+	private ArrayCheckpoints getArrayCheckpoints(long filePos) throws IOException, IllegalFormatException {
+		ArrayCheckpoints checkpoints = arrayCheckpoints.get(filePos);
+		if(checkpoints == null){
+			checkpoints = collectArrayCheckpoints(filePos);
+			arrayCheckpoints.put(filePos, checkpoints);
+		}
+		return checkpoints;
+	}
+
+	/**
+	 * Skip all the elements of an array which opening bracket is at
+	 * <code>filePos</code> saving the positions of every
+	 * {@value ArrayCheckpoints#STEP}-th of them.
+	 */
+	private ArrayCheckpoints collectArrayCheckpoints(long filePos) throws IOException, IllegalFormatException {
+		debug("Collect checkpoints of the array at pos " + filePos);
+		if(!reader.getToPosition(filePos)){
+			throw new IllegalArgumentException("Trying to set the cursor to a position that is not smaller "
+					+ "than the file's size: " + filePos);
+		}
+		moveToNextByte();
+		if(curByte != '['){
+			throwIllegalFormatExceptionWithFilePos("Array should start with '['");
+		}
+		long[] positions = new long[16];
+		int positionNum = 0;
+		long size = 0;
+		moveToNextNonspaceByte();
+		while(curByte != ']'){
+			if(size % ArrayCheckpoints.STEP == 0){
+				if(positionNum == positions.length){
+					positions = Arrays.copyOf(positions, positionNum * 2);
+				}
+				positions[positionNum++] = reader.getFilePosition() - 1;
+			}
+			skipValue();
+			size++;
+			moveToNextNonspaceByte();
+			if(curByte == ','){
+				moveToNextNonspaceByte();
+				if(curByte == ']'){
+					throwIllegalFormatExceptionWithFilePos("An empty array element is detected");
+				}
+			} else if(curByte != ']'){
+				throwIllegalFormatExceptionWithFilePos("Unexpected symbol after "
+						+ "an element in an array: '" + byteToChar(curByte) + "'");
+			}
+		}
+		return new ArrayCheckpoints(Arrays.copyOf(positions, positionNum), size);
+	}
+
+	/**
+	 * Move from the last byte of an array element to the first byte of the
+	 * next one.
+	 */
+	private void moveToNextArrayElement() throws IOException, IllegalFormatException {
+		moveToNextNonspaceByte();
+		if(curByte != ','){
+			throwIllegalFormatExceptionWithFilePos("Expected ',' after an element in an array, got: '"
+					+ byteToChar(curByte) + "'");
+		}
+		moveToNextNonspaceByte();
+	}
+
 	/**
 	 * Validate the whole token (with all its subtree) starting at a given
 	 * position. Does not load anything.<br>
@@ -290,6 +1070,68 @@ public class LazyJSONParser implements Closeable{
 		return str.getString();
 	}
 	
+	/**
+	 * Decode a string which opening quote is at a given position (see
+	 * {@link LazyJSONString}). The cursor is returned to where it was, so a
+	 * string can be decoded in the middle of any other operation of the
+	 * parser (e.g. by a {@link JSONPath.MatchHandler}).
+	 *
+	 * @param displayLength
+	 *            the string display length of this parser to decode only the
+	 *            first chars of the string, a negative number to decode the
+	 *            whole string
+	 */
+	StringWithCoords decodeStringAtPosition(long openingQuotePos, int displayLength)
+			throws IOException, IllegalFormatException{
+		long curBytePos = reader.getFilePosition() - 1;
+		reader.getToPosition(openingQuotePos);
+		moveToNextByte();
+		StringWithCoords str = parseString(displayLength >= 0, false);
+		if(curBytePos >= 0){
+			reader.getToPosition(curBytePos);
+			moveToNextByte();
+		}
+		return str;
+	}
+
+	/**
+	 * Set a decoder for the lazy strings created by this parser, e.g. if the
+	 * parser is shared by several threads and the strings should not be
+	 * decoded with it (see {@link ConcurrentJSONLoader}).
+	 *
+	 * @param decoder
+	 *            the decoder or null to decode the strings with this parser
+	 */
+	void setStringDecoder(LazyJSONString.Decoder decoder){
+		stringDecoder = decoder;
+	}
+
+	private LazyJSONString.Decoder getStringDecoder(){
+		if(stringDecoder != null){
+			return stringDecoder;
+		}
+		if(ownStringDecoder == null){
+			ownStringDecoder = new LazyJSONString.Decoder() {
+				@Override
+				public StringWithCoords decode(long openingQuotePos, int displayLength)
+						throws IOException, IllegalFormatException {
+					return decodeStringAtPosition(openingQuotePos, displayLength);
+				}
+			};
+		}
+		return ownStringDecoder;
+	}
+
+	/**
+	 * Load a full string which opening quote is at a given position (e.g. a
+	 * name of an object member).
+	 */
+	String loadStringAtPosition(long openingQuotePos) throws IOException, IllegalFormatException{
+		reader.getToPosition(openingQuotePos);
+		moveToNextByte();
+		return parseString(false, false).getString();
+	}
+
 	public UTF8FileReader getReader(){
 		return reader;
 	}
@@ -309,7 +1151,7 @@ public class LazyJSONParser implements Closeable{
 		if(curByte != '['){
 			throwIllegalFormatExceptionWithFilePos("Array should start with '['");
 		}
-		List<JSONNode> nodeList = new ArrayList<JSONNode>();
+		List<JSONNode> nodeList = createChildList();
 		moveToNextNonspaceByte();
 		if(curByte == ','){
 			throwIllegalFormatExceptionWithFilePos("The first array element is empty");
@@ -335,6 +1177,21 @@ public class LazyJSONParser implements Closeable{
 		return nodeList;
 	}
 
+	/**
+	 * Create a list for the children of a container which opening bracket has
+	 * just been read. If the container is indexed, the list is created with
+	 * the capacity equal to the number of children.
+	 */
+	private List<JSONNode> createChildList() {
+		if (structuralIndex != null) {
+			long childCount = structuralIndex.getChildCount(reader.getFilePosition() - 1);
+			if (childCount >= 0 && childCount < Integer.MAX_VALUE) {
+				return new ArrayList<JSONNode>((int) childCount);
+			}
+		}
+		return new ArrayList<JSONNode>();
+	}
+
 //	private JSONNode parseObject(String name, boolean lazy) throws IOException{
 //		JSONNode objNode = new JSONNode(JSONNode.TYPE_OBJECT, name, level);
 //		return parseObject(objNode, lazy);
@@ -344,23 +1201,31 @@ public class LazyJSONParser implements Closeable{
 	 * In the beginning of the method the cursor should be at '{'.
 	 * After this method the cursor should be at the position following the '}'
 	 * ('}' was just read into curByte). 
+	 * @param projection
+	 *            names of the members to create nodes for, null to create
+	 *            nodes for all of them
 	 * @return a list of named JSON nodes that are contained in this object
 	 * @throws IOException
 	 * @throws IllegalFormatException
 	 */
-	private List<JSONNode> parseObject(boolean validate) throws IOException, IllegalFormatException{
+	private List<JSONNode> parseObject(boolean validate, JSONProjection projection)
+			throws IOException, IllegalFormatException{
 		debug("Entered parseObject at pos " + reader.getFilePosition());
 		if(curByte != '{'){
 			throwIllegalFormatExceptionWithFilePos("Object should start with '{'");
 		}
-		List<JSONNode> nodeList = new ArrayList<JSONNode>();
+		List<JSONNode> nodeList = projection == null ? createChildList()
+				: new ArrayList<JSONNode>(projection.size());
 		moveToNextNonspaceByte();
 		if(curByte == ','){
 			throwIllegalFormatExceptionWithFilePos("The first object element is empty");
 		}
 		while(curByte != '}'){
-			JSONNode node = parseNameValuePair(validate);
-			nodeList.add(node);
+			JSONNode node = projection == null ? parseNameValuePair(validate)
+					: parseProjectedNameValuePair(projection, validate);
+			if(node != null){
+				nodeList.add(node);
+			}
 			moveToNextNonspaceByte();
 			if(curByte == '}'){
 				break;
@@ -379,12 +1244,47 @@ public class LazyJSONParser implements Closeable{
 		return nodeList;
 	}
 
+	/**
+	 * Move the file cursor to the end of the current container (after its
+	 * closing symbol). If the container is in the structural index, jump
+	 * directly to its closing symbol, otherwise search for it with
+	 * {@link #moveToTheEndOfToken(byte, byte)}.
+	 * 
+	 * @param openingSymbol
+	 * @param closingSymbol
+	 * @return a position of the closing symbol for this node
+	 * @throws IOException
+	 *             if I/O error occur
+	 * @throws IllegalFormatException
+	 *             if the closing symbol is not found or the index does not
+	 *             match the source
+	 */
+	private long skipContainer(byte openingSymbol, byte closingSymbol) throws IOException, IllegalFormatException{
+		if(structuralIndex != null){
+			long startPos = reader.getFilePosition() - 1;
+			long endPos = structuralIndex.getEndPosition(startPos);
+			if(endPos >= 0){
+				debug("Jump from pos " + startPos + " to the indexed end of container at pos " + endPos);
+				reader.getToPosition(endPos);
+				moveToNextByte();
+				if(curByte != closingSymbol){
+					throwIllegalFormatExceptionWithFilePos("The structural index does not match the source: expected '"
+							+ byteToChar(closingSymbol) + "', got '" + byteToChar(curByte) + "'");
+				}
+				return endPos;
+			}
+		}
+		return moveToTheEndOfToken(openingSymbol, closingSymbol);
+	}
+	
 	/**
 	 * Search for the closing symbol matching the opening one (that was just
 	 * read). Move the file cursor to the end of the current token (after
 	 * closing symbol), i.e. the last read byte is the closing symbol of this
 	 * token <br>
-	 * Ignore opening and closing symbols within Strings. <br>
+	 * Ignore opening and closing symbols within Strings. The search is done by
+	 * {@link UTF8FileReader#skipContainer(byte)} that scans bytes in blocks
+	 * rather than one by one.<br>
 	 * In the beginning of the method the cursor should be at the symbol
 	 * following the opening symbol (i.e. opening symbol has just been read and
 	 * curChar==openingSymbol, filePos = filePos-of-openingSymbol + 1).
@@ -396,38 +1296,15 @@ public class LazyJSONParser implements Closeable{
 	 *             if I/O error occur
 	 * @throws IllegalFormatException
 	 *             if the end of file is reached before the matching closing
-	 *             symbol is met or if a non-ASCII character is met outside of
-	 *             strings
+	 *             symbol is met or if the closing symbol does not match the
+	 *             opening one
 	 */
 	private long moveToTheEndOfToken(byte openingSymbol, byte closingSymbol)throws IOException, IllegalFormatException{
 		long startPos = reader.getFilePosition() - 1;
-		int opened = 1;
 		try {
-			while (reader.hasNext()) {
-				moveToNextNonspaceByte();
-				if (curByte == '"') {// String starts
-					debug("Skip the string with opening quote at pos " + (reader.getFilePosition() - 1));
-					reader.skipTheString();
-					moveToNextByte();
-					if (curByte != '"') {
-						throwIllegalFormatExceptionWithFilePos(
-								"Expected a quote at the end of a string, got: '" + byteToChar(curByte) + "'");
-					}
-					continue;
-				}
-				if (curByte == closingSymbol) {
-					opened--;
-				} else if (curByte == openingSymbol) {
-					opened++;
-				}
-				if (opened == 0) {
-					long closingSymbolPos = reader.getFilePosition() - 1;// since we've already read the closingSymbol
-					return closingSymbolPos;
-				}
-			}
-			if (opened > 0) {
-				throw new IllegalFormatException("Failed to find closing symbol ");
-			}
+			long closingSymbolPos = reader.skipContainer(openingSymbol);
+			curByte = closingSymbol;
+			return closingSymbolPos;
 		} catch (IllegalFormatException e) {
 			throwIllegalFormatExceptionWithFilePos(e.getMessage() + " while searching for the closing bracket of an "
 					+ (openingSymbol == '{' ? "object" : "array") + " node (opening bracket was at pos " + startPos
@@ -487,10 +1364,19 @@ public class LazyJSONParser implements Closeable{
 	 */
 	private JSONNode parseNameValuePair(boolean validate)throws IOException, IllegalFormatException{
 		debug("Entered parseNameValuePair at pos " + reader.getFilePosition());
-		String name = null;
+		CharSequence name = null;
 		long startPos = reader.getFilePosition() - 1;
 		try{
-			name = parseString(false, false).getString();
+			if(validate){
+				name = parseString(false, false).getString();
+			} else {
+				// decode the name when it is requested
+				if(curByte != '"'){
+					throwIllegalFormatExceptionWithFilePos("String does not start with '\"'");
+				}
+				skipStringAndValidateEscapes(-1);
+				name = new LazyJSONString(getStringDecoder(), startPos, reader.getFilePosition() - 1, -1);
+			}
 		}catch(IllegalFormatException e){
 			throwIllegalFormatExceptionWithFilePos(e.getMessage()+" while parsing name in a name-value pair");
 		}
@@ -506,6 +1392,53 @@ public class LazyJSONParser implements Closeable{
 		return ret;
 	}
 	
+	/**
+	 * Parse "name":value pair if the name is in a projection, skip it
+	 * otherwise. The name is compared with the projection as raw bytes and is
+	 * decoded only if it is in the projection or contains escape sequences.
+	 * <br>
+	 * In the beginning of the method the cursor should be at the first quote
+	 * of the name <br>
+	 * After this method the last symbol of the value was just read and is
+	 * stored in curByte.
+	 * 
+	 * @return the node or null if the name is not in the projection
+	 */
+	private JSONNode parseProjectedNameValuePair(JSONProjection projection, boolean validate)
+			throws IOException, IllegalFormatException{
+		long startPos = reader.getFilePosition() - 1;
+		if(curByte != '"'){
+			throwIllegalFormatExceptionWithFilePos("Expected a name in an object, got '" + byteToChar(curByte) + "'");
+		}
+		String name = null;
+		boolean projected;
+		int length = readRawString();
+		if(length < 0){
+			name = parseString(false, false).getString();
+			projected = projection.contains(name);
+		} else {
+			projected = projection.contains(rawString, length);
+			if(projected){
+				name = new String(rawString, 0, length, StandardCharsets.UTF_8);
+			}
+		}
+		moveToNextNonspaceByte();
+		if(curByte != ':'){
+			throwIllegalFormatExceptionWithFilePos("Invalid separator between "
+					+ "name and value in an object");
+		}
+		moveToNextNonspaceByte();
+		if(projected){
+			return parseValue(name, startPos, false, validate);
+		}
+		if(validate){
+			parseValue("", startPos, false, true);
+		} else {
+			skipValue();
+		}
+		return null;
+	}
+
 	/**
 	 * Parse a value, whatever it is.<br>
 	 * At the beginning of this method cursor should be at the first non-space
@@ -522,8 +1455,9 @@ public class LazyJSONParser implements Closeable{
 	 *             non-ASCII symbol is met outside of a string or if the value
 	 *             does not match the format
 	 */
-	private JSONNode parseValue(String name, long startPos, boolean isRoot, boolean validate) throws IOException, IllegalFormatException{
-		debug("Entered parseValue ('" + name + "'): " + (reader.getFilePosition() - 1));
+	JSONNode parseValue(CharSequence name, long startPos, boolean isRoot, boolean validate) throws IOException, IllegalFormatException{
+		// do not print the name here: a lazy name would be decoded from the file
+		debug("Entered parseValue (" + startPos + "): " + (reader.getFilePosition() - 1));
 		if(curByteIsWhitespace()){
 			throw new RuntimeException("Current byte should be the first non-space byte of the value to parse");
 		}
@@ -534,18 +1468,25 @@ public class LazyJSONParser implements Closeable{
 			if(validate){
 				moveToTheEndOfTokenAndValidate(isRoot);
 			} else {
-				moveToTheEndOfToken((byte)'{', (byte)'}');
+				skipContainer((byte)'{', (byte)'}');
 			}
 		} else if(curByte == '['){
 			ret = new JSONNonTreeNode(JSONNode.TYPE_ARRAY, name);
 			if(validate){
 				moveToTheEndOfTokenAndValidate(isRoot);
 			} else {
-				moveToTheEndOfToken((byte)'[', (byte)']');
+				skipContainer((byte)'[', (byte)']');
 			}
 		} else if(curByte == '"'){
-			StringWithCoords str = parseString(stringDisplayLength >= 0, validate);
-			ret = new JSONNonTreeNode(JSONNode.TYPE_STRING, name, str.isFullyRead(), str.getString());
+			if(validate){
+				StringWithCoords str = parseString(stringDisplayLength >= 0, validate);
+				ret = new JSONNonTreeNode(JSONNode.TYPE_STRING, name, str.isFullyRead(), str.getString());
+			} else {
+				// decode the string when it is requested
+				skipStringAndValidateEscapes(stringDisplayLength);
+				ret = new JSONNonTreeNode(JSONNode.TYPE_STRING, name,
+						new LazyJSONString(getStringDecoder(), valuePos, reader.getFilePosition() - 1, stringDisplayLength));
+			}
 		} else if(curByte == 't'){
 			ret = parseKeyword(name, KEYWORD_TRUE);
 		} else if(curByte == 'f'){
@@ -558,15 +1499,92 @@ public class LazyJSONParser implements Closeable{
 		ret.setStartFilePosition(startPos);
 		ret.setValueFilePosition(valuePos);
 		ret.setEndFilePosition(reader.getFilePosition()-1);// -1 since we've already read the last byte
-		debug("Done with parseValue ('" + name + "'): "+reader.getFilePosition()+", '"+(char)curByte+"'");
+		debug("Done with parseValue (" + startPos + "): "+reader.getFilePosition()+", '"+(char)curByte+"'");
 		return ret;
 	}
 
+	/**
+	 * Skip a string checking the escape sequences of the part that a lazily
+	 * decoded {@link LazyJSONString} would decode (so that it can not fail
+	 * later), but without decoding it. <br>
+	 * At the beginning of this method cursor should be at the opening quote.
+	 * After this method the closing quote was just read and is stored in
+	 * curByte.
+	 *
+	 * @param displayLength
+	 *            number of chars to check, or a negative number to check the
+	 *            whole string
+	 * @throws IllegalFormatException
+	 *             if the checked part has an invalid escape sequence or a
+	 *             control character, or if the end of file is reached before
+	 *             the closing quote
+	 */
+	private void skipStringAndValidateEscapes(int displayLength) throws IOException, IllegalFormatException{
+		long openingQuotePos = reader.getFilePosition() - 1;
+		try{
+			reader.skipTheStringAndValidateEscapes(displayLength);
+		}catch(IllegalFormatException e){
+			throwIllegalFormatExceptionWithFilePos(
+					e.getMessage() + " while reading a String (opening quote at pos " + openingQuotePos + ")");
+		}
+		moveToNextByte();
+		if(curByte != '"'){
+			throwIllegalFormatExceptionWithFilePos(
+					"Expected a quote at the end of a string, got: '" + byteToChar(curByte) + "'");
+		}
+	}
+
+	/**
+	 * Skip a value without creating a node for it and without validating it.
+	 * <br>
+	 * At the beginning of this method cursor should be at the first non-space
+	 * byte of the value to skip<br>
+	 * After this method the last symbol of the value was just read and is
+	 * stored in curByte.
+	 *
+	 * @throws IOException
+	 * @throws IllegalFormatException
+	 *             if the end of file is reached before the value is skipped
+	 */
+	void skipValue() throws IOException, IllegalFormatException{
+		if(curByte == '{'){
+			skipContainer((byte)'{', (byte)'}');
+		} else if(curByte == '['){
+			skipContainer((byte)'[', (byte)']');
+		} else if(curByte == '"'){
+			long openingQuotePos = reader.getFilePosition() - 1;
+			try{
+				reader.skipTheString();
+			}catch(IllegalFormatException e){
+				throwIllegalFormatExceptionWithFilePos(
+						e.getMessage() + " while skipping a String (opening quote at pos " + openingQuotePos + ")");
+			}
+			moveToNextByte();
+			if(curByte != '"'){
+				throwIllegalFormatExceptionWithFilePos(
+						"Expected a quote at the end of a string, got: '" + byteToChar(curByte) + "'");
+			}
+		} else if(curByte == ',' || curByte == '}' || curByte == ']'){
+			throwIllegalFormatExceptionWithFilePos("No value is found");
+		} else {
+			// a number or a keyword
+			while(reader.hasNext()){
+				byte nextByte = reader.peekNextByte();
+				if (nextByte == ',' || nextByte == '}' || nextByte == ']' || Character.isWhitespace(nextByte)) {
+					break;
+				}
+				moveToNextByte();
+			}
+		}
+	}
+
 	/**
 	 * Read a number and create a JSON node with the provided name. The number
-	 * should match the pattern (patternNumber) The cursor after this method is
-	 * at the symbol just after the number, i.e. the last symbol of the number
-	 * was just read.
+	 * is read in a single pass: every byte is checked by
+	 * {@link NumberCheckingStateMachine} and accumulated into the primitive
+	 * fields of a {@link JSONNumberNode} without creating a String. The
+	 * cursor after this method is at the symbol just after the number, i.e.
+	 * the last symbol of the number was just read.
 	 * 
 	 * @param name
 	 *            the name of the created JSON node
@@ -577,34 +1595,47 @@ public class LazyJSONParser implements Closeable{
 	 *             non-ASCII symbol is met or if the number does not match the
 	 *             format
 	 */
-	private JSONNonTreeNode parseNumber(String name) throws IOException, IllegalFormatException{
-		debug("Entered parseNumber");
+	private JSONNonTreeNode parseNumber(CharSequence name) throws IOException, IllegalFormatException{
+		readNumber(name);
+		return numberBuilder.build(name);
+	}
+
+	/**
+	 * Read a number checking its format and accumulating its value in
+	 * {@link #numberBuilder} (see {@link #parseNumber(CharSequence)}).
+	 * 
+	 * @param name
+	 *            the name of the number node (for error messages)
+	 */
+	private void readNumber(CharSequence name) throws IOException, IllegalFormatException{
+		debug("Entered readNumber");
 		if (curByte == ',' || curByte == '}' || curByte == ']') {
 			throwIllegalFormatExceptionWithFilePos("No value for name " + name + " is found");
 		}
-		StringBuilder sb = new StringBuilder();
-		sb.append((char)curByte);
+		numberChecker.reset();
+		numberBuilder.reset();
 		try {
-			while (reader.hasNext()){
-				// we can cast nextByte to int (in isWhitespace()) and curByte
-				// to char directly here as they should be in ASCII range (i.e. byte >= 0)
-				byte nextByte = reader.peekNextByte();				
+			while (true){
+				numberChecker.push(curByte);
+				numberBuilder.push(curByte);
+				if (!reader.hasNext()) {
+					break;
+				}
+				// we can cast nextByte to int (in isWhitespace()) here as it
+				// should be in ASCII range (i.e. byte >= 0)
+				byte nextByte = reader.peekNextByte();
 				if (nextByte == ',' || nextByte == '}' || nextByte == ']' || Character.isWhitespace(nextByte)) {
 					break;
 				}
 				moveToNextByte();
-				sb.append((char) curByte);
 			}
 		} catch (IllegalFormatException e) {
 			throwIllegalFormatExceptionWithFilePos(e.getMessage() + " while reading a number");
 		}
-		String number = sb.toString();
-		if (!patternNumber.matcher(number).matches()) {
-			throwIllegalFormatExceptionWithFilePos("Number '" + number + "' does not match the format");
+		if (!numberChecker.numberIsFinished()) {
+			throwIllegalFormatExceptionWithFilePos("Number '" + numberBuilder.getText() + "' does not match the format");
 		}
-		debug("Done with parseNumber: " + reader.getFilePosition() + ", '" + (char) curByte + "'");
-		
-		return new JSONNonTreeNode(JSONNode.TYPE_NUMBER, name, number);
+		debug("Done with readNumber: " + reader.getFilePosition() + ", '" + (char) curByte + "'");
 	}
 
 	/**
@@ -621,8 +1652,17 @@ public class LazyJSONParser implements Closeable{
 	 *             non-ASCII symbol is met or if the number does not match the
 	 *             format
 	 */
-	private JSONNonTreeNode parseKeyword(String name, String keyword)throws IOException, IllegalFormatException{
-		debug("Entered parseKeyword '" + keyword + "'");
+	private JSONNonTreeNode parseKeyword(CharSequence name, String keyword)throws IOException, IllegalFormatException{
+		readKeyword(keyword);
+		return new JSONNonTreeNode(JSONNode.TYPE_KEYWORD, name, keyword);
+	}
+
+	/**
+	 * Read a keyword checking that it is equal to the provided one (see
+	 * {@link #parseKeyword(CharSequence, String)}).
+	 */
+	private void readKeyword(String keyword) throws IOException, IllegalFormatException{
+		debug("Entered readKeyword '" + keyword + "'");
 		int pos = 0;
 		while(true) {
 			if (curByte != keyword.charAt(pos)) {
@@ -635,13 +1675,12 @@ public class LazyJSONParser implements Closeable{
 			}
 			moveToNextByte();
 		}
-		debug("Done with parseKeyword: next pos = "+reader.getFilePosition()+", last read byte = '"+(char)curByte+"'");
-		return new JSONNonTreeNode(JSONNode.TYPE_KEYWORD, name, keyword);
+		debug("Done with readKeyword: next pos = "+reader.getFilePosition()+", last read byte = '"+(char)curByte+"'");
 	}
 	
 	private void throwIllegalFormatExceptionWithFilePos(String msg) throws IllegalFormatException{
 		throw new IllegalFormatException(
-				msg + "' at pos " + (reader.getFilePosition() - 1) + " of file " + reader.getFile().getPath());
+				msg + "' at pos " + (reader.getFilePosition() - 1) + " of " + reader.getSourceName());
 	}
 	
 	private void debug(String msg){
@@ -677,6 +1716,7 @@ public class LazyJSONParser implements Closeable{
 		
 		long openingQuotePos = reader.getFilePosition() - 1;// since we've already read an opening quote
 		StringBuilder sb = new StringBuilder();
+		boolean isFullyRead = true;
 		// if string is not empty - read it
 		if (reader.peekNextByte() != '"') {
 			try{
@@ -694,6 +1734,7 @@ public class LazyJSONParser implements Closeable{
 						// if we are here, we stopped reading but did not reach the closing quote 
 						// (due to lazy reading), so skip the rest of the string and read the closing quote
 						debug("Skip the string with opening quote at pos "+ openingQuotePos);
+						isFullyRead = false;
 						if(validate){
 							reader.skipTheStringAndValidateASCII();
 						} else {
@@ -717,7 +1758,7 @@ public class LazyJSONParser implements Closeable{
 		debug("Done with parseString (lazy = " + lazy + "): " + reader.getFilePosition() + ", '" + (char) curByte
 				+ "'");
 
-		return new StringWithCoords(sb.toString(), openingQuotePos, closingQuotePos);
+		return new StringWithCoords(sb.toString(), openingQuotePos, closingQuotePos, isFullyRead);
 	}
 
 	/**
@@ -755,7 +1796,7 @@ public class LazyJSONParser implements Closeable{
 	 *             if there are no bytes to read or the read byte does not code
 	 *             an ASCII char
 	 */
-	private void moveToNextNonspaceByte() throws IOException, IllegalFormatException{
+	void moveToNextNonspaceByte() throws IOException, IllegalFormatException{
 		moveToNextByte();
 		while(curByteIsWhitespace()){
 			moveToNextByte();
@@ -778,11 +1819,17 @@ public class LazyJSONParser implements Closeable{
 		private String string;
 		private long openingQuotePos;
 		private long closingQuotePos;
+		private boolean isFullyRead;
 		
 		public StringWithCoords(String string, long openingQuotePos, long closingQuotePos) {
+			this(string, openingQuotePos, closingQuotePos, true);
+		}
+		
+		public StringWithCoords(String string, long openingQuotePos, long closingQuotePos, boolean isFullyRead) {
 			this.string = string;
 			this.openingQuotePos = openingQuotePos;
 			this.closingQuotePos = closingQuotePos;
+			this.isFullyRead = isFullyRead;
 		}
 		
 		public String getString() {
@@ -797,10 +1844,12 @@ public class LazyJSONParser implements Closeable{
 			return closingQuotePos;
 		}
 		
+		/**
+		 * @return false if reading of the string was stopped after the first
+		 *         chars
+		 */
 		public boolean isFullyRead(){
-			//TODO: wrong way to estimate if the string is fully loaded:
-			// length of string not always == number of bytes
-			return string.length() == closingQuotePos - openingQuotePos - 1;
+			return isFullyRead;
 		}
 		
 		public String toString() {
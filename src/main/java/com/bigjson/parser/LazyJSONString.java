@@ -0,0 +1,140 @@
+package com.bigjson.parser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A JSON string (a name or a value) that is referred to by the positions of
+ * its quotes in a file and is decoded only when its characters are requested
+ * for the first time. Loading nodes with such strings costs only finding
+ * the closing quotes. <br>
+ * The string is decoded by the parser that created it (or by the decoder set
+ * for that parser, see {@link LazyJSONParser#setStringDecoder(Decoder)}). Its
+ * methods can
+ * throw {@link UncheckedIOException} if an I/O error occurs while decoding
+ * and {@link IllegalStateException} (caused by
+ * {@link IllegalFormatException}) if the string has invalid format.
+ *
+ * @author nikanka
+ *
+ */
+public final class LazyJSONString implements CharSequence {
+	private final Decoder decoder;
+	private final long openingQuotePos;
+	private final long closingQuotePos;
+	/**
+	 * if only the first chars of the string should be decoded (see
+	 * {@link LazyJSONParser#LazyJSONParser(java.io.File, int)})
+	 */
+	private final int displayLength;
+	/**
+	 * volatile so that a string can be decoded by any thread (the value of
+	 * isFullyRead is set before it)
+	 */
+	private volatile String string = null;
+	private boolean isFullyRead;
+
+	/**
+	 * @param displayLength
+	 *            how many first chars of the string to decode, a negative
+	 *            number to decode the whole string
+	 */
+	LazyJSONString(Decoder decoder, long openingQuotePos, long closingQuotePos, int displayLength) {
+		this.decoder = decoder;
+		this.openingQuotePos = openingQuotePos;
+		this.closingQuotePos = closingQuotePos;
+		this.displayLength = displayLength;
+		if (closingQuotePos == openingQuotePos + 1) {
+			string = "";
+			isFullyRead = true;
+		}
+	}
+
+	public long getOpeningQuotePosition() {
+		return openingQuotePos;
+	}
+
+	public long getClosingQuotePosition() {
+		return closingQuotePos;
+	}
+
+	/**
+	 * @return how many first chars of the string are decoded, a negative
+	 *         number if the whole string is decoded
+	 */
+	public int getDisplayLength() {
+		return displayLength;
+	}
+
+	/**
+	 * @return true if the string has been decoded
+	 */
+	public boolean isDecoded() {
+		return string != null;
+	}
+
+	/**
+	 * @return false if only the first chars of the string are decoded (see
+	 *         {@link JSONNode#isFullyLoaded()})
+	 */
+	public boolean isFullyRead() {
+		// a string can not have more chars than bytes
+		if (string == null && (displayLength < 0 || closingQuotePos - openingQuotePos - 1 <= displayLength)) {
+			return true;
+		}
+		decode();
+		return isFullyRead;
+	}
+
+	private void decode() {
+		if (string != null) {
+			return;
+		}
+		try {
+			LazyJSONParser.StringWithCoords str = decoder.decode(openingQuotePos, displayLength);
+			isFullyRead = str.isFullyRead();
+			string = str.getString();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (IllegalFormatException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public int length() {
+		decode();
+		return string.length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		decode();
+		return string.charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		decode();
+		return string.subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		decode();
+		return string;
+	}
+
+	/**
+	 * Decodes strings given by the positions of their opening quotes
+	 */
+	interface Decoder {
+		/**
+		 * @param displayLength
+		 *            how many first chars of the string to decode, a negative
+		 *            number to decode the whole string
+		 */
+		LazyJSONParser.StringWithCoords decode(long openingQuotePos, int displayLength)
+				throws IOException, IllegalFormatException;
+	}
+}
@@ -0,0 +1,138 @@
+package com.bigjson.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Provide access to the bytes of a file via memory-mapped buffers, so that the
+ * OS page cache does the buffering instead of copying bytes into the heap.<br>
+ * <br>
+ * A single {@link MappedByteBuffer} cannot be larger than 2 Gb, so the file is
+ * mapped as a set of tiles of <code>tileSize</code> bytes. Each tile is mapped
+ * on the first request and overlaps the next one by <code>tileOverlap</code>
+ * bytes, which guarantees that a view returned for any position has at least
+ * <code>tileOverlap</code> bytes after this position (unless the end of file is
+ * reached). This way a multi-byte char that starts near the end of a tile can
+ * always be decoded without switching tiles.
+ *
+ * @author nikanka
+ *
+ */
+public class MappedFileByteSource implements ByteSource {
+	static final long DEFAULT_TILE_SIZE = 1L << 30;
+	static final int DEFAULT_TILE_OVERLAP = 1 << 16;
+
+	private final File file;
+	private final FileChannel fileChannel;
+	private final long size;
+	private final long tileSize;
+	private final int tileOverlap;
+	private final MappedByteBuffer[] tiles;
+
+	/**
+	 * @param file
+	 * @throws IOException
+	 *             if file is not found or an I/O error occurs
+	 */
+	public MappedFileByteSource(File file) throws IOException {
+		this(file, DEFAULT_TILE_SIZE, DEFAULT_TILE_OVERLAP);
+	}
+
+	/**
+	 * @param file
+	 * @param tileSize
+	 *            distance in bytes between the starts of two consecutive tiles
+	 * @param tileOverlap
+	 *            how many bytes of the next tile are mapped at the end of a
+	 *            tile. Should be at least 4 (the maximum length of a UTF-8 char)
+	 * @throws IOException
+	 *             if file is not found or an I/O error occurs
+	 */
+	MappedFileByteSource(File file, long tileSize, int tileOverlap) throws IOException {
+		if (tileOverlap < 4 || tileSize + tileOverlap > Integer.MAX_VALUE || tileOverlap >= tileSize) {
+			throw new IllegalArgumentException(
+					"Invalid tile size (" + tileSize + ") or tile overlap (" + tileOverlap + ")");
+		}
+		this.file = file;
+		this.tileSize = tileSize;
+		this.tileOverlap = tileOverlap;
+		fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		size = fileChannel.size();
+		tiles = new MappedByteBuffer[(int) ((size + tileSize - 1) / tileSize)];
+	}
+
+	@Override
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String getName() {
+		return file.getPath();
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int read(long pos, ByteBuffer dst) throws IOException {
+		ByteBuffer view = getView(pos);
+		if (view == null) {
+			return -1;
+		}
+		int n = Math.min(view.remaining(), dst.remaining());
+		view.limit(view.position() + n);
+		dst.put(view);
+		return n;
+	}
+
+	@Override
+	public boolean providesViews() {
+		return true;
+	}
+
+	/**
+	 * Return a read-only view of the file bytes which position corresponds to
+	 * the file position <code>pos</code>. Bytes before the position (down to
+	 * the start of the tile) are accessible as well, so moving backwards within
+	 * the view does not require a new view.
+	 *
+	 * @param pos
+	 *            file position
+	 * @return a view of the tile containing <code>pos</code> or null if
+	 *         <code>pos</code> is not smaller than the file size
+	 * @throws IOException
+	 *             if an I/O error occurs while mapping the file
+	 */
+	@Override
+	public ByteBuffer getView(long pos) throws IOException {
+		if (pos >= size) {
+			return null;
+		}
+		int ind = (int) (pos / tileSize);
+		ByteBuffer view = getTile(ind).duplicate();
+		view.position((int) (pos - ind * tileSize));
+		return view;
+	}
+
+	private synchronized MappedByteBuffer getTile(int ind) throws IOException {
+		if (tiles[ind] == null) {
+			long start = ind * tileSize;
+			long length = Math.min(tileSize + tileOverlap, size - start);
+			tiles[ind] = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		}
+		return tiles[ind];
+	}
+
+	@Override
+	public void close() throws IOException {
+		// mapped buffers are released by GC: there is no portable way to unmap them
+		fileChannel.close();
+	}
+}
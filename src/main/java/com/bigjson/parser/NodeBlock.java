@@ -0,0 +1,230 @@
+package com.bigjson.parser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Children of an array or an object stored compactly: instead of a node
+ * object per child only their file positions and types are kept in parallel
+ * primitive arrays (8 bytes per position and 1 byte per type, the start
+ * positions of array elements are not stored as they are equal to the value
+ * positions). <br>
+ * {@link #get(int)} returns a light view of a child. Its type and positions
+ * are taken from the block, while its name and value are decoded from the
+ * file when they are accessed for the first time (and then kept in the view
+ * only). The block has to be used with the parser that loaded it (see
+ * {@link JSONLoader#loadChildBlock(JSONNode)}).
+ *
+ * @author nikanka
+ *
+ */
+public final class NodeBlock extends AbstractList<JSONNode> implements RandomAccess {
+	private final LazyJSONParser parser;
+	private final long containerFilePos;
+	private final boolean isArray;
+	private long[] startPositions;
+	private long[] valuePositions;
+	private long[] endPositions;
+	private byte[] types;
+	private int size = 0;
+
+	NodeBlock(LazyJSONParser parser, long containerFilePos, boolean isArray, int capacity) {
+		this.parser = parser;
+		this.containerFilePos = containerFilePos;
+		this.isArray = isArray;
+		capacity = Math.max(capacity, 1);
+		startPositions = isArray ? null : new long[capacity];
+		valuePositions = new long[capacity];
+		endPositions = new long[capacity];
+		types = new byte[capacity];
+	}
+
+	void add(long startPos, long valuePos, long endPos, int type) {
+		if (size == types.length) {
+			resize(size * 2);
+		}
+		if (!isArray) {
+			startPositions[size] = startPos;
+		}
+		valuePositions[size] = valuePos;
+		endPositions[size] = endPos;
+		types[size] = (byte) type;
+		size++;
+	}
+
+	void trimToSize() {
+		if (size < types.length) {
+			resize(Math.max(size, 1));
+		}
+	}
+
+	private void resize(int capacity) {
+		if (!isArray) {
+			startPositions = Arrays.copyOf(startPositions, capacity);
+		}
+		valuePositions = Arrays.copyOf(valuePositions, capacity);
+		endPositions = Arrays.copyOf(endPositions, capacity);
+		types = Arrays.copyOf(types, capacity);
+	}
+
+	/**
+	 * @return position of the opening bracket of the container
+	 */
+	public long getContainerFilePosition() {
+		return containerFilePos;
+	}
+
+	public boolean isArray() {
+		return isArray;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return a view of the child <code>i</code>. Its name and value are
+	 *         decoded on the first access to them, so the methods of the view
+	 *         can throw {@link UncheckedIOException} if an I/O error occurs
+	 *         and {@link IllegalStateException} (caused by
+	 *         {@link IllegalFormatException}) if the file has changed
+	 */
+	@Override
+	public JSONNode get(int i) {
+		checkIndex(i);
+		return new NodeView(i);
+	}
+
+	public int getType(int i) {
+		checkIndex(i);
+		return types[i];
+	}
+
+	public long getStartFilePosition(int i) {
+		checkIndex(i);
+		return isArray ? valuePositions[i] : startPositions[i];
+	}
+
+	public long getValueFilePosition(int i) {
+		checkIndex(i);
+		return valuePositions[i];
+	}
+
+	public long getEndFilePosition(int i) {
+		checkIndex(i);
+		return endPositions[i];
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index " + i + " is out of bounds of the block of size " + size);
+		}
+	}
+
+	/**
+	 * A child of a block that loads its node from the file when its name or
+	 * value is requested
+	 */
+	private class NodeView implements JSONNode {
+		private final int index;
+		private String name = null;
+		private JSONNode node = null;
+
+		NodeView(int index) {
+			this.index = index;
+		}
+
+		private JSONNode getNode() {
+			if (node == null) {
+				try {
+					node = parser.loadNodeAtPosition(getStartFilePosition(), isArray ? "" + index : null);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} catch (IllegalFormatException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return node;
+		}
+
+		@Override
+		public JSONNode createNodeCopyWithFullyLoadedValue(String newVal) {
+			return getNode().createNodeCopyWithFullyLoadedValue(newVal);
+		}
+
+		@Override
+		public int getType() {
+			return types[index];
+		}
+
+		@Override
+		public String getName() {
+			if (name == null) {
+				if (isArray) {
+					name = "" + index;
+				} else if (node != null || isLeaf()) {
+					name = getNode().getName();
+				} else {
+					// do not skip the whole container to read its name
+					try {
+						name = parser.loadStringAtPosition(startPositions[index]);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					} catch (IllegalFormatException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			}
+			return name;
+		}
+
+		@Override
+		public String getValue() {
+			return isLeaf() ? getNode().getValue() : null;
+		}
+
+		@Override
+		public long getStartFilePosition() {
+			return isArray ? valuePositions[index] : startPositions[index];
+		}
+
+		@Override
+		public long getValueFilePosition() {
+			return valuePositions[index];
+		}
+
+		@Override
+		public long getEndFilePosition() {
+			return endPositions[index];
+		}
+
+		@Override
+		public boolean isFullyLoaded() {
+			return getType() != JSONNode.TYPE_STRING || getNode().isFullyLoaded();
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return getType() != JSONNode.TYPE_ARRAY && getType() != JSONNode.TYPE_OBJECT;
+		}
+
+		@Override
+		public boolean isIntegral() {
+			return getType() == JSONNode.TYPE_NUMBER && getNode().isIntegral();
+		}
+
+		@Override
+		public long getLong() {
+			return getNode().getLong();
+		}
+
+		@Override
+		public double getDouble() {
+			return getNode().getDouble();
+		}
+	}
+}
@@ -30,31 +30,16 @@ public class NumberCheckingStateMachine {
 	 * @return
 	 * @throws IllegalFormatException
 	 */
+	@SuppressWarnings("fallthrough")
 	public void push(byte b) throws IllegalFormatException {
-		if (b == '.') {
-			if (state == State.AFTER_FIRST || state == State.DIGIT) {
-				state = State.FRAC_FIRST;
+		switch (state) {
+		case SIGN:
+			if (b == '-') {
+				state = State.FIRST_DIDIT;
 				return;
-			} else {
-				throw new IllegalFormatException(
-						"Got fraction sign ('.') not after int part of a number (state = " + state + ") ");
-			}
-		}
-		if (b == 'E' || b == 'e') {
-			if (state == State.AFTER_FIRST || state == State.DIGIT || state == State.FRAC) {
-				state = State.EXP_SIGN;
-				return;
-			} else {
-				throw new IllegalFormatException(
-						"Got exp sign ('e' or 'E') not after INT or FRAC part of a number (state = " + state + ")");
-			}
-		}
-		if (state == State.SIGN) {
-			state = State.FIRST_DIDIT;
-			if (b != '-') {
-				push(b);
 			}
-		} else if (state == State.FIRST_DIDIT) {
+			// no sign: the byte is the first digit
+		case FIRST_DIDIT:
 			if (b == '0') {
 				state = State.AFTER_FIRST;
 			} else if (b > 48 && b < 58) {
@@ -63,44 +48,49 @@ public class NumberCheckingStateMachine {
 				throw new IllegalFormatException(
 						"Unexpected byte in the beginning of a number: " + b + " (expected a digit)");
 			}
-		} else if (state == State.DIGIT) {
-			if (isNotADigit(b)) {
+			return;
+		case AFTER_FIRST:
+		case DIGIT:
+			if (b == '.') {
+				state = State.FRAC_FIRST;
+			} else if (b == 'E' || b == 'e') {
+				state = State.EXP_SIGN;
+			} else if (state == State.AFTER_FIRST || isNotADigit(b)) {
+				// a leading zero can only be followed by '.', 'e' or 'E'
 				throw new IllegalFormatException(
-						"Unexpected byte in the INT part of a number: " + b + " (expected a digit)");
+						"Unexpected byte in the INT part of a number: " + b + " (state = " + state + ")");
 			}
-			// we could also get 'e', 'E' or '.' in DIGIT state, but we should
-			// have entered earlier if statement than
-		} else if (state == State.FRAC_FIRST) {
+			return;
+		case FRAC_FIRST:
 			if (isNotADigit(b)) {
 				throw new IllegalFormatException(
 						"Unexpected byte in the FRAC part of a number: " + b + " (expected a digit)");
 			}
 			state = State.FRAC;
-		} else if (state == State.FRAC) {
-			if (isNotADigit(b)) {
+			return;
+		case FRAC:
+			if (b == 'E' || b == 'e') {
+				state = State.EXP_SIGN;
+			} else if (isNotADigit(b)) {
 				throw new IllegalFormatException(
 						"Unexpected byte in the FRAC part of a number: " + b + " (expected a digit)");
 			}
-		} else if (state == State.EXP_SIGN) {
-			state = State.EXP_DIGIT_FIRST;
-			if (b != '+' && b != '-') {
-				push(b);
+			return;
+		case EXP_SIGN:
+			if (b == '+' || b == '-') {
+				state = State.EXP_DIGIT_FIRST;
+				return;
 			}
-		} else if (state == State.EXP_DIGIT_FIRST) {
+			// no sign: the byte is the first digit
+		case EXP_DIGIT_FIRST:
+		case EXP_DIGIT:
 			if (isNotADigit(b)) {
 				throw new IllegalFormatException(
 						"Unexpected byte in the EXP part of a number: " + b + " (expected a digit)");
 			}
 			state = State.EXP_DIGIT;
-		} else if (state == State.EXP_DIGIT) {
-			if (isNotADigit(b)) {
-				throw new IllegalFormatException(
-						"Unexpected byte in the EXP part of a number: " + b + " (expected a digit)");
-			}
-		} else {
-			// we cannot be in AFTER_FIRST_ZERO state legally here because the
-			// only four ways out of there are 'E', 'e', '.' and end of number
-			// (see if statements in the beginning)
+			return;
+		default:
 			throw new RuntimeException("Unknwon state value: " + state.toString());
 		}
 	}
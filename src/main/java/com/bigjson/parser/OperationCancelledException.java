@@ -0,0 +1,15 @@
+package com.bigjson.parser;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown by a reader when an operation is cancelled via a
+ * {@link CancellationToken}. It is an {@link java.io.IOException}, so it
+ * stops any operation that reads bytes.
+ */
+@SuppressWarnings("serial")
+public class OperationCancelledException extends InterruptedIOException{
+	public OperationCancelledException(String message) {
+		super(message);
+	}
+}
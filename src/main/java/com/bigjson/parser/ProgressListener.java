@@ -0,0 +1,22 @@
+package com.bigjson.parser;
+
+/**
+ * Receives the progress of long operations of a reader (e.g. validation of a
+ * big node or a search). It is called by the thread that runs an operation
+ * when the reader loads new bytes, at most once per
+ * {@value UTF8FileReader#PROGRESS_STEP} bytes, so it should return quickly.
+ * 
+ * @author nikanka
+ *
+ */
+public interface ProgressListener {
+
+	/**
+	 * @param bytesProcessed
+	 *            number of bytes read since the listener was set (see
+	 *            {@link UTF8FileReader#setProgressListener(ProgressListener)})
+	 * @param totalBytes
+	 *            size of the source in bytes
+	 */
+	public void onProgress(long bytesProcessed, long totalBytes);
+}
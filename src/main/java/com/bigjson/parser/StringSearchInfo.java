@@ -8,6 +8,28 @@ public class StringSearchInfo {
 	
 	private static final int CACHED_MATCHES_MAX_NUM = 100;
 
+	/**
+	 * Tokens a search looks for matches in
+	 */
+	public static enum SearchScope {
+		/**
+		 * Object names and string, number, null, false and true values
+		 */
+		ANY,
+		/**
+		 * Object names only
+		 */
+		KEYS,
+		/**
+		 * String values only (including strings in arrays)
+		 */
+		STRING_VALUES,
+		/**
+		 * Number, null, false and true values only
+		 */
+		PRIMITIVES
+	}
+
 	private String stringToSearch;
 	/**
 	 * inclusive
@@ -27,13 +49,25 @@ public class StringSearchInfo {
 	private boolean caseSensitive;
 	private boolean searchForAltUnicode;
 	private Charset charset;
+	private SearchScope scope;
 	private List<BytePatternMatcher> patterns;
+	/**
+	 * Automaton that finds all the patterns in one pass, or null if there is
+	 * only one pattern
+	 */
+	private BytePatternAutomaton automaton;
+	/**
+	 * Ranges of the file to scan according to a trigram index (see
+	 * {@link JSONSearch#setTrigramIndex(TrigramIndex)})
+	 */
+	private long[] scanRanges;
+	private TrigramIndex scanRangesIndex;
 
 	private long nextSearchShift = 1;
 	
 
 	private StringSearchInfo(String stringToSearch, long searchStartPos, long searchEndPos, boolean caseSensitive,
-			boolean searchForAltUnicode, Charset charset) {
+			boolean searchForAltUnicode, Charset charset, SearchScope scope) {
 		if(stringToSearch.length() == 0){
 			throw new IllegalArgumentException("Cannot search for an empty string");
 		}
@@ -48,7 +82,11 @@ public class StringSearchInfo {
 		this.caseSensitive = caseSensitive;
 		this.searchForAltUnicode = searchForAltUnicode;
 		this.charset = charset;
+		this.scope = scope;
 		this.patterns = BytePatternMatcher.createPatternsForString(stringToSearch, charset, caseSensitive, searchForAltUnicode);
+		if(patterns.size() > 1){
+			this.automaton = new BytePatternAutomaton(patterns);
+		}
 		/*
 		 * Check if the first byte of the first pattern if a backslash.
 		 * If so, the next byte is an escaped one and has no meaning by itself, 
@@ -81,7 +119,28 @@ public class StringSearchInfo {
 	 */
 	public static StringSearchInfo createNewSearch(String stringToSearch, long searchStartPos, long searchEndPos,
 			boolean caseSensitive, boolean searchForAltUnicode, Charset charset) {
-		return new StringSearchInfo(stringToSearch, searchStartPos, searchEndPos, caseSensitive, searchForAltUnicode, charset);
+		return createNewSearch(stringToSearch, searchStartPos, searchEndPos, caseSensitive, searchForAltUnicode,
+				charset, SearchScope.ANY);
+	}
+
+	/**
+	 * The same as
+	 * {@link #createNewSearch(String, long, long, boolean, boolean, Charset)}
+	 * with matches only in the tokens of a given scope.
+	 * 
+	 * @param scope
+	 *            tokens to search in
+	 * @throws IllegalArgumentException
+	 *             if the string to search is empty or if search end pos is not
+	 *             bigger than search start pos
+	 */
+	public static StringSearchInfo createNewSearch(String stringToSearch, long searchStartPos, long searchEndPos,
+			boolean caseSensitive, boolean searchForAltUnicode, Charset charset, SearchScope scope) {
+		if(scope == null){
+			throw new IllegalArgumentException("Search scope should not be null");
+		}
+		return new StringSearchInfo(stringToSearch, searchStartPos, searchEndPos, caseSensitive,
+				searchForAltUnicode, charset, scope);
 	}
 
 	public String getStringToSearch() {
@@ -99,6 +158,10 @@ public class StringSearchInfo {
 	public Charset getCharset(){
 		return charset;
 	}
+
+	public SearchScope getScope(){
+		return scope;
+	}
 	
 	public long getSearchStartPos() {
 		return searchStartPos;
@@ -182,6 +245,26 @@ public class StringSearchInfo {
 	public List<BytePatternMatcher> getPatterns() {
 		return patterns;
 	}
+
+	BytePatternAutomaton getAutomaton() {
+		return automaton;
+	}
+
+	/**
+	 * @return the index the scan ranges were found with
+	 */
+	TrigramIndex getScanRangesIndex() {
+		return scanRangesIndex;
+	}
+
+	long[] getScanRanges() {
+		return scanRanges;
+	}
+
+	void setScanRanges(TrigramIndex index, long[] ranges) {
+		this.scanRangesIndex = index;
+		this.scanRanges = ranges;
+	}
 	
 	@Override
 	public boolean equals(Object obj) {
@@ -194,6 +277,7 @@ public class StringSearchInfo {
 				searchStartPos == search.searchStartPos &&
 				searchEndPos == search.searchEndPos &&
 				caseSensitive == search.caseSensitive &&
-				searchForAltUnicode == search.searchForAltUnicode;
+				searchForAltUnicode == search.searchForAltUnicode &&
+				scope == search.scope;
 	}
 }
@@ -0,0 +1,450 @@
+package com.bigjson.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent index of the structure of a JSON text: for every container
+ * (object or array) which size is at least <code>minContainerSize</code> bytes
+ * it records the positions of its opening and closing brackets and the number
+ * of its children. With the index the parser can jump over a container
+ * directly to its closing bracket instead of scanning all its bytes. <br>
+ * <br>
+ * The index is built once, saved into a sidecar file (by default
+ * <code>&lt;json file&gt;.bjidx</code>) and memory-mapped when opened. It
+ * stores the size, the modification time and a checksum of sampled blocks of
+ * the source it was built for, so a stale index is detected on open.<br>
+ * <br>
+ * File format (big-endian): header ({@value #MAGIC} magic, version, source
+ * size, source modification time, sampled checksum, min container size, number
+ * of entries) followed by entries (start, end, child count) sorted by start.
+ *
+ * @author nikanka
+ *
+ */
+public class StructuralIndex implements Closeable {
+	public static final String INDEX_FILE_EXTENSION = ".bjidx";
+	public static final int DEFAULT_MIN_CONTAINER_SIZE = 1024;
+
+	private static final int MAGIC = 0x424A4958; // "BJIX"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 8;
+	private static final int ENTRY_LONGS = StructuralIndexChunk.ENTRY_LONGS;
+	private static final int ENTRY_SIZE = ENTRY_LONGS * 8;
+	private static final int CHECKSUM_SAMPLE_NUM = 16;
+	private static final int CHECKSUM_SAMPLE_SIZE = 4096;
+	/**
+	 * Chunks smaller than this are not worth scanning in parallel
+	 */
+	private static final long MIN_PARALLEL_CHUNK_SIZE = 1 << 22;
+	/**
+	 * The end of an entry of a container that is too small to be indexed
+	 */
+	private static final long REMOVED = -2;
+
+	private final LongBuffer entries;
+	private final int entryNum;
+	private final int minContainerSize;
+
+	private StructuralIndex(LongBuffer entries, int minContainerSize) {
+		this.entries = entries;
+		this.entryNum = entries.limit() / ENTRY_LONGS;
+		this.minContainerSize = minContainerSize;
+	}
+
+	/**
+	 * @return the default index file for a given JSON file (the same path with
+	 *         {@value #INDEX_FILE_EXTENSION} extension appended)
+	 */
+	public static File getDefaultIndexFile(File jsonFile) {
+		return new File(jsonFile.getPath() + INDEX_FILE_EXTENSION);
+	}
+
+	/**
+	 * Scan the whole source, save the index of its containers into
+	 * <code>indexFile</code> and open it.
+	 *
+	 * @param source
+	 * @param indexFile
+	 *            file to save the index to (it is overwritten if exists)
+	 * @param minContainerSize
+	 *            containers smaller than this number of bytes are not indexed
+	 *            (0 to index all containers)
+	 * @return opened index
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalFormatException
+	 *             if brackets in the source are not balanced
+	 */
+	public static StructuralIndex build(ByteSource source, File indexFile, int minContainerSize)
+			throws IOException, IllegalFormatException {
+		return build(source, indexFile, minContainerSize, null);
+	}
+
+	/**
+	 * Scan the whole source using the threads of a given pool, save the index
+	 * of its containers into <code>indexFile</code> and open it.<br>
+	 * <br>
+	 * The source is split into chunks that are scanned in parallel. It is not
+	 * known if a chunk starts inside a string until the previous chunks are
+	 * scanned, so each chunk is scanned for both cases. Then the chunks are
+	 * stitched in order: the state at the end of a chunk tells which result of
+	 * the next chunk is right.
+	 *
+	 * @param source
+	 *            the source to index. Its reads should be safe for concurrent
+	 *            use (see {@link ByteSource})
+	 * @param indexFile
+	 *            file to save the index to (it is overwritten if exists)
+	 * @param minContainerSize
+	 *            containers smaller than this number of bytes are not indexed
+	 *            (0 to index all containers)
+	 * @param pool
+	 *            threads to scan the chunks. If null, the source is scanned in
+	 *            the current thread as a single chunk
+	 * @return opened index
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalFormatException
+	 *             if brackets in the source are not balanced
+	 */
+	public static StructuralIndex build(ByteSource source, File indexFile, int minContainerSize, ForkJoinPool pool)
+			throws IOException, IllegalFormatException {
+		// every chunk except the first one is scanned twice, so there is no
+		// gain without at least two threads
+		int chunkNum = pool == null || pool.getParallelism() < 2 ? 1
+				: (int) Math.max(1, Math.min(pool.getParallelism() * 4L, source.size() / MIN_PARALLEL_CHUNK_SIZE));
+		return build(source, indexFile, minContainerSize, pool, chunkNum);
+	}
+
+	/**
+	 * The same as {@link #build(ByteSource, File, int, ForkJoinPool)} with a
+	 * given number of chunks
+	 */
+	static StructuralIndex build(final ByteSource source, File indexFile, final int minContainerSize,
+			ForkJoinPool pool, int chunkNum) throws IOException, IllegalFormatException {
+		long size = source.size();
+		if (pool == null) {
+			chunkNum = 1;
+		}
+		long chunkSize = (size + chunkNum - 1) / chunkNum;
+		List<ForkJoinTask<StructuralIndexChunk[]>> tasks = new ArrayList<ForkJoinTask<StructuralIndexChunk[]>>();
+		if (pool != null) {
+			for (int c = 0; c < chunkNum; c++) {
+				final long start = Math.min(size, c * chunkSize);
+				final long end = Math.min(size, start + chunkSize);
+				tasks.add(pool.submit(new Callable<StructuralIndexChunk[]>() {
+					@Override
+					public StructuralIndexChunk[] call() throws IOException, IllegalFormatException {
+						return StructuralIndexChunk.scan(source, start, end, minContainerSize);
+					}
+				}));
+			}
+		}
+		Stitcher stitcher = new Stitcher(minContainerSize);
+		List<StructuralIndexChunk> chunks = new ArrayList<StructuralIndexChunk>(chunkNum);
+		boolean inString = false;
+		try {
+			for (int c = 0; c < chunkNum; c++) {
+				StructuralIndexChunk[] results = pool == null
+						? StructuralIndexChunk.scan(source, 0, size, minContainerSize)
+						: getResult(tasks.get(c));
+				StructuralIndexChunk chunk = results[inString ? 1 : 0];
+				chunk.checkValid();
+				stitcher.add(chunk);
+				chunks.add(chunk);
+				inString = chunk.endsInString;
+			}
+		} finally {
+			for (ForkJoinTask<StructuralIndexChunk[]> task : tasks) {
+				task.cancel(false);
+			}
+		}
+		if (inString) {
+			throw new IllegalFormatException(
+					"Unexpected end of " + source.getName() + " while building an index: a string is not closed");
+		}
+		stitcher.finish(source.getName());
+		write(indexFile, source, minContainerSize, chunks);
+		return open(source, indexFile);
+	}
+
+	private static StructuralIndexChunk[] getResult(ForkJoinTask<StructuralIndexChunk[]> task)
+			throws IOException, IllegalFormatException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while building an index");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof IllegalFormatException) {
+				throw (IllegalFormatException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Open an existing index of a given source.
+	 *
+	 * @param source
+	 * @param indexFile
+	 * @return the index or null if <code>indexFile</code> does not exist, is
+	 *         not an index file or was built for a different (or modified)
+	 *         source
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static StructuralIndex open(ByteSource source, File indexFile) throws IOException {
+		if (!indexFile.isFile() || indexFile.length() < HEADER_SIZE) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+			}
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != source.size()
+					|| header.getLong() != getLastModified(source) || header.getLong() != computeChecksum(source)) {
+				return null;
+			}
+			int minContainerSize = header.getInt();
+			long entryNum = header.getLong();
+			if (HEADER_SIZE + entryNum * ENTRY_SIZE != channel.size()) {
+				return null;
+			}
+			LongBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, entryNum * ENTRY_SIZE)
+					.asLongBuffer();
+			// the mapping stays valid after the channel is closed
+			return new StructuralIndex(entries, minContainerSize);
+		}
+	}
+
+	private static void write(File indexFile, ByteSource source, int minContainerSize,
+			List<StructuralIndexChunk> chunks) throws IOException {
+		long entryNum = 0;
+		for (StructuralIndexChunk chunk : chunks) {
+			for (int e = 0; e < chunk.entryNum; e++) {
+				if (chunk.entries[e * ENTRY_LONGS + 1] != REMOVED) {
+					entryNum++;
+				}
+			}
+		}
+		if (entryNum * ENTRY_SIZE > Integer.MAX_VALUE) {
+			throw new IOException("Too many containers to index (" + entryNum
+					+ "): use a bigger min container size (now " + minContainerSize + ")");
+		}
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buf = ByteBuffer.allocate(Math.max(HEADER_SIZE, 1 << 16));
+			buf.putInt(MAGIC).putInt(VERSION).putLong(source.size()).putLong(getLastModified(source))
+					.putLong(computeChecksum(source)).putInt(minContainerSize).putLong(entryNum);
+			for (StructuralIndexChunk chunk : chunks) {
+				for (int e = 0; e < chunk.entryNum; e++) {
+					if (chunk.entries[e * ENTRY_LONGS + 1] == REMOVED) {
+						continue;
+					}
+					if (buf.remaining() < ENTRY_SIZE) {
+						flush(channel, buf);
+					}
+					for (int i = 0; i < ENTRY_LONGS; i++) {
+						buf.putLong(chunk.entries[e * ENTRY_LONGS + i]);
+					}
+				}
+			}
+			flush(channel, buf);
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	static long getLastModified(ByteSource source) {
+		File file = source.getFile();
+		return file == null ? -1 : file.lastModified();
+	}
+
+	/**
+	 * Compute CRC32 of {@value #CHECKSUM_SAMPLE_NUM} blocks evenly spread over
+	 * the source (including its first and last bytes).
+	 */
+	static long computeChecksum(ByteSource source) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buf = ByteBuffer.allocate(CHECKSUM_SAMPLE_SIZE);
+		long step = Math.max(CHECKSUM_SAMPLE_SIZE,
+				(source.size() - CHECKSUM_SAMPLE_SIZE) / (CHECKSUM_SAMPLE_NUM - 1));
+		for (long pos = 0; pos < source.size(); pos += step) {
+			long samplePos = Math.min(pos, Math.max(0, source.size() - CHECKSUM_SAMPLE_SIZE));
+			buf.clear();
+			while (buf.hasRemaining() && source.read(samplePos + buf.position(), buf) > 0) {
+			}
+			buf.flip();
+			crc.update(buf);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * @return containers smaller than this number of bytes are not indexed
+	 */
+	public int getMinContainerSize() {
+		return minContainerSize;
+	}
+
+	/**
+	 * @return the number of indexed containers
+	 */
+	public int getContainerNum() {
+		return entryNum;
+	}
+
+	/**
+	 * @param startPos
+	 *            position of an opening bracket of a container
+	 * @return position of the matching closing bracket or -1 if the container
+	 *         is not indexed
+	 */
+	public long getEndPosition(long startPos) {
+		int ind = find(startPos);
+		return ind < 0 ? -1 : entries.get(ind * ENTRY_LONGS + 1);
+	}
+
+	/**
+	 * @param startPos
+	 *            position of an opening bracket of a container
+	 * @return number of children of the container or -1 if the container is
+	 *         not indexed
+	 */
+	public long getChildCount(long startPos) {
+		int ind = find(startPos);
+		return ind < 0 ? -1 : entries.get(ind * ENTRY_LONGS + 2);
+	}
+
+	/**
+	 * Binary search of the entry with a given start position
+	 *
+	 * @return index of the entry or -1 if not found
+	 */
+	private int find(long startPos) {
+		int lo = 0;
+		int hi = entryNum - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long midStart = entries.get(mid * ENTRY_LONGS);
+			if (midStart < startPos) {
+				lo = mid + 1;
+			} else if (midStart > startPos) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void close() {
+		// mapped buffers are released by GC: there is no portable way to unmap them
+	}
+
+	/**
+	 * Joins chunks in order: applies each chunk to the containers opened
+	 * before it and sets the ends and child counts of the containers closed in
+	 * it.
+	 */
+	private static class Stitcher {
+		private final int minContainerSize;
+		private final List<OpenContainer> stack = new ArrayList<OpenContainer>();
+
+		Stitcher(int minContainerSize) {
+			this.minContainerSize = minContainerSize;
+		}
+
+		void add(StructuralIndexChunk chunk) throws IllegalFormatException {
+			int top = stack.size() - 1;
+			for (int i = 0; i < chunk.outerFrameNum; i++) {
+				boolean closed = i < chunk.outerFrameNum - 1;
+				if (top - i < 0) {
+					if (closed) {
+						throw new IllegalFormatException(
+								"Unexpected closing bracket '" + (char) chunk.outerCloseBracket[i] + "' at pos "
+										+ chunk.outerClosePos[i]);
+					}
+					// values outside any container
+					continue;
+				}
+				OpenContainer container = stack.get(top - i);
+				container.commas += chunk.outerCommas[i];
+				container.nonEmpty |= chunk.outerNonEmpty[i];
+				if (closed) {
+					StructuralIndexChunk.checkBrackets(container.bracket, chunk.outerCloseBracket[i],
+							chunk.outerClosePos[i]);
+					container.close(chunk.outerClosePos[i], minContainerSize);
+				}
+			}
+			for (int i = 0; i < chunk.outerFrameNum - 1; i++) {
+				stack.remove(stack.size() - 1);
+			}
+			for (int i = 0; i < chunk.depth; i++) {
+				OpenContainer container = new OpenContainer();
+				container.chunk = chunk;
+				container.entry = chunk.stackEntry[i];
+				container.bracket = chunk.stackBracket[i];
+				container.commas = chunk.stackCommas[i];
+				container.nonEmpty = chunk.stackNonEmpty[i];
+				stack.add(container);
+			}
+		}
+
+		void finish(String sourceName) throws IllegalFormatException {
+			if (!stack.isEmpty()) {
+				throw new IllegalFormatException("Unexpected end of " + sourceName + " while building an index: "
+						+ stack.size() + " container(s) not closed");
+			}
+		}
+	}
+
+	/**
+	 * A container that is not closed in the chunk it was opened in
+	 */
+	private static class OpenContainer {
+		StructuralIndexChunk chunk;
+		int entry;
+		byte bracket;
+		long commas;
+		boolean nonEmpty;
+
+		void close(long pos, int minContainerSize) {
+			long[] entries = chunk.entries;
+			int ind = entry * StructuralIndexChunk.ENTRY_LONGS;
+			if (pos - entries[ind] + 1 < minContainerSize) {
+				entries[ind + 1] = REMOVED;
+			} else {
+				entries[ind + 1] = pos;
+				entries[ind + 2] = nonEmpty ? commas + 1 : 0;
+			}
+		}
+	}
+}
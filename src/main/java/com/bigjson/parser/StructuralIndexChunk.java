@@ -0,0 +1,271 @@
+package com.bigjson.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Structure of a part (chunk) of a JSON text collected independently from the
+ * other parts, so that chunks can be scanned in parallel and then stitched
+ * together in order (see {@link StructuralIndex}).<br>
+ * <br>
+ * Whether a chunk starts inside a string can not be known without scanning
+ * all the previous bytes, so a chunk is scanned under an assumption (
+ * <code>startsInString</code>). Once the state at the end of the previous
+ * chunk is known, the chunk scanned under the right assumption is taken.<br>
+ * <br>
+ * A chunk consists of:
+ * <ul>
+ * <li>entries (start, end, child count) of the containers opened in the chunk
+ * sorted by start. The end of a container that is not closed in the chunk is
+ * -1 and is set while stitching;</li>
+ * <li>"outer" frames: the effect of the chunk on the containers opened before
+ * it. Outer frame <code>i</code> is the container that is <code>i</code>
+ * levels above the first byte of the chunk. The chunk adds commas to the outer
+ * frames and closes all of them except the last one;</li>
+ * <li>the stack of containers opened but not closed in the chunk.</li>
+ * </ul>
+ *
+ * @author nikanka
+ *
+ */
+class StructuralIndexChunk {
+	static final int ENTRY_LONGS = 3;
+	private static final int READ_BUFFER_SIZE = 1 << 18;
+
+	private final int minContainerSize;
+	final boolean startsInString;
+	boolean endsInString;
+
+	long[] entries = new long[ENTRY_LONGS * 1024];
+	int entryNum = 0;
+
+	// containers opened before this chunk
+	int outerFrameNum = 1;
+	long[] outerCommas = new long[4];
+	boolean[] outerNonEmpty = new boolean[4];
+	long[] outerClosePos = new long[4];
+	byte[] outerCloseBracket = new byte[4];
+
+	// containers opened in this chunk and not closed yet
+	int depth = 0;
+	byte[] stackBracket = new byte[64];
+	int[] stackEntry = new int[64];
+	long[] stackCommas = new long[64];
+	boolean[] stackNonEmpty = new boolean[64];
+
+	/**
+	 * @param minContainerSize
+	 *            containers smaller than this number of bytes are not indexed
+	 * @param startsInString
+	 *            if the chunk is assumed to start inside a string
+	 */
+	StructuralIndexChunk(int minContainerSize, boolean startsInString) {
+		this.minContainerSize = minContainerSize;
+		this.startsInString = startsInString;
+	}
+
+	/**
+	 * Scan bytes <code>[start, end)</code> of the source under both
+	 * assumptions: that they start outside and inside a string.
+	 *
+	 * @return two chunks: the first one is scanned assuming the start outside
+	 *         a string, the second - inside a string (it is null if
+	 *         <code>start</code> is 0)
+	 * @throws IllegalFormatException
+	 *             if the brackets within the chunk do not match
+	 */
+	static StructuralIndexChunk[] scan(ByteSource source, long start, long end, int minContainerSize)
+			throws IOException, IllegalFormatException {
+		// if a chunk starts inside a string its first byte is escaped by an odd
+		// sequence of backslashes just before the chunk
+		boolean escaped = countBackslashesBefore(source, start) % 2 == 1;
+		// the start of the source is known to be outside a string
+		int assumptionNum = start == 0 ? 1 : 2;
+		StructuralIndexChunk[] chunks = { new StructuralIndexChunk(minContainerSize, false),
+				assumptionNum == 1 ? null : new StructuralIndexChunk(minContainerSize, true) };
+		StructuralScanner[] scanners = { new StructuralScanner(false, false), new StructuralScanner(true, escaped) };
+		IllegalFormatException[] errors = new IllegalFormatException[2];
+		ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		long[] positions = new long[READ_BUFFER_SIZE];
+		long bufFilePos = start;
+		boolean endOfChunk = false;
+		while (!endOfChunk) {
+			int toRead = (int) Math.min(buf.remaining(), end - bufFilePos - buf.position());
+			buf.limit(buf.position() + toRead);
+			while (buf.hasRemaining() && source.read(bufFilePos + buf.position(), buf) > 0) {
+			}
+			if (buf.hasRemaining()) {
+				throw new IOException("Failed to read bytes [" + bufFilePos + ", " + end + ") of " + source.getName());
+			}
+			endOfChunk = bufFilePos + buf.position() == end;
+			buf.flip();
+			int scanEnd = 0;
+			for (int h = 0; h < assumptionNum; h++) {
+				buf.position(0);
+				int n = scanners[h].scan(buf, bufFilePos, endOfChunk, positions);
+				scanEnd = buf.position();
+				for (int i = 0; i < n && errors[h] == null; i++) {
+					try {
+						chunks[h].push(buf.get((int) (positions[i] - bufFilePos)), positions[i]);
+					} catch (IllegalFormatException e) {
+						// the assumption is probably wrong
+						errors[h] = e;
+					}
+				}
+			}
+			buf.position(scanEnd);
+			bufFilePos += scanEnd;
+			buf.compact();
+			buf.limit(buf.capacity());
+		}
+		for (int h = 0; h < assumptionNum; h++) {
+			chunks[h].endsInString = scanners[h].isInString();
+			if (errors[h] != null) {
+				chunks[h] = new InvalidChunk(chunks[h], errors[h]);
+			}
+		}
+		return chunks;
+	}
+
+	private static long countBackslashesBefore(ByteSource source, long pos) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(1024);
+		long count = 0;
+		while (pos > 0) {
+			int len = (int) Math.min(buf.capacity(), pos);
+			buf.clear().limit(len);
+			while (buf.hasRemaining() && source.read(pos - len + buf.position(), buf) > 0) {
+			}
+			for (int i = len - 1; i >= 0; i--) {
+				if (buf.get(i) != '\\') {
+					return count;
+				}
+				count++;
+			}
+			pos -= len;
+		}
+		return count;
+	}
+
+	/**
+	 * @throws IllegalFormatException
+	 *             if the assumption the chunk was scanned under turned out to be
+	 *             wrong and the chunk has invalid structure
+	 */
+	void checkValid() throws IllegalFormatException {
+	}
+
+	/**
+	 * Push a structural character (see {@link StructuralScanner})
+	 */
+	void push(byte b, long pos) throws IllegalFormatException {
+		switch (b) {
+		case '{':
+		case '[':
+			markNonEmpty();
+			openContainer(b, pos);
+			break;
+		case '}':
+		case ']':
+			closeContainer(b, pos);
+			break;
+		case ',':
+			if (depth > 0) {
+				stackCommas[depth - 1]++;
+			} else {
+				outerCommas[outerFrameNum - 1]++;
+			}
+			break;
+		case ':':
+			break;
+		default:
+			// a string or another scalar
+			markNonEmpty();
+		}
+	}
+
+	private void markNonEmpty() {
+		if (depth > 0) {
+			stackNonEmpty[depth - 1] = true;
+		} else {
+			outerNonEmpty[outerFrameNum - 1] = true;
+		}
+	}
+
+	private void openContainer(byte bracket, long pos) {
+		if (depth == stackBracket.length) {
+			int newLen = depth * 2;
+			stackBracket = Arrays.copyOf(stackBracket, newLen);
+			stackEntry = Arrays.copyOf(stackEntry, newLen);
+			stackCommas = Arrays.copyOf(stackCommas, newLen);
+			stackNonEmpty = Arrays.copyOf(stackNonEmpty, newLen);
+		}
+		if ((entryNum + 1) * ENTRY_LONGS > entries.length) {
+			entries = Arrays.copyOf(entries, entries.length * 2);
+		}
+		entries[entryNum * ENTRY_LONGS] = pos;
+		entries[entryNum * ENTRY_LONGS + 1] = -1;
+		stackBracket[depth] = bracket;
+		stackEntry[depth] = entryNum;
+		stackCommas[depth] = 0;
+		stackNonEmpty[depth] = false;
+		entryNum++;
+		depth++;
+	}
+
+	private void closeContainer(byte bracket, long pos) throws IllegalFormatException {
+		if (depth == 0) {
+			// closing of a container opened before this chunk
+			if (outerFrameNum == outerCommas.length) {
+				int newLen = outerFrameNum * 2;
+				outerCommas = Arrays.copyOf(outerCommas, newLen);
+				outerNonEmpty = Arrays.copyOf(outerNonEmpty, newLen);
+				outerClosePos = Arrays.copyOf(outerClosePos, newLen);
+				outerCloseBracket = Arrays.copyOf(outerCloseBracket, newLen);
+			}
+			outerClosePos[outerFrameNum - 1] = pos;
+			outerCloseBracket[outerFrameNum - 1] = bracket;
+			outerFrameNum++;
+			return;
+		}
+		depth--;
+		checkBrackets(stackBracket[depth], bracket, pos);
+		int entry = stackEntry[depth];
+		if (pos - entries[entry * ENTRY_LONGS] + 1 < minContainerSize) {
+			// this is the last entry: entries of its descendants, which are
+			// even smaller, have already been removed
+			entryNum = entry;
+			return;
+		}
+		entries[entry * ENTRY_LONGS + 1] = pos;
+		entries[entry * ENTRY_LONGS + 2] = stackNonEmpty[depth] ? stackCommas[depth] + 1 : 0;
+	}
+
+	static void checkBrackets(byte openingBracket, byte closingBracket, long closingPos)
+			throws IllegalFormatException {
+		if (openingBracket != (closingBracket == '}' ? '{' : '[')) {
+			throw new IllegalFormatException("Closing bracket '" + (char) closingBracket + "' at pos " + closingPos
+					+ " does not match the opening one '" + (char) openingBracket + "'");
+		}
+	}
+
+	/**
+	 * A chunk that failed to be scanned under its assumption. It is an error
+	 * only if the assumption turns out to be right.
+	 */
+	private static class InvalidChunk extends StructuralIndexChunk {
+		private final IllegalFormatException error;
+
+		InvalidChunk(StructuralIndexChunk chunk, IllegalFormatException error) {
+			super(0, chunk.startsInString);
+			this.endsInString = chunk.endsInString;
+			this.error = error;
+		}
+
+		@Override
+		void checkValid() throws IllegalFormatException {
+			throw error;
+		}
+	}
+}
@@ -0,0 +1,399 @@
+package com.bigjson.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Find structural characters of a JSON text processing it in blocks of
+ * {@value #BLOCK_SIZE} bytes instead of one byte at a time (the idea of the
+ * stage 1 of simdjson).<br>
+ * <br>
+ * For each block bitmasks (one bit per byte) of quotes, backslashes, brackets,
+ * separators and whitespaces are built with SWAR ("SIMD within a register")
+ * operations on 8-byte words. Then escaped quotes are excluded, the mask of
+ * in-string bytes is computed as a prefix XOR of the unescaped quotes and only
+ * the structural characters outside strings are left. The state that crosses
+ * block boundaries (whether a block starts inside a string, with an escaped
+ * byte or in the middle of a scalar) is kept in the scanner, so blocks should
+ * be scanned in order.<br>
+ * <br>
+ * The positions that are reported as structural are: brackets, commas and
+ * colons outside strings, opening quotes of strings and the first bytes of
+ * other scalars (numbers and keywords).
+ *
+ * @see <a href="https://arxiv.org/abs/1902.08318">Parsing Gigabytes of JSON
+ *      per Second</a>
+ * @author nikanka
+ *
+ */
+public class StructuralScanner {
+	public static final int BLOCK_SIZE = 64;
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+	private static final long HIGH = 0x8080808080808080L;
+	private static final long ODD_BITS = 0xAAAAAAAAAAAAAAAAL;
+	/**
+	 * Multiplier that gathers the high bits of 8 bytes into bits 49..56
+	 */
+	private static final long GATHER = 0x0002040810204081L;
+
+	private static final long QUOTES = '"' * ONES;
+	private static final long BACKSLASHES = '\\' * ONES;
+	private static final long CASE_BIT = 0x20 * ONES;
+	// '[' | 0x20 == '{' and ']' | 0x20 == '}'
+	private static final long OPENING_BRACKETS = '{' * ONES;
+	private static final long CLOSING_BRACKETS = '}' * ONES;
+	private static final long COMMAS = ',' * ONES;
+	private static final long COLONS = ':' * ONES;
+	private static final long SPACES = ' ' * ONES;
+	private static final long TABS = '\t' * ONES;
+	private static final long NEW_LINES = '\n' * ONES;
+	private static final long CARRIAGE_RETURNS = '\r' * ONES;
+
+	/**
+	 * All ones if the previous block ended inside a string, 0 otherwise
+	 */
+	private long prevInString;
+	/**
+	 * 1 if the first byte of the next block is escaped, 0 otherwise
+	 */
+	private long prevEscaped;
+	/**
+	 * 1 if the previous block ended with a byte of a scalar, 0 otherwise
+	 */
+	private long prevScalar = 0;
+
+	// masks of the last scanned block
+	private long quoteBits;
+	private long openingBits;
+	private long closingBits;
+	private long separatorBits;
+	private long commaBits;
+	private long whitespaceBits;
+	private long escapedBits;
+	private long inStringBits;
+	private long scalarBits;
+
+	private final ByteBuffer paddedBlock = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Create a scanner for a text that starts outside a string
+	 */
+	public StructuralScanner() {
+		this(false, false);
+	}
+
+	/**
+	 * Create a scanner for a part of a text.
+	 *
+	 * @param inString
+	 *            if the first byte to scan is inside a string
+	 * @param escaped
+	 *            if the first byte to scan is escaped by a backslash (makes
+	 *            sense only inside a string)
+	 */
+	public StructuralScanner(boolean inString, boolean escaped) {
+		reset(inString, escaped);
+	}
+
+	/**
+	 * Reset the state of the scanner
+	 *
+	 * @param inString
+	 *            if the first byte to scan is inside a string
+	 * @param escaped
+	 *            if the first byte to scan is escaped by a backslash
+	 */
+	public void reset(boolean inString, boolean escaped) {
+		prevInString = inString ? -1L : 0;
+		prevEscaped = escaped ? 1 : 0;
+		prevScalar = 0;
+	}
+
+	/**
+	 * @return true if the last scanned byte is inside a string (or is its
+	 *         opening quote)
+	 */
+	public boolean isInString() {
+		return prevInString != 0;
+	}
+
+	/**
+	 * @return true if the next byte to scan is escaped by a backslash
+	 */
+	public boolean isEscaped() {
+		return prevEscaped != 0;
+	}
+
+	/**
+	 * Scan the bytes of <code>buf</code> from its position to its limit and
+	 * save file positions of structural characters in <code>out</code> (in
+	 * ascending order). Only complete blocks are scanned unless
+	 * <code>endOfInput</code> is true, so the position of the buffer is set to
+	 * the first byte that is not scanned (less than {@value #BLOCK_SIZE} bytes
+	 * are left).
+	 *
+	 * @param buf
+	 * @param bufFilePos
+	 *            file position of the byte at the current position of
+	 *            <code>buf</code>
+	 * @param endOfInput
+	 *            if there are no bytes after the limit of <code>buf</code>, so
+	 *            the last incomplete block should be scanned too
+	 * @param out
+	 *            array to save the positions to. Should be not shorter than the
+	 *            number of bytes to scan
+	 * @return number of positions saved in <code>out</code>
+	 */
+	public int scan(ByteBuffer buf, long bufFilePos, boolean endOfInput, long[] out) {
+		boolean littleEndian = buf.order() == ByteOrder.LITTLE_ENDIAN;
+		int start = buf.position();
+		int i = start;
+		int n = 0;
+		for (; buf.limit() - i >= BLOCK_SIZE; i += BLOCK_SIZE) {
+			n = savePositions(nextBlock(buf, i, littleEndian), bufFilePos + i - start, out, n);
+		}
+		if (endOfInput && i < buf.limit()) {
+			n = savePositions(nextPartialBlock(buf, i, buf.limit() - i), bufFilePos + i - start, out, n);
+			i = buf.limit();
+		}
+		buf.position(i);
+		return n;
+	}
+
+	private static int savePositions(long bits, long blockFilePos, long[] out, int n) {
+		while (bits != 0) {
+			out[n++] = blockFilePos + Long.numberOfTrailingZeros(bits);
+			bits &= bits - 1;
+		}
+		return n;
+	}
+
+	/**
+	 * Scan the block of {@value #BLOCK_SIZE} bytes of <code>buf</code>
+	 * starting at <code>index</code>.
+	 *
+	 * @return bitmask of structural characters in the block (bit
+	 *         <code>i</code> corresponds to the byte at
+	 *         <code>index + i</code>)
+	 */
+	long nextBlock(ByteBuffer buf, int index, boolean littleEndian) {
+		loadMasks(buf, index, littleEndian, true, true);
+		long structurals = (openingBits | closingBits | separatorBits) & ~inStringBits;
+		long openingQuotes = quoteBits & inStringBits;
+		// bytes of scalars other than strings
+		long scalars = ~(openingBits | closingBits | separatorBits | whitespaceBits | quoteBits | inStringBits);
+		long scalarStarts = scalars & ~((scalars << 1) | prevScalar);
+		scalarBits = scalars;
+		prevScalar = scalars >>> 63;
+		return structurals | openingQuotes | scalarStarts;
+	}
+
+	/**
+	 * Scan <code>length</code> bytes (<code>length</code> &lt;
+	 * {@value #BLOCK_SIZE}) of <code>buf</code> starting at
+	 * <code>index</code>, e.g. the last bytes of the input. The block is padded
+	 * with spaces, but the state of the scanner is kept as if only
+	 * <code>length</code> bytes were scanned, so the scan can be continued.
+	 *
+	 * @return bitmask of structural characters in the block
+	 */
+	long nextPartialBlock(ByteBuffer buf, int index, int length) {
+		fillPaddedBlock(buf, index, length);
+		// mask out the padding (an unclosed string would mark it as in-string
+		// bytes)
+		long structurals = nextBlock(paddedBlock, 0, true) & ((1L << length) - 1);
+		restoreStateAfterPartialBlock(length);
+		prevScalar = (scalarBits >>> (length - 1)) & 1;
+		return structurals;
+	}
+
+	/**
+	 * Scan the block of {@value #BLOCK_SIZE} bytes of <code>buf</code>
+	 * starting at <code>index</code> looking for brackets only (which is
+	 * cheaper than {@link #nextBlock(ByteBuffer, int, boolean)}). The masks of
+	 * opening and closing brackets outside strings are available via
+	 * {@link #getOpeningBrackets()} and {@link #getClosingBrackets()}.
+	 */
+	void nextBracketBlock(ByteBuffer buf, int index, boolean littleEndian) {
+		nextBracketBlock(buf, index, littleEndian, false);
+	}
+
+	/**
+	 * The same as {@link #nextBracketBlock(ByteBuffer, int, boolean)}, but if
+	 * <code>withCommas</code> is true the mask of commas outside strings is
+	 * also available via {@link #getCommas()}.
+	 */
+	void nextBracketBlock(ByteBuffer buf, int index, boolean littleEndian, boolean withCommas) {
+		loadMasks(buf, index, littleEndian, withCommas, false);
+		prevScalar = 0;
+	}
+
+	/**
+	 * The same as {@link #nextBracketBlock(ByteBuffer, int, boolean)} for the
+	 * last <code>length</code> bytes of the input.
+	 */
+	void nextPartialBracketBlock(ByteBuffer buf, int index, int length) {
+		nextPartialBracketBlock(buf, index, length, false);
+	}
+
+	/**
+	 * The same as {@link #nextBracketBlock(ByteBuffer, int, boolean, boolean)}
+	 * for the last <code>length</code> bytes of the input.
+	 */
+	void nextPartialBracketBlock(ByteBuffer buf, int index, int length, boolean withCommas) {
+		fillPaddedBlock(buf, index, length);
+		nextBracketBlock(paddedBlock, 0, true, withCommas);
+		restoreStateAfterPartialBlock(length);
+	}
+
+	/**
+	 * Padding spaces do not change the in-string state, but the first of them
+	 * could be escaped instead of the next real byte
+	 */
+	private void restoreStateAfterPartialBlock(int length) {
+		prevEscaped = (escapedBits >>> length) & 1;
+	}
+
+	/**
+	 * @return mask of opening brackets outside strings in the last scanned
+	 *         block
+	 */
+	long getOpeningBrackets() {
+		return openingBits & ~inStringBits;
+	}
+
+	/**
+	 * @return mask of closing brackets outside strings in the last scanned
+	 *         block
+	 */
+	long getClosingBrackets() {
+		return closingBits & ~inStringBits;
+	}
+
+	/**
+	 * @return mask of commas outside strings in the last block scanned with
+	 *         commas
+	 */
+	long getCommas() {
+		return commaBits & ~inStringBits;
+	}
+
+	private void fillPaddedBlock(ByteBuffer buf, int index, int length) {
+		paddedBlock.clear();
+		for (int i = 0; i < length; i++) {
+			paddedBlock.put(buf.get(index + i));
+		}
+		while (paddedBlock.hasRemaining()) {
+			paddedBlock.put((byte) ' ');
+		}
+	}
+
+	private void loadMasks(ByteBuffer buf, int index, boolean littleEndian, boolean withCommas,
+			boolean withSeparators) {
+		long quotes = 0;
+		long backslashes = 0;
+		long opening = 0;
+		long closing = 0;
+		long commas = 0;
+		long colons = 0;
+		long whitespaces = 0;
+		for (int k = 0; k < BLOCK_SIZE / 8; k++) {
+			long word = buf.getLong(index + 8 * k);
+			if (!littleEndian) {
+				word = Long.reverseBytes(word);
+			}
+			int shift = 8 * k;
+			quotes |= equalBytes(word, QUOTES) << shift;
+			backslashes |= equalBytes(word, BACKSLASHES) << shift;
+			long lowerCase = word | CASE_BIT;
+			opening |= equalBytes(lowerCase, OPENING_BRACKETS) << shift;
+			closing |= equalBytes(lowerCase, CLOSING_BRACKETS) << shift;
+			if (withCommas) {
+				commas |= equalBytes(word, COMMAS) << shift;
+			}
+			if (withSeparators) {
+				colons |= equalBytes(word, COLONS) << shift;
+				whitespaces |= (equalBytes(word, SPACES) | equalBytes(word, TABS) | equalBytes(word, NEW_LINES)
+						| equalBytes(word, CARRIAGE_RETURNS)) << shift;
+			}
+		}
+		escapedBits = escapedBytes(backslashes);
+		quoteBits = quotes & ~escapedBits;
+		openingBits = opening;
+		closingBits = closing;
+		commaBits = commas;
+		separatorBits = commas | colons;
+		whitespaceBits = whitespaces;
+		inStringBits = prefixXor(quoteBits) ^ prevInString;
+		prevInString = inStringBits >> 63;
+	}
+
+	/**
+	 * Find bytes that are escaped by a backslash, i.e. that follow an odd
+	 * sequence of backslashes (the sequence can start in a previous block).
+	 *
+	 * @param backslashes
+	 *            mask of backslashes
+	 * @return mask of escaped bytes
+	 */
+	private long escapedBytes(long backslashes) {
+		if (backslashes == 0) {
+			long escaped = prevEscaped;
+			prevEscaped = 0;
+			return escaped;
+		}
+		// a backslash that is escaped itself can not escape the next byte
+		long potentialEscapes = backslashes & ~prevEscaped;
+		// subtracting the start of each sequence of backslashes from the odd
+		// bits flips bits up to the end of the sequence: the result marks
+		// escape-escaped pairs and the byte following an odd sequence
+		long maybeEscaped = potentialEscapes << 1;
+		long escapeAndTerminalCode = ((maybeEscaped | ODD_BITS) - potentialEscapes) ^ ODD_BITS;
+		long escaped = escapeAndTerminalCode ^ (backslashes | prevEscaped);
+		long escapes = escapeAndTerminalCode & backslashes;
+		prevEscaped = escapes >>> 63;
+		return escaped;
+	}
+
+	/**
+	 * @return a mask in which bit <code>i</code> is the XOR of bits 0..i of
+	 *         <code>x</code>
+	 */
+	private static long prefixXor(long x) {
+		x ^= x << 1;
+		x ^= x << 2;
+		x ^= x << 4;
+		x ^= x << 8;
+		x ^= x << 16;
+		x ^= x << 32;
+		return x;
+	}
+
+	/**
+	 * Compare each byte of <code>word</code> with the corresponding byte of
+	 * <code>pattern</code>.
+	 *
+	 * @return 8-bit mask of equal bytes (bit <code>i</code> corresponds to the
+	 *         byte <code>i</code> in little-endian order)
+	 */
+	private static long equalBytes(long word, long pattern) {
+		long x = word ^ pattern;
+		// the high bit of each byte is set if the byte is not zero (no carries
+		// between bytes are possible)
+		long nonZero = ((x & LOW7) + LOW7) | x;
+		return ((((~nonZero & HIGH) >>> 7) * GATHER) >>> 49) & 0xFF;
+	}
+
+	/**
+	 * @return true if any byte of the word is a quote or a backslash
+	 */
+	static boolean hasQuoteOrBackslash(long word) {
+		return hasZeroByte(word ^ QUOTES) || hasZeroByte(word ^ BACKSLASHES);
+	}
+
+	private static boolean hasZeroByte(long x) {
+		return ((x - ONES) & ~x & HIGH) != 0;
+	}
+}
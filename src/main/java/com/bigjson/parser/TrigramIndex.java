@@ -0,0 +1,647 @@
+package com.bigjson.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A persistent inverted index of byte trigrams of a JSON text: the text is
+ * split into blocks of <code>blockSize</code> bytes and for every trigram
+ * (three consecutive bytes) the index keeps the list of blocks where it
+ * starts. A pattern can start only in a block that contains its first trigram
+ * and is followed by its other trigrams, so a search can skip the other
+ * blocks (see {@link #getCandidateBlocks(byte[])}). For every block the index
+ * also keeps if it starts inside a string, so that a search can be started
+ * from any block. <br>
+ * <br>
+ * The index is built once, saved into a sidecar file (by default
+ * <code>&lt;json file&gt;.bjtri</code>) and validated against the source on
+ * open the same way as a {@link StructuralIndex}.<br>
+ * <br>
+ * File format (big-endian): header ({@value #MAGIC} magic, version, source
+ * size, source modification time, sampled checksum, block size, number of
+ * blocks, number of trigrams, directory offset), a bit set of blocks starting
+ * inside a string, posting lists (block numbers of a trigram: the first one
+ * and then the differences to the previous ones, all as varints), and the
+ * directory of trigrams (trigram, number of blocks, offset of the posting
+ * list) sorted by trigram.
+ *
+ * @author nikanka
+ *
+ */
+public class TrigramIndex implements Closeable {
+	public static final String INDEX_FILE_EXTENSION = ".bjtri";
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+	private static final int MAGIC = 0x424A5452; // "BJTR"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 8;
+	private static final int DIRECTORY_ENTRY_SIZE = 4 + 4 + 8;
+	private static final int READ_BUFFER_SIZE = 1 << 20;
+	/**
+	 * Max number of (trigram, block) pairs kept in memory while building. If
+	 * there are more, they are sorted and saved into temporary files
+	 */
+	private static final int MAX_PAIRS_IN_MEMORY = 1 << 22;
+	/**
+	 * Initial size of the buffer of pairs, it grows up to
+	 * {@link #MAX_PAIRS_IN_MEMORY} if needed
+	 */
+	private static final int INITIAL_PAIRS_IN_MEMORY = 1 << 12;
+
+	private final FileChannel channel;
+	private final ByteBuffer directory;
+	private final int trigramNum;
+	private final long directoryOffset;
+	private final int blockSize;
+	private final int blockNum;
+	private final long[] blocksInString;
+
+	private TrigramIndex(FileChannel channel, ByteBuffer directory, int trigramNum, long directoryOffset,
+			int blockSize, int blockNum, long[] blocksInString) {
+		this.channel = channel;
+		this.directory = directory;
+		this.trigramNum = trigramNum;
+		this.directoryOffset = directoryOffset;
+		this.blockSize = blockSize;
+		this.blockNum = blockNum;
+		this.blocksInString = blocksInString;
+	}
+
+	/**
+	 * @return the default index file for a given JSON file (the same path with
+	 *         {@value #INDEX_FILE_EXTENSION} extension appended)
+	 */
+	public static File getDefaultIndexFile(File jsonFile) {
+		return new File(jsonFile.getPath() + INDEX_FILE_EXTENSION);
+	}
+
+	/**
+	 * Scan the whole source, save the index of its trigrams into
+	 * <code>indexFile</code> and open it. The memory used does not depend on
+	 * the size of the source: if there are too many trigrams, they are sorted
+	 * in parts saved into temporary files next to <code>indexFile</code>.
+	 *
+	 * @param source
+	 * @param indexFile
+	 *            file to save the index to (it is overwritten if exists)
+	 * @param blockSize
+	 *            size of the blocks to split the source into. Smaller blocks
+	 *            make searches faster and the index bigger
+	 * @return opened index
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static TrigramIndex build(ByteSource source, File indexFile, int blockSize) throws IOException {
+		return build(source, indexFile, blockSize, MAX_PAIRS_IN_MEMORY);
+	}
+
+	/**
+	 * The same as {@link #build(ByteSource, File, int)} with a given number of
+	 * (trigram, block) pairs kept in memory
+	 */
+	static TrigramIndex build(ByteSource source, File indexFile, int blockSize, int maxPairsInMemory)
+			throws IOException {
+		if (blockSize < 3) {
+			throw new IllegalArgumentException("Block size should be at least 3, got " + blockSize);
+		}
+		long size = source.size();
+		long blocks = (size + blockSize - 1) / blockSize;
+		if (blocks > Integer.MAX_VALUE / 2) {
+			throw new IOException("Too many blocks to index (" + blocks + "): use a bigger block size (now "
+					+ blockSize + ")");
+		}
+		int blockNum = (int) blocks;
+		long[] blocksInString = new long[(blockNum + 63) / 64];
+		List<PostingRun> runs = new ArrayList<PostingRun>();
+		try {
+			// trigrams seen in the current block
+			long[] seen = new long[1 << 18];
+			int[] blockTrigrams = new int[1024];
+			int blockTrigramNum = 0;
+			// there are at most as many pairs as bytes, so a small source does
+			// not need a big buffer
+			long[] pairs = new long[(int) Math.min(Math.min(maxPairsInMemory, INITIAL_PAIRS_IN_MEMORY),
+					Math.max(size, 16))];
+			int pairNum = 0;
+
+			boolean inString = false;
+			boolean escaped = false;
+			int trigram = 0;
+			ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			long pos = 0;
+			while (pos < size) {
+				buf.clear();
+				int len = (int) Math.min(buf.capacity(), size - pos);
+				buf.limit(len);
+				while (buf.hasRemaining() && source.read(pos + buf.position(), buf) > 0) {
+				}
+				if (buf.hasRemaining()) {
+					throw new IOException("Failed to read bytes [" + pos + ", " + (pos + len) + ") of "
+							+ source.getName());
+				}
+				byte[] bytes = buf.array();
+				for (int i = 0; i < len; i++, pos++) {
+					byte b = bytes[i];
+					if (pos % blockSize == 0 && inString) {
+						int block = (int) (pos / blockSize);
+						blocksInString[block >>> 6] |= 1L << block;
+					}
+					if (inString) {
+						if (escaped) {
+							escaped = false;
+						} else if (b == '\\') {
+							escaped = true;
+						} else if (b == '"') {
+							inString = false;
+						}
+					} else if (b == '"') {
+						inString = true;
+					}
+					trigram = ((trigram << 8) | (b & 0xFF)) & 0xFFFFFF;
+					if (pos < 2) {
+						continue;
+					}
+					// the trigram starts at pos - 2
+					long start = pos - 2;
+					if (start % blockSize == 0 && start > 0) {
+						// a new block: save the trigrams of the previous one
+						if (pairNum + blockTrigramNum > pairs.length) {
+							pairs = growPairs(pairs, pairNum + blockTrigramNum, maxPairsInMemory);
+							if (pairNum + blockTrigramNum > pairs.length) {
+								runs.add(PostingRun.save(pairs, pairNum, indexFile));
+								pairNum = 0;
+							}
+						}
+						int prevBlock = (int) (start / blockSize - 1);
+						for (int t = 0; t < blockTrigramNum; t++) {
+							pairs[pairNum++] = ((long) blockTrigrams[t] << 32) | prevBlock;
+							seen[blockTrigrams[t] >>> 6] = 0;
+						}
+						blockTrigramNum = 0;
+					}
+					if ((seen[trigram >>> 6] & (1L << trigram)) == 0) {
+						seen[trigram >>> 6] |= 1L << trigram;
+						if (blockTrigramNum == blockTrigrams.length) {
+							blockTrigrams = Arrays.copyOf(blockTrigrams, blockTrigramNum * 2);
+						}
+						blockTrigrams[blockTrigramNum++] = trigram;
+					}
+				}
+			}
+			if (blockTrigramNum > 0) {
+				if (pairNum + blockTrigramNum > pairs.length) {
+					pairs = growPairs(pairs, pairNum + blockTrigramNum, maxPairsInMemory);
+					if (pairNum + blockTrigramNum > pairs.length) {
+						runs.add(PostingRun.save(pairs, pairNum, indexFile));
+						pairNum = 0;
+					}
+				}
+				int lastBlock = (int) ((size - 3) / blockSize);
+				for (int t = 0; t < blockTrigramNum; t++) {
+					pairs[pairNum++] = ((long) blockTrigrams[t] << 32) | lastBlock;
+				}
+			}
+			runs.add(new PostingRun(pairs, pairNum));
+			write(indexFile, source, blockSize, blockNum, blocksInString, runs);
+		} finally {
+			for (PostingRun run : runs) {
+				run.close();
+			}
+		}
+		TrigramIndex index = open(source, indexFile);
+		if (index == null) {
+			throw new IOException("Failed to open just built index " + indexFile);
+		}
+		return index;
+	}
+
+	/**
+	 * Grow a buffer of pairs to fit <code>pairNum</code> pairs, but not beyond
+	 * <code>maxPairsInMemory</code>
+	 */
+	private static long[] growPairs(long[] pairs, int pairNum, int maxPairsInMemory) {
+		if (pairs.length >= maxPairsInMemory) {
+			return pairs;
+		}
+		return Arrays.copyOf(pairs, (int) Math.min(maxPairsInMemory, Math.max(2L * pairs.length, pairNum)));
+	}
+
+	private static void write(File indexFile, ByteSource source, int blockSize, int blockNum,
+			long[] blocksInString, List<PostingRun> runs) throws IOException {
+		int[] trigrams = new int[1024];
+		int[] counts = new int[1024];
+		long[] offsets = new long[1024];
+		int trigramNum = 0;
+		long offset = HEADER_SIZE;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))) {
+			out.write(new byte[HEADER_SIZE]);
+			for (int block = 0; block < blockNum; block += 8) {
+				int b = (int) (blocksInString[block >>> 6] >>> (block & 63)) & 0xFF;
+				out.write(b);
+				offset++;
+			}
+			// merge the runs: they are sorted by trigram and follow each other
+			// in the order of blocks
+			int[] blocks = new int[16];
+			for (PostingRun run : runs) {
+				run.next();
+			}
+			while (true) {
+				int trigram = Integer.MAX_VALUE;
+				for (PostingRun run : runs) {
+					if (run.hasCurrent() && run.trigram < trigram) {
+						trigram = run.trigram;
+					}
+				}
+				if (trigram == Integer.MAX_VALUE) {
+					break;
+				}
+				int count = 0;
+				for (PostingRun run : runs) {
+					if (run.hasCurrent() && run.trigram == trigram) {
+						if (count + run.count > blocks.length) {
+							blocks = Arrays.copyOf(blocks, Math.max(blocks.length * 2, count + run.count));
+						}
+						System.arraycopy(run.blocks, 0, blocks, count, run.count);
+						count += run.count;
+						run.next();
+					}
+				}
+				if (trigramNum == trigrams.length) {
+					trigrams = Arrays.copyOf(trigrams, trigramNum * 2);
+					counts = Arrays.copyOf(counts, trigramNum * 2);
+					offsets = Arrays.copyOf(offsets, trigramNum * 2);
+				}
+				trigrams[trigramNum] = trigram;
+				counts[trigramNum] = count;
+				offsets[trigramNum] = offset;
+				trigramNum++;
+				int prev = 0;
+				for (int i = 0; i < count; i++) {
+					offset += writeVarint(out, blocks[i] - prev);
+					prev = blocks[i];
+				}
+			}
+			for (int i = 0; i < trigramNum; i++) {
+				out.writeInt(trigrams[i]);
+				out.writeInt(counts[i]);
+				out.writeLong(offsets[i]);
+			}
+		}
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(source.size())
+					.putLong(StructuralIndex.getLastModified(source))
+					.putLong(StructuralIndex.computeChecksum(source)).putInt(blockSize).putInt(blockNum)
+					.putInt(trigramNum).putLong(offset);
+			header.flip();
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+		}
+	}
+
+	/**
+	 * @return number of bytes written
+	 */
+	private static int writeVarint(DataOutputStream out, int value) throws IOException {
+		int n = 1;
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+			n++;
+		}
+		out.write(value);
+		return n;
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Open an existing index of a given source.
+	 *
+	 * @param source
+	 * @param indexFile
+	 * @return the index or null if <code>indexFile</code> does not exist, is
+	 *         not an index file or was built for a different (or modified)
+	 *         source
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static TrigramIndex open(ByteSource source, File indexFile) throws IOException {
+		if (!indexFile.isFile() || indexFile.length() < HEADER_SIZE) {
+			return null;
+		}
+		FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			read(channel, header, 0);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != source.size()
+					|| header.getLong() != StructuralIndex.getLastModified(source)
+					|| header.getLong() != StructuralIndex.computeChecksum(source)) {
+				channel.close();
+				return null;
+			}
+			int blockSize = header.getInt();
+			int blockNum = header.getInt();
+			int trigramNum = header.getInt();
+			long directoryOffset = header.getLong();
+			int bitSetSize = (blockNum + 7) / 8;
+			if (directoryOffset < HEADER_SIZE + bitSetSize
+					|| directoryOffset + (long) trigramNum * DIRECTORY_ENTRY_SIZE != channel.size()) {
+				channel.close();
+				return null;
+			}
+			ByteBuffer bitSet = ByteBuffer.allocate(bitSetSize);
+			read(channel, bitSet, HEADER_SIZE);
+			long[] blocksInString = new long[(blockNum + 63) / 64];
+			for (int i = 0; i < bitSetSize; i++) {
+				blocksInString[i >>> 3] |= (bitSet.get(i) & 0xFFL) << ((i & 7) * 8);
+			}
+			ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset,
+					(long) trigramNum * DIRECTORY_ENTRY_SIZE);
+			return new TrigramIndex(channel, directory, trigramNum, directoryOffset, blockSize, blockNum,
+					blocksInString);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining() && channel.read(buf, pos + buf.position()) > 0) {
+		}
+		if (buf.hasRemaining()) {
+			throw new EOFException("Unexpected end of the index file");
+		}
+		buf.flip();
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public int getBlockNum() {
+		return blockNum;
+	}
+
+	/**
+	 * @return the number of distinct trigrams in the source
+	 */
+	public int getTrigramNum() {
+		return trigramNum;
+	}
+
+	/**
+	 * @param block
+	 * @return true if the first byte of the block is inside of a string (i.e.
+	 *         after an opening quote and not after the closing one)
+	 */
+	public boolean blockStartsInString(int block) {
+		return (blocksInString[block >>> 6] & (1L << block)) != 0;
+	}
+
+	/**
+	 * @param trigram
+	 *            three bytes (the first one is the highest)
+	 * @return numbers of the blocks where the trigram starts in increasing
+	 *         order
+	 * @throws IOException
+	 */
+	public int[] getBlocks(int trigram) throws IOException {
+		int ind = find(trigram);
+		if (ind < 0) {
+			return new int[0];
+		}
+		int count = directory.getInt(ind * DIRECTORY_ENTRY_SIZE + 4);
+		long offset = directory.getLong(ind * DIRECTORY_ENTRY_SIZE + 8);
+		long end = ind + 1 < trigramNum ? directory.getLong((ind + 1) * DIRECTORY_ENTRY_SIZE + 8)
+				: directoryOffset;
+		ByteBuffer buf = ByteBuffer.allocate((int) (end - offset));
+		read(channel, buf, offset);
+		int[] blocks = new int[count];
+		int prev = 0;
+		for (int i = 0; i < count; i++) {
+			int delta = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = buf.get();
+				delta |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					break;
+				}
+			}
+			prev += delta;
+			blocks[i] = prev;
+		}
+		return blocks;
+	}
+
+	/**
+	 * Binary search of the directory entry of a trigram
+	 *
+	 * @return index of the entry or -1 if not found
+	 */
+	private int find(int trigram) {
+		int lo = 0;
+		int hi = trigramNum - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int midTrigram = directory.getInt(mid * DIRECTORY_ENTRY_SIZE);
+			if (midTrigram < trigram) {
+				lo = mid + 1;
+			} else if (midTrigram > trigram) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the blocks where a pattern can start: a block should contain the
+	 * first trigram of the pattern, and every next trigram should be in the
+	 * same block or in the next one (the pattern can cross the end of the
+	 * block). The result is not exact: the pattern is not necessarily in a
+	 * candidate block, but it is not in the other blocks.
+	 *
+	 * @param pattern
+	 * @return numbers of the candidate blocks in increasing order or null if
+	 *         the pattern is shorter than a trigram (it can be anywhere)
+	 * @throws IOException
+	 */
+	public int[] getCandidateBlocks(byte[] pattern) throws IOException {
+		if (pattern.length < 3) {
+			return null;
+		}
+		int[] candidates = getBlocks(getTrigram(pattern, 0));
+		int candidateNum = candidates.length;
+		// further trigrams can be more than one block away in a long pattern
+		int maxOffset = Math.min(pattern.length - 3, blockSize - 1);
+		for (int offset = 1; offset <= maxOffset && candidateNum > 0; offset++) {
+			int[] blocks = getBlocks(getTrigram(pattern, offset));
+			int n = 0;
+			int j = 0;
+			for (int i = 0; i < candidateNum; i++) {
+				int candidate = candidates[i];
+				while (j < blocks.length && blocks[j] < candidate) {
+					j++;
+				}
+				if (j < blocks.length && blocks[j] <= candidate + 1) {
+					candidates[n++] = candidate;
+				}
+			}
+			candidateNum = n;
+		}
+		return Arrays.copyOf(candidates, candidateNum);
+	}
+
+	private static int getTrigram(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 16) | ((bytes[offset + 1] & 0xFF) << 8) | (bytes[offset + 2] & 0xFF);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * A part of the (trigram, block) pairs sorted by trigram and block, kept in
+	 * memory or in a temporary file. It is read trigram by trigram.
+	 */
+	private static class PostingRun implements Closeable {
+		private final long[] pairs;
+		private final int pairNum;
+		private int pairInd = 0;
+		private final File file;
+		private final DataInputStream in;
+
+		/**
+		 * Current trigram or -1 if the run is over
+		 */
+		int trigram = -1;
+		int[] blocks = new int[16];
+		int count = 0;
+
+		/**
+		 * A run in memory
+		 */
+		PostingRun(long[] pairs, int pairNum) {
+			Arrays.sort(pairs, 0, pairNum);
+			this.pairs = pairs;
+			this.pairNum = pairNum;
+			this.file = null;
+			this.in = null;
+		}
+
+		private PostingRun(File file) throws IOException {
+			this.pairs = null;
+			this.pairNum = 0;
+			this.file = file;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		/**
+		 * Sort the pairs and save them into a temporary file (in the same
+		 * directory as the index file)
+		 */
+		static PostingRun save(long[] pairs, int pairNum, File indexFile) throws IOException {
+			Arrays.sort(pairs, 0, pairNum);
+			File dir = indexFile.getAbsoluteFile().getParentFile();
+			File file = File.createTempFile(indexFile.getName(), ".tmp", dir);
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+				int i = 0;
+				while (i < pairNum) {
+					int trigram = (int) (pairs[i] >>> 32);
+					int end = i;
+					while (end < pairNum && (int) (pairs[end] >>> 32) == trigram) {
+						end++;
+					}
+					out.writeInt(trigram);
+					out.writeInt(end - i);
+					int prev = 0;
+					for (; i < end; i++) {
+						writeVarint(out, (int) pairs[i] - prev);
+						prev = (int) pairs[i];
+					}
+				}
+				out.writeInt(-1);
+			} catch (IOException e) {
+				file.delete();
+				throw e;
+			}
+			return new PostingRun(file);
+		}
+
+		boolean hasCurrent() {
+			return trigram >= 0;
+		}
+
+		/**
+		 * Move to the next trigram
+		 */
+		void next() throws IOException {
+			if (in != null) {
+				trigram = in.readInt();
+				if (trigram < 0) {
+					return;
+				}
+				count = in.readInt();
+				if (count > blocks.length) {
+					blocks = new int[count];
+				}
+				int prev = 0;
+				for (int i = 0; i < count; i++) {
+					prev += readVarint(in);
+					blocks[i] = prev;
+				}
+				return;
+			}
+			if (pairInd == pairNum) {
+				trigram = -1;
+				return;
+			}
+			trigram = (int) (pairs[pairInd] >>> 32);
+			count = 0;
+			while (pairInd < pairNum && (int) (pairs[pairInd] >>> 32) == trigram) {
+				if (count == blocks.length) {
+					blocks = Arrays.copyOf(blocks, count * 2);
+				}
+				blocks[count++] = (int) pairs[pairInd++];
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (in != null) {
+				in.close();
+				file.delete();
+			}
+		}
+	}
+}
@@ -2,11 +2,10 @@ package com.bigjson.parser;
 
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.CharBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
@@ -17,6 +16,16 @@ import java.util.List;
 
 public class UTF8FileReader implements Closeable{
 	public static final int BUFFER_SIZE = 8192;
+	/**
+	 * How often (in bytes) a progress listener is called
+	 */
+	public static final int PROGRESS_STEP = 1 << 20;
+	/**
+	 * Maximum size of a view of a source (in bytes) while the reader is
+	 * monitored, so that a progress listener and a cancellation token are
+	 * checked regularly even if the source provides huge views
+	 */
+	private static final int MONITORED_VIEW_SIZE = PROGRESS_STEP;
 	
 	private static final int MODE_READING_ASCII_CHARS = 0;
 	private static final int MODE_READING_UTF8_CHARS = 1;
@@ -26,15 +35,23 @@ public class UTF8FileReader implements Closeable{
 	private boolean DEBUG = false;
 	
 	private long filePos = 0;
-//	private String fileName;
-	private File file;
-	private FileInputStream input;
-	private FileChannel fileChannel;
+	private ByteSource source;
+	/**
+	 * If true, <code>byteBuffer</code> is a view provided by the source (e.g. a
+	 * part of a memory-mapped file) rather than a heap buffer filled by reads
+	 * from the source
+	 */
+	private boolean useViews;
 	private ByteBuffer byteBuffer;
 	private CharBuffer charBuffer;
 	private StringReadingStateMachine stringReadingState = new StringReadingStateMachine(StringReadingStateMachine.MODE_READ_UTF8);
 	private boolean hasNext = true;
 	private ClosingQuoteScanResult quoteScanResult = new ClosingQuoteScanResult();
+	private StructuralScanner structuralScanner = new StructuralScanner();
+	private ProgressListener progressListener = null;
+	private CancellationToken cancellationToken = null;
+	private long bytesProcessed = 0;
+	private long nextProgressReport = 0;
 	private CharsetDecoder decoder = charset.newDecoder()
 			         .onMalformedInput(CodingErrorAction.REPORT)
 			         .onUnmappableCharacter(CodingErrorAction.REPORT);
@@ -48,16 +65,49 @@ public class UTF8FileReader implements Closeable{
 	 *             reading bytes from the file
 	 */
 	public UTF8FileReader(File file) throws IOException {
-		this.file = file;
-		input = new FileInputStream(file);
-		fileChannel = input.getChannel();
+		this(file, false);
+	}
+
+	/**
+	 * Creates a reader for a given file.
+	 * 
+	 * @param file
+	 * @param memoryMapped
+	 *            if true, the file is accessed via memory-mapped buffers, so that
+	 *            jumps to any position are just moves of a buffer position and
+	 *            no bytes are copied into the heap
+	 * @throws IOException
+	 *             if file is not found or empty or if an I/O error occurs while
+	 *             reading bytes from the file
+	 */
+	public UTF8FileReader(File file, boolean memoryMapped) throws IOException {
+		this(memoryMapped ? new MappedFileByteSource(file) : new FileByteSource(file));
+	}
+
+	/**
+	 * Creates a reader for a given source of bytes. The source is closed when
+	 * the reader is closed.
+	 * 
+	 * @param source
+	 * @throws IOException
+	 *             if the source is empty or if an I/O error occurs while
+	 *             reading bytes from it
+	 */
+	public UTF8FileReader(ByteSource source) throws IOException {
+		this.source = source;
+		this.useViews = source.providesViews();
+		if(useViews){
+			byteBuffer = ByteBuffer.allocate(0);
+		} else {
+			byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+			byteBuffer.flip();
+		}
 		charBuffer = CharBuffer.allocate(BUFFER_SIZE);
-		byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-		byteBuffer.flip();
 		charBuffer.flip();
 		hasNext = readBytes() >= 0;
 		if(!hasNext){
-			throw new IOException("It looks like file " + file.getPath() + " is empty");
+			close();
+			throw new IOException("It looks like " + source.getName() + " is empty");
 		}
 	}
 		
@@ -85,16 +135,31 @@ public class UTF8FileReader implements Closeable{
 	}
 	
 	/**
-	 * Return file that is being read by this reader
+	 * Return file that is being read by this reader, or null if the source of
+	 * bytes is not a file
 	 */
 	public File getFile(){
-		return file;
+		return source.getFile();
+	}
+	
+	/**
+	 * Return the source of bytes that is being read by this reader
+	 */
+	public ByteSource getSource(){
+		return source;
+	}
+	
+	/**
+	 * Return the name of the source that is being read (e.g. a file path) to
+	 * be used in messages
+	 */
+	public String getSourceName(){
+		return source.getName();
 	}
 	
 	@Override
 	public void close() throws IOException {
-		fileChannel.close();
-		input.close();
+		source.close();
 	}
 	
 	private void debug(String msg){
@@ -123,7 +188,18 @@ public class UTF8FileReader implements Closeable{
 		if((pos > filePos && pos-filePos < byteBuffer.remaining()) || 
 			(pos < filePos && filePos - pos <= byteBuffer.position())){
 			byteBuffer.position((int)(byteBuffer.position() + pos - filePos));
+			if(useViews){
+				limitMonitoredView(byteBuffer);
+			}
+			// there is a byte at pos since it is within the buffer (a mapped view
+			// keeps the bytes that were read before the end of file was reached)
+			hasNext = true;
 			debug("Jumped to byte buffer pos " + byteBuffer.position());
+		} else if(useViews){
+			// just take a view that contains pos
+			ByteBuffer view = source.getView(pos);
+			hasNext = view != null;
+			byteBuffer = hasNext ? limitMonitoredView(view) : ByteBuffer.allocate(0);
 		} else {
 			// reset buffer
 			byteBuffer.limit(byteBuffer.capacity());
@@ -131,7 +207,7 @@ public class UTF8FileReader implements Closeable{
 			// without copying any bytes from the buffer
 			byteBuffer.position(byteBuffer.limit());
 			// read bytes from new pos
-			fileChannel.position(pos);
+			filePos = pos;
 			hasNext = readBytes()>=0;
 		}
 		filePos = pos;
@@ -142,18 +218,29 @@ public class UTF8FileReader implements Closeable{
 	}
 
 	/**
-	 * Read bytes from file into byte buffer.
+	 * Read bytes from the source into byte buffer. The bytes that were not
+	 * read from the buffer yet are kept at its beginning, the new bytes are
+	 * appended after them.
 	 * @return
 	 * @throws IOException - if an I/O error occurs
 	 */
 	private int readBytes() throws IOException{
+		if(cancellationToken != null && cancellationToken.isCancelled()){
+			throw new OperationCancelledException("Operation is cancelled at pos " + filePos + " of "
+					+ source.getName());
+		}
+		if(useViews){
+			return reportProgress(moveView());
+		}
 		byteBuffer.compact();
 		int pos = byteBuffer.position();
 		int rem = byteBuffer.remaining();
 		assert(rem >0): rem;
 		
-		debug("Start read from file pos " + fileChannel.position() + " (" + filePos + ")");
-		int read = input.read(byteBuffer.array(), byteBuffer.arrayOffset() + pos, rem);
+		// byte buffer position corresponds to filePos, so after compacting the
+		// first byte to read is at filePos + number of the bytes kept in the buffer
+		debug("Start read from file pos " + (filePos + pos));
+		int read = source.read(filePos + pos, byteBuffer);
 		if(read < 0){
 //			hasNext = false;
 			byteBuffer.limit(pos);
@@ -161,12 +248,109 @@ public class UTF8FileReader implements Closeable{
 		} else {
 			byteBuffer.limit(pos + read);
 		}
+		byteBuffer.position(0);
 		debug("Bytes read from file: "+read+ " bytes");
 		debug("Byte buffer after reading: "+byteBuffer);
 		
-		return read;//byteBuffer.remaining();
+		return reportProgress(read);//byteBuffer.remaining();
+	}
+	
+	/**
+	 * Count read bytes and call the progress listener (if it is set) if
+	 * {@link #PROGRESS_STEP} bytes were read since the last call
+	 * 
+	 * @return <code>read</code>
+	 */
+	private int reportProgress(int read){
+		if(progressListener != null && read > 0){
+			bytesProcessed += read;
+			if(bytesProcessed >= nextProgressReport){
+				nextProgressReport = (bytesProcessed / PROGRESS_STEP + 1) * PROGRESS_STEP;
+				progressListener.onProgress(bytesProcessed, source.size());
+			}
+		}
+		return read;
 	}
 	
+	/**
+	 * Set a listener to be informed about the number of bytes read by this
+	 * reader (which is useful for long operations, e.g. validation of a big
+	 * node or a search). The count of the bytes starts from 0.
+	 * 
+	 * @param listener
+	 *            a listener or null to stop reporting progress
+	 */
+	public void setProgressListener(ProgressListener listener){
+		progressListener = listener;
+		bytesProcessed = 0;
+		nextProgressReport = 0;
+		if(useViews){
+			limitMonitoredView(byteBuffer);
+		}
+	}
+	
+	public ProgressListener getProgressListener(){
+		return progressListener;
+	}
+	
+	/**
+	 * Set a token to cancel operations of this reader from another thread.
+	 * When the token is cancelled, the reader throws an
+	 * {@link OperationCancelledException} the next time it loads new bytes.
+	 * 
+	 * @param token
+	 *            a token or null if operations should not be cancelled
+	 */
+	public void setCancellationToken(CancellationToken token){
+		cancellationToken = token;
+		if(useViews){
+			limitMonitoredView(byteBuffer);
+		}
+	}
+	
+	public CancellationToken getCancellationToken(){
+		return cancellationToken;
+	}
+	
+	
+	/**
+	 * Replace the byte buffer by a view of the source starting at the current
+	 * file position. Bytes that were not consumed from the old view (e.g. an
+	 * incomplete multi-byte char) are the first bytes of the new view, as if
+	 * the buffer was compacted and refilled.
+	 * 
+	 * @return number of bytes that became available, or -1 if the end of the
+	 *         source is reached
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private int moveView() throws IOException{
+		ByteBuffer view = source.getView(filePos);
+		if(view == null || view.remaining() <= byteBuffer.remaining()){
+			debug("End of source is reached at pos " + filePos);
+			return -1;
+		}
+		int read = limitMonitoredView(view).remaining() - byteBuffer.remaining();
+		byteBuffer = view;
+		debug("View moved to file pos " + filePos + ": " + byteBuffer);
+		return read;
+	}
+	
+	/**
+	 * If the reader is monitored (a progress listener or a cancellation token
+	 * is set), limit a view to {@link #MONITORED_VIEW_SIZE} bytes after its
+	 * position, so that new bytes are loaded (and the progress is reported)
+	 * regularly. The bytes before the position are kept.
+	 * 
+	 * @return <code>view</code>
+	 */
+	private ByteBuffer limitMonitoredView(ByteBuffer view){
+		if((progressListener != null || cancellationToken != null)
+				&& view.remaining() > MONITORED_VIEW_SIZE){
+			view.limit(view.position() + MONITORED_VIEW_SIZE);
+		}
+		return view;
+	}
 	
 	/**
 	 * Check if there are bytes left to read
@@ -193,7 +377,7 @@ public class UTF8FileReader implements Closeable{
 	byte getNextByte() throws IOException, IllegalFormatException{
 		if(!hasNext()){
 			throw new IllegalFormatException(
-					"Unexpected end of stream at pos " + filePos + " of file " + file.getPath());
+					"Unexpected end of stream at pos " + filePos + " of " + source.getName());
 		}
 		if(currentMode != MODE_READING_ASCII_CHARS){
 			throw new RuntimeException("Cannot read bytes in current mode: "+currentMode);
@@ -219,7 +403,7 @@ public class UTF8FileReader implements Closeable{
 	 */
 	protected byte peekNextByte() throws IllegalFormatException{
 		if(!hasNext()){
-			throw new IllegalFormatException("Unexpected end of file at pos " + filePos + " of file " + file.getPath());
+			throw new IllegalFormatException("Unexpected end of file at pos " + filePos + " of " + source.getName());
 		}
 		if(currentMode != MODE_READING_ASCII_CHARS){
 			throw new RuntimeException("Cannot read bytes in current mode: "+currentMode);
@@ -549,6 +733,49 @@ public class UTF8FileReader implements Closeable{
 		}
 		stringReadingState.reset();
 	}
+	/**
+	 * Move the cursor to the closing quote of a string whose opening quote was
+	 * just read, checking escape sequences and the absence of control
+	 * characters in its first <code>maxChars</code> chars without decoding
+	 * them (non-ASCII bytes are not checked). The rest of the string is
+	 * skipped without checking, like in {@link #skipTheString()}.
+	 * 
+	 * @param maxChars
+	 *            number of chars to check (as many as would be decoded for
+	 *            this number of chars to display), or a negative number to
+	 *            check the whole string
+	 * @throws IllegalFormatException
+	 *             if the checked chars have an invalid escape sequence or a
+	 *             control character
+	 * @throws IOException
+	 */
+	void skipTheStringAndValidateEscapes(int maxChars) throws IllegalFormatException, IOException{
+		if(currentMode != MODE_READING_ASCII_CHARS){
+			throw new RuntimeException("Cannot skip a string in current mode: "+currentMode);
+		}
+		stringReadingState.reset(StringReadingStateMachine.MODE_CHECK_ASCII);
+		try{
+			int chars = 0;
+			while(hasNext()){
+				if(maxChars >= 0 && chars >= maxChars && stringReadingState.isInFinalState()){
+					skipToClosingQuote(false);
+					return;
+				}
+				byte b = peekNextByte();
+				if(b == '"' && !stringReadingState.isInEscapedSequence()){
+					break;
+				}
+				stringReadingState.pushByte(getNextByte());
+				if(b >= 0 ? stringReadingState.isInFinalState() : (b & 0xC0) == 0xC0){
+					// a 4-byte UTF-8 char is decoded into two chars
+					chars += (b & 0xF8) == 0xF0 ? 2 : 1;
+				}
+			}
+		} finally {
+			stringReadingState.reset();
+		}
+	}
+
 	// TODO: if skip and validate won't be too slow - switch to using skipTheStringAndValidateASCII
 	protected void skipTheString() throws IOException, IllegalFormatException{
 		if(!stringReadingState.isInFinalState()){
@@ -586,6 +813,226 @@ public class UTF8FileReader implements Closeable{
 		stringReadingState.reset();
 	}
 
+	/**
+	 * Move the cursor to the closing quote of a string that is being read
+	 * byte by byte, so that the closing quote is the next byte to read. The
+	 * bytes are scanned for an unmasked quote 8 at a time (as in
+	 * {@link #skipTheString()}), they are neither decoded nor validated.
+	 *
+	 * @param escaped
+	 *            if the next byte is escaped by a backslash
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalFormatException
+	 *             if the end of file is reached before finding the closing
+	 *             quote
+	 */
+	void skipToClosingQuote(boolean escaped) throws IOException, IllegalFormatException{
+		if(currentMode != MODE_READING_ASCII_CHARS){
+			throw new RuntimeException("Cannot skip a string in current mode: "+currentMode);
+		}
+		if(!hasNext()){
+			throw new IllegalFormatException("The end of file is reached before finding the closing quote");
+		}
+		quoteScanResult.reset();
+		quoteScanResult.setEscaped(escaped);
+		searchForClosingQuoteInCurrentByteBuffer();
+		while (!quoteScanResult.reachedClosingQuote()) {
+			filePos += byteBuffer.remaining();
+			byteBuffer.position(byteBuffer.limit());
+			reloadByteBuffer();
+			if(!hasNext()){
+				throw new IllegalFormatException("The end of file is reached before finding the closing quote");
+			}
+			searchForClosingQuoteInCurrentByteBuffer();
+		}
+		filePos += quoteScanResult.getClosingQuotePos() - byteBuffer.position();
+		byteBuffer.position(quoteScanResult.getClosingQuotePos());
+		quoteScanResult.reset();
+	}
+
+	/**
+	 * Move the cursor to the closing bracket of the current object or array
+	 * (it is the last read byte after this method). The opening bracket should
+	 * have been just read.<br>
+	 * <br>
+	 * Bytes are scanned by blocks of {@value StructuralScanner#BLOCK_SIZE}
+	 * with {@link StructuralScanner}, so only the blocks with enough closing
+	 * brackets outside strings are looked at bracket by bracket. The format of
+	 * the skipped bytes is not checked except for the type of the closing
+	 * bracket.
+	 * 
+	 * @param openingBracket
+	 *            the bracket that has just been read ('{' or '[')
+	 * @return file position of the closing bracket
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalFormatException
+	 *             if the end of file is reached before the closing bracket is
+	 *             found or the closing bracket does not match the opening one
+	 */
+	long skipContainer(byte openingBracket) throws IOException, IllegalFormatException{
+		if(currentMode != MODE_READING_ASCII_CHARS){
+			throw new RuntimeException("Cannot skip a container in current mode: "+currentMode);
+		}
+		long startPos = filePos - 1;
+		structuralScanner.reset(false, false);
+		int depth = 1;
+		while(true){
+			int blockLength = scanNextBlock(startPos, false);
+			int index = byteBuffer.position();
+			long closing = structuralScanner.getClosingBrackets();
+			long opening = structuralScanner.getOpeningBrackets();
+			if(Long.bitCount(closing) < depth){
+				// the container can not end within this block
+				depth += Long.bitCount(opening) - Long.bitCount(closing);
+			} else {
+				long brackets = opening | closing;
+				while(brackets != 0){
+					int bit = Long.numberOfTrailingZeros(brackets);
+					depth += (closing & (1L << bit)) != 0 ? -1 : 1;
+					if(depth == 0){
+						return moveAfterClosingBracket(index, bit, openingBracket, startPos);
+					}
+					brackets &= brackets - 1;
+				}
+			}
+			byteBuffer.position(index + blockLength);
+			filePos += blockLength;
+		}
+	}
+
+	/**
+	 * Count children of the current object or array and move the cursor to
+	 * its closing bracket (it is the last read byte after this method). The
+	 * opening bracket should have been just read.<br>
+	 * <br>
+	 * Children are counted as commas that are directly within the container
+	 * (plus one if the container is not empty). As in
+	 * {@link #skipContainer(byte)}, bytes are scanned by blocks and strings
+	 * are never decoded. The format of the skipped bytes is not checked except
+	 * for the type of the closing bracket.
+	 * 
+	 * @param openingBracket
+	 *            the bracket that has just been read ('{' or '[')
+	 * @return number of children of the container
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalFormatException
+	 *             if the end of file is reached before the closing bracket is
+	 *             found or the closing bracket does not match the opening one
+	 */
+	long countChildren(byte openingBracket) throws IOException, IllegalFormatException{
+		if(currentMode != MODE_READING_ASCII_CHARS){
+			throw new RuntimeException("Cannot count children in current mode: "+currentMode);
+		}
+		long startPos = filePos - 1;
+		byte closingBracket = (byte)(openingBracket == '{' ? '}' : ']');
+		// an empty container has no commas as well as a container with one child
+		while(hasNext() && Character.isWhitespace(peekNextByte())){
+			getNextByte();
+		}
+		if(hasNext() && peekNextByte() == closingBracket){
+			getNextByte();
+			return 0;
+		}
+		structuralScanner.reset(false, false);
+		int depth = 1;
+		long commaNum = 0;
+		while(true){
+			int blockLength = scanNextBlock(startPos, true);
+			int index = byteBuffer.position();
+			long closing = structuralScanner.getClosingBrackets();
+			long opening = structuralScanner.getOpeningBrackets();
+			if((opening | closing) == 0){
+				if(depth == 1){
+					commaNum += Long.bitCount(structuralScanner.getCommas());
+				}
+			} else if(Long.bitCount(closing) < depth - 1){
+				// the depth can not get back to the container within this block
+				depth += Long.bitCount(opening) - Long.bitCount(closing);
+			} else {
+				long structurals = opening | closing | structuralScanner.getCommas();
+				while(structurals != 0){
+					long bit = structurals & -structurals;
+					if((closing & bit) != 0){
+						depth--;
+						if(depth == 0){
+							moveAfterClosingBracket(index, Long.numberOfTrailingZeros(bit), openingBracket,
+									startPos);
+							return commaNum + 1;
+						}
+					} else if((opening & bit) != 0){
+						depth++;
+					} else if(depth == 1){
+						commaNum++;
+					}
+					structurals ^= bit;
+				}
+			}
+			byteBuffer.position(index + blockLength);
+			filePos += blockLength;
+		}
+	}
+
+	/**
+	 * Scan the next (maybe incomplete) block of bytes starting at the current
+	 * position of the byte buffer with {@link #structuralScanner}. More bytes
+	 * are read if needed, so the block starts at the position of the byte
+	 * buffer after this method.
+	 * 
+	 * @param startPos
+	 *            position of the opening bracket of the container being
+	 *            scanned (for error messages)
+	 * @param withCommas
+	 *            if the commas should be found too
+	 * @return length of the block
+	 * @throws IllegalFormatException
+	 *             if there are no bytes left
+	 */
+	private int scanNextBlock(long startPos, boolean withCommas) throws IOException, IllegalFormatException{
+		// a view can end before the end of input (e.g. at the end of a
+		// tile of a mapped file), so an incomplete block is possible anywhere
+		while(byteBuffer.remaining() < StructuralScanner.BLOCK_SIZE && readBytes() > 0){
+		}
+		int blockLength = Math.min(StructuralScanner.BLOCK_SIZE, byteBuffer.remaining());
+		if(blockLength == 0){
+			hasNext = false;
+			throw new IllegalFormatException("Unexpected end of " + source.getName()
+					+ " while searching for the closing bracket (opening bracket at pos " + startPos + ")");
+		}
+		int index = byteBuffer.position();
+		if(blockLength == StructuralScanner.BLOCK_SIZE){
+			structuralScanner.nextBracketBlock(byteBuffer, index, byteBuffer.order() == ByteOrder.LITTLE_ENDIAN,
+					withCommas);
+		} else {
+			structuralScanner.nextPartialBracketBlock(byteBuffer, index, blockLength, withCommas);
+		}
+		return blockLength;
+	}
+
+	/**
+	 * Check the closing bracket found at <code>index + bit</code> of the byte
+	 * buffer and move the cursor after it.
+	 * 
+	 * @return file position of the closing bracket
+	 */
+	private long moveAfterClosingBracket(int index, int bit, byte openingBracket, long startPos)
+			throws IOException, IllegalFormatException{
+		byte closingBracket = byteBuffer.get(index + bit);
+		if(closingBracket != (openingBracket == '{' ? '}' : ']')){
+			throw new IllegalFormatException("Closing bracket '" + (char)closingBracket + "' at pos "
+					+ (filePos + bit) + " does not match the opening one '" + (char)openingBracket
+					+ "' at pos " + startPos);
+		}
+		byteBuffer.position(index + bit + 1);
+		filePos += bit + 1;
+		if(!byteBuffer.hasRemaining()){
+			reloadByteBuffer();
+		}
+		return filePos - 1;
+	}
+
 	/**
 	 * Fill the char buffer with chars starting from current position and up to
 	 * an unmasked quote (or the end of the char buffer). The position of the
@@ -697,6 +1144,12 @@ public class UTF8FileReader implements Closeable{
 		byteBuffer.mark();
 		// scan for an unmasked quote
 		while(byteBuffer.hasRemaining()){
+			// skip 8 bytes at once if there are no quotes or backslashes among them
+			if(!escaped && byteBuffer.remaining() >= 8
+					&& !StructuralScanner.hasQuoteOrBackslash(byteBuffer.getLong(byteBuffer.position()))){
+				byteBuffer.position(byteBuffer.position() + 8);
+				continue;
+			}
 			byte b = byteBuffer.get();
 			if(b == '"' && !escaped){
 				quotePos = byteBuffer.position() - 1;// since we've already read the quote
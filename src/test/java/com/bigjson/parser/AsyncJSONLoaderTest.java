@@ -0,0 +1,63 @@
+package com.bigjson.parser;
+
+import static org.hamcrest.CoreMatchers.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class AsyncJSONLoaderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void shouldRunOperationsAsynchronously() throws Exception{
+		File file = TestUtils.getGeneratedTestFile();
+		String json = "{\"a\": [1, \"needle\", {\"b\": \"long string\"}], \"c\": \"needle in a haystack\"}";
+		Files.write(file.toPath(), json.getBytes("UTF-8"));
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try(AsyncJSONLoader loader = new AsyncJSONLoader(new ConcurrentJSONLoader(file, null, 4, false), executor)){
+			JSONNode root = loader.getRootAndValidate().get();
+			List<JSONNode> children = loader.loadChildren(root).get();
+			assertEquals(2, children.size());
+			CompletableFuture<List<JSONNode>> a = loader.loadChildren(children.get(0));
+			CompletableFuture<JSONNode> b = loader.resolvePointer("/a/2/b");
+			assertEquals(3, a.get().size());
+			assertEquals("long", b.get().getValue());
+			assertEquals("long string", loader.loadNodeWithFullString(b.get()).get().getValue());
+			assertEquals(null, loader.validateNode(children.get(0)).get());
+			StringSearchInfo search = loader.getLoader().createNewSearch("needle", 0, json.length(), true, false);
+			assertTrue(loader.findNextMatch(search).get());
+			assertEquals(json.indexOf("needle"), search.getLastMatchPos());
+			assertTrue(loader.findNextMatch(search).get());
+			assertEquals(json.lastIndexOf("needle"), search.getLastMatchPos());
+			assertTrue(!loader.findNextMatch(search).get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void shouldCompleteExceptionally() throws Exception{
+		File file = TestUtils.getGeneratedTestFile();
+		Files.write(file.toPath(), "{\"a\": [1, 2,]}".getBytes("UTF-8"));
+		try(AsyncJSONLoader loader = new AsyncJSONLoader(new ConcurrentJSONLoader(file, null, 4, false))){
+			assertEquals(JSONNode.TYPE_OBJECT, loader.getRoot().get().getType());
+			CompletableFuture<JSONNode> root = loader.getRootAndValidate();
+			thrown.expect(ExecutionException.class);
+			thrown.expectCause(isA(IllegalFormatException.class));
+			root.get();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.bigjson.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ConcurrentJSONLoaderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void shouldLoadSubtreesFromSeveralThreads() throws Exception{
+		File file = TestUtils.getGeneratedTestFile();
+		StringBuilder sb = new StringBuilder("{\"items\": [");
+		for(int i = 0; i < 2000; i++){
+			sb.append(i == 0 ? "" : ",\n").append("{\"id\": ").append(i).append(", \"name\": \"item \\u00e9")
+					.append(i).append("\", \"tags\": [\"t").append(i % 7).append("\", ").append(i % 2 == 0)
+					.append("]}");
+		}
+		sb.append("], \"count\": 2000}");
+		Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+		for(boolean memoryMapped: new boolean[]{false, true}){
+			try(final ConcurrentJSONLoader loader = new ConcurrentJSONLoader(file, null, 8, memoryMapped)){
+				loader.useChildListCache(1 << 20);
+				final JSONNode items = loader.loadChildren(loader.getRoot()).get(0);
+				// the children of the root are shared by all the threads
+				try{
+					loader.loadChildren(loader.getRoot()).clear();
+					fail("The list of children of the root should be unmodifiable");
+				}catch(UnsupportedOperationException e){
+				}
+				assertEquals(2000, loader.countChildren(items));
+				ExecutorService executor = Executors.newFixedThreadPool(4);
+				try{
+					List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+					for(int t = 0; t < 4; t++){
+						final int seed = t;
+						results.add(executor.submit(new Callable<Integer>() {
+							@Override
+							public Integer call() throws IOException, IllegalFormatException {
+								Random rnd = new Random(seed);
+								for(int k = 0; k < 500; k++){
+									int i = rnd.nextInt(2000);
+									JSONNode item = loader.getArrayElement(items, i);
+									List<JSONNode> fields = loader.loadChildren(item);
+									assertEquals(i, fields.get(0).getLong());
+									assertEquals("item é" + i, loader.loadNodeWithFullString(fields.get(1)).getValue());
+									assertEquals("tags", fields.get(2).getName());
+									JSONNode tag = loader.resolvePointer("/items/" + i + "/tags/0");
+									assertEquals("t" + (i % 7), tag.getValue());
+								}
+								return 500;
+							}
+						}));
+					}
+					for(Future<Integer> result: results){
+						assertEquals(500, (int)result.get());
+					}
+				} finally {
+					executor.shutdown();
+				}
+				// a parser per thread at most
+				assertTrue(loader.getIdleParserNum() <= 5);
+				// a lazy string of a node is decoded with a parser from the pool
+				JSONNode item = loader.getArrayElement(items, 1999);
+				assertEquals("item é19", loader.loadChildren(item).get(1).getValue());
+				assertTrue(!loader.loadChildren(item).get(1).isFullyLoaded());
+				// validation does not add parsers to the pool
+				int idleParserNum = loader.getIdleParserNum();
+				for(int k = 0; k < 3; k++){
+					assertEquals(2, loader.loadChildren(loader.getRootAndValidate()).size());
+				}
+				assertEquals(idleParserNum, loader.getIdleParserNum());
+			}
+		}
+		ConcurrentJSONLoader loader = new ConcurrentJSONLoader(file, null, 8, false);
+		loader.close();
+		thrown.expect(IOException.class);
+		loader.getRoot();
+	}
+
+	@Test
+	public void shouldReplaceIndexes() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		Files.write(file.toPath(), "[{\"a\": \"abc\"}, [1, 2, 3], {\"b\": \"xabc\"}]".getBytes("UTF-8"));
+		File structuralIndexFile = StructuralIndex.getDefaultIndexFile(file);
+		File trigramIndexFile = TrigramIndex.getDefaultIndexFile(file);
+		ConcurrentJSONLoader loader = new ConcurrentJSONLoader(file, null, 8, false);
+		try{
+			for(int k = 0; k < 3; k++){
+				// the replaced indexes stay open until the loader is closed
+				assertTrue(loader.useStructuralIndex(structuralIndexFile, true, 1));
+				assertTrue(loader.useTrigramIndex(trigramIndexFile, true, 4));
+				assertEquals(3, loader.countChildren(loader.getArrayElement(loader.getRoot(), 1)));
+				StringSearchInfo searchInfo = loader.createNewSearch("abc", 0, file.length(), true, true);
+				assertEquals(2, loader.findAllMatches(searchInfo, null).size());
+			}
+		} finally {
+			loader.close();
+		}
+		thrown.expect(IOException.class);
+		loader.useTrigramIndex(trigramIndexFile, true, 4);
+	}
+}
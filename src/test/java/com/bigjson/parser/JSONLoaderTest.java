@@ -3,12 +3,15 @@ package com.bigjson.parser;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.text.NumberFormat;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.json.JSONArray;
@@ -47,6 +50,46 @@ public class JSONLoaderTest {
 		parseAndCompare(file, 10);
 	}
 	
+	@Test
+	public void shouldParseSmallJSONFileWhenMemoryMapped() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 4; i++){
+			File file = TestUtils.getProperJSONFile(i);
+			parseAndCompare(file, 10000, true);
+			parseAndCompare(file, 10, true);
+		}
+	}
+	
+	@Test
+	public void shouldParseSmallJSONFileWithStructuralIndex() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 4; i++){
+			File file = TestUtils.getProperJSONFile(i);
+			File indexFile = TestUtils.getGeneratedFilePath(file.getName() + StructuralIndex.INDEX_FILE_EXTENSION);
+			indexFile.delete();
+			for(boolean memoryMapped: new boolean[]{false, true}){
+				try(JSONLoader loader = new JSONLoader(file, null, 10, memoryMapped)){
+					assertTrue(loader.useStructuralIndex(indexFile, true, 0));
+					verifyRoot(loader, file, 10);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void shouldParseJSONFromByteBuffer() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 4; i++){
+			File file = TestUtils.getProperJSONFile(i);
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+			direct.put(bytes).flip();
+			try(JSONLoader loader = new JSONLoader(new ByteBufferByteSource(bytes), null, 10)){
+				verifyRoot(loader, file, 10);
+			}
+			try(JSONLoader loader = new JSONLoader(new ByteBufferByteSource(direct), null, 10000)){
+				verifyRoot(loader, file, 10000);
+			}
+		}
+	}
+	
 	@Test
 	public void shouldReadSingleString() throws IOException, IllegalFormatException{
 		try(JSONLoader loader = new JSONLoader(TestUtils.getProperJSONFile(4), -1)){
@@ -72,6 +115,396 @@ public class JSONLoaderTest {
 		}
 	}
 	
+	@Test
+	public void shouldLoadArrayElementsByIndex() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < 5000; i++){
+			sb.append(i == 0 ? "" : ", ");
+			switch(i % 5){
+			case 0: sb.append(i * 1.5); break;
+			case 1: sb.append("\"s, [\\\"").append(i).append("\\\\\""); break;
+			case 2: sb.append(i % 2 == 0 ? "true" : "null"); break;
+			case 3: sb.append("{\"a\": [").append(i).append(", \"]\"]}"); break;
+			default: sb.append("[[], ").append(i).append(", {}]");
+			}
+		}
+		sb.append("]");
+		Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+		try(JSONLoader loader = new JSONLoader(file, -1)){
+			JSONNode root = loader.getRoot();
+			List<JSONNode> children = loader.loadChildren(root);
+			assertEquals(5000, children.size());
+			for(int i: new int[]{ 0, 1, 1023, 1024, 1025, 3000, 4999, 17 }){
+				assertSameNode(children.get(i), loader.getArrayElement(root, i));
+			}
+			List<JSONNode> range = loader.getArrayElements(root, 1020, 10);
+			for(int i = 0; i < range.size(); i++){
+				assertSameNode(children.get(1020 + i), range.get(i));
+			}
+			assertEquals(10, range.size());
+			assertEquals(3, loader.getArrayElements(root, 4997, 10).size());
+			assertEquals(0, loader.getArrayElements(root, 5000, 10).size());
+			// an array that is not the root
+			JSONNode nested = loader.getArrayElement(root, 4);
+			assertSameNode(loader.loadChildren(nested).get(2), loader.getArrayElement(nested, 2));
+			// more arrays than the parser keeps checkpoints for
+			for(int i = 4; i < 5000; i += 5){
+				assertEquals(i, loader.getArrayElement(children.get(i), 1).getLong());
+			}
+			assertSameNode(loader.loadChildren(nested).get(2), loader.getArrayElement(nested, 2));
+			thrown.expect(IndexOutOfBoundsException.class);
+			loader.getArrayElement(root, 5000);
+		}
+	}
+
+	@Test
+	public void shouldLoadChildrenPageByPage() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 4; i++){
+			try(JSONLoader loader = new JSONLoader(TestUtils.getProperJSONFile(i), 10)){
+				comparePages(loader, loader.getRoot());
+			}
+		}
+		File file = TestUtils.getGeneratedTestFile();
+		StringBuilder sb = new StringBuilder("{\"arr\": [");
+		for(int i = 0; i < 3000; i++){
+			sb.append(i == 0 ? "" : ",\n").append(i % 3 == 0 ? "{\"k\": [" + i + "]}" : "\"" + i + "\"");
+		}
+		sb.append("], \"last\": null}");
+		Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+		try(JSONLoader loader = new JSONLoader(file, 10)){
+			JSONNode arr = loader.loadChildren(loader.getRoot()).get(0);
+			List<JSONNode> children = loader.loadChildren(arr);
+			List<JSONNode> page = loader.loadChildren(arr, 2500, 100);
+			assertEquals(100, page.size());
+			for(int i = 0; i < page.size(); i++){
+				assertSameNode(children.get(2500 + i), page.get(i));
+			}
+			assertEquals(0, loader.loadChildren(arr, 3000, 100).size());
+			assertEquals(1, loader.loadChildren(arr, 2999, 100).size());
+			ChildCursor cursor = loader.createChildCursor(arr);
+			loader.skipChildren(cursor, 5000);
+			assertTrue(cursor.isFinished());
+			assertEquals(3000, cursor.getNextIndex());
+		}
+	}
+
+	@Test
+	public void shouldCountChildren() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 4; i++){
+			File file = TestUtils.getProperJSONFile(i);
+			try(JSONLoader loader = new JSONLoader(file, 10)){
+				compareChildCounts(loader, loader.getRoot());
+			}
+			File indexFile = TestUtils.getGeneratedFilePath(file.getName() + StructuralIndex.INDEX_FILE_EXTENSION);
+			indexFile.delete();
+			try(JSONLoader loader = new JSONLoader(file, 10)){
+				assertTrue(loader.useStructuralIndex(indexFile, true, 16));
+				compareChildCounts(loader, loader.getRoot());
+			}
+		}
+	}
+
+	@Test
+	public void shouldLoadProjectedChildren() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 4; i++){
+			try(JSONLoader loader = new JSONLoader(TestUtils.getProperJSONFile(i), 10)){
+				compareProjectedChildren(loader, loader.getRoot());
+			}
+		}
+		File file = TestUtils.getGeneratedTestFile();
+		Files.write(file.toPath(), "{\"a\": [1, {\"b\": 2}], \"\\u00e9\": \"x\", \"\u00e9t\u00e9\": null, \"c\": {}}"
+				.getBytes("UTF-8"));
+		try(JSONLoader loader = new JSONLoader(file, 10)){
+			JSONProjection projection = JSONProjection.of("\u00e9", "\u00e9t\u00e9", "d");
+			JSONNode root = loader.getRoot(projection);
+			List<JSONNode> children = loader.loadChildren(root);
+			assertEquals(2, children.size());
+			assertEquals("\u00e9", children.get(0).getName());
+			assertEquals("x", children.get(0).getValue());
+			assertEquals("\u00e9t\u00e9", children.get(1).getName());
+			assertEquals(4, loader.loadChildren(loader.getRoot(null)).size());
+			assertEquals(2, loader.loadChildren(loader.loadChildren(root).get(0), JSONProjection.of("b")).size());
+		}
+	}
+
+	@Test
+	public void shouldDecodeStringsLazily() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		Files.write(file.toPath(), ("{\"a\": \"short\", \"b\\u00e9\": \"\\u00e9\\u00e9\\u00e9 with escapes\\n\", "
+				+ "\"\": \"\", \"c\": \"éééééé\"}").getBytes("UTF-8"));
+		try(JSONLoader loader = new JSONLoader(file, 6)){
+			List<JSONNode> children = loader.loadChildren(loader.getRoot());
+			assertEquals(4, children.size());
+			JSONNonTreeNode node = (JSONNonTreeNode)children.get(1);
+			LazyJSONString name = (LazyJSONString)node.getNameChars();
+			LazyJSONString value = (LazyJSONString)node.getValueChars();
+			assertTrue(!name.isDecoded() && !value.isDecoded());
+			assertEquals(node.getValueFilePosition(), value.getOpeningQuotePosition());
+			assertEquals(node.getEndFilePosition(), value.getClosingQuotePosition());
+			// decoding a string does not break loading other nodes
+			assertEquals("ééé wi", value.toString());
+			assertEquals(4, loader.loadChildren(loader.getRoot()).size());
+			assertTrue(!node.isFullyLoaded());
+			assertEquals("bé", node.getName());
+			assertTrue(children.get(0).isFullyLoaded());
+			assertEquals("short", children.get(0).getValue());
+			assertEquals("", children.get(2).getName());
+			assertEquals("", children.get(2).getValue());
+			// 12 bytes, but 6 chars
+			assertTrue(children.get(3).isFullyLoaded());
+			assertEquals("éééééé", children.get(3).getValue());
+		}
+	}
+
+	@Test
+	public void shouldCacheChildrenWithLongStrings() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		StringBuilder sb = new StringBuilder("{\"a\": {\"s\": \"");
+		for(int i = 0; i < 1 << 21; i++){
+			sb.append((char)('a' + i % 26));
+		}
+		sb.append("\", \"b\": 1}}");
+		Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+		try(JSONLoader loader = new JSONLoader(file, 10)){
+			// the long string is displayed truncated, so the list is light
+			ChildListCache cache = loader.useChildListCache(1 << 20);
+			JSONNode a = loader.loadChildren(loader.getRoot()).get(0);
+			for(int i = 0; i < 3; i++){
+				assertEquals(2, loader.loadChildren(a).size());
+			}
+			assertEquals(1, cache.getMissCount());
+			assertEquals(2, cache.getHitCount());
+			assertTrue(cache.getWeight() < 1000);
+		}
+	}
+
+	@Test
+	public void shouldCheckEscapesOfLazyStrings() throws IOException, IllegalFormatException{
+		// an invalid escape in a value and in a name
+		String[] jsons = {"[{\"a\": \"x\\kx\", \"b\": 1}]", "[{\"a\": \"x\", \"b\\q\": 1}]"};
+		for(String json: jsons){
+			File file = TestUtils.getGeneratedTestFile();
+			Files.write(file.toPath(), json.getBytes("UTF-8"));
+			try(JSONLoader loader = new JSONLoader(file, 10)){
+				JSONNode child = loader.loadChildren(loader.getRoot()).get(0);
+				try{
+					loader.loadChildren(child);
+					fail("Invalid escape sequence is not found in " + json);
+				}catch(IllegalFormatException e){
+					// expected
+				}
+			}
+		}
+	}
+
+	@Test
+	public void shouldCacheLoadedChildren() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		Files.write(file.toPath(), "{\"a\": [1, 2, 3], \"b\": {\"x\": \"y\"}, \"c\": [true, null]}".getBytes("UTF-8"));
+		try(JSONLoader loader = new JSONLoader(file, 10)){
+			ChildListCache cache = loader.useChildListCache(1 << 20);
+			List<JSONNode> rootChildren = loader.loadChildren(loader.getRoot());
+			List<JSONNode> children = loader.loadChildren(rootChildren.get(0));
+			assertEquals(3, children.size());
+			assertTrue(children == loader.loadChildren(rootChildren.get(0)));
+			assertEquals(1, cache.getHitCount());
+			assertEquals(1, cache.getMissCount());
+			assertEquals(ChildListCache.estimateWeight(children), cache.getWeight());
+			// the cached list is shared, so it can not be modified
+			try{
+				children.remove(0);
+				fail("A cached list of children should be unmodifiable");
+			}catch(UnsupportedOperationException e){
+			}
+			// the least recently used list is evicted
+			List<JSONNode> bChildren = loader.loadChildren(rootChildren.get(1));
+			List<JSONNode> cChildren = loader.loadChildren(rootChildren.get(2));
+			cache = loader.useChildListCache(ChildListCache.estimateWeight(children)
+					+ ChildListCache.estimateWeight(bChildren) + ChildListCache.estimateWeight(cChildren) - 1);
+			assertTrue(bChildren != loader.loadChildren(rootChildren.get(1)));
+			loader.loadChildren(rootChildren.get(2));
+			assertEquals(2, cache.size());
+			loader.loadChildren(rootChildren.get(1));
+			loader.loadChildren(rootChildren.get(0));
+			assertEquals(1, cache.getHitCount());
+			assertEquals(1, cache.getEvictionCount());
+			assertTrue(cache.getWeight() <= cache.getMaxWeight());
+			assertEquals("y", loader.loadChildren(rootChildren.get(1)).get(0).getValue());
+			assertEquals(2, cache.getHitCount());
+			assertEquals(null, loader.useChildListCache(0));
+		}
+	}
+
+	@Test
+	public void shouldReportProgressAndCancel() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < 300000; i++){
+			sb.append(i == 0 ? "" : ",").append("{\"k\": \"value ").append(i).append("\"}");
+		}
+		sb.append("]");
+		Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+		for(boolean memoryMapped: new boolean[]{false, true}){
+			try(JSONLoader loader = new JSONLoader(file, null, 10, memoryMapped)){
+				final List<Long> progress = new ArrayList<Long>();
+				loader.setProgressListener(new ProgressListener() {
+					@Override
+					public void onProgress(long bytesProcessed, long totalBytes) {
+						assertEquals(file.length(), totalBytes);
+						progress.add(bytesProcessed);
+					}
+				});
+				assertEquals(null, loader.validateNode(loader.getRoot()));
+				assertTrue(progress.size() >= file.length() / UTF8FileReader.PROGRESS_STEP);
+				StringSearchInfo search = loader.createNewSearch("value 299999", 0, file.length(), true, false);
+				assertTrue(loader.findNextMatch(search));
+				final CancellationToken token = new CancellationToken();
+				loader.setCancellationToken(token);
+				loader.setProgressListener(new ProgressListener() {
+					@Override
+					public void onProgress(long bytesProcessed, long totalBytes) {
+						if(bytesProcessed > UTF8FileReader.PROGRESS_STEP){
+							token.cancel();
+						}
+					}
+				});
+				try{
+					loader.validateNode(loader.getRoot());
+					assertTrue("Validation should be cancelled", false);
+				} catch(OperationCancelledException e){
+					// expected
+				}
+				loader.setCancellationToken(null);
+				assertEquals(1, loader.loadChildren(loader.getRoot(), 5, 1).size());
+			}
+		}
+	}
+
+	@Test
+	public void shouldLoadChildBlocks() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 4; i++){
+			try(JSONLoader loader = new JSONLoader(TestUtils.getProperJSONFile(i), 10)){
+				compareChildBlocks(loader, loader.getRoot());
+			}
+		}
+		File file = TestUtils.getGeneratedTestFile();
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < 100000; i++){
+			sb.append(i == 0 ? "" : ",").append(i % 4 == 0 ? "\"s" + i + "\"" : "" + i * 0.5);
+		}
+		sb.append("]");
+		Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+		try(JSONLoader loader = new JSONLoader(file, 10)){
+			NodeBlock block = loader.loadChildBlock(loader.getRoot());
+			assertEquals(100000, block.size());
+			assertEquals("s99996", block.get(99996).getValue());
+			assertEquals(99999 * 0.5, block.get(99999).getDouble(), 0);
+			assertEquals("5", block.get(5).getName());
+			assertEquals(JSONNode.TYPE_NUMBER, block.getType(5));
+		}
+		Files.write(file.toPath(), "[1, tru]".getBytes("UTF-8"));
+		try(JSONLoader loader = new JSONLoader(file, 10)){
+			thrown.expect(IllegalFormatException.class);
+			loader.loadChildBlock(loader.getRoot());
+		}
+	}
+
+	/**
+	 * Compare children of every node of a tree loaded as nodes and as blocks
+	 */
+	private static void compareChildBlocks(JSONLoader loader, JSONNode node) throws IOException, IllegalFormatException{
+		List<JSONNode> children = loader.loadChildren(node);
+		NodeBlock block = loader.loadChildBlock(node);
+		if(children == null){
+			assertEquals(null, block);
+			return;
+		}
+		assertEquals(children.size(), block.size());
+		for(int i = 0; i < children.size(); i++){
+			// the positions first not to load the view's node
+			assertEquals(children.get(i).getStartFilePosition(), block.get(i).getStartFilePosition());
+			assertEquals(children.get(i).getType(), block.get(i).getType());
+			assertEquals(children.get(i).getName(), block.get(i).getName());
+			assertSameNode(children.get(i), block.get(i));
+			assertEquals(children.get(i).isFullyLoaded(), block.get(i).isFullyLoaded());
+			compareChildBlocks(loader, block.get(i));
+		}
+	}
+
+	/**
+	 * Compare children of every object of a tree loaded with a projection of
+	 * a half of their names with the children loaded without it
+	 */
+	private static void compareProjectedChildren(JSONLoader loader, JSONNode node)
+			throws IOException, IllegalFormatException{
+		List<JSONNode> children = loader.loadChildren(node);
+		if(children == null){
+			return;
+		}
+		List<String> names = new ArrayList<String>();
+		for(int i = 0; i < children.size(); i += 2){
+			names.add(children.get(i).getName());
+		}
+		names.add("no such name");
+		JSONProjection projection = JSONProjection.of(names);
+		List<JSONNode> projected = loader.loadChildren(node, projection);
+		int loaded = 0;
+		for(JSONNode child: children){
+			if(node.getType() == JSONNode.TYPE_ARRAY || projection.contains(child.getName())){
+				assertSameNode(child, projected.get(loaded++));
+			}
+		}
+		assertEquals(loaded, projected.size());
+		for(JSONNode child: children){
+			compareProjectedChildren(loader, child);
+		}
+	}
+
+	private static void compareChildCounts(JSONLoader loader, JSONNode node) throws IOException, IllegalFormatException{
+		List<JSONNode> children = loader.loadChildren(node);
+		assertEquals(children == null ? 0 : children.size(), loader.countChildren(node));
+		// cached
+		assertEquals(children == null ? 0 : children.size(), loader.countChildren(node));
+		if(children != null){
+			for(JSONNode child: children){
+				compareChildCounts(loader, child);
+			}
+		}
+	}
+
+	/**
+	 * Compare children of every node of a tree loaded at once and page by page
+	 */
+	private static void comparePages(JSONLoader loader, JSONNode node) throws IOException, IllegalFormatException{
+		List<JSONNode> children = loader.loadChildren(node);
+		if(children == null){
+			return;
+		}
+		ChildCursor cursor = loader.createChildCursor(node);
+		int loaded = 0;
+		while(!cursor.isFinished()){
+			List<JSONNode> page = loader.loadNextChildren(cursor, 3);
+			for(JSONNode child: page){
+				assertSameNode(children.get(loaded++), child);
+			}
+		}
+		assertEquals(children.size(), loaded);
+		assertEquals(children.size(), cursor.getNextIndex());
+		for(JSONNode child: children){
+			comparePages(loader, child);
+		}
+	}
+
+	private static void assertSameNode(JSONNode exp, JSONNode node){
+		assertEquals(exp.getName(), node.getName());
+		assertEquals(exp.getType(), node.getType());
+		assertEquals(exp.getValue(), node.getValue());
+		assertEquals(exp.getStartFilePosition(), node.getStartFilePosition());
+		assertEquals(exp.getValueFilePosition(), node.getValueFilePosition());
+		assertEquals(exp.getEndFilePosition(), node.getEndFilePosition());
+	}
+
 	@Test
 	public void shouldThrowAnExceptionIfSeveralRoots() throws IOException, IllegalFormatException{
 		try(JSONLoader loader = new JSONLoader(TestUtils.getInvalidJSONFile(0), -1)){
@@ -81,16 +514,25 @@ public class JSONLoaderTest {
 	}
 	
 	private void parseAndCompare(File file, int stringLenngth) throws IOException, IllegalFormatException{
-		try(JSONLoader loader = new JSONLoader(file, stringLenngth)){
-			// this parser vs...
-			JSONNode top = loader.getRootAndValidate();
-			// org.json parser
-			byte[] bytes = Files.readAllBytes(file.toPath());
-			JSONObject topExp = new JSONObject(new String(bytes));
-			verifyNode(topExp, loader, top, stringLenngth);
+		parseAndCompare(file, stringLenngth, false);
+	}
+	
+	private void parseAndCompare(File file, int stringLenngth, boolean memoryMapped)
+			throws IOException, IllegalFormatException {
+		try(JSONLoader loader = new JSONLoader(file, null, stringLenngth, memoryMapped)){
+			verifyRoot(loader, file, stringLenngth);
 		}
 	}
 	
+	private void verifyRoot(JSONLoader loader, File file, int stringLenngth) throws IOException, IllegalFormatException{
+		// this parser vs...
+		JSONNode top = loader.getRootAndValidate();
+		// org.json parser
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		JSONObject topExp = new JSONObject(new String(bytes));
+		verifyNode(topExp, loader, top, stringLenngth);
+	}
+	
 	/**
 	 * Verifies the type and value of the node. It is assumed that the name has been already verified.
 	 * @param nodeExp
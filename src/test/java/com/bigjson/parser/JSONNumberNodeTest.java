@@ -0,0 +1,87 @@
+package com.bigjson.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class JSONNumberNodeTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void shouldKeepNumberText(){
+		String[] numbers = { "0", "-0", "-0.0", "0.05", "10.50", "123456789012345678", "1234567890123456789",
+				"-1.5e10", "2E-3", "1e+22", "1e007", "0.000000000000000000001", "1e0", "-9.99E99" };
+		for(String number: numbers){
+			assertEquals(number, createNode(number).getValue());
+			assertEquals(number, Double.parseDouble(number), createNode(number).getDouble(), 0);
+		}
+	}
+
+	@Test
+	public void shouldConvertNumbersToDoubles(){
+		Random rnd = new Random(13);
+		for(int i = 0; i < 100000; i++){
+			StringBuilder sb = new StringBuilder();
+			if(rnd.nextBoolean()){
+				sb.append('-');
+			}
+			sb.append(rnd.nextInt(1000000));
+			if(rnd.nextBoolean()){
+				sb.append('.').append(rnd.nextInt(100000000));
+			}
+			if(rnd.nextInt(3) == 0){
+				sb.append('e').append(rnd.nextInt(60) - 30);
+			}
+			String number = sb.toString();
+			assertEquals(number, Double.doubleToLongBits(Double.parseDouble(number)),
+					Double.doubleToLongBits(createNode(number).getDouble()));
+			assertEquals(number, createNode(number).getValue());
+		}
+	}
+
+	@Test
+	public void shouldReturnLongsForIntegralNumbers() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < 1000; i++){
+			sb.append(i == 0 ? "" : ",").append(i * 1000003L * (i % 2 == 0 ? 1 : -1));
+		}
+		sb.append(", 9223372036854775807, -9223372036854775808, 1.0, \"1\"]");
+		Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+		try(JSONLoader loader = new JSONLoader(file, 10)){
+			List<JSONNode> children = loader.loadChildren(loader.getRoot());
+			for(int i = 0; i < 1000; i++){
+				assertTrue(children.get(i).isIntegral());
+				assertEquals(i * 1000003L * (i % 2 == 0 ? 1 : -1), children.get(i).getLong());
+			}
+			assertEquals(Long.MAX_VALUE, children.get(1000).getLong());
+			assertEquals(Long.MIN_VALUE, children.get(1001).getLong());
+			assertFalse(children.get(1002).isIntegral());
+			assertEquals(1.0, children.get(1002).getDouble(), 0);
+			assertFalse(children.get(1003).isIntegral());
+			thrown.expect(NumberFormatException.class);
+			children.get(1002).getLong();
+		}
+	}
+
+	private static JSONNode createNode(String number){
+		JSONNumberNode.Builder builder = new JSONNumberNode.Builder();
+		for(byte b: number.getBytes(StandardCharsets.US_ASCII)){
+			builder.push(b);
+		}
+		return builder.build("");
+	}
+}
@@ -0,0 +1,148 @@
+package com.bigjson.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class JSONPathTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void shouldParsePath(){
+		JSONPath path = JSONPath.compile("$.a['b.c'][12]..*[?(@.x[0] >= -1.5)]..['d']");
+		assertEquals(6, path.getStepNum());
+		assertEquals("b.c", path.getStep(1).name);
+		assertEquals(12, path.getStep(2).index);
+		assertTrue(path.getStep(3).recursive);
+		assertEquals(JSONPath.STEP_WILDCARD, path.getStep(3).type);
+		JSONPath.Filter filter = path.getStep(4).filter;
+		assertEquals("/x/0", filter.path.toString());
+		assertEquals(JSONPath.OP_GE, filter.op);
+		assertEquals(-1.5, filter.literal);
+		assertTrue(path.getStep(5).recursive);
+		assertEquals(0, JSONPath.compile("$").getStepNum());
+		thrown.expect(IllegalArgumentException.class);
+		JSONPath.compile("$.a[1,2]");
+	}
+
+	@Test
+	public void shouldMatchLikeManualWalk() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 4; i++){
+			try(JSONLoader loader = new JSONLoader(TestUtils.getProperJSONFile(i), 10)){
+				List<JSONNode> expected = new ArrayList<JSONNode>();
+				collectDescendants(loader, loader.getRoot(), expected, 1, 2, 2);
+				compareNodes(expected, findAll(loader, "$.*[*]"));
+				expected.clear();
+				collectDescendants(loader, loader.getRoot(), expected, 1, 1, Integer.MAX_VALUE);
+				compareNodes(expected, findAll(loader, "$..*"));
+			}
+		}
+	}
+
+	@Test
+	public void shouldFilterAndStreamMatches() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		StringBuilder sb = new StringBuilder("{\"skip\": {\"id\": -1}, \"orders\": [");
+		for(int i = 0; i < 3000; i++){
+			sb.append(i == 0 ? "" : ", ").append("{\"id\": ").append(i).append(", \"total\": ").append(i % 7 * 500)
+					.append(", \"st\\u0061tus\": \"").append(i % 2 == 0 ? "new" : "done").append("\"}");
+		}
+		sb.append("]}");
+		Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+		try(JSONLoader loader = new JSONLoader(file, 2)){
+			List<JSONNode> ids = findAll(loader, "$.orders[?(@.total > 1000)].id");
+			int count = 0;
+			for(int i = 0; i < 3000; i++){
+				if(i % 7 * 500 > 1000){
+					assertEquals("" + i, ids.get(count++).getValue());
+				}
+			}
+			assertEquals(count, ids.size());
+			ids = findAll(loader, "$.orders[?(@.status == 'done')].id");
+			assertEquals(1500, ids.size());
+			assertEquals("1", ids.get(0).getValue());
+			assertEquals(3001, findAll(loader, "$..id").size());
+			assertEquals(3000, findAll(loader, "$.orders[?(@.id)]").size());
+			assertEquals(0, findAll(loader, "$.orders[?(@.id == 'x')]").size());
+			assertEquals("2500", findAll(loader, "$['orders'][2500].id").get(0).getValue());
+			assertEquals("status", findAll(loader, "$.orders[0].status").get(0).getName());
+
+			// the iterator survives other requests to the loader
+			Iterator<JSONNode> it = loader.iterateMatches("$.orders[*].total");
+			for(int i = 0; i < 3000; i++){
+				assertTrue(it.hasNext());
+				assertEquals("" + (i % 7 * 500), it.next().getValue());
+				if(i % 1000 == 0){
+					assertEquals("" + i, loader.resolvePointer("/orders/" + i + "/id").getValue());
+				}
+			}
+			assertFalse(it.hasNext());
+
+			final List<JSONNode> first = new ArrayList<JSONNode>();
+			loader.findMatches("$..id", new JSONPath.MatchHandler() {
+				@Override
+				public boolean onMatch(JSONNode node) {
+					first.add(node);
+					return first.size() < 2;
+				}
+			});
+			assertEquals(2, first.size());
+			assertEquals("-1", first.get(0).getValue());
+		}
+	}
+
+	private static List<JSONNode> findAll(JSONLoader loader, String path) throws IOException, IllegalFormatException{
+		final List<JSONNode> nodes = new ArrayList<JSONNode>();
+		loader.findMatches(path, new JSONPath.MatchHandler() {
+			@Override
+			public boolean onMatch(JSONNode node) {
+				nodes.add(node);
+				return true;
+			}
+		});
+		return nodes;
+	}
+
+	/**
+	 * Collect descendants of a node at the levels from <code>fromLevel</code>
+	 * to <code>toLevel</code> in pre-order (<code>level</code> is the level of
+	 * the children of the node)
+	 */
+	private static void collectDescendants(JSONLoader loader, JSONNode node, List<JSONNode> nodes, int level,
+			int fromLevel, int toLevel) throws IOException, IllegalFormatException{
+		List<JSONNode> children = loader.loadChildren(node);
+		if(children == null || level > toLevel){
+			return;
+		}
+		for(JSONNode child: children){
+			if(level >= fromLevel){
+				nodes.add(child);
+			}
+			collectDescendants(loader, child, nodes, level + 1, fromLevel, toLevel);
+		}
+	}
+
+	private static void compareNodes(List<JSONNode> expected, List<JSONNode> actual){
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++){
+			assertEquals(expected.get(i).getName(), actual.get(i).getName());
+			assertEquals(expected.get(i).getType(), actual.get(i).getType());
+			assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+			assertEquals(expected.get(i).getStartFilePosition(), actual.get(i).getStartFilePosition());
+			assertEquals(expected.get(i).getEndFilePosition(), actual.get(i).getEndFilePosition());
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.bigjson.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class JSONPointerTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void shouldParsePointer(){
+		JSONPointer pointer = JSONPointer.compile("/a~1b/~0c/12//01");
+		assertEquals(5, pointer.getTokenNum());
+		assertEquals("a/b", pointer.getToken(0));
+		assertEquals("~c", pointer.getToken(1));
+		assertEquals(12, pointer.getArrayIndex(2));
+		assertEquals("", pointer.getToken(3));
+		assertEquals(-1, pointer.getArrayIndex(3));
+		assertEquals(-1, pointer.getArrayIndex(4));
+		assertEquals(0, JSONPointer.compile("").getTokenNum());
+		thrown.expect(IllegalArgumentException.class);
+		JSONPointer.compile("/a~2");
+	}
+
+	@Test
+	public void shouldResolvePointersToAllNodes() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 4; i++){
+			try(JSONLoader loader = new JSONLoader(TestUtils.getProperJSONFile(i), 10)){
+				checkPointers(loader, loader.getRoot(), "");
+			}
+		}
+	}
+
+	@Test
+	public void shouldResolvePointerWithEscapedNames() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		StringBuilder sb = new StringBuilder("{\"\\u0061\": 1, \"b\": {\"a/\u00e9\": [");
+		for(int i = 0; i < 3000; i++){
+			sb.append(i == 0 ? "" : ", ").append("{\"x\": \"b\", \"v\": ").append(i).append("}");
+		}
+		sb.append("]}}");
+		Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+		try(JSONLoader loader = new JSONLoader(file, 10)){
+			assertEquals("1", loader.resolvePointer("/a").getValue());
+			JSONPointer pointer = JSONPointer.compile("/b/a~1\u00e9/2500/v");
+			assertEquals("2500", loader.resolvePointer(pointer).getValue());
+			assertEquals("2500", loader.resolvePointer(pointer).getValue());
+			assertEquals("v", loader.resolvePointer(pointer).getName());
+			assertNull(loader.resolvePointer("/b/a~1\u00e9/3000"));
+			assertNull(loader.resolvePointer("/b/a~1\u00e9/-"));
+			assertNull(loader.resolvePointer("/c"));
+			assertNull(loader.resolvePointer("/a/0"));
+		}
+	}
+
+	/**
+	 * Resolve a pointer to every node of a tree and compare the result with
+	 * the node
+	 */
+	private static void checkPointers(JSONLoader loader, JSONNode node, String pointer)
+			throws IOException, IllegalFormatException{
+		JSONNode resolved = loader.resolvePointer(pointer);
+		assertEquals(pointer, node.getType(), resolved.getType());
+		assertEquals(pointer, node.getValue(), resolved.getValue());
+		assertEquals(pointer, node.getValueFilePosition(), resolved.getValueFilePosition());
+		assertEquals(pointer, node.getEndFilePosition(), resolved.getEndFilePosition());
+		if(!pointer.isEmpty()){
+			assertEquals(pointer, node.getName(), resolved.getName());
+			assertEquals(pointer, node.getStartFilePosition(), resolved.getStartFilePosition());
+		}
+		List<JSONNode> children = loader.loadChildren(node);
+		if(children == null){
+			return;
+		}
+		for(JSONNode child: children){
+			checkPointers(loader, child, pointer + "/" + child.getName().replace("~", "~0").replace("/", "~1"));
+		}
+	}
+}
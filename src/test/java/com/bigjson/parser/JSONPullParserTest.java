@@ -0,0 +1,179 @@
+package com.bigjson.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.bigjson.parser.JSONPullParser.Token;
+
+public class JSONPullParserTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void shouldReadTokens() throws IOException, IllegalFormatException{
+		String json = "{\"a\": [1, -2.5e3, \"s\\\"x\", true, false, null, {}], \"b\\u0041\" :{\"c\":-9223372036854775808}}";
+		try(JSONPullParser parser = createParser(json)){
+			assertEquals(Token.START_OBJECT, parser.nextToken());
+			assertNull(parser.getCurrentName());
+			assertEquals(Token.FIELD_NAME, parser.nextToken());
+			assertEquals("a", parser.getCurrentName());
+			assertEquals(1, parser.getTokenStartOffset());
+			assertEquals(Token.START_ARRAY, parser.nextToken());
+			assertEquals("a", parser.getCurrentName());
+			assertEquals(6, parser.getTokenStartOffset());
+			assertEquals(Token.VALUE_NUMBER, parser.nextToken());
+			assertNull(parser.getCurrentName());
+			assertEquals(1, parser.getLongValue());
+			assertEquals(Token.VALUE_NUMBER, parser.nextToken());
+			assertEquals(-2500, parser.getDoubleValue(), 0);
+			assertEquals("-2.5e3", parser.getText());
+			assertEquals(Token.VALUE_STRING, parser.nextToken());
+			assertEquals(18, parser.getTokenStartOffset());
+			assertEquals("s\"x", parser.getText());
+			assertEquals(Token.VALUE_TRUE, parser.nextToken());
+			assertEquals(Token.VALUE_FALSE, parser.nextToken());
+			assertEquals(Token.VALUE_NULL, parser.nextToken());
+			assertEquals(Token.START_OBJECT, parser.nextToken());
+			assertEquals(3, parser.getDepth());
+			assertEquals(Token.END_OBJECT, parser.nextToken());
+			assertEquals(Token.END_ARRAY, parser.nextToken());
+			assertEquals(Token.FIELD_NAME, parser.nextToken());
+			assertEquals("bA", parser.getText());
+			assertEquals(Token.START_OBJECT, parser.nextToken());
+			assertEquals(Token.FIELD_NAME, parser.nextToken());
+			assertEquals(Token.VALUE_NUMBER, parser.nextToken());
+			assertEquals("c", parser.getCurrentName());
+			assertEquals(Long.MIN_VALUE, parser.getLongValue());
+			assertEquals(Token.END_OBJECT, parser.nextToken());
+			assertEquals(Token.END_OBJECT, parser.nextToken());
+			assertEquals(0, parser.getDepth());
+			assertNull(parser.nextToken());
+			assertNull(parser.nextToken());
+		}
+	}
+
+	@Test
+	public void shouldSkipChildren() throws IOException, IllegalFormatException{
+		String json = "[{\"a\": [\"]}\", {}]}, 7]";
+		try(JSONPullParser parser = createParser(json)){
+			assertEquals(Token.START_ARRAY, parser.nextToken());
+			assertEquals(Token.START_OBJECT, parser.nextToken());
+			parser.skipChildren();
+			assertEquals(Token.END_OBJECT, parser.getCurrentToken());
+			assertEquals(json.indexOf(", 7") - 1, parser.getTokenStartOffset());
+			assertEquals(Token.VALUE_NUMBER, parser.nextToken());
+			assertEquals(7, parser.getLongValue());
+			assertEquals(Token.END_ARRAY, parser.nextToken());
+			assertNull(parser.nextToken());
+		}
+	}
+
+	@Test
+	public void shouldReadTheSameTreeAsLoader() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 8; i++){
+			File file = TestUtils.getProperJSONFile(i);
+			try(JSONLoader loader = new JSONLoader(file, -1); JSONPullParser parser = new JSONPullParser(file)){
+				parser.nextToken();
+				compareTokens(loader, loader.getRoot(), parser);
+				assertNull(parser.nextToken());
+			}
+		}
+	}
+
+	@Test
+	public void shouldThrowAnExceptionIfSeparatorIsMissing() throws IOException, IllegalFormatException{
+		try(JSONPullParser parser = createParser("[1 2]")){
+			parser.nextToken();
+			parser.nextToken();
+			thrown.expect(IllegalFormatException.class);
+			parser.nextToken();
+		}
+	}
+
+	@Test
+	public void shouldThrowAnExceptionIfInputEndsTooEarly() throws IOException, IllegalFormatException{
+		try(JSONPullParser parser = createParser("{\"a\": \"b\"")){
+			parser.nextToken();
+			parser.nextToken();
+			parser.nextToken();
+			thrown.expect(IllegalFormatException.class);
+			parser.nextToken();
+		}
+	}
+
+	@Test
+	public void shouldThrowAnExceptionForNonJSONWhitespace() throws IOException, IllegalFormatException{
+		// a form feed is a whitespace in Java, but not in JSON
+		try(JSONPullParser parser = createParser("[1,\f2]")){
+			parser.nextToken();
+			parser.nextToken();
+			thrown.expect(IllegalFormatException.class);
+			parser.nextToken();
+		}
+	}
+
+	/**
+	 * Compare the tokens of a node (the first of which is current) with the
+	 * node loaded by the loader
+	 */
+	private static void compareTokens(JSONLoader loader, JSONNode node, JSONPullParser parser)
+			throws IOException, IllegalFormatException{
+		assertEquals(node.getValueFilePosition(), parser.getTokenStartOffset());
+		List<JSONNode> children = loader.loadChildren(node);
+		switch(node.getType()){
+		case JSONNode.TYPE_OBJECT:
+			assertEquals(Token.START_OBJECT, parser.getCurrentToken());
+			for(JSONNode child: children){
+				assertEquals(Token.FIELD_NAME, parser.nextToken());
+				assertEquals(child.getName(), parser.getCurrentName());
+				parser.nextToken();
+				compareTokens(loader, child, parser);
+			}
+			assertEquals(Token.END_OBJECT, parser.nextToken());
+			break;
+		case JSONNode.TYPE_ARRAY:
+			assertEquals(Token.START_ARRAY, parser.getCurrentToken());
+			for(JSONNode child: children){
+				parser.nextToken();
+				compareTokens(loader, child, parser);
+			}
+			assertEquals(Token.END_ARRAY, parser.nextToken());
+			break;
+		case JSONNode.TYPE_STRING:
+			assertEquals(Token.VALUE_STRING, parser.getCurrentToken());
+			assertEquals(node.getValue(), parser.getText());
+			break;
+		case JSONNode.TYPE_NUMBER:
+			assertEquals(Token.VALUE_NUMBER, parser.getCurrentToken());
+			assertEquals(node.getValue(), parser.getText());
+			break;
+		default:
+			assertEquals(node.getValue(), parser.getText());
+		}
+		assertEquals(node.getEndFilePosition(), lastByteOfCurrentToken(node, parser));
+	}
+
+	private static long lastByteOfCurrentToken(JSONNode node, JSONPullParser parser)
+			throws IOException, IllegalFormatException{
+		if(node.getType() == JSONNode.TYPE_STRING){
+			// the position of the closing quote can not be got from the string
+			// since it is escaped
+			return node.getEndFilePosition();
+		}
+		return parser.getTokenStartOffset() + (node.isLeaf() ? parser.getText().length() - 1 : 0);
+	}
+
+	private static JSONPullParser createParser(String json) throws IOException, UnsupportedEncodingException{
+		return new JSONPullParser(new ByteBufferByteSource(json.getBytes("UTF-8")));
+	}
+}
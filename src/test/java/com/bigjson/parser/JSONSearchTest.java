@@ -4,6 +4,13 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -84,6 +91,156 @@ public class JSONSearchTest {
 		}
 	}
 	
+	@Test
+	public void shouldSearchPatternsWithRepeatedBytes() throws IOException, IllegalFormatException{
+		String json = "{\"aaab\": \"abababcab aAbAAb\", \"x\": [\"ababca\", 1001001, \"a\\\\aab\\nab\"]}";
+		try (JSONSearch search = createSearch(json)) {
+			searchAndCompare(search, "aab", json, true, false);
+			searchAndCompare(search, "AAB", json, false, false);
+			searchAndCompare(search, "ababc", json, true, false);
+			searchAndCompare(search, "abca", json, true, false);
+			searchAndCompare(search, "1001", json, true, false);
+			searchAndCompare(search, "b", json, false, false);
+			searchAndCompare(search, "\\aab\n", "\\\\aab\\n", json, true, false);
+
+			shouldNotFind(search, "naB", 0, json.length(), false, false);
+			shouldNotFind(search, "\\n", 0, json.length(), true, false);
+			shouldNotFind(search, "abc ", 0, json.length(), true, false);
+			shouldFindAtPos(search, "B A", json.indexOf("b a"), 0, json.length(), false, false);
+		}
+	}
+
+	@Test
+	public void shouldFindAllMatchesOfSeveralStrings() throws IOException, IllegalFormatException{
+		String json = "[\"abc\\n\", \"\\r','\\t','\\f','\\b'\" ,\"abc \", \"'\",\"投, ネ\",\"\\\\', \\\\\uD83D\uDE00\", "
+				+ "\"\\u007f\\u0080\", \"\u0080 aaa\", {\"Abc\": -12E-1, \"tab\": true}]";
+		List<String> strings = Arrays.asList("abc", "\n", "\\", "'", "投", "\u0080", "aa", "b", "ab", "'", "true",
+				"E-1", "c\n");
+		int length = json.getBytes(StandardCharsets.UTF_8).length;
+		try (JSONSearch search = createSearch(json)) {
+			for(boolean caseSensitive: new boolean[]{true, false}){
+				for(boolean altUnicode: new boolean[]{true, false}){
+					Map<String, List<Long>> matches = search.findAllMatches(strings, 0, length, caseSensitive,
+							altUnicode);
+					assertEquals(strings.size() - 1, matches.size());
+					for(String str: strings){
+						StringSearchInfo searchInfo = search.createNewSearch(str, 0, length, caseSensitive, altUnicode);
+						List<Long> expected = new ArrayList<Long>();
+						while(search.findNextMatch(searchInfo)){
+							expected.add(searchInfo.getLastMatchPos());
+						}
+						assertEquals(str, expected, matches.get(str));
+					}
+				}
+			}
+			// occurrences of different strings can overlap
+			Map<String, List<Long>> matches = search.findAllMatches(Arrays.asList("abc\n", "c\n"), 0, length,
+					true, false);
+			assertEquals(Arrays.asList(2L), matches.get("abc\n"));
+			assertEquals(Arrays.asList(4L), matches.get("c\n"));
+		}
+	}
+
+	@Test
+	public void shouldFindAllMatchesInParallel() throws IOException, IllegalFormatException{
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < 40; i++){
+			sb.append("{\"name\": \"ab\\\\\\\"c\\\\ \\u00e9ab\u00e9 ").append(i).append("\", \"ab\": [true, -1")
+					.append(i).append("e-12, null, \"\\\\\\\\u00e9\"], \"\\u0061b\": 12ab}, ");
+		}
+		sb.append("\"end\"]");
+		String json = sb.toString();
+		int length = json.getBytes(StandardCharsets.UTF_8).length;
+		String[] strings = {"ab", "\u00e9", "\\", "\"c", "u00e9", "e-1", "1", "true", "\u00e9ab", "\\u"};
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try (JSONSearch search = createUTF8Search(json)) {
+			for(String str: strings){
+				StringSearchInfo searchInfo = search.createNewSearch(str, 0, length, true, true);
+				List<Long> expected = new ArrayList<Long>();
+				while(search.findNextMatch(searchInfo)){
+					expected.add(searchInfo.getLastMatchPos());
+				}
+				assertTrue(str, expected.size() > 0);
+				for(int chunkNum: new int[]{1, 2, 7, 64, 301}){
+					searchInfo = search.createNewSearch(str, 0, length, true, true);
+					assertEquals(str + " in " + chunkNum + " chunks", expected,
+							search.findAllMatches(searchInfo, pool, chunkNum));
+					assertTrue(searchInfo.isFinished());
+					assertEquals(expected.get(expected.size() - 1), (Long)searchInfo.getLastMatchPos());
+				}
+				// continue a started search
+				searchInfo = search.createNewSearch(str, 0, length, true, true);
+				search.findNextMatch(searchInfo);
+				assertEquals(expected.subList(1, expected.size()), search.findAllMatches(searchInfo, pool, 13));
+				// the end of the search after the end of the file
+				searchInfo = search.createNewSearch(str, 0, length + 1000, true, true);
+				assertEquals(expected, search.findAllMatches(searchInfo, pool, 7));
+			}
+			Map<String, List<Long>> matches = search.findAllMatches(Arrays.asList(strings), 0, length, true, true);
+			for(String str: strings){
+				assertEquals(str, matches.get(str), search.findAllMatches(
+						search.createNewSearch(str, 0, length, true, true), pool, 29));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void shouldSearchInScope() throws IOException, IllegalFormatException{
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < 30; i++){
+			sb.append(i == 0 ? "[" : ", ").append("{\"ab\": \"ab ab\", \"list\" : [\"ab\", 12, \"\\\"ab\\\"\", "
+					+ "{\"b\": true}], \"nested\": {\"x\": \"1ab\", \"ab\"\n: [1, -1.5e1, \"true\", false, null, "
+					+ "[\"ab\"]]}, \"a\\\"b\": \"b\\\\\", \"").append(i).append("\": ").append(i).append("}");
+		}
+		sb.append("]");
+		String json = sb.toString();
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		StringSearchInfo.SearchScope[] kinds = getTokenKinds(bytes);
+		String[] strings = {"ab", "a", "1", "\\\"", "true", "b\\", "e", "ab ab"};
+		File indexFile = TestUtils.getGeneratedFilePath("scope" + TrigramIndex.INDEX_FILE_EXTENSION);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try (JSONSearch search = createSearch(json);
+				TrigramIndex index = TrigramIndex.build(new ByteBufferByteSource(bytes), indexFile, 16)) {
+			for(String str: strings){
+				List<Long> all = TestUtils.findAll(search,
+						search.createNewSearch(str, 0, bytes.length, true, false));
+				for(StringSearchInfo.SearchScope scope: StringSearchInfo.SearchScope.values()){
+					List<Long> expected = new ArrayList<Long>();
+					for(Long pos: all){
+						if(scope == StringSearchInfo.SearchScope.ANY || kinds[(int)(long)pos] == scope){
+							expected.add(pos);
+						}
+					}
+					String message = str + " in " + scope;
+					if(str.equals("ab") && scope != StringSearchInfo.SearchScope.PRIMITIVES){
+						assertTrue(message, expected.size() > 0);
+					}
+					assertEquals(message, expected, TestUtils.findAll(search,
+							search.createNewSearch(str, 0, bytes.length, true, false, scope)));
+					for(int chunkNum: new int[]{1, 7, 64}){
+						assertEquals(message + " in " + chunkNum + " chunks", expected, search.findAllMatches(
+								search.createNewSearch(str, 0, bytes.length, true, false, scope), pool, chunkNum));
+					}
+					search.setTrigramIndex(index);
+					assertEquals(message + " with index", expected, TestUtils.findAll(search,
+							search.createNewSearch(str, 0, bytes.length, true, false, scope)));
+					search.setTrigramIndex(null);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		// a top level string is a value
+		try (JSONSearch search = createSearch("\"ab ab\"")) {
+			assertEquals(Arrays.asList(1L, 4L), TestUtils.findAll(search, search.createNewSearch("ab", 0, 7, true,
+					false, StringSearchInfo.SearchScope.STRING_VALUES)));
+			assertEquals(0, TestUtils.findAll(search, search.createNewSearch("ab", 0, 7, true, false,
+					StringSearchInfo.SearchScope.KEYS)).size());
+		}
+	}
+
 	@Test
 	public void shouldSearchInNonASCIIFile() throws IOException, IllegalFormatException{
 		String json = "[\"abc\\n\", \"\\r','\\t','\\f','\\b'\" ,\"abc \", \"'\",\"投, ネ\",\"\\\\', \\\\\uD83D\uDE00\", \"\\u007e\\u0080\"]";
@@ -149,6 +306,35 @@ public class JSONSearchTest {
 		}
 	}
 
+	/**
+	 * @return the kind of the token every byte is in (null for the bytes
+	 *         between tokens and for quotes)
+	 */
+	private static StringSearchInfo.SearchScope[] getTokenKinds(byte[] bytes){
+		StringSearchInfo.SearchScope[] kinds = new StringSearchInfo.SearchScope[bytes.length];
+		for(int i = 0; i < bytes.length; i++){
+			if(bytes[i] == '"'){
+				int end = i + 1;
+				while(bytes[end] != '"'){
+					end += bytes[end] == '\\' ? 2 : 1;
+				}
+				int next = end + 1;
+				while(next < bytes.length && Character.isWhitespace(bytes[next])){
+					next++;
+				}
+				Arrays.fill(kinds, i + 1, end, next < bytes.length && bytes[next] == ':'
+						? StringSearchInfo.SearchScope.KEYS : StringSearchInfo.SearchScope.STRING_VALUES);
+				i = end;
+			} else if(bytes[i] == '-' || bytes[i] == 't' || bytes[i] == 'f' || bytes[i] == 'n'
+					|| Character.isDigit(bytes[i])){
+				while(i < bytes.length && ",]} \n".indexOf(bytes[i]) < 0){
+					kinds[i++] = StringSearchInfo.SearchScope.PRIMITIVES;
+				}
+			}
+		}
+		return kinds;
+	}
+
 	private JSONSearch createSearch(String json) throws IOException{
 		File f = TestUtils.getGeneratedTestFile();
 		try(PrintWriter pw = new PrintWriter(new FileWriter(f))){
@@ -157,4 +343,10 @@ public class JSONSearchTest {
 		return new JSONSearch(f);
 	}
 
+	private JSONSearch createUTF8Search(String json) throws IOException{
+		File f = TestUtils.getGeneratedTestFile();
+		Files.write(f.toPath(), json.getBytes(StandardCharsets.UTF_8));
+		return new JSONSearch(f);
+	}
+
 }
@@ -90,6 +90,25 @@ public class LazyJSONParserTest {
 	}
 
 	
+	@Test
+	public void shouldReadMultiByteCharsAtByteBufferEdge()throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		List<String> strings = new ArrayList<String>();
+		try(OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(file), 
+				Charset.forName("UTF-8").newEncoder())){
+			// two- and three-byte chars, so that some of them are split between byte buffer loads 
+			for(int shift = 0; shift < 3; shift++){
+				StringBuilder sb = new StringBuilder();
+				for(int i = 0; i < UTF8FileReader.BUFFER_SIZE / 2 + shift; i++){
+					sb.append(i % 3 == 0 ? '\u0436' : '\u6295');
+				}
+				strings.add(sb.toString());
+				writer.write("\"" + sb + "\" ");
+			}
+		}
+		checkAllStringsFromFile(file, -1, strings);
+	}
+	
 	@Test
 	public void shouldReadStringWithQuoteAtByteBufferEdge()throws IOException, IllegalFormatException {
 		// prepare file
@@ -215,6 +234,15 @@ public class LazyJSONParserTest {
 		expectIllegalFormatExceptionWhileRootValidation("[\"" + new String(longStr) + "\\u123J\"]", 2);
 
 	}
+	@Test
+	public void shouldThrowExceptionForInvalidNumbers() throws IOException{
+		for(String number: new String[]{"01", "1.", "-", "1e", "1e+", "1.5x", "+1", ".5", "1.e5", "--1", "1ee5"}){
+			expectIllegalFormatExceptionWhileRootValidation(number, -1);
+			expectIllegalFormatExceptionWhileRootValidation("[" + number + "]", -1);
+			expectIllegalFormatExceptionWhileRootValidation("{\"n\": " + number + "}", -1);
+		}
+	}
+
 	@Test
 	public void shouldValidateCorrectNode() throws IllegalFormatException, IOException{
 		validateImmideateRootChildren("[3, \"str\", {}, [], -0.5e+10]", -1);
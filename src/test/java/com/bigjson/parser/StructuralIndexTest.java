@@ -0,0 +1,163 @@
+package com.bigjson.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class StructuralIndexTest {
+	private static final String[] STRING_PIECES = { "[", "]", "{", "}", "\\\\", "\\\"", ",", ":", " ", "a" };
+	
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void shouldIndexAllContainers() throws IOException, IllegalFormatException{
+		for(int i = 0; i < 4; i++){
+			File file = TestUtils.getProperJSONFile(i);
+			File indexFile = TestUtils.getGeneratedFilePath(file.getName() + ".all" + StructuralIndex.INDEX_FILE_EXTENSION);
+			try(JSONLoader loader = new JSONLoader(file, 10);
+					ByteSource source = new FileByteSource(file);
+					StructuralIndex index = StructuralIndex.build(source, indexFile, 0)){
+				int containerNum = verifyContainers(loader, loader.getRoot(), index);
+				assertEquals(containerNum, index.getContainerNum());
+			}
+		}
+	}
+	
+	@Test
+	public void shouldSkipSmallContainers() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		writeToFile(file, "{\"a\": [1, 2, {\"b\": []}], \"c\": {\"d\": \"]}\"}, \"e\": [[\"long string\", 3]]}");
+		File indexFile = TestUtils.getGeneratedFilePath(file.getName() + StructuralIndex.INDEX_FILE_EXTENSION);
+		try(ByteSource source = new FileByteSource(file);
+				StructuralIndex index = StructuralIndex.build(source, indexFile, 11)){
+			assertEquals(5, index.getContainerNum());
+			assertEquals(file.length() - 1, index.getEndPosition(0));
+			assertEquals(3, index.getChildCount(0));
+			assertEquals(22, index.getEndPosition(6));
+			assertEquals(3, index.getChildCount(6));
+			assertEquals(-1, index.getEndPosition(13));// {"b": []} is too small
+			assertEquals(-1, index.getChildCount(19));
+			assertEquals(40, index.getEndPosition(30));
+			assertEquals(1, index.getChildCount(30));
+			assertEquals(1, index.getChildCount(48));
+			assertEquals(2, index.getChildCount(49));
+			assertEquals(-1, index.getChildCount(50));
+		}
+	}
+	
+	@Test
+	public void shouldDetectStaleIndex() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		writeToFile(file, "[{\"a\": 1}, {\"b\": 2}]");
+		File indexFile = TestUtils.getGeneratedFilePath(file.getName() + StructuralIndex.INDEX_FILE_EXTENSION);
+		try(ByteSource source = new FileByteSource(file)){
+			StructuralIndex.build(source, indexFile, 0).close();
+			StructuralIndex index = StructuralIndex.open(source, indexFile);
+			assertNotNull(index);
+			assertEquals(3, index.getContainerNum());
+			index.close();
+		}
+		// the same size, but different structure
+		writeToFile(file, "[{\"a\": 1, \"b\": 2}]  ");
+		try(ByteSource source = new FileByteSource(file)){
+			assertNull(StructuralIndex.open(source, indexFile));
+		}
+		assertNull(StructuralIndex.open(new ByteBufferByteSource(new byte[]{'[', ']'}), indexFile));
+	}
+	
+	@Test
+	public void shouldBuildTheSameIndexInParallel() throws IOException, IllegalFormatException{
+		// strings with brackets, quotes and backslashes, so that chunks start
+		// inside strings and after backslashes
+		StringBuilder sb = new StringBuilder("{\"list\": [");
+		Random rnd = new Random(5);
+		for(int i = 0; i < 2000; i++){
+			sb.append(i == 0 ? "" : ", ");
+			sb.append("{\"id\": ").append(i).append(", \"s\": \"");
+			for(int j = rnd.nextInt(30); j > 0; j--){
+				sb.append(STRING_PIECES[rnd.nextInt(STRING_PIECES.length)]);
+			}
+			sb.append(rnd.nextBoolean() ? "\\\\\"" : "\"").append(", \"a\": [[], [1, {}]]}");
+		}
+		sb.append("]}");
+		File file = TestUtils.getGeneratedTestFile();
+		writeToFile(file, sb.toString());
+		File indexFile = TestUtils.getGeneratedFilePath(file.getName() + StructuralIndex.INDEX_FILE_EXTENSION);
+		File parallelIndexFile = TestUtils.getGeneratedFilePath(file.getName() + ".parallel" + StructuralIndex.INDEX_FILE_EXTENSION);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try(ByteSource source = new FileByteSource(file)){
+			for(int minContainerSize: new int[]{0, 10, 1000}){
+				StructuralIndex.build(source, indexFile, minContainerSize).close();
+				byte[] expected = Files.readAllBytes(indexFile.toPath());
+				for(int chunkNum: new int[]{2, 7, 64, 1001}){
+					StructuralIndex.build(source, parallelIndexFile, minContainerSize, pool, chunkNum).close();
+					assertArrayEquals("min size " + minContainerSize + ", chunks " + chunkNum, expected, 
+							Files.readAllBytes(parallelIndexFile.toPath()));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void shouldThrowAnExceptionIfBracketsAreNotBalancedInParallel() throws IOException, IllegalFormatException{
+		File indexFile = TestUtils.getGeneratedFilePath("unbalancedParallel" + StructuralIndex.INDEX_FILE_EXTENSION);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try{
+			thrown.expect(IllegalFormatException.class);
+			StructuralIndex.build(new ByteBufferByteSource("[{\"a\": [1, 2]]}, {}]".getBytes("UTF-8")), indexFile, 0,
+					pool, 3);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void shouldThrowAnExceptionIfBracketsAreNotBalanced() throws IOException, IllegalFormatException{
+		File indexFile = TestUtils.getGeneratedFilePath("unbalanced" + StructuralIndex.INDEX_FILE_EXTENSION);
+		thrown.expect(IllegalFormatException.class);
+		StructuralIndex.build(new ByteBufferByteSource("{\"a\": [1, 2}".getBytes("UTF-8")), indexFile, 0);
+	}
+	
+	/**
+	 * Compare end positions and child counts of all containers in the subtree
+	 * of the <code>node</code> with the ones in the index.
+	 * 
+	 * @return number of containers in the subtree
+	 */
+	private static int verifyContainers(JSONLoader loader, JSONNode node, StructuralIndex index)
+			throws IOException, IllegalFormatException{
+		if(node.isLeaf()){
+			return 0;
+		}
+		List<JSONNode> children = loader.loadChildren(node);
+		assertEquals(node.getEndFilePosition(), index.getEndPosition(node.getValueFilePosition()));
+		assertEquals(children.size(), index.getChildCount(node.getValueFilePosition()));
+		int containerNum = 1;
+		for(JSONNode child: children){
+			containerNum += verifyContainers(loader, child, index);
+		}
+		return containerNum;
+	}
+	
+	private static void writeToFile(File file, String str) throws IOException{
+		try(FileWriter writer = new FileWriter(file)){
+			writer.write(str);
+		}
+	}
+}
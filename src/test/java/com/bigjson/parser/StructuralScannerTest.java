@@ -0,0 +1,127 @@
+package com.bigjson.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StructuralScannerTest {
+	private static final String[] TOKENS = { "{", "}", "[", "]", ",", ":", " ", "\n", "\t", "12.5", "true", "-3",
+			"\"\"", "\"a[b]\"", "\"\\\"\"", "\"\\\\\"", "\"x\\\\\\\"{\"", "\"\u00e9\u4e2d\"", "\"\\u0041,:\"" };
+
+	@Test
+	public void shouldFindStructuralCharacters() throws UnsupportedEncodingException{
+		String json = "{\"a\": [1, true, \"s\\\"]\"], \"b\\\\\":{}}";
+		long[] expected = { 0, 1, 4, 6, 7, 8, 10, 14, 16, 22, 23, 25, 30, 31, 32, 33 };
+		assertArrayEquals(expected, scan(json.getBytes("UTF-8"), 1 << 10, ByteOrder.BIG_ENDIAN));
+	}
+
+	@Test
+	public void shouldMatchByteByByteScan() throws UnsupportedEncodingException{
+		Random rnd = new Random(7);
+		for(int test = 0; test < 200; test++){
+			StringBuilder sb = new StringBuilder();
+			int tokenNum = rnd.nextInt(300);
+			for(int i = 0; i < tokenNum; i++){
+				sb.append(TOKENS[rnd.nextInt(TOKENS.length)]);
+			}
+			byte[] bytes = sb.toString().getBytes("UTF-8");
+			long[] expected = scanByteByByte(bytes);
+			int chunkSize = StructuralScanner.BLOCK_SIZE * (1 + rnd.nextInt(4)) + rnd.nextInt(StructuralScanner.BLOCK_SIZE);
+			assertArrayEquals(sb.toString(), expected, scan(bytes, chunkSize, ByteOrder.LITTLE_ENDIAN));
+			assertArrayEquals(sb.toString(), expected, scan(bytes, chunkSize, ByteOrder.BIG_ENDIAN));
+		}
+	}
+
+	@Test
+	public void shouldKeepStateBetweenBlocks() throws UnsupportedEncodingException{
+		// the string with escaped quotes crosses the border of two blocks
+		StringBuilder sb = new StringBuilder("[\"a");
+		while(sb.length() < StructuralScanner.BLOCK_SIZE - 1){
+			sb.append("\\\\");
+		}
+		sb.append("\\\"],\", 1]");
+		byte[] bytes = sb.toString().getBytes("UTF-8");
+		StructuralScanner scanner = new StructuralScanner();
+		long[] out = new long[bytes.length];
+		int n = scanner.scan(ByteBuffer.wrap(bytes), 0, true, out);
+		assertArrayEquals(new long[]{ 0, 1, bytes.length - 4, bytes.length - 2, bytes.length - 1 },
+				Arrays.copyOf(out, n));
+		assertEquals(false, scanner.isInString());
+	}
+
+	/**
+	 * Scan bytes in chunks of a given size the way it is done while reading
+	 * a file
+	 */
+	private static long[] scan(byte[] bytes, int chunkSize, ByteOrder order){
+		StructuralScanner scanner = new StructuralScanner();
+		ByteBuffer buf = ByteBuffer.allocate(chunkSize).order(order);
+		long[] out = new long[bytes.length];
+		int n = 0;
+		int read = 0;
+		long bufFilePos = 0;
+		while(true){
+			int toRead = Math.min(buf.remaining(), bytes.length - read);
+			buf.put(bytes, read, toRead);
+			read += toRead;
+			buf.flip();
+			long[] chunkOut = new long[buf.remaining()];
+			int chunkN = scanner.scan(buf, bufFilePos, read == bytes.length, chunkOut);
+			System.arraycopy(chunkOut, 0, out, n, chunkN);
+			n += chunkN;
+			bufFilePos += buf.position();
+			buf.compact();
+			if(read == bytes.length && buf.position() == 0){
+				break;
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	private static long[] scanByteByByte(byte[] bytes){
+		long[] out = new long[bytes.length];
+		int n = 0;
+		boolean inString = false;
+		boolean escaped = false;
+		boolean prevScalar = false;
+		for(int i = 0; i < bytes.length; i++){
+			byte b = bytes[i];
+			if(inString){
+				if(escaped){
+					escaped = false;
+				} else if(b == '\\'){
+					escaped = true;
+				} else if(b == '"'){
+					inString = false;
+				}
+				continue;
+			}
+			boolean scalar = false;
+			switch(b){
+			case '{': case '}': case '[': case ']': case ',': case ':':
+				out[n++] = i;
+				break;
+			case '"':
+				out[n++] = i;
+				inString = true;
+				break;
+			case ' ': case '\t': case '\n': case '\r':
+				break;
+			default:
+				if(!prevScalar){
+					out[n++] = i;
+				}
+				scalar = true;
+			}
+			prevScalar = scalar;
+		}
+		return Arrays.copyOf(out, n);
+	}
+}
@@ -1,6 +1,9 @@
 package com.bigjson.parser;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TestUtils {
 	
@@ -33,4 +36,19 @@ public class TestUtils {
 		return file;
 	}
 
+	/**
+	 * Find all the remaining matches of a search one by one with
+	 * {@link JSONSearch#findNextMatch(StringSearchInfo)}
+	 * 
+	 * @return positions of the matches
+	 */
+	public static List<Long> findAll(JSONSearch search, StringSearchInfo searchInfo)
+			throws IOException, IllegalFormatException{
+		List<Long> matches = new ArrayList<Long>();
+		while(search.findNextMatch(searchInfo)){
+			matches.add(searchInfo.getLastMatchPos());
+		}
+		return matches;
+	}
+
 }
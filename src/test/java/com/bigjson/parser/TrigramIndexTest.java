@@ -0,0 +1,203 @@
+package com.bigjson.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class TrigramIndexTest {
+	private static final String[] STRING_PIECES = { "ab", "abc", "\\\\", "\\\"", "\\u0061b", "é", ", ", "x",
+			" " };
+	private static final String[] STRINGS = { "abc", "ab", "a", "\\\"", "éab", "\"s\": \"", "\"id\": 1",
+			"xxx", "zzz", "\\u", "abcabc" };
+
+	@Test
+	public void shouldIndexAllTrigrams() throws IOException{
+		String json = generateJSON(300);
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		File indexFile = TestUtils.getGeneratedFilePath("trigrams" + TrigramIndex.INDEX_FILE_EXTENSION);
+		for(int blockSize: new int[]{3, 16, 64, 1000}){
+			TreeMap<Integer, TreeSet<Integer>> expected = new TreeMap<Integer, TreeSet<Integer>>();
+			for(int i = 0; i + 2 < bytes.length; i++){
+				int trigram = ((bytes[i] & 0xFF) << 16) | ((bytes[i + 1] & 0xFF) << 8) | (bytes[i + 2] & 0xFF);
+				if(!expected.containsKey(trigram)){
+					expected.put(trigram, new TreeSet<Integer>());
+				}
+				expected.get(trigram).add(i / blockSize);
+			}
+			try(TrigramIndex index = TrigramIndex.build(new ByteBufferByteSource(bytes), indexFile, blockSize)){
+				assertEquals((bytes.length + blockSize - 1) / blockSize, index.getBlockNum());
+				assertEquals(expected.size(), index.getTrigramNum());
+				for(Integer trigram: expected.keySet()){
+					assertArrayEquals(toArray(expected.get(trigram)), index.getBlocks(trigram));
+				}
+				assertEquals(0, index.getBlocks(0x7A7A7A).length);
+				verifyBlocksInString(bytes, index);
+			}
+		}
+	}
+
+	@Test
+	public void shouldBuildTheSameIndexFromSeveralRuns() throws IOException{
+		byte[] bytes = generateJSON(300).getBytes(StandardCharsets.UTF_8);
+		File indexFile = TestUtils.getGeneratedFilePath("trigrams" + TrigramIndex.INDEX_FILE_EXTENSION);
+		File runsIndexFile = TestUtils.getGeneratedFilePath("trigramsRuns" + TrigramIndex.INDEX_FILE_EXTENSION);
+		for(int blockSize: new int[]{16, 256}){
+			TrigramIndex.build(new ByteBufferByteSource(bytes), indexFile, blockSize).close();
+			byte[] expected = Files.readAllBytes(indexFile.toPath());
+			for(int maxPairs: new int[]{256, 1000, 4096, 6000}){
+				TrigramIndex.build(new ByteBufferByteSource(bytes), runsIndexFile, blockSize, maxPairs).close();
+				assertArrayEquals("block size " + blockSize + ", pairs " + maxPairs, expected,
+						Files.readAllBytes(runsIndexFile.toPath()));
+			}
+		}
+	}
+
+	@Test
+	public void shouldReturnAllBlocksWithPattern() throws IOException{
+		String json = generateJSON(300);
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		File indexFile = TestUtils.getGeneratedFilePath("trigrams" + TrigramIndex.INDEX_FILE_EXTENSION);
+		for(int blockSize: new int[]{3, 16, 64}){
+			try(TrigramIndex index = TrigramIndex.build(new ByteBufferByteSource(bytes), indexFile, blockSize)){
+				assertNull(index.getCandidateBlocks("ab".getBytes(StandardCharsets.UTF_8)));
+				for(String str: STRINGS){
+					byte[] pattern = str.getBytes(StandardCharsets.UTF_8);
+					if(pattern.length < 3){
+						continue;
+					}
+					List<Integer> candidates = new ArrayList<Integer>();
+					for(int block: index.getCandidateBlocks(pattern)){
+						candidates.add(block);
+					}
+					for(int pos = json.indexOf(str); pos >= 0; pos = json.indexOf(str, pos + 1)){
+						int bytePos = json.substring(0, pos).getBytes(StandardCharsets.UTF_8).length;
+						assertTrue(str + " at " + bytePos, candidates.contains(bytePos / blockSize));
+					}
+				}
+				assertEquals(0, index.getCandidateBlocks("zzz".getBytes(StandardCharsets.UTF_8)).length);
+			}
+		}
+	}
+
+	@Test
+	public void shouldFindTheSameMatchesWithIndex() throws IOException, IllegalFormatException{
+		String json = generateJSON(300);
+		File file = TestUtils.getGeneratedTestFile();
+		Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+		File indexFile = TestUtils.getGeneratedFilePath(file.getName() + TrigramIndex.INDEX_FILE_EXTENSION);
+		// the search should start out of a string, so start at an object
+		long start = json.substring(0, json.indexOf("{\"id\"", json.length() / 3))
+				.getBytes(StandardCharsets.UTF_8).length;
+		try(JSONSearch search = new JSONSearch(file);
+				ByteSource source = new FileByteSource(file)){
+			long length = file.length();
+			long end = 2 * length / 3;
+			for(String str: STRINGS){
+				for(boolean caseSensitive: new boolean[]{true, false}){
+					for(boolean altUnicode: new boolean[]{true, false}){
+						search.setTrigramIndex(null);
+						List<Long> expected = TestUtils.findAll(search,
+								search.createNewSearch(str, 0, length, caseSensitive, altUnicode));
+						List<Long> expectedInRange = TestUtils.findAll(search,
+								search.createNewSearch(str, start, end, caseSensitive, altUnicode));
+						for(int blockSize: new int[]{3, 16, 64, 1000}){
+							try(TrigramIndex index = TrigramIndex.build(source, indexFile, blockSize)){
+								search.setTrigramIndex(index);
+								String message = str + ", block size " + blockSize;
+								assertEquals(message, expected, TestUtils.findAll(search,
+										search.createNewSearch(str, 0, length, caseSensitive, altUnicode)));
+								assertEquals(message, expectedInRange, TestUtils.findAll(search,
+										search.createNewSearch(str, start, end, caseSensitive, altUnicode)));
+							}
+						}
+					}
+				}
+			}
+			search.setTrigramIndex(null);
+		}
+	}
+
+	@Test
+	public void shouldDetectStaleIndex() throws IOException{
+		File file = TestUtils.getGeneratedTestFile();
+		Files.write(file.toPath(), "[{\"a\": \"abc\"}, {\"b\": 2}]".getBytes(StandardCharsets.UTF_8));
+		File indexFile = TestUtils.getGeneratedFilePath(file.getName() + TrigramIndex.INDEX_FILE_EXTENSION);
+		try(ByteSource source = new FileByteSource(file)){
+			TrigramIndex.build(source, indexFile, 4).close();
+			TrigramIndex index = TrigramIndex.open(source, indexFile);
+			assertNotNull(index);
+			assertEquals(4, index.getBlockSize());
+			assertArrayEquals(new int[]{2}, index.getCandidateBlocks("abc".getBytes(StandardCharsets.UTF_8)));
+			index.close();
+		}
+		// the same size, but different text
+		Files.write(file.toPath(), "[{\"a\": \"xyz\"}, {\"b\": 2}]".getBytes(StandardCharsets.UTF_8));
+		try(ByteSource source = new FileByteSource(file)){
+			assertNull(TrigramIndex.open(source, indexFile));
+		}
+		assertNull(TrigramIndex.open(new ByteBufferByteSource(new byte[]{'[', ']'}), indexFile));
+	}
+
+	/**
+	 * Check the in-string bits of all the blocks against a simple scan
+	 */
+	private static void verifyBlocksInString(byte[] bytes, TrigramIndex index){
+		boolean inString = false;
+		boolean escaped = false;
+		for(int i = 0; i < bytes.length; i++){
+			if(i % index.getBlockSize() == 0){
+				assertEquals("block " + i / index.getBlockSize(), inString,
+						index.blockStartsInString(i / index.getBlockSize()));
+			}
+			if(escaped){
+				escaped = false;
+			} else if(inString && bytes[i] == '\\'){
+				escaped = true;
+			} else if(bytes[i] == '"'){
+				inString = !inString;
+			}
+		}
+	}
+
+	private static int[] toArray(TreeSet<Integer> set){
+		int[] array = new int[set.size()];
+		int i = 0;
+		for(Integer value: set){
+			array[i++] = value;
+		}
+		return array;
+	}
+
+	/**
+	 * Generate a JSON with strings that contain escapes and the searched
+	 * strings, so that blocks start inside strings and escape sequences
+	 */
+	private static String generateJSON(int objectNum){
+		StringBuilder sb = new StringBuilder("[");
+		Random rnd = new Random(7);
+		for(int i = 0; i < objectNum; i++){
+			sb.append(i == 0 ? "" : ", ");
+			sb.append("{\"id\": ").append(i).append(", \"s\": \"");
+			for(int j = rnd.nextInt(12); j > 0; j--){
+				sb.append(STRING_PIECES[rnd.nextInt(STRING_PIECES.length)]);
+			}
+			sb.append("\", \"Abc\": [true, ").append(rnd.nextInt(1000)).append("]}");
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+}
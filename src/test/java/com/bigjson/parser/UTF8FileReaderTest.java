@@ -38,18 +38,176 @@ public class UTF8FileReaderTest {
 		StringWithCoords[] strings = createFileWithStrings(file, 100, 1000, false);
 //		System.out.println(Arrays.toString(strings));
 		try(UTF8FileReader reader = new UTF8FileReader(file)){
-			for(int i = 0; i < strings.length; i++){
-				StringWithCoords s = strings[i];
-				System.out.println("String: "+s.getOpeningQuotePos()+".."+s.getClosingQuotePos());
-				reader.getToPosition(s.getOpeningQuotePos());
-				assertEquals('"', (char)reader.getNextByte());
-				reader.skipTheString();
-				long closingQuotePos = reader.getFilePosition();
-				assertEquals('"', (char)reader.getNextByte());
-				assertEquals(s.getClosingQuotePos(), closingQuotePos);
-				assertFalse(reader.isReadingString());
+			checkClosingQuotes(reader, strings);
+		}
+	}
+	
+	@Test 
+	public void shouldFindClosingQuotesInMappedFile() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		StringWithCoords[] strings = createFileWithStrings(file, 100, 1000, false);
+		// small tiles, so that strings and multi-byte chars cross tile borders
+		try(UTF8FileReader reader = new UTF8FileReader(new MappedFileByteSource(file, 4096, 16))){
+			checkClosingQuotes(reader, strings);
+		}
+	}
+	
+	@Test
+	public void checkFilePosInMappedFile() throws IOException, IllegalFormatException{
+		File file = new File(TestUtils.getTestFileDir(), "UTF8FileReaderPositionTest.txt");
+		try(UTF8FileReader reader = new UTF8FileReader(new MappedFileByteSource(file, 5, 4))){
+			while(reader.hasNext()){
+				long pos = reader.getFilePosition();
+				int ch = Integer.parseInt(""+(char)reader.getNextByte());
+				assertEquals(pos, ch);
+			}
+			// jump back after the end of file is reached
+			assertTrue(reader.getToPosition(3));
+			assertEquals('3', (char)reader.getNextByte());
+		}
+	}
+	
+	private static void checkClosingQuotes(UTF8FileReader reader, StringWithCoords[] strings)
+			throws IOException, IllegalFormatException {
+		for(int i = 0; i < strings.length; i++){
+			StringWithCoords s = strings[i];
+			System.out.println("String: "+s.getOpeningQuotePos()+".."+s.getClosingQuotePos());
+			reader.getToPosition(s.getOpeningQuotePos());
+			assertEquals('"', (char)reader.getNextByte());
+			reader.skipTheString();
+			long closingQuotePos = reader.getFilePosition();
+			assertEquals('"', (char)reader.getNextByte());
+			assertEquals(s.getClosingQuotePos(), closingQuotePos);
+			assertFalse(reader.isReadingString());
+		}
+	}
+	
+	@Test
+	public void shouldSkipContainers() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		byte[] bytes = createFileWithRandomContainers(file);
+		try(UTF8FileReader reader = new UTF8FileReader(file);
+				UTF8FileReader mappedReader = new UTF8FileReader(new MappedFileByteSource(file, 4096, 16))){
+			checkSkipContainers(reader, bytes, false);
+			checkSkipContainers(mappedReader, bytes, false);
+		}
+	}
+	
+	@Test
+	public void shouldCountChildren() throws IOException, IllegalFormatException{
+		File file = TestUtils.getGeneratedTestFile();
+		byte[] bytes = createFileWithRandomContainers(file);
+		try(UTF8FileReader reader = new UTF8FileReader(file);
+				UTF8FileReader mappedReader = new UTF8FileReader(new MappedFileByteSource(file, 4096, 16))){
+			checkSkipContainers(reader, bytes, true);
+			checkSkipContainers(mappedReader, bytes, true);
+		}
+	}
+	
+	private static byte[] createFileWithRandomContainers(File file) throws IOException{
+		StringBuilder sb = new StringBuilder("[");
+		Random rnd = new Random(11);
+		for(int i = 0; i < 100; i++){
+			sb.append(i == 0 ? "" : ",\n");
+			appendRandomContainer(sb, rnd, 0);
+		}
+		sb.append(']');
+		try(OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"))){
+			writer.write(sb.toString());
+		}
+		return sb.toString().getBytes(Charset.forName("UTF-8"));
+	}
+	
+	/**
+	 * Skip every container with {@link UTF8FileReader#skipContainer(byte)} or
+	 * {@link UTF8FileReader#countChildren(byte)} and compare the results with
+	 * the ones found byte by byte
+	 */
+	private static void checkSkipContainers(UTF8FileReader reader, byte[] bytes, boolean countChildren)
+			throws IOException, IllegalFormatException{
+		// find matching brackets and count children byte by byte
+		long[] ends = new long[bytes.length];
+		long[] childCounts = new long[bytes.length];
+		int[] stack = new int[bytes.length];
+		int depth = 0;
+		boolean inString = false;
+		boolean escaped = false;
+		for(int i = 0; i < bytes.length; i++){
+			byte b = bytes[i];
+			if(depth > 0 && childCounts[stack[depth - 1]] == 0 && b != ' ' && b != '\n' && b != '}' && b != ']'){
+				childCounts[stack[depth - 1]] = 1;
+			}
+			if(inString){
+				if(escaped){
+					escaped = false;
+				} else if(b == '\\'){
+					escaped = true;
+				} else if(b == '"'){
+					inString = false;
+				}
+			} else if(b == '"'){
+				inString = true;
+			} else if(b == '{' || b == '['){
+				stack[depth++] = i;
+			} else if(b == '}' || b == ']'){
+				ends[stack[--depth]] = i;
+			} else if(b == ','){
+				childCounts[stack[depth - 1]]++;
+			}
+		}
+		int checked = 0;
+		for(int i = 0; i < bytes.length; i++){
+			if(ends[i] == 0){
+				continue;
+			}
+			reader.getToPosition(i);
+			byte openingBracket = reader.getNextByte();
+			if(countChildren){
+				assertEquals(childCounts[i], reader.countChildren(openingBracket));
+			} else {
+				assertEquals(ends[i], reader.skipContainer(openingBracket));
+			}
+			assertEquals(ends[i] + 1, reader.getFilePosition());
+			assertEquals(ends[i] + 1 < bytes.length, reader.hasNext());
+			checked++;
+		}
+		assertTrue(checked > 100);
+		assertTrue(bytes.length > UTF8FileReader.BUFFER_SIZE);
+	}
+	
+	private static void appendRandomContainer(StringBuilder sb, Random rnd, int level){
+		boolean isObject = rnd.nextBoolean();
+		sb.append(isObject ? '{' : '[');
+		int childNum = level > 5 ? 0 : rnd.nextInt(6);
+		for(int i = 0; i < childNum; i++){
+			if(i > 0){
+				sb.append(", ");
+			}
+			if(isObject){
+				sb.append("\"k}\\\"").append(i).append("\": ");
+			}
+			switch(rnd.nextInt(4)){
+			case 0:
+				sb.append(rnd.nextInt());
+				break;
+			case 1:
+				sb.append("\"");
+				int len = rnd.nextInt(200);
+				String chars = "ab[]{}\u00e9\u4e2d ,:";
+				for(int j = 0; j < len; j++){
+					char ch = chars.charAt(rnd.nextInt(chars.length()));
+					sb.append(ch);
+					if(rnd.nextInt(20) == 0){
+						sb.append(rnd.nextBoolean() ? "\\\"" : "\\\\");
+					}
+				}
+				sb.append("\"");
+				break;
+			default:
+				appendRandomContainer(sb, rnd, level + 1);
 			}
 		}
+		sb.append(isObject ? '}' : ']');
 	}
 	
 	@Test 
@@ -111,7 +269,8 @@ public class UTF8FileReaderTest {
 					// generate the end of the unicode string after masked quote
 					wholeRangeCodePoints = new Random()
 							.ints(rnd.nextInt(stringBlockLimit), 0, 0x1fff)//0X10FFFF)
-							.filter(value -> value != '"')
+							// a backslash at the end would escape the closing quote
+							.filter(value -> value != '"' && value != '\\')
 							.toArray();
 					unicodeStr += "\\\""+new String(wholeRangeCodePoints, 0, wholeRangeCodePoints.length);
 				}